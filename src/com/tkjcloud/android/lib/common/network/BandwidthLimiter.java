@@ -0,0 +1,179 @@
+/* tkjcloud Android Library is available under MIT license
+ *   Copyright (C) 2017 tkjcloud GmbH.
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *   NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *   BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *   ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *   CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *   THE SOFTWARE.
+ *
+ */
+
+package com.tkjcloud.android.lib.common.network;
+
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Token bucket limiting the bandwidth used by data transfers.
+ *
+ * Transfers call {@link #acquire(long)} before sending or after receiving every buffer; the
+ * calling thread is blocked, without spinning, while the bytes transferred exceed the rate.
+ * Bursts are limited to a fraction of a second of data.
+ *
+ * Limiters can be chained: a limiter for a single transfer can have the limiter of its account
+ * as parent, and this one the global limiter, so that every limit is respected. The rate can be
+ * changed at any moment, also while transfers are blocked.
+ */
+public class BandwidthLimiter {
+
+    /** Rate meaning no limit */
+    public static final long UNLIMITED = 0;
+
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    /** Maximum burst, as a fraction of the data transferred per second */
+    private static final int BURST_DIVISOR = 4;
+
+    private static final BandwidthLimiter sGlobal = new BandwidthLimiter(UNLIMITED);
+    private static final Map<String, BandwidthLimiter> sAccountLimiters =
+        new HashMap<String, BandwidthLimiter>();
+
+    private final BandwidthLimiter mParent;
+    private final Object mLock = new Object();
+    private volatile long mRate;
+
+    // guarded by mLock
+    private long mTokens = 0;
+    private long mLastRefill = System.nanoTime();
+
+
+    /**
+     * @param bytesPerSecond    Maximum rate, or {@link #UNLIMITED}.
+     */
+    public BandwidthLimiter(long bytesPerSecond) {
+        this(bytesPerSecond, null);
+    }
+
+    /**
+     * @param bytesPerSecond    Maximum rate, or {@link #UNLIMITED}.
+     * @param parent            Limiter to respect in addition to this one, or null.
+     */
+    public BandwidthLimiter(long bytesPerSecond, BandwidthLimiter parent) {
+        mRate = Math.max(bytesPerSecond, UNLIMITED);
+        mParent = parent;
+    }
+
+    /**
+     * @return  Limiter shared by all the transfers; unlimited until a rate is set.
+     */
+    public static BandwidthLimiter getGlobal() {
+        return sGlobal;
+    }
+
+    /**
+     * @param accountName   Name of an account, as in {@link android.accounts.Account#name}.
+     * @return              Limiter shared by all the transfers of the account, chained to the
+     *                      global limiter; unlimited until a rate is set.
+     */
+    public static BandwidthLimiter forAccount(String accountName) {
+        synchronized (sAccountLimiters) {
+            BandwidthLimiter limiter = sAccountLimiters.get(accountName);
+            if (limiter == null) {
+                limiter = new BandwidthLimiter(UNLIMITED, sGlobal);
+                sAccountLimiters.put(accountName, limiter);
+            }
+            return limiter;
+        }
+    }
+
+    public long getRate() {
+        return mRate;
+    }
+
+    /**
+     * Changes the maximum rate; transfers blocked in {@link #acquire(long)} adapt immediately.
+     *
+     * @param bytesPerSecond    New maximum rate, or {@link #UNLIMITED}.
+     */
+    public void setRate(long bytesPerSecond) {
+        synchronized (mLock) {
+            refill();
+            mRate = Math.max(bytesPerSecond, UNLIMITED);
+            if (mRate == UNLIMITED) {
+                mTokens = 0;
+            } else {
+                mTokens = Math.min(mTokens, getCapacity());
+            }
+            mLock.notifyAll();
+        }
+    }
+
+    /**
+     * Takes the permission to transfer some bytes from this limiter and its parents, waiting
+     * as long as needed.
+     *
+     * @param bytes     Amount of bytes to transfer.
+     * @throws InterruptedIOException   If the thread is interrupted while waiting.
+     */
+    public void acquire(long bytes) throws InterruptedIOException {
+        if (mRate != UNLIMITED) {
+            synchronized (mLock) {
+                refill();
+                // going in debt allows to take more bytes than fit in the bucket
+                mTokens -= bytes;
+                try {
+                    while (mTokens < 0 && mRate != UNLIMITED) {
+                        long waitMs = Math.max(1, -mTokens * 1000 / mRate);
+                        mLock.wait(waitMs);
+                        refill();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    InterruptedIOException iioe =
+                        new InterruptedIOException("Interrupted waiting for bandwidth");
+                    iioe.initCause(e);
+                    throw iioe;
+                }
+            }
+        }
+        if (mParent != null) {
+            mParent.acquire(bytes);
+        }
+    }
+
+
+    private long getCapacity() {
+        return Math.max(mRate / BURST_DIVISOR, 1);
+    }
+
+    /**
+     * Adds the tokens generated since the last refill. Must be called holding mLock.
+     */
+    private void refill() {
+        long now = System.nanoTime();
+        long elapsed = now - mLastRefill;
+        mLastRefill = now;
+        if (mRate != UNLIMITED && elapsed > 0) {
+            long generated = (long) ((double) elapsed / NANOS_PER_SECOND * mRate);
+            mTokens = Math.min(mTokens + generated, getCapacity());
+        }
+    }
+
+}
@@ -0,0 +1,206 @@
+/* tkjcloud Android Library is available under MIT license
+ *   Copyright (C) 2017 tkjcloud GmbH.
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *   NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *   BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *   ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *   CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *   THE SOFTWARE.
+ *
+ */
+
+package com.tkjcloud.android.lib.common.network;
+
+import org.apache.commons.httpclient.methods.RequestEntity;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+
+/**
+ * A RequestEntity that packs several files in a 'multipart/related' body, as expected by the
+ * bulk upload endpoint of the server.
+ *
+ * Every part carries the path of the file in the account, its MD5 checksum, its modification
+ * time and its length in its headers. The length of the whole body is known in advance, so
+ * that the request does not need chunked transfer encoding.
+ */
+public class BulkUploadRequestEntity implements RequestEntity, ProgressiveDataTransferer {
+
+    public static final String FILE_PATH_HEADER = "X-File-Path";
+    public static final String FILE_MD5_HEADER = "X-File-MD5";
+    public static final String FILE_MTIME_HEADER = "X-File-Mtime";
+
+    private static final String CRLF = "\r\n";
+    private static final String ENCODING = "UTF-8";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final String mBoundary = "boundary_" + UUID.randomUUID().toString();
+    private final List<Part> mParts = new ArrayList<Part>();
+    private TransferProgressDispatcher mProgressDispatcher = new TransferProgressDispatcher();
+    private BandwidthLimiter mBandwidthLimiter = BandwidthLimiter.getGlobal();
+
+    /**
+     * Adds a file to the request.
+     *
+     * @param file                      Local file to upload.
+     * @param remotePath                Path of the file in the account.
+     * @param mimeType                  MIME type of the file, or null.
+     * @param md5                       Hexadecimal MD5 checksum of the file.
+     * @param fileLastModifTimestamp    Modification time of the file, in seconds.
+     */
+    public void addPart(File file, String remotePath, String mimeType, String md5,
+                        String fileLastModifTimestamp) throws UnsupportedEncodingException {
+        StringBuilder headers = new StringBuilder();
+        headers.append("--").append(mBoundary).append(CRLF);
+        headers.append(FILE_PATH_HEADER).append(": ").append(remotePath).append(CRLF);
+        headers.append(FILE_MD5_HEADER).append(": ").append(md5).append(CRLF);
+        if (fileLastModifTimestamp != null && fileLastModifTimestamp.length() > 0) {
+            headers.append(FILE_MTIME_HEADER).append(": ").append(fileLastModifTimestamp)
+                .append(CRLF);
+        }
+        if (mimeType != null && mimeType.length() > 0) {
+            headers.append("Content-Type: ").append(mimeType).append(CRLF);
+        }
+        headers.append("Content-Length: ").append(file.length()).append(CRLF);
+        headers.append(CRLF);
+        mParts.add(new Part(file, file.length(), headers.toString().getBytes(ENCODING)));
+    }
+
+    public int getPartCount() {
+        return mParts.size();
+    }
+
+    @Override
+    public long getContentLength() {
+        long length = getClosingBytes().length;
+        for (Part part : mParts) {
+            length += part.mHeaders.length + part.mLength + CRLF.length();
+        }
+        return length;
+    }
+
+    @Override
+    public String getContentType() {
+        return "multipart/related; boundary=" + mBoundary;
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public void addDatatransferProgressListener(OnDatatransferProgressListener listener) {
+        mProgressDispatcher.addDatatransferProgressListener(listener);
+    }
+
+    @Override
+    public void addDatatransferProgressListeners(Collection<OnDatatransferProgressListener> listeners) {
+        mProgressDispatcher.addDatatransferProgressListeners(listeners);
+    }
+
+    @Override
+    public void removeDatatransferProgressListener(OnDatatransferProgressListener listener) {
+        mProgressDispatcher.removeDatatransferProgressListener(listener);
+    }
+
+    /**
+     * Replaces the dispatcher of progress updates, so that it can be shared with the operation
+     * owning this entity; listeners added before are not kept.
+     */
+    public void setProgressDispatcher(TransferProgressDispatcher progressDispatcher) {
+        mProgressDispatcher = progressDispatcher;
+    }
+
+    /**
+     * Sets the limiter of the bandwidth used to write the request; the global one by default.
+     */
+    public void setBandwidthLimiter(BandwidthLimiter bandwidthLimiter) {
+        mBandwidthLimiter = (bandwidthLimiter != null) ?
+            bandwidthLimiter : BandwidthLimiter.getGlobal();
+    }
+
+    @Override
+    public void writeRequest(OutputStream out) throws IOException {
+        byte[] bytes = new byte[BUFFER_SIZE];
+        byte[] crlf = CRLF.getBytes(ENCODING);
+        long transferred = 0;
+        long total = 0;
+        for (Part part : mParts) {
+            total += part.mLength;
+        }
+        mProgressDispatcher.reset();
+
+        for (Part part : mParts) {
+            out.write(part.mHeaders);
+            FileInputStream fis = new FileInputStream(part.mFile);
+            try {
+                long remaining = part.mLength;
+                int readResult;
+                while (remaining > 0 &&
+                    (readResult = fis.read(bytes, 0, (int) Math.min(bytes.length, remaining))) != -1) {
+                    mBandwidthLimiter.acquire(readResult);
+                    out.write(bytes, 0, readResult);
+                    remaining -= readResult;
+                    transferred += readResult;
+                    mProgressDispatcher.onProgress(readResult, transferred, total,
+                        part.mFile.getAbsolutePath());
+                }
+                if (remaining > 0) {
+                    // the announced Content-Length can not be changed any more
+                    throw new IOException("File " + part.mFile.getAbsolutePath() +
+                        " was truncated while uploading it");
+                }
+            } finally {
+                fis.close();
+            }
+            out.write(crlf);
+        }
+        out.write(getClosingBytes());
+        mProgressDispatcher.flush();
+    }
+
+
+    private byte[] getClosingBytes() {
+        try {
+            return ("--" + mBoundary + "--" + CRLF).getBytes(ENCODING);
+        } catch (UnsupportedEncodingException e) {
+            // UTF-8 is supported by every Java platform
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class Part {
+        final File mFile;
+        final long mLength;
+        final byte[] mHeaders;
+
+        Part(File file, long length, byte[] headers) {
+            mFile = file;
+            mLength = length;
+            mHeaders = headers;
+        }
+    }
+
+}
@@ -31,9 +31,6 @@ import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.Collection;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.Set;
 
 import org.apache.commons.httpclient.methods.RequestEntity;
 
@@ -56,8 +53,11 @@ public class ChunkFromFileChannelRequestEntity implements RequestEntity, Progres
     private final File mFile;
     private long mOffset;
     private long mTransferred;
-    Set<OnDatatransferProgressListener> mDataTransferListeners = new HashSet<OnDatatransferProgressListener>();
-    private ByteBuffer mBuffer = ByteBuffer.allocate(4096);
+    TransferProgressDispatcher mProgressDispatcher = new TransferProgressDispatcher();
+    private int mReadAheadBuffers = 1;
+    private TransferChecksum mChecksum = null;
+    private long mChecksumPosition = 0;
+    private BandwidthLimiter mBandwidthLimiter = BandwidthLimiter.getGlobal();
 
     public ChunkFromFileChannelRequestEntity(
         final FileChannel channel, final String contentType, long chunkSize, final File file
@@ -99,23 +99,25 @@ public class ChunkFromFileChannelRequestEntity implements RequestEntity, Progres
     
     @Override
     public void addDatatransferProgressListener(OnDatatransferProgressListener listener) {
-        synchronized (mDataTransferListeners) {
-            mDataTransferListeners.add(listener);
-        }
+        mProgressDispatcher.addDatatransferProgressListener(listener);
     }
     
     @Override
     public void addDatatransferProgressListeners(Collection<OnDatatransferProgressListener> listeners) {
-        synchronized (mDataTransferListeners) {
-            mDataTransferListeners.addAll(listeners);
-        }
+        mProgressDispatcher.addDatatransferProgressListeners(listeners);
     }
     
     @Override
     public void removeDatatransferProgressListener(OnDatatransferProgressListener listener) {
-        synchronized (mDataTransferListeners) {
-            mDataTransferListeners.remove(listener);
-        }
+        mProgressDispatcher.removeDatatransferProgressListener(listener);
+    }
+
+    /**
+     * Replaces the dispatcher of progress updates, so that it can be shared with the operation
+     * owning this entity; listeners added before are not kept.
+     */
+    public void setProgressDispatcher(TransferProgressDispatcher progressDispatcher) {
+        mProgressDispatcher = progressDispatcher;
     }
 
 
@@ -123,34 +125,108 @@ public class ChunkFromFileChannelRequestEntity implements RequestEntity, Progres
         mTransferred = value;
     }
 
+    /**
+     * Sets the number of buffers to read ahead from the file in a background thread while
+     * previous buffers are written to the network.
+     *
+     * @param readAheadBuffers  Number of buffers; 1 or less means that the chunk is read
+     *                          synchronously, in the thread writing the request.
+     */
+    public void setReadAheadBuffers(int readAheadBuffers) {
+        mReadAheadBuffers = readAheadBuffers;
+    }
+
+    /**
+     * Sets a checksum to update with the contents of the whole file while the chunks are written.
+     *
+     * Only data following contiguously the data already passed to the checksum are added,
+     * so that repeated chunks are not counted twice; see {@link #updateChecksumUpTo(long)}
+     * to fill gaps left by chunks that were not written.
+     *
+     * @param checksum      Checksum to update.
+     */
+    public void setChecksum(TransferChecksum checksum) {
+        mChecksum = checksum;
+        mChecksumPosition = 0;
+    }
+
+    /**
+     * Sets the limiter of the bandwidth used to write the request; the global one by default.
+     */
+    public void setBandwidthLimiter(BandwidthLimiter bandwidthLimiter) {
+        mBandwidthLimiter = (bandwidthLimiter != null) ?
+            bandwidthLimiter : BandwidthLimiter.getGlobal();
+    }
+
+    /**
+     * Reads from the file the data not yet passed to the checksum up to the given position,
+     * and updates the checksum with them.
+     *
+     * @param position      Position in the file after the last byte to include in the checksum.
+     */
+    public void updateChecksumUpTo(long position) throws IOException {
+        if (mChecksum == null || mChecksumPosition >= position) {
+            return;
+        }
+        ReadAheadChannelReader reader = new ReadAheadChannelReader(
+            mChannel,
+            mChecksumPosition,
+            Math.min(position, mChannel.size()),
+            FileRequestEntity.READ_AHEAD_BUFFER_SIZE,
+            1
+        );
+        try {
+            ByteBuffer buffer;
+            while ((buffer = reader.take()) != null) {
+                mChecksum.update(buffer);
+                mChecksumPosition += buffer.remaining();
+                reader.release(buffer);
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
     public void writeRequest(final OutputStream out) throws IOException {
         int readCount = 0;
-        Iterator<OnDatatransferProgressListener> it = null;
+        ReadAheadChannelReader reader = null;
+        ByteBuffer buffer = null;
+        long position = mOffset;
 
         try {
-            mChannel.position(mOffset);
             long size = mFile.length();
             if (size == 0) size = -1;
             long maxCount = Math.min(mOffset + mChunkSize, mChannel.size());
-            while (mChannel.position() < maxCount) {
-                readCount = mChannel.read(mBuffer);
+            reader = new ReadAheadChannelReader(
+                mChannel,
+                mOffset,
+                maxCount,
+                (mReadAheadBuffers > 1) ?
+                    FileRequestEntity.READ_AHEAD_BUFFER_SIZE : FileRequestEntity.BUFFER_SIZE,
+                mReadAheadBuffers
+            );
+            reader.start();
+            while ((buffer = reader.take()) != null) {
+                readCount = buffer.remaining();
+                if (mChecksum != null && position == mChecksumPosition) {
+                    mChecksum.update(buffer);
+                    mChecksumPosition += readCount;
+                }
+                position += readCount;
                 try {
-                    out.write(mBuffer.array(), 0, readCount);
+                    mBandwidthLimiter.acquire(readCount);
+                    out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), readCount);
                 } catch (IOException io) {
                     // work-around try catch to filter exception in writing
                     throw new FileRequestEntity.WriteException(io);
                 }
-                mBuffer.clear();
+                reader.release(buffer);
                 if (mTransferred < maxCount) {  // condition to avoid accumulate progress for repeated chunks
                     mTransferred += readCount;
                 }
-                synchronized (mDataTransferListeners) {
-                    it = mDataTransferListeners.iterator();
-                    while (it.hasNext()) {
-                        it.next().onTransferProgress(readCount, mTransferred, size, mFile.getAbsolutePath());
-                    }
-                }
+                mProgressDispatcher.onProgress(readCount, mTransferred, size, mFile.getAbsolutePath());
             }
+            mProgressDispatcher.flush();
 
         } catch (IOException io) {
             // any read problem will be handled as if the file is not there
@@ -164,6 +240,11 @@ public class ChunkFromFileChannelRequestEntity implements RequestEntity, Progres
 
         } catch (FileRequestEntity.WriteException we) {
             throw we.getWrapped();
+
+        } finally {
+            if (reader != null) {
+                reader.close();
+            }
         }
             
     }
@@ -0,0 +1,144 @@
+/* tkjcloud Android Library is available under MIT license
+ *   Copyright (C) 2017 tkjcloud GmbH.
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *   NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *   BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *   ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *   CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *   THE SOFTWARE.
+ *
+ */
+
+package com.tkjcloud.android.lib.common.network;
+
+import com.tkjcloud.android.lib.common.utils.Log_OC;
+
+import org.apache.commons.httpclient.ChunkedInputStream;
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HttpConnection;
+import org.apache.commons.httpclient.HttpException;
+import org.apache.commons.httpclient.HttpState;
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.methods.GetMethod;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+
+/**
+ * GET method for requests conditioned to an eTag with If-None-Match.
+ *
+ * Some servers include a body in '304 Not Modified' responses, though it is forbidden by the
+ * HTTP specification. The library does not read it, and the next request on the same
+ * connection fails reading the body as its status line. This method drains the body of a 304
+ * response when it is there, and closes the connection when that can not be done safely.
+ */
+public class ConditionalGetMethod extends GetMethod {
+
+    private static final String TAG = ConditionalGetMethod.class.getSimpleName();
+
+    private static final String IF_NONE_MATCH_HEADER = "If-None-Match";
+
+    /** Time to wait for the unexpected body of a 304 response, in milliseconds */
+    private static final int NOT_MODIFIED_BODY_WAIT = 500;
+
+    private static final int BUFFER_SIZE = 4096;
+
+
+    /**
+     * @param uri   URI of the resource.
+     * @param etag  eTag of the cached copy of the resource; null or empty for an unconditioned
+     *              request.
+     */
+    public ConditionalGetMethod(String uri, String etag) {
+        super(uri);
+        if (etag != null && etag.length() > 0) {
+            addRequestHeader(IF_NONE_MATCH_HEADER, "\"" + etag + "\"");
+        }
+    }
+
+    /**
+     * @return  'True' if the server answered that the cached copy is still valid.
+     */
+    public boolean isNotModified() {
+        return getStatusCode() == HttpStatus.SC_NOT_MODIFIED;
+    }
+
+    /**
+     * The superclass reads no body for a 304 response and releases the connection right away,
+     * so the body has to be drained, or the connection closing forced, before releasing it. The
+     * superclass is not called for a 304 response; it would wait for a chunked body already
+     * drained until the socket timeout expires.
+     */
+    @Override
+    protected void readResponseBody(HttpState state, HttpConnection conn) throws IOException,
+        HttpException {
+        if (isNotModified()) {
+            drainNotModifiedBody(conn);
+            responseBodyConsumed();     // decides on closing and releases the connection
+        } else {
+            super.readResponseBody(state, conn);
+        }
+    }
+
+
+    private void drainNotModifiedBody(HttpConnection conn) throws IOException {
+        boolean chunked = getResponseHeader("Transfer-Encoding") != null;
+        Header contentLength = getResponseHeader("Content-Length");
+        long length = 0;
+        if (!chunked && contentLength != null) {
+            try {
+                length = Long.parseLong(contentLength.getValue().trim());
+            } catch (NumberFormatException e) {
+                setConnectionCloseForced(true);
+                return;
+            }
+        }
+        if (!chunked && length <= 0) {
+            return;     // the correct case
+        }
+        // the length may describe the resource instead of a body; drain only if data arrive
+        if (!conn.isResponseAvailable(NOT_MODIFIED_BODY_WAIT)) {
+            setConnectionCloseForced(true);
+            return;
+        }
+        InputStream in = conn.getResponseInputStream();
+        if (chunked) {
+            in = new ChunkedInputStream(in, this);
+            length = Long.MAX_VALUE;    // until the last chunk
+        }
+        byte[] bytes = new byte[BUFFER_SIZE];
+        long drained = 0;
+        try {
+            while (drained < length) {
+                int read = in.read(bytes, 0, (int) Math.min(bytes.length, length - drained));
+                if (read == -1) {
+                    break;
+                }
+                drained += read;
+            }
+        } catch (IOException e) {
+            Log_OC.w(TAG, "Body of 304 response could not be drained: " + e.getMessage());
+            setConnectionCloseForced(true);
+            return;
+        }
+        if (!chunked && drained < length) {
+            setConnectionCloseForced(true);
+        }
+        Log_OC.d(TAG, "Drained " + drained + " bytes of body in 304 response");
+    }
+
+}
@@ -0,0 +1,264 @@
+/* tkjcloud Android Library is available under MIT license
+ *   Copyright (C) 2017 tkjcloud GmbH.
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *   NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *   BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *   ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *   CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *   THE SOFTWARE.
+ *
+ */
+
+package com.tkjcloud.android.lib.common.network;
+
+import com.tkjcloud.android.lib.common.utils.Log_OC;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Destination of a download in the local file system.
+ *
+ * Data are written through a {@link FileChannel} to a partial file next to the target file,
+ * with a buffer large enough to keep the number of writes low. The partial file replaces the
+ * target file with an atomic rename only when the download is committed, so that a crash
+ * never leaves a corrupt target file.
+ *
+ * Data can be written sequentially, with {@link #write(byte[], int, int)}, or in any position,
+ * with {@link #write(ByteBuffer, long)}; the latter can be called from several threads.
+ */
+public class FileDownloadSink {
+
+    private static final String TAG = FileDownloadSink.class.getSimpleName();
+
+    /** When the written data are forced to the storage device */
+    public enum FsyncPolicy {
+        /** Never; left to the operating system */
+        NONE,
+        /** Once, before the partial file replaces the target file */
+        ON_COMPLETION,
+        /** Every time a given amount of data is written, and before the partial file replaces
+         * the target file */
+        PERIODIC
+    }
+
+    public static final String PARTIAL_FILE_SUFFIX = ".part";
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    public static final long DEFAULT_FSYNC_INTERVAL = 8 * 1024 * 1024;
+
+    private final File mTargetFile;
+    private final File mPartialFile;
+    private final FsyncPolicy mFsyncPolicy;
+    private final ByteBuffer mBuffer;
+    private long mFsyncInterval = DEFAULT_FSYNC_INTERVAL;
+    private final AtomicLong mUnsyncedBytes = new AtomicLong(0);
+
+    private RandomAccessFile mRaf = null;
+    private FileChannel mChannel = null;
+
+
+    /**
+     * Constructor
+     *
+     * @param targetFile    Final location of the downloaded file.
+     * @param bufferSize    Size of the buffer for sequential writes, in bytes.
+     * @param fsyncPolicy   When the written data are forced to the storage device.
+     */
+    public FileDownloadSink(File targetFile, int bufferSize, FsyncPolicy fsyncPolicy) {
+        if (targetFile == null) {
+            throw new IllegalArgumentException("Target file may not be null");
+        }
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("Buffer size must be greater than zero");
+        }
+        mTargetFile = targetFile;
+        mPartialFile = new File(targetFile.getPath() + PARTIAL_FILE_SUFFIX);
+        mFsyncPolicy = (fsyncPolicy != null) ? fsyncPolicy : FsyncPolicy.NONE;
+        mBuffer = ByteBuffer.allocate(bufferSize);
+    }
+
+    /**
+     * Sets the amount of data to write between forced syncs with {@link FsyncPolicy#PERIODIC}.
+     *
+     * @param fsyncInterval     Amount of data, in bytes.
+     */
+    public void setFsyncInterval(long fsyncInterval) {
+        mFsyncInterval = fsyncInterval;
+    }
+
+    public File getTargetFile() {
+        return mTargetFile;
+    }
+
+    public File getPartialFile() {
+        return mPartialFile;
+    }
+
+    /**
+     * @return  Size of the partial file left by a previous download, or 0 if there is none.
+     */
+    public long getPartialLength() {
+        return mPartialFile.exists() ? mPartialFile.length() : 0;
+    }
+
+    /**
+     * Opens the partial file for writing.
+     *
+     * @param append    When 'true', sequential writes continue at the end of the partial file
+     *                  left by a previous download; otherwise, the partial file is truncated.
+     */
+    public void open(boolean append) throws IOException {
+        File parent = mPartialFile.getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        mRaf = new RandomAccessFile(mPartialFile, "rw");
+        mChannel = mRaf.getChannel();
+        if (append) {
+            mChannel.position(mChannel.size());
+        } else {
+            mChannel.truncate(0);
+        }
+        mBuffer.clear();
+        mUnsyncedBytes.set(0);
+    }
+
+    /**
+     * Sets the final size of the partial file in advance, for positional writes.
+     *
+     * @param size      Size of the complete file, in bytes.
+     */
+    public void preallocate(long size) throws IOException {
+        mRaf.setLength(size);
+    }
+
+    /**
+     * Writes data at the current position of the partial file, through the buffer.
+     */
+    public void write(byte[] data, int offset, int length) throws IOException {
+        while (length > 0) {
+            int count = Math.min(length, mBuffer.remaining());
+            mBuffer.put(data, offset, count);
+            offset += count;
+            length -= count;
+            if (!mBuffer.hasRemaining()) {
+                flush();
+            }
+        }
+    }
+
+    /**
+     * Writes data in the given position of the partial file, without buffering.
+     *
+     * Can be called concurrently from several threads.
+     *
+     * @param src       Data to write; all its remaining bytes are written.
+     * @param position  Position in the file of the first byte to write.
+     */
+    public void write(ByteBuffer src, long position) throws IOException {
+        int count = src.remaining();
+        while (src.hasRemaining()) {
+            position += mChannel.write(src, position);
+        }
+        written(count);
+    }
+
+    /**
+     * Writes to the partial file any data kept in the buffer.
+     */
+    public void flush() throws IOException {
+        mBuffer.flip();
+        int count = mBuffer.remaining();
+        while (mBuffer.hasRemaining()) {
+            mChannel.write(mBuffer);
+        }
+        mBuffer.clear();
+        written(count);
+    }
+
+    /**
+     * Finishes the download: flushes the buffer, forces the data to the storage device if
+     * required by the policy, and replaces the target file with the partial file.
+     */
+    public void commit() throws IOException {
+        try {
+            flush();
+            if (mFsyncPolicy != FsyncPolicy.NONE) {
+                mChannel.force(true);
+            }
+        } finally {
+            closeChannel();
+        }
+        if (!mPartialFile.renameTo(mTargetFile)) {
+            throw new IOException("Could not rename " + mPartialFile + " to " + mTargetFile);
+        }
+    }
+
+    /**
+     * Closes the partial file, keeping it so that the download can be resumed later.
+     */
+    public void close() {
+        if (mChannel != null) {
+            try {
+                flush();
+            } catch (IOException e) {
+                Log_OC.e(TAG, "Error flushing partial file " + mPartialFile, e);
+            }
+        }
+        closeChannel();
+    }
+
+    /**
+     * Closes and deletes the partial file.
+     */
+    public void discard() {
+        closeChannel();
+        if (mPartialFile.exists() && !mPartialFile.delete()) {
+            Log_OC.w(TAG, "Could not delete partial file " + mPartialFile);
+        }
+    }
+
+
+    private void written(long count) throws IOException {
+        if (mFsyncPolicy == FsyncPolicy.PERIODIC &&
+            mUnsyncedBytes.addAndGet(count) >= mFsyncInterval) {
+            mUnsyncedBytes.set(0);
+            mChannel.force(false);
+        }
+    }
+
+    private void closeChannel() {
+        try {
+            if (mChannel != null) {
+                mChannel.close();
+            }
+            if (mRaf != null) {
+                mRaf.close();
+            }
+        } catch (IOException e) {
+            Log_OC.e(TAG, "Error closing partial file " + mPartialFile, e);
+        } finally {
+            mChannel = null;
+            mRaf = null;
+        }
+    }
+
+}
@@ -33,9 +33,6 @@ import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.Collection;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.Set;
 
 import org.apache.commons.httpclient.methods.RequestEntity;
 
@@ -49,9 +46,15 @@ import com.tkjcloud.android.lib.common.utils.Log_OC;
  */
 public class FileRequestEntity implements RequestEntity, ProgressiveDataTransferer {
 
+    static final int BUFFER_SIZE = 4096;
+    static final int READ_AHEAD_BUFFER_SIZE = 64 * 1024;
+
     final File mFile;
     final String mContentType;
-    Set<OnDatatransferProgressListener> mDataTransferListeners = new HashSet<OnDatatransferProgressListener>();
+    TransferProgressDispatcher mProgressDispatcher = new TransferProgressDispatcher();
+    int mReadAheadBuffers = 1;
+    TransferChecksum mChecksum = null;
+    BandwidthLimiter mBandwidthLimiter = BandwidthLimiter.getGlobal();
 
     public FileRequestEntity(final File file, final String contentType) {
         super();
@@ -79,54 +82,96 @@ public class FileRequestEntity implements RequestEntity, ProgressiveDataTransfer
 
     @Override
     public void addDatatransferProgressListener(OnDatatransferProgressListener listener) {
-        synchronized (mDataTransferListeners) {
-            mDataTransferListeners.add(listener);
-        }
+        mProgressDispatcher.addDatatransferProgressListener(listener);
     }
     
     @Override
     public void addDatatransferProgressListeners(Collection<OnDatatransferProgressListener> listeners) {
-        synchronized (mDataTransferListeners) {
-            mDataTransferListeners.addAll(listeners);
-        }
+        mProgressDispatcher.addDatatransferProgressListeners(listeners);
     }
     
     @Override
     public void removeDatatransferProgressListener(OnDatatransferProgressListener listener) {
-        synchronized (mDataTransferListeners) {
-            mDataTransferListeners.remove(listener);
-        }
+        mProgressDispatcher.removeDatatransferProgressListener(listener);
+    }
+
+    /**
+     * Replaces the dispatcher of progress updates, so that it can be shared with the operation
+     * owning this entity; listeners added before are not kept.
+     */
+    public void setProgressDispatcher(TransferProgressDispatcher progressDispatcher) {
+        mProgressDispatcher = progressDispatcher;
     }
     
     
+    /**
+     * Sets the number of buffers to read ahead from the file in a background thread while
+     * previous buffers are written to the network.
+     *
+     * @param readAheadBuffers  Number of buffers; 1 or less means that the file is read
+     *                          synchronously, in the thread writing the request.
+     */
+    public void setReadAheadBuffers(int readAheadBuffers) {
+        mReadAheadBuffers = readAheadBuffers;
+    }
+
+    /**
+     * Sets a checksum to update with the contents of the file while they are written.
+     *
+     * @param checksum      Checksum to update; it is reset every time the request is written.
+     */
+    public void setChecksum(TransferChecksum checksum) {
+        mChecksum = checksum;
+    }
+
+    /**
+     * Sets the limiter of the bandwidth used to write the request; the global one by default.
+     */
+    public void setBandwidthLimiter(BandwidthLimiter bandwidthLimiter) {
+        mBandwidthLimiter = (bandwidthLimiter != null) ?
+            bandwidthLimiter : BandwidthLimiter.getGlobal();
+    }
+
     @Override
     public void writeRequest(final OutputStream out) throws IOException {
-        ByteBuffer tmp = ByteBuffer.allocate(4096);
-        int readResult = 0;
-        
         RandomAccessFile raf = new RandomAccessFile(mFile, "r");
         FileChannel channel = raf.getChannel();
-        Iterator<OnDatatransferProgressListener> it = null;
+        ReadAheadChannelReader reader = null;
+        ByteBuffer tmp = null;
+        int readResult = 0;
         long transferred = 0;
         long size = mFile.length();
         if (size == 0) size = -1;
         try {
-            while ((readResult = channel.read(tmp)) >= 0) {
+            reader = new ReadAheadChannelReader(
+                channel,
+                0,
+                channel.size(),
+                (mReadAheadBuffers > 1) ? READ_AHEAD_BUFFER_SIZE : BUFFER_SIZE,
+                mReadAheadBuffers
+            );
+            if (mChecksum != null) {
+                mChecksum.reset();
+            }
+            mProgressDispatcher.reset();
+            reader.start();
+            while ((tmp = reader.take()) != null) {
+                readResult = tmp.remaining();
+                if (mChecksum != null) {
+                    mChecksum.update(tmp);
+                }
                 try {
-                    out.write(tmp.array(), 0, readResult);
+                    mBandwidthLimiter.acquire(readResult);
+                    out.write(tmp.array(), tmp.arrayOffset() + tmp.position(), readResult);
                 } catch (IOException io) {
                     // work-around try catch to filter exception in writing
                     throw new WriteException(io);
                 }
-                tmp.clear();
+                reader.release(tmp);
                 transferred += readResult;
-                synchronized (mDataTransferListeners) {
-                    it = mDataTransferListeners.iterator();
-                    while (it.hasNext()) {
-                        it.next().onTransferProgress(readResult, transferred, size, mFile.getAbsolutePath());
-                    }
-                }
+                mProgressDispatcher.onProgress(readResult, transferred, size, mFile.getAbsolutePath());
             }
+            mProgressDispatcher.flush();
 
         } catch (IOException io) {
             // any read problem will be handled as if the file is not there
@@ -142,6 +187,9 @@ public class FileRequestEntity implements RequestEntity, ProgressiveDataTransfer
             throw we.getWrapped();
 
         } finally {
+            if (reader != null) {
+                reader.close();
+            }
             try {
                 channel.close();
                 raf.close();
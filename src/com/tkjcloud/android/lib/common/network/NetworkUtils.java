@@ -58,6 +58,12 @@ public class NetworkUtils {
     /** Default timeout for establishing a connection */
     public static final int DEFAULT_CONNECTION_TIMEOUT = 60000;
     
+    /** Maximum number of connections open at the same time to a single server */
+    public static final int MAX_CONNECTIONS_PER_HOST = 5;
+
+    /** Maximum number of connections open at the same time to all the servers */
+    public static final int MAX_TOTAL_CONNECTIONS = 5;
+
     /** Standard name for protocol TLS version 1.2 in Java Secure Socket Extension (JSSE) API */
     public static final String PROTOCOL_TLSv1_2 = "TLSv1.2";
     
@@ -188,8 +194,8 @@ public class NetworkUtils {
     static public MultiThreadedHttpConnectionManager getMultiThreadedConnManager() {
         if (mConnManager == null) {
             mConnManager = new MultiThreadedHttpConnectionManager();
-            mConnManager.getParams().setDefaultMaxConnectionsPerHost(5);
-            mConnManager.getParams().setMaxTotalConnections(5);
+            mConnManager.getParams().setDefaultMaxConnectionsPerHost(MAX_CONNECTIONS_PER_HOST);
+            mConnManager.getParams().setMaxTotalConnections(MAX_TOTAL_CONNECTIONS);
         }
         return mConnManager;
     }
@@ -0,0 +1,260 @@
+/* tkjcloud Android Library is available under MIT license
+ *   Copyright (C) 2017 tkjcloud GmbH.
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *   NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *   BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *   ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *   CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *   THE SOFTWARE.
+ *
+ */
+
+package com.tkjcloud.android.lib.common.network;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import com.tkjcloud.android.lib.common.utils.Log_OC;
+
+
+/**
+ * Reads a range of a {@link FileChannel} into a small pool of buffers.
+ *
+ * With more than one buffer, reads are done in a background thread that fills the free buffers
+ * while the caller drains the filled ones, so that slow storage and slow networks overlap
+ * instead of adding up. With a single buffer, reads are done synchronously in the caller thread.
+ *
+ * Reads are positional, so the position of the channel is never modified.
+ *
+ * Typical use:
+ *
+ *      reader.start();
+ *      try {
+ *          while ((buffer = reader.take()) != null) {
+ *              // consume buffer
+ *              reader.release(buffer);
+ *          }
+ *      } finally {
+ *          reader.close();
+ *      }
+ */
+public class ReadAheadChannelReader {
+
+    private static final String TAG = ReadAheadChannelReader.class.getSimpleName();
+
+    /** Marks the end of the range, or a read failure, in the queue of filled buffers */
+    private static final ByteBuffer END_OF_DATA = ByteBuffer.allocate(0);
+
+    private final FileChannel mChannel;
+    private final long mEnd;
+    private final int mBufferCount;
+    private final BlockingQueue<ByteBuffer> mFreeBuffers;
+    private final BlockingQueue<ByteBuffer> mFilledBuffers;
+
+    private long mPosition;
+    private Thread mReaderThread = null;
+    private volatile boolean mClosed = false;
+    private volatile IOException mReadError = null;
+    private boolean mEndReached = false;
+
+
+    /**
+     * Constructor
+     *
+     * @param channel       Channel to read.
+     * @param start         Position in the channel of the first byte to read.
+     * @param end           Position in the channel after the last byte to read.
+     * @param bufferSize    Size of every buffer in the pool, in bytes.
+     * @param bufferCount   Number of buffers in the pool; with 1 (or less) no background
+     *                      thread is used.
+     */
+    public ReadAheadChannelReader(FileChannel channel, long start, long end, int bufferSize,
+                                  int bufferCount) {
+        if (channel == null) {
+            throw new IllegalArgumentException("Channel may not be null");
+        }
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("Buffer size must be greater than zero");
+        }
+        mChannel = channel;
+        mPosition = start;
+        mEnd = end;
+        mBufferCount = Math.max(bufferCount, 1);
+        mFreeBuffers = new LinkedBlockingQueue<ByteBuffer>();
+        mFilledBuffers = new LinkedBlockingQueue<ByteBuffer>();
+        for (int i = 0; i < mBufferCount; i++) {
+            mFreeBuffers.add(ByteBuffer.allocate(bufferSize));
+        }
+    }
+
+
+    /**
+     * Starts the background read-ahead, if more than one buffer is available.
+     */
+    public void start() {
+        if (mBufferCount > 1 && mReaderThread == null) {
+            mReaderThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    readAhead();
+                }
+            }, TAG);
+            mReaderThread.setDaemon(true);
+            mReaderThread.start();
+        }
+    }
+
+
+    /**
+     * Returns the next buffer with data, ready to be read, or null when the end of the range was
+     * reached.
+     *
+     * The buffer must be returned to the pool with {@link #release(ByteBuffer)} once consumed.
+     *
+     * @return          Next buffer with data, or null at the end of the range.
+     * @throws IOException  If the data could not be read from the channel.
+     */
+    public ByteBuffer take() throws IOException {
+        if (mEndReached) {
+            return null;
+        }
+        ByteBuffer buffer;
+        if (mReaderThread == null) {
+            buffer = mFreeBuffers.poll();
+            if (buffer == null) {
+                throw new IllegalStateException("Previous buffer was not released");
+            }
+            if (!fill(buffer)) {
+                mFreeBuffers.add(buffer);
+                buffer = END_OF_DATA;
+            }
+
+        } else {
+            try {
+                buffer = mFilledBuffers.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for data from disk");
+            }
+        }
+
+        if (buffer == END_OF_DATA) {
+            mEndReached = true;
+            if (mReadError != null) {
+                throw mReadError;
+            }
+            return null;
+        }
+        return buffer;
+    }
+
+
+    /**
+     * Returns to the pool a buffer got with {@link #take()}, so that it can be filled again.
+     *
+     * @param buffer    Buffer already consumed.
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer != null && buffer != END_OF_DATA) {
+            buffer.clear();
+            mFreeBuffers.add(buffer);
+        }
+    }
+
+
+    /**
+     * Stops the background read-ahead, if running, and waits for it to finish.
+     *
+     * The channel is not closed.
+     */
+    public void close() {
+        mClosed = true;
+        if (mReaderThread != null) {
+            // wakes up the reader if waiting for a free buffer; the thread is not interrupted,
+            // since interrupting a thread blocked in a FileChannel closes the channel
+            mFreeBuffers.add(END_OF_DATA);
+            boolean interrupted = false;
+            while (mReaderThread.isAlive()) {
+                try {
+                    mReaderThread.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+
+    private void readAhead() {
+        try {
+            while (!mClosed) {
+                ByteBuffer buffer = mFreeBuffers.take();
+                if (buffer == END_OF_DATA || mClosed) {
+                    break;
+                }
+                if (fill(buffer)) {
+                    mFilledBuffers.add(buffer);
+                } else {
+                    break;
+                }
+            }
+
+        } catch (InterruptedException e) {
+            mReadError = new InterruptedIOException("Read-ahead interrupted");
+
+        } catch (IOException e) {
+            Log_OC.e(TAG, "Error reading ahead from channel", e);
+            mReadError = e;
+
+        } finally {
+            mFilledBuffers.add(END_OF_DATA);
+        }
+    }
+
+
+    /**
+     * Fills the buffer with the next bytes in the range and flips it.
+     *
+     * @return  'false' if no more data are available in the range.
+     */
+    private boolean fill(ByteBuffer buffer) throws IOException {
+        buffer.clear();
+        long remaining = mEnd - mPosition;
+        if (remaining <= 0) {
+            return false;
+        }
+        if (remaining < buffer.capacity()) {
+            buffer.limit((int) remaining);
+        }
+        while (buffer.hasRemaining()) {
+            int read = mChannel.read(buffer, mPosition);
+            if (read < 0) {
+                break;
+            }
+            mPosition += read;
+        }
+        buffer.flip();
+        return buffer.hasRemaining();
+    }
+
+}
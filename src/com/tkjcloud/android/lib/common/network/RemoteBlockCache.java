@@ -0,0 +1,253 @@
+/* tkjcloud Android Library is available under MIT license
+ *   Copyright (C) 2017 tkjcloud GmbH.
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *   NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *   BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *   ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *   CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *   THE SOFTWARE.
+ *
+ */
+
+package com.tkjcloud.android.lib.common.network;
+
+import com.tkjcloud.android.lib.common.utils.Log_OC;
+import com.tkjcloud.android.lib.resources.files.DiskLruIndex;
+import com.tkjcloud.android.lib.resources.files.FileUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * Disk cache of blocks of the contents of remote files, so that data read again, such as
+ * previews or parts of a media file, do not need to be downloaded again.
+ *
+ * Blocks have a fixed size of {@link #BLOCK_SIZE} bytes, except the last one of a file, and are
+ * keyed by the remote path, the eTag of the remote file and the index of the block. Using a
+ * block with an eTag different from the cached one drops all the blocks of the older version.
+ * The least recently used blocks are evicted when the total size exceeds the limit.
+ *
+ * Blocks are stored in a folder per remote path under the folder given; an instance should be
+ * used per account, with its own folder, and shared by all the readers of that account.
+ */
+public class RemoteBlockCache {
+
+    private static final String TAG = RemoteBlockCache.class.getSimpleName();
+
+    public static final int BLOCK_SIZE = 256 * 1024;
+
+    /** Cached blocks by relative path */
+    private final DiskLruIndex mBlocks;
+
+    /** Cached eTag by folder of remote path */
+    private final Map<String, String> mEtags = new HashMap<String, String>();
+
+
+    /**
+     * @param folder    Folder where the blocks are stored; blocks stored there before are kept.
+     * @param maxSize   Maximum size of all the blocks, in bytes.
+     */
+    public RemoteBlockCache(File folder, long maxSize) {
+        mBlocks = new DiskLruIndex(folder, maxSize);
+        load();
+    }
+
+    /**
+     * Sets the maximum size of all the blocks, evicting blocks if needed.
+     */
+    public synchronized void setMaxSize(long maxSize) {
+        mBlocks.setMaxSize(maxSize);
+    }
+
+    /**
+     * @return  Total size of the cached blocks, in bytes.
+     */
+    public synchronized long getSize() {
+        return mBlocks.getSize();
+    }
+
+    /**
+     * @param remotePath    Remote path of the file.
+     * @param etag          Current eTag of the remote file.
+     * @param index         Index of the block; the block starts at index * {@link #BLOCK_SIZE}.
+     * @return              Contents of the block, shorter than {@link #BLOCK_SIZE} only for the
+     *                      last one of the file, or null if not cached.
+     */
+    public synchronized byte[] getBlock(String remotePath, String etag, long index) {
+        String folderName = getFolderName(remotePath);
+        checkEtag(folderName, etag);
+        String relativePath = getRelativePath(folderName, etag, index);
+        Long length = mBlocks.use(relativePath);
+        if (length == null) {
+            return null;
+        }
+        File file = mBlocks.getFile(relativePath);
+        byte[] data = new byte[length.intValue()];
+        try {
+            FileInputStream fis = new FileInputStream(file);
+            try {
+                int done = 0;
+                int readResult;
+                while (done < data.length &&
+                    (readResult = fis.read(data, done, data.length - done)) != -1) {
+                    done += readResult;
+                }
+                if (done < data.length) {
+                    throw new IOException("Block file truncated: " + file);
+                }
+            } finally {
+                fis.close();
+            }
+            return data;
+
+        } catch (IOException e) {
+            Log_OC.w(TAG, "Could not read cached block " + file + ": " + e.getMessage());
+            removeBlock(relativePath);
+            return null;
+        }
+    }
+
+    /**
+     * Stores a block; failures are logged and ignored, since the block can be downloaded again.
+     *
+     * @param remotePath    Remote path of the file.
+     * @param etag          eTag of the remote file the block was read from.
+     * @param index         Index of the block.
+     * @param data          Contents of the block.
+     * @param length        Length of the block; less than {@link #BLOCK_SIZE} only for the last
+     *                      block of the file.
+     */
+    public synchronized void putBlock(String remotePath, String etag, long index,
+                                      final byte[] data, final int length) {
+        if (length > BLOCK_SIZE || length > mBlocks.getMaxSize()) {
+            return;
+        }
+        String folderName = getFolderName(remotePath);
+        checkEtag(folderName, etag);
+        String relativePath = getRelativePath(folderName, etag, index);
+        if (mBlocks.contains(relativePath)) {
+            return;
+        }
+        try {
+            FileUtils.writeAtomically(mBlocks.getFile(relativePath),
+                new FileUtils.ContentWriter() {
+                    @Override
+                    public void write(OutputStream out) throws IOException {
+                        out.write(data, 0, length);
+                    }
+                });
+            mEtags.put(folderName, sanitize(etag));
+            mBlocks.put(relativePath, length);
+
+        } catch (IOException e) {
+            Log_OC.w(TAG, "Could not cache block " + index + " of " + remotePath + ": " +
+                e.getMessage());
+        }
+    }
+
+    /**
+     * Drops all the blocks of a remote file.
+     */
+    public synchronized void invalidate(String remotePath) {
+        String folderName = getFolderName(remotePath);
+        removeBlocks(folderName, null);
+        mEtags.remove(folderName);
+    }
+
+    /**
+     * Drops all the blocks.
+     */
+    public synchronized void clear() {
+        mBlocks.clear();
+        mEtags.clear();
+    }
+
+
+    /**
+     * Drops the blocks of a remote file if they belong to a different eTag.
+     */
+    private void checkEtag(String folderName, String etag) {
+        String cachedEtag = mEtags.get(folderName);
+        String newEtag = sanitize(etag);
+        if (cachedEtag != null && !cachedEtag.equals(newEtag)) {
+            removeBlocks(folderName, newEtag);
+            mEtags.put(folderName, newEtag);
+        }
+    }
+
+    /**
+     * Removes the blocks in a folder, except those of the eTag given.
+     */
+    private void removeBlocks(String folderName, String keptEtag) {
+        String folderPrefix = folderName + "/";
+        mBlocks.removeAll(folderPrefix,
+            (keptEtag != null) ? folderPrefix + keptEtag + "." : null);
+    }
+
+    private void removeBlock(String relativePath) {
+        mBlocks.remove(relativePath);
+    }
+
+    /**
+     * Indexes the blocks stored before, oldest first.
+     */
+    private synchronized void load() {
+        for (File file : mBlocks.load(1)) {
+            String name = file.getName();
+            String folderName = file.getParentFile().getName();
+            String relativePath = folderName + "/" + name;
+            int dotIndex = name.lastIndexOf('.');
+            if (dotIndex <= 0) {
+                removeBlock(relativePath);
+                continue;
+            }
+            if (!mBlocks.contains(relativePath)) {
+                continue;   // evicted, or dropped with an older eTag
+            }
+            // blocks of older eTags may be left by a process killed while dropping them
+            checkEtag(folderName, name.substring(0, dotIndex));
+            mEtags.put(folderName, name.substring(0, dotIndex));
+        }
+    }
+
+    private static String getRelativePath(String folderName, String etag, long index) {
+        return folderName + "/" + sanitize(etag) + "." + index;
+    }
+
+    /**
+     * Keeps the characters of an eTag that are safe in a file name.
+     */
+    private static String sanitize(String etag) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < etag.length(); i++) {
+            char c = etag.charAt(i);
+            if ((c >= '0' && c <= '9') || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')) {
+                sb.append(c);
+            }
+        }
+        return (sb.length() > 0) ? sb.toString() : "_";
+    }
+
+    private static String getFolderName(String remotePath) {
+        return FileUtils.getHashedName(remotePath);
+    }
+
+}
@@ -0,0 +1,496 @@
+/* tkjcloud Android Library is available under MIT license
+ *   Copyright (C) 2017 tkjcloud GmbH.
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *   NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *   BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *   ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *   CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *   THE SOFTWARE.
+ *
+ */
+
+package com.tkjcloud.android.lib.common.network;
+
+import com.tkjcloud.android.lib.common.tkjcloudClient;
+import com.tkjcloud.android.lib.common.utils.Log_OC;
+
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HttpMethodBase;
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.apache.commons.httpclient.methods.HeadMethod;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+
+
+/**
+ * Channel with random access to the contents of a remote file, read with ranged GET requests;
+ * a media player or a document viewer can seek in a big file without downloading it.
+ *
+ * Offers the reading part of java.nio.channels.SeekableByteChannel, not available in all the
+ * supported API levels: {@link #position()}, {@link #position(long)} and {@link #size()}.
+ *
+ * Every request asks for a window of the file after the current position. The window grows
+ * while the file is read sequentially, up to {@link #MAX_READ_AHEAD}, and goes back to
+ * {@link #MIN_READ_AHEAD} after a seek; short seeks forward are served by the open response.
+ * Responses are read to their end when little is left, instead of aborted, so that their
+ * connections can be reused by the next requests.
+ *
+ * If the remote file changes while it is read, reads fail with an IOException rather than
+ * mixing both versions.
+ *
+ * With a {@link RemoteBlockCache}, data are requested and read in whole blocks of the cache,
+ * and cached blocks are read with no network access.
+ */
+public class RemoteFileChannel implements ReadableByteChannel {
+
+    private static final String TAG = RemoteFileChannel.class.getSimpleName();
+
+    public static final int MIN_READ_AHEAD = 64 * 1024;
+    public static final int MAX_READ_AHEAD = 8 * 1024 * 1024;
+
+    /** Seeks forward up to this distance read through the open response */
+    private static final long MAX_SKIP = 256 * 1024;
+
+    /** Responses with up to this amount of bytes left are read to the end to reuse the connection */
+    private static final long MAX_DRAIN = 64 * 1024;
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private static final String RANGE_HEADER = "Range";
+    private static final String CONTENT_RANGE_HEADER = "Content-Range";
+    private static final String CONTENT_LENGTH_HEADER = "Content-Length";
+
+    private final tkjcloudClient mClient;
+    private final String mRemotePath;
+    private final String mUri;
+    private final byte[] mBuffer = new byte[BUFFER_SIZE];
+
+    private boolean mOpen = true;
+    private long mPosition = 0;
+    private long mSize = -1;
+    private String mEtag = null;
+    private int mReadAhead = MIN_READ_AHEAD;
+
+    private RemoteBlockCache mBlockCache = null;
+    private BandwidthLimiter mBandwidthLimiter = null;
+    private byte[] mBlock = null;
+    private long mBlockIndex = -1;
+
+    private GetMethod mGet = null;
+    private InputStream mStream = null;
+    /** Position in the file of the next byte of mStream */
+    private long mStreamPosition = 0;
+    /** Position in the file after the last byte of mStream */
+    private long mStreamEnd = 0;
+
+
+    /**
+     * @param client        Client to access the server.
+     * @param remotePath    Remote path of the file to read.
+     */
+    public RemoteFileChannel(tkjcloudClient client, String remotePath) {
+        mClient = client;
+        mRemotePath = remotePath;
+        mUri = client.getWebdavUri() + WebdavUtils.encodePath(remotePath);
+    }
+
+    /**
+     * Sets a cache of blocks of remote files to read from and to store the data read.
+     *
+     * @param blockCache    Cache shared by the readers of the account.
+     * @param etag          Known eTag of the remote file, as returned by
+     *                      {@link com.tkjcloud.android.lib.resources.files.ReadRemoteFileOperation};
+     *                      needed to use cached blocks before any request is sent. If the
+     *                      remote file changed, reads needing the network will fail.
+     * @param size          Known size of the remote file, or -1.
+     */
+    public synchronized void setBlockCache(RemoteBlockCache blockCache, String etag, long size) {
+        mBlockCache = blockCache;
+        if (etag != null && etag.length() > 0) {
+            mEtag = etag;
+        }
+        if (size >= 0) {
+            mSize = size;
+        }
+    }
+
+    /**
+     * Sets a limiter of the bandwidth used to read from the server; the blocks read from the
+     * block cache are not limited.
+     *
+     * @param bandwidthLimiter  Limiter to acquire the bytes read from the server; null for none.
+     */
+    public synchronized void setBandwidthLimiter(BandwidthLimiter bandwidthLimiter) {
+        mBandwidthLimiter = bandwidthLimiter;
+    }
+
+    @Override
+    public synchronized int read(ByteBuffer dst) throws IOException {
+        ensureOpen();
+        if (!dst.hasRemaining()) {
+            return 0;
+        }
+        if (mSize >= 0 && mPosition >= mSize) {
+            return -1;
+        }
+        if (mBlockCache != null) {
+            return readFromBlocks(dst);
+        }
+
+        if (!prepareStream(mPosition, mReadAhead)) {
+            return -1;
+        }
+        int toRead = (int) Math.min(dst.remaining(), mStreamEnd - mStreamPosition);
+        int read;
+        if (dst.hasArray()) {
+            read = mStream.read(dst.array(), dst.arrayOffset() + dst.position(), toRead);
+            if (read > 0) {
+                dst.position(dst.position() + read);
+            }
+        } else {
+            read = mStream.read(mBuffer, 0, Math.min(toRead, mBuffer.length));
+            if (read > 0) {
+                dst.put(mBuffer, 0, read);
+            }
+        }
+        if (read == -1) {
+            closeStream();
+            throw new EOFException("Response for " + mRemotePath + " ended before the range " +
+                "requested");
+        }
+        acquireBandwidth(read);
+        mStreamPosition += read;
+        mPosition += read;
+        return read;
+    }
+
+    /**
+     * @return  Current position in the remote file.
+     */
+    public synchronized long position() throws IOException {
+        ensureOpen();
+        return mPosition;
+    }
+
+    /**
+     * Sets the position of the next read; positions after the end of the file are allowed,
+     * and make reads return -1.
+     *
+     * @return  This channel.
+     */
+    public synchronized RemoteFileChannel position(long newPosition) throws IOException {
+        ensureOpen();
+        if (newPosition < 0) {
+            throw new IllegalArgumentException("Position may not be negative");
+        }
+        mPosition = newPosition;
+        return this;
+    }
+
+    /**
+     * @return  Size of the remote file; a HEAD request is sent if no data were read yet.
+     */
+    public synchronized long size() throws IOException {
+        ensureOpen();
+        if (mSize < 0) {
+            HeadMethod head = new HeadMethod(mUri);
+            try {
+                int status = mClient.executeMethod(head);
+                if (status != HttpStatus.SC_OK) {
+                    throw new IOException("Unexpected status " + status + " reading size of " +
+                        mRemotePath);
+                }
+                checkEtag(head);
+                mSize = readContentLength(head);
+            } finally {
+                head.releaseConnection();
+            }
+        }
+        return mSize;
+    }
+
+    /**
+     * @return  eTag of the remote file, or null if no request was sent yet.
+     */
+    public synchronized String getEtag() {
+        return mEtag;
+    }
+
+    @Override
+    public synchronized boolean isOpen() {
+        return mOpen;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (mOpen) {
+            mOpen = false;
+            closeStream();
+        }
+    }
+
+
+    private int readFromBlocks(ByteBuffer dst) throws IOException {
+        long index = mPosition / RemoteBlockCache.BLOCK_SIZE;
+        if (index != mBlockIndex && !loadBlock(index)) {
+            return -1;
+        }
+        int offset = (int) (mPosition - index * RemoteBlockCache.BLOCK_SIZE);
+        if (offset >= mBlock.length) {
+            return -1;  // after the end of the last block
+        }
+        int count = Math.min(dst.remaining(), mBlock.length - offset);
+        dst.put(mBlock, offset, count);
+        mPosition += count;
+        return count;
+    }
+
+    /**
+     * Loads a block from the cache, or from the server storing it in the cache.
+     *
+     * @return  'False' if the block is after the end of the file.
+     */
+    private boolean loadBlock(long index) throws IOException {
+        long start = index * RemoteBlockCache.BLOCK_SIZE;
+        byte[] block = (mEtag != null) ? mBlockCache.getBlock(mRemotePath, mEtag, index) : null;
+
+        if (block == null) {
+            // windows made of whole blocks
+            if (!prepareStream(start, Math.max(mReadAhead, RemoteBlockCache.BLOCK_SIZE))) {
+                return false;
+            }
+            int length = (int) Math.min(RemoteBlockCache.BLOCK_SIZE, mStreamEnd - start);
+            block = new byte[length];
+            int done = 0;
+            while (done < length) {
+                int read = mStream.read(block, done, length - done);
+                if (read == -1) {
+                    closeStream();
+                    throw new EOFException("Response for " + mRemotePath + " ended before " +
+                        "the range requested");
+                }
+                acquireBandwidth(read);
+                done += read;
+                mStreamPosition += read;
+            }
+            if (mEtag != null) {
+                mBlockCache.putBlock(mRemotePath, mEtag, index, block, length);
+            }
+        }
+        mBlock = block;
+        mBlockIndex = index;
+        return true;
+    }
+
+    /**
+     * Gets an open response with data from the given position, reusing the current one if
+     * possible.
+     *
+     * @param length    Length of the window to request if a new response is needed.
+     * @return          'False' if the position is after the end of the file.
+     */
+    private boolean prepareStream(long position, long length) throws IOException {
+        if (mStream != null && position != mStreamPosition) {
+            long distance = position - mStreamPosition;
+            if (distance > 0 && distance <= MAX_SKIP && position < mStreamEnd) {
+                skipStream(distance);
+            } else {
+                // random access; the next window starts small again
+                closeStream();
+                mReadAhead = MIN_READ_AHEAD;
+            }
+        }
+        if (mStream != null && mStreamPosition >= mStreamEnd) {
+            // window read sequentially; the next one is bigger
+            closeStream();
+            mReadAhead = (int) Math.min((long) mReadAhead * 2, MAX_READ_AHEAD);
+        }
+        return mStream != null || openStream(position, length);
+    }
+
+    /**
+     * Requests a window of the file.
+     *
+     * @return  'False' if the position is after the end of the file.
+     */
+    private boolean openStream(long position, long length) throws IOException {
+        long end = position + length;
+        if (mSize >= 0) {
+            end = Math.min(end, mSize);
+        }
+        mGet = new GetMethod(mUri);
+        mGet.addRequestHeader(RANGE_HEADER, "bytes=" + position + "-" + (end - 1));
+        boolean opened = false;
+        try {
+            int status = mClient.executeMethod(mGet);
+
+            if (status == HttpStatus.SC_REQUESTED_RANGE_NOT_SATISFIABLE) {
+                mClient.exhaustResponse(mGet.getResponseBodyAsStream());
+                long total = readRangeTotal(mGet);
+                mSize = (total >= 0) ? total : position;
+                return false;
+            }
+            if (status != HttpStatus.SC_PARTIAL_CONTENT && status != HttpStatus.SC_OK) {
+                mClient.exhaustResponse(mGet.getResponseBodyAsStream());
+                throw new IOException("Unexpected status " + status + " reading " + mRemotePath);
+            }
+            checkEtag(mGet);
+            mStream = mGet.getResponseBodyAsStream();
+
+            if (status == HttpStatus.SC_PARTIAL_CONTENT) {
+                long first = readRangeFirst(mGet);
+                if (first != position) {
+                    throw new IOException("Server sent range from " + first + " instead of " +
+                        position + " for " + mRemotePath);
+                }
+                long total = readRangeTotal(mGet);
+                if (total >= 0) {
+                    mSize = total;
+                }
+                mStreamPosition = position;
+                mStreamEnd = position + readContentLength(mGet);
+
+            } else {
+                // ranges not supported; the whole file comes, skip up to the position
+                Log_OC.w(TAG, "Server ignored range request for " + mRemotePath);
+                mSize = readContentLength(mGet);
+                mStreamPosition = 0;
+                mStreamEnd = mSize;
+                skipStream(Math.min(position, mSize));
+            }
+            opened = true;
+            return true;
+
+        } finally {
+            if (!opened) {
+                closeStream();
+            }
+        }
+    }
+
+    private void acquireBandwidth(int bytes) throws IOException {
+        if (mBandwidthLimiter != null) {
+            mBandwidthLimiter.acquire(bytes);
+        }
+    }
+
+    private void skipStream(long count) throws IOException {
+        long remaining = count;
+        while (remaining > 0) {
+            int read = mStream.read(mBuffer, 0, (int) Math.min(mBuffer.length, remaining));
+            if (read == -1) {
+                throw new EOFException("Response for " + mRemotePath + " ended before the range " +
+                    "requested");
+            }
+            acquireBandwidth(read);
+            remaining -= read;
+            mStreamPosition += read;
+        }
+    }
+
+    private void closeStream() {
+        if (mGet != null) {
+            if (mStream != null && mStreamEnd - mStreamPosition <= MAX_DRAIN) {
+                mClient.exhaustResponse(mStream);
+            } else {
+                mGet.abort();
+            }
+            mGet.releaseConnection();
+        }
+        mGet = null;
+        mStream = null;
+    }
+
+    private void checkEtag(HttpMethodBase method) throws IOException {
+        String etag = WebdavUtils.getEtagFromResponse(method);
+        if (etag.length() == 0) {
+            return;
+        }
+        if (mEtag == null) {
+            mEtag = etag;
+        } else if (!mEtag.equals(etag)) {
+            throw new IOException("Remote file " + mRemotePath + " changed while reading it");
+        }
+    }
+
+    private void ensureOpen() throws ClosedChannelException {
+        if (!mOpen) {
+            throw new ClosedChannelException();
+        }
+    }
+
+    private long readContentLength(HttpMethodBase method) throws IOException {
+        Header contentLength = method.getResponseHeader(CONTENT_LENGTH_HEADER);
+        if (contentLength == null) {
+            throw new IOException("No length in response for " + mRemotePath);
+        }
+        try {
+            return Long.parseLong(contentLength.getValue().trim());
+        } catch (NumberFormatException e) {
+            throw new IOException("Wrong length in response for " + mRemotePath + ": " +
+                contentLength.getValue());
+        }
+    }
+
+    /**
+     * @return  First byte in the Content-Range header, "bytes first-last/total"; -1 if unknown.
+     */
+    private static long readRangeFirst(HttpMethodBase method) {
+        Header contentRange = method.getResponseHeader(CONTENT_RANGE_HEADER);
+        if (contentRange == null) {
+            return -1;
+        }
+        String value = contentRange.getValue().trim();
+        int spaceIndex = value.indexOf(' ');
+        int dashIndex = value.indexOf('-');
+        if (spaceIndex < 0 || dashIndex < spaceIndex) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value.substring(spaceIndex + 1, dashIndex).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return  Total length in the Content-Range header, "bytes first-last/total" or
+     *          "bytes * /total"; -1 if unknown.
+     */
+    private static long readRangeTotal(HttpMethodBase method) {
+        Header contentRange = method.getResponseHeader(CONTENT_RANGE_HEADER);
+        if (contentRange == null) {
+            return -1;
+        }
+        String value = contentRange.getValue().trim();
+        int slashIndex = value.lastIndexOf('/');
+        if (slashIndex < 0) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value.substring(slashIndex + 1).trim());
+        } catch (NumberFormatException e) {
+            return -1;     // "*"
+        }
+    }
+
+}
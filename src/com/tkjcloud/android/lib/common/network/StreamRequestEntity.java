@@ -0,0 +1,174 @@
+/* tkjcloud Android Library is available under MIT license
+ *   Copyright (C) 2017 tkjcloud GmbH.
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *   NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *   BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *   ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *   CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *   THE SOFTWARE.
+ *
+ */
+
+package com.tkjcloud.android.lib.common.network;
+
+import org.apache.commons.httpclient.methods.RequestEntity;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+
+
+/**
+ * A RequestEntity that sends the contents of an {@link InputStream}, whose length may be
+ * unknown.
+ *
+ * When the length is not given, the request is sent with chunked transfer encoding. The stream
+ * is read once, so the entity is not repeatable, and it is not closed when the request is
+ * written.
+ */
+public class StreamRequestEntity implements RequestEntity, ProgressiveDataTransferer {
+
+    public static final long UNKNOWN_LENGTH = -1;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final InputStream mInputStream;
+    private final String mContentType;
+    private final long mLength;
+    private final String mName;
+    private long mProgressOffset = 0;
+    private TransferChecksum mChecksum = null;
+    private TransferProgressDispatcher mProgressDispatcher = new TransferProgressDispatcher();
+    private BandwidthLimiter mBandwidthLimiter = BandwidthLimiter.getGlobal();
+    private long mWritten = 0;
+
+
+    /**
+     * @param inputStream   Stream with the data to send.
+     * @param contentType   MIME type of the data.
+     * @param length        Number of bytes to send, or {@link #UNKNOWN_LENGTH} to send the
+     *                      whole stream.
+     * @param name          Name of the data, passed to the progress listeners.
+     */
+    public StreamRequestEntity(InputStream inputStream, String contentType, long length,
+                               String name) {
+        if (inputStream == null) {
+            throw new IllegalArgumentException("Input stream may not be null");
+        }
+        mInputStream = inputStream;
+        mContentType = contentType;
+        mLength = length;
+        mName = name;
+    }
+
+    @Override
+    public long getContentLength() {
+        return mLength;
+    }
+
+    @Override
+    public String getContentType() {
+        return mContentType;
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return false;
+    }
+
+    /**
+     * @return  Number of bytes written in the request.
+     */
+    public long getWritten() {
+        return mWritten;
+    }
+
+    /**
+     * Sets a checksum to update with the data, while they are sent.
+     */
+    public void setChecksum(TransferChecksum checksum) {
+        mChecksum = checksum;
+    }
+
+    /**
+     * Sets the amount of bytes sent before this entity, when the data are split in several
+     * requests, so that the progress reported covers all of them.
+     */
+    public void setProgressOffset(long progressOffset) {
+        mProgressOffset = progressOffset;
+    }
+
+    @Override
+    public void addDatatransferProgressListener(OnDatatransferProgressListener listener) {
+        mProgressDispatcher.addDatatransferProgressListener(listener);
+    }
+
+    @Override
+    public void addDatatransferProgressListeners(Collection<OnDatatransferProgressListener> listeners) {
+        mProgressDispatcher.addDatatransferProgressListeners(listeners);
+    }
+
+    @Override
+    public void removeDatatransferProgressListener(OnDatatransferProgressListener listener) {
+        mProgressDispatcher.removeDatatransferProgressListener(listener);
+    }
+
+    /**
+     * Replaces the dispatcher of progress updates, so that it can be shared with the operation
+     * owning this entity; listeners added before are not kept.
+     */
+    public void setProgressDispatcher(TransferProgressDispatcher progressDispatcher) {
+        mProgressDispatcher = progressDispatcher;
+    }
+
+    /**
+     * Sets the limiter of the bandwidth used to write the request; the global one by default.
+     */
+    public void setBandwidthLimiter(BandwidthLimiter bandwidthLimiter) {
+        mBandwidthLimiter = (bandwidthLimiter != null) ?
+            bandwidthLimiter : BandwidthLimiter.getGlobal();
+    }
+
+    @Override
+    public void writeRequest(OutputStream out) throws IOException {
+        byte[] bytes = new byte[BUFFER_SIZE];
+        mWritten = 0;
+        while (mLength == UNKNOWN_LENGTH || mWritten < mLength) {
+            int toRead = (mLength == UNKNOWN_LENGTH) ?
+                bytes.length : (int) Math.min(bytes.length, mLength - mWritten);
+            int readResult = mInputStream.read(bytes, 0, toRead);
+            if (readResult == -1) {
+                break;
+            }
+            mBandwidthLimiter.acquire(readResult);
+            out.write(bytes, 0, readResult);
+            if (mChecksum != null) {
+                mChecksum.update(bytes, 0, readResult);
+            }
+            mWritten += readResult;
+            mProgressDispatcher.onProgress(readResult, mProgressOffset + mWritten,
+                (mLength == UNKNOWN_LENGTH) ? UNKNOWN_LENGTH : mProgressOffset + mLength, mName);
+        }
+        if (mLength != UNKNOWN_LENGTH && mWritten < mLength) {
+            // the announced Content-Length can not be changed any more
+            throw new IOException("Stream of " + mName + " ended after " + mWritten + " of " +
+                mLength + " bytes");
+        }
+        mProgressDispatcher.flush();
+    }
+
+}
@@ -0,0 +1,451 @@
+/* tkjcloud Android Library is available under MIT license
+ *   Copyright (C) 2017 tkjcloud GmbH.
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *   NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *   BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *   ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *   CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *   THE SOFTWARE.
+ *
+ */
+
+package com.tkjcloud.android.lib.common.network;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.Calendar;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+
+/**
+ * Reads the entries of a ZIP archive from a stream, as it arrives.
+ *
+ * Unlike {@link java.util.zip.ZipInputStream}, it accepts stored (not compressed) entries whose
+ * sizes are only given in a data descriptor after the data, as written by servers that stream
+ * archives on the fly; the end of those entries is found by looking for a data descriptor that
+ * matches the CRC and length of the data read. ZIP64 sizes are supported. The central directory
+ * at the end of the archive is not read.
+ */
+public class StreamingZipReader {
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int DATA_DESCRIPTOR_SIGNATURE = 0x08074b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+
+    private static final int METHOD_STORED = 0;
+    private static final int METHOD_DEFLATED = 8;
+
+    private static final int FLAG_DATA_DESCRIPTOR = 1 << 3;
+
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** Bytes needed after a candidate signature to check a ZIP64 data descriptor */
+    private static final int DESCRIPTOR_LOOKAHEAD = 4 + 4 + 8 + 8;
+
+    private final InputStream mIn;
+    private final byte[] mBuffer = new byte[BUFFER_SIZE];
+    private int mBufferPos = 0;
+    private int mBufferEnd = 0;
+
+    private final CRC32 mCrc = new CRC32();
+    private final Inflater mInflater = new Inflater(true);
+    private Entry mEntry = null;
+    private long mEntryRead = 0;
+    private long mEntryCompressedRead = 0;
+    private boolean mEntryFinished = true;
+    private boolean mArchiveFinished = false;
+
+
+    /**
+     * Entry of the archive.
+     */
+    public static class Entry {
+        private final String mName;
+        private final int mMethod;
+        private final int mFlags;
+        private final long mTime;
+        private long mCrc;
+        private long mCompressedSize;
+        private long mSize;
+        private final boolean mZip64;
+
+        Entry(String name, int method, int flags, long time, long crc, long compressedSize,
+              long size, boolean zip64) {
+            mName = name;
+            mMethod = method;
+            mFlags = flags;
+            mTime = time;
+            mCrc = crc;
+            mCompressedSize = compressedSize;
+            mSize = size;
+            mZip64 = zip64;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        public boolean isDirectory() {
+            return mName.endsWith("/");
+        }
+
+        /**
+         * @return  Modification time in milliseconds, or -1 if unknown.
+         */
+        public long getTime() {
+            return mTime;
+        }
+
+        /**
+         * @return  Size of the data, or -1 if it is only known after reading them.
+         */
+        public long getSize() {
+            return hasDescriptor() && mSize == 0 ? -1 : mSize;
+        }
+
+        boolean hasDescriptor() {
+            return (mFlags & FLAG_DATA_DESCRIPTOR) != 0;
+        }
+    }
+
+
+    public StreamingZipReader(InputStream in) {
+        mIn = in;
+    }
+
+    /**
+     * Skips what is left of the current entry and reads the header of the next one.
+     *
+     * @return  Next entry, or null at the end of the entries.
+     */
+    public Entry nextEntry() throws IOException {
+        if (mArchiveFinished) {
+            return null;
+        }
+        if (!mEntryFinished) {
+            byte[] skipBuffer = new byte[BUFFER_SIZE];
+            while (read(skipBuffer, 0, skipBuffer.length) != -1) {
+                // skip
+            }
+        }
+
+        int signature = (int) readLe(4);
+        if (signature == CENTRAL_HEADER_SIGNATURE ||
+            signature == END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+            mArchiveFinished = true;
+            return null;
+        }
+        if (signature != LOCAL_HEADER_SIGNATURE) {
+            throw new ZipException("Wrong local header signature: " +
+                Integer.toHexString(signature));
+        }
+
+        readLe(2);  // version needed to extract
+        int flags = (int) readLe(2);
+        int method = (int) readLe(2);
+        long dosTime = readLe(4);
+        long crc = readLe(4);
+        long compressedSize = readLe(4);
+        long size = readLe(4);
+        int nameLength = (int) readLe(2);
+        int extraLength = (int) readLe(2);
+        byte[] name = readFully(nameLength);
+        byte[] extra = readFully(extraLength);
+
+        boolean zip64 = false;
+        for (int i = 0; i + 4 <= extra.length; ) {
+            int id = (int) getLe(extra, i, 2);
+            int length = (int) getLe(extra, i + 2, 2);
+            if (id == ZIP64_EXTRA_ID) {
+                zip64 = true;
+                int pos = i + 4;
+                if (size == ZIP64_MAGIC && pos + 8 <= extra.length) {
+                    size = getLe(extra, pos, 8);
+                    pos += 8;
+                }
+                if (compressedSize == ZIP64_MAGIC && pos + 8 <= extra.length) {
+                    compressedSize = getLe(extra, pos, 8);
+                }
+            }
+            i += 4 + length;
+        }
+
+        if (method != METHOD_STORED && method != METHOD_DEFLATED) {
+            throw new ZipException("Unsupported compression method " + method);
+        }
+        if ((flags & 1) != 0) {
+            throw new ZipException("Encrypted entries are not supported");
+        }
+
+        mEntry = new Entry(decodeName(name), method, flags, dosToJavaTime(dosTime), crc,
+            compressedSize, size, zip64);
+        mEntryRead = 0;
+        mEntryCompressedRead = 0;
+        mEntryFinished = false;
+        mCrc.reset();
+        mInflater.reset();
+        return mEntry;
+    }
+
+    /**
+     * Reads data of the current entry.
+     *
+     * @return  Number of bytes read, or -1 at the end of the entry.
+     */
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (mEntry == null || mEntryFinished) {
+            return -1;
+        }
+        if (len == 0) {
+            return 0;
+        }
+        int read;
+        if (mEntry.mMethod == METHOD_DEFLATED) {
+            read = readDeflated(b, off, len);
+        } else if (mEntry.hasDescriptor() && mEntry.mCompressedSize == 0) {
+            read = readStoredUntilDescriptor(b, off, len);
+        } else {
+            read = readStored(b, off, len);
+        }
+        if (read > 0) {
+            mCrc.update(b, off, read);
+            mEntryRead += read;
+        } else {
+            finishEntry();
+        }
+        return read;
+    }
+
+    /**
+     * Releases the resources used to decompress; the stream is not closed.
+     */
+    public void close() {
+        mInflater.end();
+    }
+
+
+    private int readStored(byte[] b, int off, int len) throws IOException {
+        long remaining = mEntry.mCompressedSize - mEntryCompressedRead;
+        if (remaining <= 0) {
+            if (mEntry.hasDescriptor()) {
+                readDescriptor();
+            }
+            return -1;
+        }
+        fill(1);
+        int count = (int) Math.min(Math.min(len, remaining), mBufferEnd - mBufferPos);
+        System.arraycopy(mBuffer, mBufferPos, b, off, count);
+        mBufferPos += count;
+        mEntryCompressedRead += count;
+        return count;
+    }
+
+    private int readDeflated(byte[] b, int off, int len) throws IOException {
+        try {
+            int count;
+            while ((count = mInflater.inflate(b, off, len)) == 0) {
+                if (mInflater.finished()) {
+                    // give back what the inflater did not use
+                    mBufferPos -= mInflater.getRemaining();
+                    mEntryCompressedRead -= mInflater.getRemaining();
+                    if (mEntry.hasDescriptor()) {
+                        readDescriptor();
+                    }
+                    return -1;
+                }
+                if (mInflater.needsDictionary()) {
+                    throw new ZipException("Deflated entry needs a dictionary");
+                }
+                if (mInflater.needsInput()) {
+                    fill(1);
+                    int available = mBufferEnd - mBufferPos;
+                    mInflater.setInput(mBuffer, mBufferPos, available);
+                    mBufferPos += available;
+                    mEntryCompressedRead += available;
+                }
+            }
+            return count;
+
+        } catch (DataFormatException e) {
+            ZipException ze = new ZipException("Corrupted deflated data in " + mEntry.getName());
+            ze.initCause(e);
+            throw ze;
+        }
+    }
+
+    /**
+     * Reads a stored entry of unknown size, delivering data up to the first data descriptor
+     * that matches them.
+     */
+    private int readStoredUntilDescriptor(byte[] b, int off, int len) throws IOException {
+        fill(4 + DESCRIPTOR_LOOKAHEAD);
+        if (mBufferEnd - mBufferPos < 4) {
+            throw new EOFException("Unexpected end of ZIP data in " + mEntry.getName());
+        }
+        if (getLe(mBuffer, mBufferPos, 4) == DATA_DESCRIPTOR_SIGNATURE &&
+            matchesDescriptor(mBufferPos + 4, mBufferEnd)) {
+            return -1;
+        }
+        // deliver up to the next candidate signature, that will be checked in the next call
+        int limit = Math.min(mBufferPos + len, mBufferEnd - 3);
+        int end = mBufferPos + 1;
+        while (end < limit && getLe(mBuffer, end, 4) != DATA_DESCRIPTOR_SIGNATURE) {
+            end++;
+        }
+        int count = end - mBufferPos;
+        System.arraycopy(mBuffer, mBufferPos, b, off, count);
+        mBufferPos += count;
+        mEntryCompressedRead += count;
+        return count;
+    }
+
+    /**
+     * Checks if a data descriptor starting at the given position, after the signature, matches
+     * the data read; if so, consumes it and sets the sizes of the entry.
+     */
+    private boolean matchesDescriptor(int pos, int end) {
+        long crc = mCrc.getValue();
+        if (end - pos >= 12 && getLe(mBuffer, pos, 4) == crc &&
+            getLe(mBuffer, pos + 4, 4) == mEntryRead && getLe(mBuffer, pos + 8, 4) == mEntryRead) {
+            consumeDescriptor(crc, pos + 12);
+            return true;
+        }
+        if (end - pos >= 20 && getLe(mBuffer, pos, 4) == crc &&
+            getLe(mBuffer, pos + 4, 8) == mEntryRead && getLe(mBuffer, pos + 12, 8) == mEntryRead) {
+            consumeDescriptor(crc, pos + 20);
+            return true;
+        }
+        return false;
+    }
+
+    private void consumeDescriptor(long crc, int newPos) {
+        mEntry.mCrc = crc;
+        mEntry.mCompressedSize = mEntryRead;
+        mEntry.mSize = mEntryRead;
+        mBufferPos = newPos;
+    }
+
+    private void readDescriptor() throws IOException {
+        long value = readLe(4);
+        if (value == (DATA_DESCRIPTOR_SIGNATURE & 0xFFFFFFFFL)) {
+            value = readLe(4);  // the signature is optional
+        }
+        mEntry.mCrc = value;
+        int sizeLength = mEntry.mZip64 ? 8 : 4;
+        mEntry.mCompressedSize = readLe(sizeLength);
+        mEntry.mSize = readLe(sizeLength);
+    }
+
+    private void finishEntry() throws IOException {
+        mEntryFinished = true;
+        if (mCrc.getValue() != mEntry.mCrc) {
+            throw new ZipException("CRC mismatch in " + mEntry.getName());
+        }
+        if (mEntryRead != mEntry.mSize) {
+            throw new ZipException("Wrong size of " + mEntry.getName() + ": " + mEntryRead +
+                " instead of " + mEntry.mSize);
+        }
+    }
+
+    /**
+     * Tries to have at least the given amount of bytes in the buffer; less are available only
+     * at the end of the stream.
+     */
+    private void fill(int needed) throws IOException {
+        if (mBufferEnd - mBufferPos >= needed) {
+            return;
+        }
+        if (mBufferPos > 0) {
+            System.arraycopy(mBuffer, mBufferPos, mBuffer, 0, mBufferEnd - mBufferPos);
+            mBufferEnd -= mBufferPos;
+            mBufferPos = 0;
+        }
+        while (mBufferEnd < needed) {
+            int read = mIn.read(mBuffer, mBufferEnd, mBuffer.length - mBufferEnd);
+            if (read == -1) {
+                if (mBufferEnd == 0 && needed > 0) {
+                    throw new EOFException("Unexpected end of ZIP data");
+                }
+                return;
+            }
+            mBufferEnd += read;
+        }
+    }
+
+    private byte[] readFully(int length) throws IOException {
+        byte[] bytes = new byte[length];
+        int done = 0;
+        while (done < length) {
+            fill(1);
+            int count = Math.min(length - done, mBufferEnd - mBufferPos);
+            System.arraycopy(mBuffer, mBufferPos, bytes, done, count);
+            mBufferPos += count;
+            done += count;
+        }
+        return bytes;
+    }
+
+    private long readLe(int length) throws IOException {
+        fill(length);
+        if (mBufferEnd - mBufferPos < length) {
+            throw new EOFException("Unexpected end of ZIP data");
+        }
+        long value = getLe(mBuffer, mBufferPos, length);
+        mBufferPos += length;
+        return value;
+    }
+
+    private static long getLe(byte[] bytes, int pos, int length) {
+        long value = 0;
+        for (int i = length - 1; i >= 0; i--) {
+            value = (value << 8) | (bytes[pos + i] & 0xFF);
+        }
+        return value;
+    }
+
+    private static String decodeName(byte[] name) throws UnsupportedEncodingException {
+        // names are UTF-8 even when the language encoding flag is not set; servers do not
+        // write CP437
+        return new String(name, "UTF-8");
+    }
+
+    private static long dosToJavaTime(long dosTime) {
+        if (dosTime == 0) {
+            return -1;
+        }
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(
+            (int) ((dosTime >> 25) & 0x7f) + 1980,
+            (int) ((dosTime >> 21) & 0x0f) - 1,
+            (int) ((dosTime >> 16) & 0x1f),
+            (int) ((dosTime >> 11) & 0x1f),
+            (int) ((dosTime >> 5) & 0x3f),
+            (int) ((dosTime << 1) & 0x3e)
+        );
+        return calendar.getTimeInMillis();
+    }
+
+}
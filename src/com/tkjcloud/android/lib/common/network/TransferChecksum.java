@@ -0,0 +1,220 @@
+/* tkjcloud Android Library is available under MIT license
+ *   Copyright (C) 2017 tkjcloud GmbH.
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *   NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *   BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *   ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *   CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *   THE SOFTWARE.
+ *
+ */
+
+package com.tkjcloud.android.lib.common.network;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+import java.util.zip.Adler32;
+
+
+/**
+ * Checksum of the contents of a file, computed while the contents are transferred.
+ *
+ * Values are formatted as expected in the OC-Checksum header: "&lt;TYPE&gt;:&lt;hex value&gt;",
+ * for instance "SHA1:da39a3ee5e6b4b0d3255bfef95601890afd80709".
+ */
+public class TransferChecksum {
+
+    public static final String OC_CHECKSUM_HEADER = "OC-Checksum";
+
+    public enum Type {
+        SHA1("SHA1", "SHA-1"),
+        MD5("MD5", "MD5"),
+        ADLER32("ADLER32", null);
+
+        private final String mName;
+        private final String mAlgorithm;
+
+        Type(String name, String algorithm) {
+            mName = name;
+            mAlgorithm = algorithm;
+        }
+
+        /**
+         * @return  Name of the type in the OC-Checksum header.
+         */
+        public String getName() {
+            return mName;
+        }
+
+        /**
+         * @param name  Name of a type in the OC-Checksum header, in any case.
+         * @return      Type with that name, or null if unknown.
+         */
+        public static Type fromName(String name) {
+            for (Type type : values()) {
+                if (type.mName.equalsIgnoreCase(name)) {
+                    return type;
+                }
+            }
+            return null;
+        }
+    }
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final Type mType;
+    private MessageDigest mDigest = null;
+    private Adler32 mAdler32 = null;
+    private String mValue = null;
+    private String mExpectedValue = null;
+
+
+    public TransferChecksum(Type type) {
+        if (type == null) {
+            throw new IllegalArgumentException("Checksum type may not be null");
+        }
+        mType = type;
+        if (type == Type.ADLER32) {
+            mAdler32 = new Adler32();
+        } else {
+            try {
+                mDigest = MessageDigest.getInstance(type.mAlgorithm);
+            } catch (NoSuchAlgorithmException e) {
+                // every Java platform must support SHA-1 and MD5
+                throw new IllegalStateException("Digest algorithm not available: " +
+                    type.mAlgorithm, e);
+            }
+        }
+    }
+
+    /**
+     * Creates a checksum to verify the contents of a file against the value sent by the server.
+     *
+     * @param header    Value of an OC-Checksum header; may contain several checksums of different
+     *                  types separated by spaces, as in "SHA1:&lt;hex&gt; MD5:&lt;hex&gt;".
+     * @return          Checksum of the first supported type in the header, expecting the value
+     *                  in the header; null if the header contains no supported checksum.
+     */
+    public static TransferChecksum fromHeader(String header) {
+        if (header == null) {
+            return null;
+        }
+        String[] entries = header.trim().split("\\s+");
+        for (String entry : entries) {
+            int separator = entry.indexOf(':');
+            if (separator > 0 && separator < entry.length() - 1) {
+                Type type = Type.fromName(entry.substring(0, separator));
+                if (type != null) {
+                    TransferChecksum checksum = new TransferChecksum(type);
+                    checksum.mExpectedValue = entry.substring(separator + 1).toLowerCase(Locale.US);
+                    return checksum;
+                }
+            }
+        }
+        return null;
+    }
+
+    public Type getType() {
+        return mType;
+    }
+
+    public void update(byte[] data, int offset, int length) {
+        if (mAdler32 != null) {
+            mAdler32.update(data, offset, length);
+        } else {
+            mDigest.update(data, offset, length);
+        }
+        mValue = null;
+    }
+
+    /**
+     * Updates the checksum with the remaining bytes of a buffer, without changing its position.
+     */
+    public void update(ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            update(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        } else {
+            ByteBuffer copy = buffer.duplicate();
+            byte[] data = new byte[copy.remaining()];
+            copy.get(data);
+            update(data, 0, data.length);
+        }
+    }
+
+    public void reset() {
+        if (mAdler32 != null) {
+            mAdler32.reset();
+        } else {
+            mDigest.reset();
+        }
+        mValue = null;
+    }
+
+    /**
+     * @return  Hexadecimal value of the checksum of all the data passed so far.
+     */
+    public String getValue() {
+        if (mValue == null) {
+            if (mAdler32 != null) {
+                mValue = String.format(Locale.US, "%08x", mAdler32.getValue());
+            } else {
+                try {
+                    // digest() would reset the digest; work on a copy to allow further updates
+                    mValue = toHex(((MessageDigest) mDigest.clone()).digest());
+                } catch (CloneNotSupportedException e) {
+                    throw new IllegalStateException("Digest can not be cloned", e);
+                }
+            }
+        }
+        return mValue;
+    }
+
+    /**
+     * @return  Value for the OC-Checksum header, "&lt;TYPE&gt;:&lt;hex value&gt;".
+     */
+    public String getHeaderValue() {
+        return mType.getName() + ":" + getValue();
+    }
+
+
+    /**
+     * @return  Value expected for the checksum, if created with {@link #fromHeader(String)}.
+     */
+    public String getExpectedValue() {
+        return mExpectedValue;
+    }
+
+    /**
+     * @return  'true' if the value of the checksum of all the data passed so far is the expected
+     *          one.
+     */
+    public boolean matchesExpectedValue() {
+        return mExpectedValue != null && mExpectedValue.equals(getValue());
+    }
+
+
+    private static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0x0f];
+            chars[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0x0f];
+        }
+        return new String(chars);
+    }
+
+}
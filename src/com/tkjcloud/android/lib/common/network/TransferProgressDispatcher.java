@@ -0,0 +1,215 @@
+/* tkjcloud Android Library is available under MIT license
+ *   Copyright (C) 2017 tkjcloud GmbH.
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *   NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *   BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *   ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *   CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *   THE SOFTWARE.
+ *
+ */
+
+package com.tkjcloud.android.lib.common.network;
+
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+
+/**
+ * Delivers the progress of a data transfer to a set of {@link OnDatatransferProgressListener}s,
+ * coalescing the updates reported for every buffer transferred.
+ *
+ * Listeners are notified at most once per minimum interval, and only when a minimum amount of
+ * bytes was transferred since the previous notification; the end of the transfer is always
+ * notified. The progress rate passed to the listeners is the amount of bytes transferred since
+ * the previous notification.
+ *
+ * By default listeners are notified in the thread reporting the progress, usually the one doing
+ * the I/O. If an {@link Executor} is set, notifications are posted to it instead; while one is
+ * pending, later updates are merged into it.
+ *
+ * Listeners are kept in a copy-on-write set, so they can be added or removed at any moment
+ * without blocking the transfer.
+ */
+public class TransferProgressDispatcher implements ProgressiveDataTransferer {
+
+    public static final long DEFAULT_MIN_INTERVAL_MS = 100;
+    public static final long DEFAULT_MIN_BYTES = 0;
+
+    private final Set<OnDatatransferProgressListener> mListeners =
+        new CopyOnWriteArraySet<OnDatatransferProgressListener>();
+
+    private final Object mLock = new Object();
+    private final AtomicBoolean mDeliveryPosted = new AtomicBoolean(false);
+    private volatile Executor mExecutor = null;
+    private long mMinIntervalNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_MIN_INTERVAL_MS);
+    private long mMinBytes = DEFAULT_MIN_BYTES;
+
+    // state pending of notification; guarded by mLock
+    private long mPendingBytes = 0;
+    private long mTransferred = 0;
+    private long mTotal = -1;
+    private String mFileName = null;
+    private long mLastNotification = System.nanoTime();
+
+    private final Runnable mDeliveryTask = new Runnable() {
+        @Override
+        public void run() {
+            deliver();
+        }
+    };
+
+    @Override
+    public void addDatatransferProgressListener(OnDatatransferProgressListener listener) {
+        mListeners.add(listener);
+    }
+
+    @Override
+    public void addDatatransferProgressListeners(
+        Collection<OnDatatransferProgressListener> listeners
+    ) {
+        mListeners.addAll(listeners);
+    }
+
+    @Override
+    public void removeDatatransferProgressListener(OnDatatransferProgressListener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * @return  Live set of listeners; safe to iterate while it is modified.
+     */
+    public Set<OnDatatransferProgressListener> getListeners() {
+        return mListeners;
+    }
+
+    /**
+     * Sets the thresholds to notify the listeners.
+     *
+     * @param minIntervalMs     Minimum time between notifications, in milliseconds; 0 notifies
+     *                          every update.
+     * @param minBytes          Minimum amount of bytes transferred between notifications.
+     */
+    public void setThresholds(long minIntervalMs, long minBytes) {
+        synchronized (mLock) {
+            mMinIntervalNanos = TimeUnit.MILLISECONDS.toNanos(minIntervalMs);
+            mMinBytes = minBytes;
+        }
+    }
+
+    /**
+     * Sets an executor to notify the listeners out of the thread doing the transfer; for
+     * instance, one posting to a {@link android.os.Handler}.
+     *
+     * @param executor      Executor for the notifications, or null to notify them in the
+     *                      thread reporting the progress.
+     */
+    public void setExecutor(Executor executor) {
+        mExecutor = executor;
+    }
+
+    /**
+     * Clears the progress of a previous transfer, so that a new one can start from zero.
+     */
+    public void reset() {
+        synchronized (mLock) {
+            mPendingBytes = 0;
+            mTransferred = 0;
+            mTotal = -1;
+            mLastNotification = System.nanoTime();
+        }
+    }
+
+    /**
+     * Reports the progress of the transfer; can be called from several threads.
+     *
+     * @param progressRate      Bytes transferred since the previous report.
+     * @param transferred       Total bytes transferred so far.
+     * @param total             Total bytes to transfer, or -1 if unknown.
+     * @param fileName          Absolute name of the file transferred.
+     */
+    public void onProgress(long progressRate, long transferred, long total, String fileName) {
+        if (mListeners.isEmpty()) {
+            return;
+        }
+        boolean notify;
+        synchronized (mLock) {
+            mPendingBytes += progressRate;
+            // reports from parallel threads may arrive out of order
+            mTransferred = Math.max(mTransferred, transferred);
+            mTotal = total;
+            mFileName = fileName;
+            long now = System.nanoTime();
+            notify = (total > 0 && mTransferred >= total) ||
+                (mPendingBytes >= mMinBytes && now - mLastNotification >= mMinIntervalNanos);
+            if (notify) {
+                mLastNotification = now;
+            }
+        }
+        if (notify) {
+            dispatch();
+        }
+    }
+
+    /**
+     * Notifies the listeners of any progress pending of notification.
+     */
+    public void flush() {
+        boolean pending;
+        synchronized (mLock) {
+            pending = (mPendingBytes > 0);
+            mLastNotification = System.nanoTime();
+        }
+        if (pending) {
+            dispatch();
+        }
+    }
+
+
+    private void dispatch() {
+        Executor executor = mExecutor;
+        if (executor == null) {
+            deliver();
+        } else if (mDeliveryPosted.compareAndSet(false, true)) {
+            executor.execute(mDeliveryTask);
+        }
+    }
+
+    private void deliver() {
+        long progressRate;
+        long transferred;
+        long total;
+        String fileName;
+        synchronized (mLock) {
+            mDeliveryPosted.set(false);
+            progressRate = mPendingBytes;
+            transferred = mTransferred;
+            total = mTotal;
+            fileName = mFileName;
+            mPendingBytes = 0;
+        }
+        if (progressRate > 0) {
+            for (OnDatatransferProgressListener listener : mListeners) {
+                listener.onTransferProgress(progressRate, transferred, total, fileName);
+            }
+        }
+    }
+
+}
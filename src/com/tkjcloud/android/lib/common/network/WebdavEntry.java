@@ -34,8 +34,11 @@ import org.apache.jackrabbit.webdav.property.DavPropertyName;
 import org.apache.jackrabbit.webdav.property.DavPropertySet;
 import org.apache.jackrabbit.webdav.xml.Namespace;
 
+import org.w3c.dom.Node;
+
 import java.math.BigDecimal;
 import java.util.Date;
+import java.util.List;
 
 public class WebdavEntry {
 
@@ -46,6 +49,7 @@ public class WebdavEntry {
 	public static final String EXTENDED_PROPERTY_NAME_REMOTE_ID = "id";
     public static final String EXTENDED_PROPERTY_NAME_SIZE = "size";
     public static final String EXTENDED_PROPERTY_FAVORITE = "favorite";
+    public static final String EXTENDED_PROPERTY_NAME_CHECKSUMS = "checksums";
 
     public static final String PROPERTY_QUOTA_USED_BYTES = "quota-used-bytes";
     public static final String PROPERTY_QUOTA_AVAILABLE_BYTES = "quota-available-bytes";
@@ -60,6 +64,7 @@ public class WebdavEntry {
     private String mPermissions;
     private String mRemoteId;
     private boolean mIsFavorite;
+    private String mChecksums;
     private long mContentLength, mCreateTimestamp, mModifiedTimestamp, mSize;
     private BigDecimal mQuotaUsedBytes, mQuotaAvailableBytes;
 
@@ -210,11 +215,44 @@ public class WebdavEntry {
                 mIsFavorite = false;
             }
 
+            // OC checksums property <oc:checksums><oc:checksum>SHA1:... MD5:...</oc:checksum>
+            prop = propSet.get(EXTENDED_PROPERTY_NAME_CHECKSUMS,
+                Namespace.getNamespace(NAMESPACE_OC));
+            if (prop != null) {
+                mChecksums = getTextContent(prop.getValue());
+            }
+
         } else {
             Log_OC.e("WebdavEntry", "General fuckup, no status for webdav response");
         }
     }
 
+    /**
+     * Text content of a property value parsed by Jackrabbit; it can be a String, a DOM node,
+     * or a list of them.
+     */
+    private static String getTextContent(Object value) {
+        if (value == null) {
+            return null;
+        } else if (value instanceof Node) {
+            return ((Node) value).getTextContent().trim();
+        } else if (value instanceof List) {
+            StringBuilder builder = new StringBuilder();
+            for (Object item : (List<?>) value) {
+                String text = getTextContent(item);
+                if (text != null && text.length() > 0) {
+                    if (builder.length() > 0) {
+                        builder.append(' ');
+                    }
+                    builder.append(text);
+                }
+            }
+            return builder.toString();
+        } else {
+            return value.toString().trim();
+        }
+    }
+
     public boolean isFavorite() {
         return mIsFavorite;
     }
@@ -271,6 +309,14 @@ public class WebdavEntry {
         return mRemoteId;
     }
 
+    /**
+     * @return  Checksums of the file stored in the server, formatted as in the OC-Checksum header
+     *          ("SHA1:&lt;hex&gt; MD5:&lt;hex&gt;"), or null if not known.
+     */
+    public String checksums() {
+        return mChecksums;
+    }
+
     public long size(){
         return mSize;
     }
@@ -290,5 +336,6 @@ public class WebdavEntry {
         mQuotaUsedBytes = null;
         mQuotaAvailableBytes = null;
         mIsFavorite = false;
+        mChecksums = null;
     }
 }
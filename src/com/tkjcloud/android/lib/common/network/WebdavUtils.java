@@ -113,6 +113,21 @@ public class WebdavUtils {
         return propSet;
     }
 
+    /**
+     * Builds a DavPropertyNameSet with the properties needed to compare a file with a local one
+     * @return
+     */
+    public static DavPropertyNameSet getChecksumPropSet(){
+        DavPropertyNameSet propSet = new DavPropertyNameSet();
+        propSet.add(DavPropertyName.RESOURCETYPE);
+        propSet.add(DavPropertyName.GETCONTENTLENGTH);
+        propSet.add(DavPropertyName.GETETAG);
+        propSet.add(WebdavEntry.EXTENDED_PROPERTY_NAME_CHECKSUMS,
+                Namespace.getNamespace(WebdavEntry.NAMESPACE_OC));
+
+        return propSet;
+    }
+
     /**
      * Builds a DavPropertyNameSet with properties for files
      * @return
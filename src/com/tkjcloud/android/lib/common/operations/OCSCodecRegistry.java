@@ -0,0 +1,134 @@
+/* tkjcloud Android Library is available under MIT license
+ *   Copyright (C) 2017 tkjcloud GmbH.
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *   NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *   BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *   ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *   CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *   THE SOFTWARE.
+ *
+ */
+
+package com.tkjcloud.android.lib.common.operations;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.reflect.TypeToken;
+import com.tkjcloud.android.lib.resources.activities.models.Activity;
+import com.tkjcloud.android.lib.resources.activities.models.ActivityTypeAdapter;
+import com.tkjcloud.android.lib.resources.activities.models.RichElement;
+import com.tkjcloud.android.lib.resources.activities.models.RichElementTypeAdapter;
+import com.tkjcloud.android.lib.resources.notifications.models.Action;
+import com.tkjcloud.android.lib.resources.notifications.models.ActionTypeAdapter;
+import com.tkjcloud.android.lib.resources.notifications.models.Notification;
+import com.tkjcloud.android.lib.resources.notifications.models.NotificationTypeAdapter;
+import com.tkjcloud.android.lib.resources.notifications.models.PushResponse;
+import com.tkjcloud.android.lib.resources.notifications.models.PushResponseTypeAdapter;
+import com.tkjcloud.android.lib.resources.notifications.models.RichObject;
+import com.tkjcloud.android.lib.resources.notifications.models.RichObjectTypeAdapter;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+
+/**
+ * Process-wide registry of the JSON codecs for the models of OCS responses.
+ *
+ * The type adapters of the models are written by hand, so they need no reflection, and are
+ * built once; operations get them from here instead of creating a Gson instance per request.
+ * The adapters are stateless and can be used from several threads at once.
+ */
+public final class OCSCodecRegistry {
+
+    // Gson's own adapter for dates, which accepts the formats sent by the server
+    private static final TypeAdapter<Date> DATE_ADAPTER = new Gson().getAdapter(Date.class);
+
+    private static final TypeAdapter<RichElement> RICH_ELEMENT_ADAPTER =
+        new RichElementTypeAdapter();
+    private static final TypeAdapter<Activity> ACTIVITY_ADAPTER =
+        new ActivityTypeAdapter(DATE_ADAPTER, RICH_ELEMENT_ADAPTER);
+
+    private static final TypeAdapter<RichObject> RICH_OBJECT_ADAPTER =
+        new RichObjectTypeAdapter();
+    private static final TypeAdapter<Action> ACTION_ADAPTER = new ActionTypeAdapter();
+    private static final TypeAdapter<Notification> NOTIFICATION_ADAPTER =
+        new NotificationTypeAdapter(DATE_ADAPTER, RICH_OBJECT_ADAPTER, ACTION_ADAPTER);
+    private static final TypeAdapter<PushResponse> PUSH_RESPONSE_ADAPTER =
+        new PushResponseTypeAdapter();
+
+    private static final Gson GSON = new GsonBuilder()
+        .registerTypeAdapter(Date.class, DATE_ADAPTER)
+        .registerTypeAdapter(RichElement.class, RICH_ELEMENT_ADAPTER)
+        .registerTypeAdapter(Activity.class, ACTIVITY_ADAPTER)
+        .registerTypeAdapter(RichObject.class, RICH_OBJECT_ADAPTER)
+        .registerTypeAdapter(Action.class, ACTION_ADAPTER)
+        .registerTypeAdapter(Notification.class, NOTIFICATION_ADAPTER)
+        .registerTypeAdapter(PushResponse.class, PUSH_RESPONSE_ADAPTER)
+        .create();
+
+    private static final TypeAdapter<ArrayList<Activity>> ACTIVITY_LIST_ADAPTER =
+        GSON.getAdapter(new TypeToken<ArrayList<Activity>>(){});
+    private static final TypeAdapter<List<Notification>> NOTIFICATION_LIST_ADAPTER =
+        GSON.getAdapter(new TypeToken<List<Notification>>(){});
+
+
+    private OCSCodecRegistry() {
+        // no instances
+    }
+
+    /**
+     * @return  Gson instance with the adapters of all the OCS models registered, for other
+     *          types composed of them. Gson caches the adapters it builds, so get them once
+     *          when possible.
+     */
+    public static Gson getGson() {
+        return GSON;
+    }
+
+    public static TypeAdapter<Activity> getActivityAdapter() {
+        return ACTIVITY_ADAPTER;
+    }
+
+    public static TypeAdapter<ArrayList<Activity>> getActivityListAdapter() {
+        return ACTIVITY_LIST_ADAPTER;
+    }
+
+    public static TypeAdapter<RichElement> getRichElementAdapter() {
+        return RICH_ELEMENT_ADAPTER;
+    }
+
+    public static TypeAdapter<Notification> getNotificationAdapter() {
+        return NOTIFICATION_ADAPTER;
+    }
+
+    public static TypeAdapter<List<Notification>> getNotificationListAdapter() {
+        return NOTIFICATION_LIST_ADAPTER;
+    }
+
+    public static TypeAdapter<RichObject> getRichObjectAdapter() {
+        return RICH_OBJECT_ADAPTER;
+    }
+
+    public static TypeAdapter<Action> getActionAdapter() {
+        return ACTION_ADAPTER;
+    }
+
+    public static TypeAdapter<PushResponse> getPushResponseAdapter() {
+        return PUSH_RESPONSE_ADAPTER;
+    }
+}
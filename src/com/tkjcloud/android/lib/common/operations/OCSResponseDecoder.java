@@ -0,0 +1,298 @@
+/* tkjcloud Android Library is available under MIT license
+ *   Copyright (C) 2017 tkjcloud GmbH.
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *   NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *   BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *   ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *   CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *   THE SOFTWARE.
+ *
+ */
+
+package com.tkjcloud.android.lib.common.operations;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+
+/**
+ * Decodes the JSON responses of OCS endpoints while they are read from the network.
+ *
+ * The 'data' node is handed to a {@link DataReader} positioned on it, so that models are built
+ * straight from the stream with no intermediate String or JSON tree. The 'meta' node is checked
+ * on the way; when it comes first and reports a failure, the data are skipped without building
+ * anything.
+ */
+public class OCSResponseDecoder {
+
+    private static final String CHARSET = "UTF-8";
+
+    // JSON Node names
+    private static final String NODE_OCS = "ocs";
+    private static final String NODE_META = "meta";
+    private static final String NODE_DATA = "data";
+    private static final String PROPERTY_STATUS = "status";
+    private static final String PROPERTY_STATUSCODE = "statuscode";
+    private static final String PROPERTY_MESSAGE = "message";
+
+    private static final String STATUS_OK = "ok";
+    private static final int STATUSCODE_OK_V1 = 100;
+    private static final int STATUSCODE_OK_V2 = 200;
+
+
+    /**
+     * Builds a model from the 'data' node of an OCS response.
+     *
+     * @param <T>   Type of the model.
+     */
+    public interface DataReader<T> {
+
+        /**
+         * @param reader    Reader positioned on the value of the 'data' node; the implementation
+         *                  must consume that value completely.
+         * @return          Model built from the value.
+         */
+        T read(JsonReader reader) throws IOException;
+    }
+
+
+    /**
+     * Decoded OCS response.
+     *
+     * @param <T>   Type of the model in the 'data' node.
+     */
+    public static class Response<T> {
+
+        private String mStatus = null;
+        private int mStatusCode = -1;
+        private String mMessage = null;
+        private boolean mMetaRead = false;
+        private T mData = null;
+
+        /**
+         * @return  'True' if the 'meta' node reported success.
+         */
+        public boolean isSuccess() {
+            if (!mMetaRead) {
+                return false;
+            }
+            if (mStatus != null) {
+                return STATUS_OK.equalsIgnoreCase(mStatus);
+            }
+            return mStatusCode == STATUSCODE_OK_V1 || mStatusCode == STATUSCODE_OK_V2;
+        }
+
+        public String getStatus() {
+            return mStatus;
+        }
+
+        public int getStatusCode() {
+            return mStatusCode;
+        }
+
+        public String getMessage() {
+            return mMessage;
+        }
+
+        /**
+         * @return  Model built from the 'data' node; null if the response failed.
+         */
+        public T getData() {
+            return mData;
+        }
+    }
+
+
+    /**
+     * Decodes an OCS response.
+     *
+     * @param in            Body of the response; not closed.
+     * @param dataReader    Reader building the model from the 'data' node.
+     * @return              Decoded response. Its data are null if the 'meta' node reported a
+     *                      failure.
+     * @throws IOException  If the body could not be read or is not an OCS response.
+     */
+    public static <T> Response<T> decode(InputStream in, DataReader<T> dataReader)
+        throws IOException {
+        try {
+            return decode(new JsonReader(new InputStreamReader(in, CHARSET)), dataReader);
+
+        } catch (IllegalStateException e) {
+            // thrown by JsonReader when the structure is not the expected one
+            throw new IOException("Not an OCS response: " + e.getMessage());
+        }
+    }
+
+    private static <T> Response<T> decode(JsonReader reader, DataReader<T> dataReader)
+        throws IOException {
+        Response<T> response = new Response<T>();
+        boolean ocsRead = false;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (!NODE_OCS.equals(reader.nextName())) {
+                reader.skipValue();
+                continue;
+            }
+            ocsRead = true;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (NODE_META.equals(name)) {
+                    readMeta(reader, response);
+
+                } else if (NODE_DATA.equals(name) &&
+                    (!response.mMetaRead || response.isSuccess())) {
+                    response.mData = dataReader.read(reader);
+
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            break;  // nothing of interest is left
+        }
+
+        if (!ocsRead || !response.mMetaRead) {
+            throw new IOException("Not an OCS response, '" + NODE_OCS + "' or '" + NODE_META +
+                "' missing");
+        }
+        if (!response.isSuccess()) {
+            response.mData = null;  // read before the meta node
+        }
+        return response;
+    }
+
+    /**
+     * Decodes an OCS response building the model with a Gson type adapter.
+     *
+     * @see #decode(InputStream, DataReader)
+     */
+    public static <T> Response<T> decode(InputStream in, final TypeAdapter<T> adapter)
+        throws IOException {
+        return decode(in, new DataReader<T>() {
+            @Override
+            public T read(JsonReader reader) throws IOException {
+                return adapter.read(reader);
+            }
+        });
+    }
+
+    private static void readMeta(JsonReader reader, Response<?> response) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (PROPERTY_STATUS.equals(name)) {
+                response.mStatus = nextString(reader);
+
+            } else if (PROPERTY_STATUSCODE.equals(name)) {
+                String statusCode = nextString(reader);
+                try {
+                    response.mStatusCode = (statusCode != null) ? Integer.parseInt(statusCode) : -1;
+                } catch (NumberFormatException e) {
+                    response.mStatusCode = -1;
+                }
+
+            } else if (PROPERTY_MESSAGE.equals(name)) {
+                response.mMessage = nextString(reader);
+
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        response.mMetaRead = true;
+    }
+
+
+    /**
+     * Reads a primitive value as a String.
+     *
+     * @return  Read value; null for a JSON null.
+     * @throws IOException  If the value is an object or an array.
+     */
+    public static String nextString(JsonReader reader) throws IOException {
+        JsonToken token = reader.peek();
+        if (token == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        if (token == JsonToken.BOOLEAN) {
+            return String.valueOf(reader.nextBoolean());
+        }
+        return reader.nextString();     // accepts numbers too
+    }
+
+    /**
+     * Reads a JSON object into an org.json object, for APIs that expose them.
+     */
+    public static JSONObject readJSONObject(JsonReader reader) throws IOException {
+        JSONObject object = new JSONObject();
+        reader.beginObject();
+        try {
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                object.put(name, readJSONValue(reader));
+            }
+        } catch (JSONException e) {
+            throw new IOException(e.getMessage());
+        }
+        reader.endObject();
+        return object;
+    }
+
+    private static JSONArray readJSONArray(JsonReader reader) throws IOException {
+        JSONArray array = new JSONArray();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            array.put(readJSONValue(reader));
+        }
+        reader.endArray();
+        return array;
+    }
+
+    private static Object readJSONValue(JsonReader reader) throws IOException {
+        switch (reader.peek()) {
+            case BEGIN_OBJECT:
+                return readJSONObject(reader);
+            case BEGIN_ARRAY:
+                return readJSONArray(reader);
+            case BOOLEAN:
+                return reader.nextBoolean();
+            case NUMBER:
+                String number = reader.nextString();
+                try {
+                    return Long.parseLong(number);
+                } catch (NumberFormatException e) {
+                    return Double.parseDouble(number);
+                }
+            case NULL:
+                reader.nextNull();
+                return JSONObject.NULL;
+            default:
+                return reader.nextString();
+        }
+    }
+}
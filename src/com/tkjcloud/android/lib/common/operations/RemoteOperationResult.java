@@ -123,7 +123,8 @@ public class RemoteOperationResult implements Serializable {
         MAINTENANCE_MODE,
         LOCK_FAILED,
         DELAYED_IN_POWER_SAVE_MODE,
-        ACCOUNT_USES_STANDARD_PASSWORD
+        ACCOUNT_USES_STANDARD_PASSWORD,
+        CHECKSUM_MISMATCH
     }
 
     private boolean mSuccess = false;
@@ -138,6 +139,7 @@ public class RemoteOperationResult implements Serializable {
     private ArrayList<Object> mData;
     private List<Notification> mNotificationData;
     private PushResponse mPushResponse;
+    private String mChecksum;
 
     /**
      * Public constructor from result code.
@@ -450,6 +452,18 @@ public class RemoteOperationResult implements Serializable {
         return mNotificationData;
     }
 
+    /**
+     * @return  Checksum of the transferred file contents, formatted as in the OC-Checksum header
+     *          ("SHA1:&lt;hex value&gt;"), or null if none was computed.
+     */
+    public String getChecksum() {
+        return mChecksum;
+    }
+
+    public void setChecksum(String checksum) {
+        mChecksum = checksum;
+    }
+
 
     public boolean isSuccess() {
         return mSuccess;
@@ -586,6 +600,9 @@ public class RemoteOperationResult implements Serializable {
 
  	    } else if (mCode == ResultCode.SYNC_CONFLICT) {
             return "Synchronization conflict";
+
+        } else if (mCode == ResultCode.CHECKSUM_MISMATCH) {
+            return "Checksum of transferred data does not match the expected one";
         }
 
         return "Operation finished with HTTP status code " + mHttpCode + " (" +
@@ -27,29 +27,21 @@
 package com.tkjcloud.android.lib.resources.activities;
 
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.JsonArray;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
-import com.google.gson.reflect.TypeToken;
 import com.tkjcloud.android.lib.common.tkjcloudClient;
+import com.tkjcloud.android.lib.common.operations.OCSCodecRegistry;
+import com.tkjcloud.android.lib.common.operations.OCSResponseDecoder;
 import com.tkjcloud.android.lib.common.operations.RemoteOperation;
 import com.tkjcloud.android.lib.common.operations.RemoteOperationResult;
 import com.tkjcloud.android.lib.common.utils.Log_OC;
 import com.tkjcloud.android.lib.resources.activities.models.Activity;
-import com.tkjcloud.android.lib.resources.activities.models.RichElement;
-import com.tkjcloud.android.lib.resources.activities.models.RichElementTypeAdapter;
 import com.tkjcloud.android.lib.resources.status.tkjcloudVersion;
 
 import org.apache.commons.httpclient.Header;
 import org.apache.commons.httpclient.HttpStatus;
 import org.apache.commons.httpclient.methods.GetMethod;
-import org.json.JSONException;
 
-import java.lang.reflect.Type;
+import java.io.InputStream;
 import java.util.ArrayList;
-import java.util.List;
 
 /**
  * Provides the remote activities from the server handling the following data structure
@@ -64,11 +56,6 @@ public class GetRemoteActivitiesOperation extends RemoteOperation{
     private static final String OCS_ROUTE_V12_AND_UP = "/ocs/v2.php/apps/activity/api/v2/activity?format=json";
     private static final String OCS_ROUTE_PRE_V12 = "/ocs/v1.php/cloud/activity?format=json";
 
-    // JSON Node names
-    private static final String NODE_OCS = "ocs";
-
-    private static final String NODE_DATA = "data";
-
     private String nextUrl = "";
 
     public void setNextUrl(String url) {
@@ -98,7 +85,6 @@ public class GetRemoteActivitiesOperation extends RemoteOperation{
             get.addRequestHeader(OCS_API_HEADER, OCS_API_HEADER_VALUE);
 
             status = client.executeMethod(get);
-            String response = get.getResponseBodyAsString();
 
             Header nextPageHeader = get.getResponseHeader("Link");
             if (nextPageHeader != null) {
@@ -113,17 +99,30 @@ public class GetRemoteActivitiesOperation extends RemoteOperation{
             }
 
             if (isSuccess(status)) {
-                Log_OC.d(TAG, "Successful response: " + response);
-                result = new RemoteOperationResult(true, status, get.getResponseHeaders());
                 // Parse the response
-                activities = parseResult(response);
-
-                ArrayList<Object> data = new ArrayList<>();
-                data.add(activities);
-                data.add(nextUrl);
-                result.setData(data);
+                InputStream body = get.getResponseBodyAsStream();
+                OCSResponseDecoder.Response<ArrayList<Activity>> response =
+                    OCSResponseDecoder.decode(body, OCSCodecRegistry.getActivityListAdapter());
+                client.exhaustResponse(body);
+
+                if (response.isSuccess()) {
+                    activities = response.getData();
+                    Log_OC.d(TAG, "Successful response, activities: " + activities.size());
+                    result = new RemoteOperationResult(true, status, get.getResponseHeaders());
+
+                    ArrayList<Object> data = new ArrayList<>();
+                    data.add(activities);
+                    data.add(nextUrl);
+                    result.setData(data);
+                } else {
+                    result = new RemoteOperationResult(false, response.getStatusCode(), null, null);
+                    Log_OC.e(TAG, "Failed response while getting user activities ");
+                    Log_OC.e(TAG, "*** status: " + response.getStatus() + "; message: " +
+                        response.getMessage());
+                }
             } else {
                 result = new RemoteOperationResult(false, status, get.getResponseHeaders());
+                String response = get.getResponseBodyAsString();
                 Log_OC.e(TAG, "Failed response while getting user activities ");
                 if (response != null) {
                     Log_OC.e(TAG, "*** status code: " + status + " ; response message: " + response);
@@ -147,19 +146,6 @@ public class GetRemoteActivitiesOperation extends RemoteOperation{
         return !nextUrl.isEmpty();
     }
 
-    private ArrayList<Activity> parseResult(String response) throws JSONException {
-        JsonParser jsonParser = new JsonParser();
-        JsonObject jo = (JsonObject)jsonParser.parse(response);
-        JsonArray jsonDataArray = jo.getAsJsonObject(NODE_OCS).getAsJsonArray(NODE_DATA);
-
-        Gson gson = new GsonBuilder()
-                .registerTypeAdapter(RichElement.class,new RichElementTypeAdapter())//Add TypeAdapter to parse RichElement
-                .create();
-        Type listType = new TypeToken<List<Activity>>(){}.getType();
-
-        return gson.fromJson(jsonDataArray, listType);
-    }
-
     private boolean isSuccess(int status) {
         return (status == HttpStatus.SC_OK);
     }
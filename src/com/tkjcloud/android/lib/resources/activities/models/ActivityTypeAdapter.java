@@ -0,0 +1,124 @@
+/* tkjcloud Android Library is available under MIT license
+ *   Copyright (C) 2017 tkjcloud GmbH.
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *   NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *   BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *   ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *   CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *   THE SOFTWARE.
+ *
+ */
+
+package com.tkjcloud.android.lib.resources.activities.models;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.util.Date;
+
+/**
+ * Activity Parser
+ */
+public class ActivityTypeAdapter extends TypeAdapter<Activity> {
+
+    private final TypeAdapter<Date> mDateAdapter;
+    private final TypeAdapter<RichElement> mRichElementAdapter;
+
+    public ActivityTypeAdapter(TypeAdapter<Date> dateAdapter,
+                               TypeAdapter<RichElement> richElementAdapter) {
+        mDateAdapter = dateAdapter;
+        mRichElementAdapter = richElementAdapter;
+    }
+
+    @Override
+    public void write(JsonWriter out, Activity value) throws IOException {
+        if (value == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        out.name("activity_id").value(value.activityId);
+        out.name("datetime");
+        mDateAdapter.write(out, value.datetime);
+        out.name("date");
+        mDateAdapter.write(out, value.date);
+        out.name("app").value(value.app);
+        out.name("type").value(value.type);
+        out.name("user").value(value.user);
+        out.name("affecteduser").value(value.affectedUser);
+        out.name("subject").value(value.subject);
+        out.name("message").value(value.message);
+        out.name("icon").value(value.icon);
+        out.name("link").value(value.link);
+        out.name("object_type").value(value.objectType);
+        out.name("object_id").value(value.objectId);
+        out.name("object_name").value(value.objectName);
+        out.endObject();
+    }
+
+    @Override
+    public Activity read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        Activity activity = new Activity();
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+            } else if ("activity_id".equals(name)) {
+                activity.activityId = in.nextInt();
+            } else if ("datetime".equals(name)) {
+                activity.datetime = mDateAdapter.read(in);
+            } else if ("date".equals(name)) {
+                activity.date = mDateAdapter.read(in);
+            } else if ("app".equals(name)) {
+                activity.app = in.nextString();
+            } else if ("type".equals(name)) {
+                activity.type = in.nextString();
+            } else if ("user".equals(name)) {
+                activity.user = in.nextString();
+            } else if ("affecteduser".equals(name)) {
+                activity.affectedUser = in.nextString();
+            } else if ("subject".equals(name)) {
+                activity.subject = in.nextString();
+            } else if ("message".equals(name)) {
+                activity.message = in.nextString();
+            } else if ("icon".equals(name)) {
+                activity.icon = in.nextString();
+            } else if ("link".equals(name)) {
+                activity.link = in.nextString();
+            } else if ("object_type".equals(name)) {
+                activity.objectType = in.nextString();
+            } else if ("object_id".equals(name)) {
+                activity.objectId = in.nextString();
+            } else if ("object_name".equals(name)) {
+                activity.objectName = in.nextString();
+            } else if ("subject_rich".equals(name)) {
+                activity.richSubjectElement = mRichElementAdapter.read(in);
+            } else {
+                in.skipValue();
+            }
+        }
+        in.endObject();
+        return activity;
+    }
+}
@@ -0,0 +1,354 @@
+/* tkjcloud Android Library is available under MIT license
+ *   Copyright (C) 2017 tkjcloud GmbH.
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *   NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *   BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *   ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *   CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *   THE SOFTWARE.
+ *
+ */
+
+package com.tkjcloud.android.lib.resources.files;
+
+import com.tkjcloud.android.lib.common.tkjcloudClient;
+import com.tkjcloud.android.lib.common.network.BandwidthLimiter;
+import com.tkjcloud.android.lib.common.network.BulkUploadRequestEntity;
+import com.tkjcloud.android.lib.common.network.OnDatatransferProgressListener;
+import com.tkjcloud.android.lib.common.network.TransferChecksum;
+import com.tkjcloud.android.lib.common.network.TransferProgressDispatcher;
+import com.tkjcloud.android.lib.common.operations.OperationCancelledException;
+import com.tkjcloud.android.lib.common.operations.RemoteOperation;
+import com.tkjcloud.android.lib.common.operations.RemoteOperationResult;
+import com.tkjcloud.android.lib.common.operations.RemoteOperationResult.ResultCode;
+import com.tkjcloud.android.lib.common.utils.Log_OC;
+
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.methods.PostMethod;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+
+/**
+ * Remote operation uploading many small files at once.
+ *
+ * If the server supports bulk upload, announced in the 'dav' node of its capabilities, the
+ * files are packed in multipart requests to its bulk upload endpoint, so that a single request
+ * uploads up to {@link #MAX_FILES_PER_REQUEST} files. Otherwise, and for files too big for a bulk
+ * request, files are uploaded with parallel PUT requests.
+ *
+ * The result is successful only if all the files were uploaded; its data contain one
+ * {@link RemoteOperationResult} per file, in the order they were added.
+ */
+public class BulkUploadRemoteFilesOperation extends RemoteOperation {
+
+    private static final String TAG = BulkUploadRemoteFilesOperation.class.getSimpleName();
+
+    private static final String BULK_UPLOAD_PATH = "/remote.php/dav/bulk";
+
+    private static final String PROPERTY_ERROR = "error";
+    private static final String PROPERTY_MESSAGE = "message";
+
+    /** Files bigger than this are uploaded with their own PUT request */
+    public static final long MAX_BULK_FILE_SIZE = 1024 * 1024;
+
+    public static final int MAX_FILES_PER_REQUEST = 100;
+
+    /** Maximum size of the files packed in a single request */
+    public static final long MAX_REQUEST_SIZE = 10 * 1024 * 1024;
+
+    /** PUT requests run in parallel when bulk upload is not possible */
+    public static final int PARALLEL_UPLOADS = TransferManager.DEFAULT_MAX_TRANSFERS_PER_SERVER;
+
+    private final boolean mBulkUploadSupported;
+    private final List<String> mLocalPaths = new ArrayList<String>();
+    private final List<String> mRemotePaths = new ArrayList<String>();
+    private final List<String> mMimeTypes = new ArrayList<String>();
+    private final List<String> mFileLastModifTimestamps = new ArrayList<String>();
+
+    private final AtomicBoolean mCancellationRequested = new AtomicBoolean(false);
+    private final TransferProgressDispatcher mProgressDispatcher = new TransferProgressDispatcher();
+    private BandwidthLimiter mBandwidthLimiter = BandwidthLimiter.getGlobal();
+    private PostMethod mPost = null;
+    private final List<UploadRemoteFileOperation> mRunningUploads =
+        new ArrayList<UploadRemoteFileOperation>();
+
+    /**
+     * @param bulkUploadSupported   'True' if the server supports bulk upload, as told by
+     *                              {@link com.tkjcloud.android.lib.resources.status.OCCapability#getBulkUpload()}.
+     */
+    public BulkUploadRemoteFilesOperation(boolean bulkUploadSupported) {
+        mBulkUploadSupported = bulkUploadSupported;
+    }
+
+    /**
+     * Adds a file to upload.
+     *
+     * @param localPath                 Path of the local file.
+     * @param remotePath                Path of the file in the account.
+     * @param mimeType                  MIME type of the file.
+     * @param fileLastModifTimestamp    Modification time of the file, in seconds.
+     */
+    public void addFile(String localPath, String remotePath, String mimeType,
+                        String fileLastModifTimestamp) {
+        mLocalPaths.add(localPath);
+        mRemotePaths.add(remotePath);
+        mMimeTypes.add(mimeType);
+        mFileLastModifTimestamps.add(fileLastModifTimestamp);
+    }
+
+    @Override
+    protected RemoteOperationResult run(tkjcloudClient client) {
+        int count = mLocalPaths.size();
+        RemoteOperationResult[] results = new RemoteOperationResult[count];
+        List<Integer> putUploads = new ArrayList<Integer>();
+        List<Integer> batch = new ArrayList<Integer>();
+        long batchSize = 0;
+        boolean bulkUploadAvailable = mBulkUploadSupported;
+
+        for (int i = 0; i < count; i++) {
+            File file = new File(mLocalPaths.get(i));
+            if (!file.isFile()) {
+                results[i] = new RemoteOperationResult(ResultCode.LOCAL_FILE_NOT_FOUND);
+                continue;
+            }
+            if (!bulkUploadAvailable || file.length() > MAX_BULK_FILE_SIZE) {
+                putUploads.add(i);
+                continue;
+            }
+            if (batch.size() == MAX_FILES_PER_REQUEST ||
+                batchSize + file.length() > MAX_REQUEST_SIZE) {
+                bulkUploadAvailable = uploadBatch(client, batch, results);
+                if (!bulkUploadAvailable) {
+                    putUploads.addAll(batch);
+                }
+                batch.clear();
+                batchSize = 0;
+            }
+            if (bulkUploadAvailable) {
+                batch.add(i);
+                batchSize += file.length();
+            } else {
+                putUploads.add(i);
+            }
+        }
+        if (!batch.isEmpty() && !uploadBatch(client, batch, results)) {
+            putUploads.addAll(batch);
+        }
+
+        if (!putUploads.isEmpty()) {
+            uploadInParallel(client, putUploads, results);
+        }
+
+        RemoteOperationResult result = null;
+        ArrayList<Object> data = new ArrayList<Object>();
+        for (int i = 0; i < count; i++) {
+            if (results[i] == null) {
+                results[i] = new RemoteOperationResult(new OperationCancelledException());
+            }
+            if (result == null && !results[i].isSuccess()) {
+                // the first failure tells the result of the whole operation
+                result = new RemoteOperationResult(results[i].getCode());
+            }
+            data.add(results[i]);
+        }
+        if (result == null) {
+            result = new RemoteOperationResult(ResultCode.OK);
+        }
+        result.setData(data);
+        return result;
+    }
+
+    /**
+     * Uploads a set of files in a single request to the bulk upload endpoint.
+     *
+     * @return  'False' if the server turned out not to support bulk upload, and the files must
+     *          be uploaded in other way.
+     */
+    private boolean uploadBatch(tkjcloudClient client, List<Integer> batch,
+                                RemoteOperationResult[] results) {
+        if (mCancellationRequested.get()) {
+            return true;
+        }
+        PostMethod post = null;
+        String[] md5s = new String[batch.size()];
+        try {
+            BulkUploadRequestEntity entity = new BulkUploadRequestEntity();
+            for (int j = 0; j < batch.size(); j++) {
+                int i = batch.get(j);
+                File file = new File(mLocalPaths.get(i));
+                // the checksum is sent in the headers of the part, before the contents
+                md5s[j] = LocalChecksumCache.getInstance()
+                    .getOrCompute(file, TransferChecksum.Type.MD5);
+                entity.addPart(file, mRemotePaths.get(i), mMimeTypes.get(i), md5s[j],
+                    mFileLastModifTimestamps.get(i));
+            }
+            entity.setProgressDispatcher(mProgressDispatcher);
+            entity.setBandwidthLimiter(mBandwidthLimiter);
+
+            post = new PostMethod(client.getBaseUri() + BULK_UPLOAD_PATH);
+            post.setRequestEntity(entity);
+            synchronized (mCancellationRequested) {
+                mPost = post;
+                if (mCancellationRequested.get()) {
+                    post.abort();
+                }
+            }
+            int status = client.executeMethod(post);
+
+            if (status == HttpStatus.SC_NOT_FOUND || status == HttpStatus.SC_METHOD_NOT_ALLOWED ||
+                status == HttpStatus.SC_NOT_IMPLEMENTED) {
+                Log_OC.w(TAG, "Bulk upload not available, HTTP status " + status);
+                client.exhaustResponse(post.getResponseBodyAsStream());
+                return false;
+            }
+
+            if (status == HttpStatus.SC_OK) {
+                JSONObject response = new JSONObject(post.getResponseBodyAsString());
+                for (int j = 0; j < batch.size(); j++) {
+                    int i = batch.get(j);
+                    JSONObject fileResponse = response.optJSONObject(mRemotePaths.get(i));
+                    if (fileResponse == null) {
+                        results[i] = new RemoteOperationResult(ResultCode.WRONG_SERVER_RESPONSE);
+
+                    } else if (fileResponse.optBoolean(PROPERTY_ERROR, true)) {
+                        Log_OC.e(TAG, "Bulk upload of " + mRemotePaths.get(i) + " failed: " +
+                            fileResponse.optString(PROPERTY_MESSAGE));
+                        results[i] = new RemoteOperationResult(false, status,
+                            fileResponse.optString(PROPERTY_MESSAGE), null);
+
+                    } else {
+                        results[i] = new RemoteOperationResult(ResultCode.OK);
+                        results[i].setChecksum(TransferChecksum.Type.MD5.getName() + ":" + md5s[j]);
+                    }
+                }
+            } else {
+                RemoteOperationResult failure = new RemoteOperationResult(false, post);
+                client.exhaustResponse(post.getResponseBodyAsStream());
+                for (int i : batch) {
+                    results[i] = failure;
+                }
+            }
+
+        } catch (Exception e) {
+            RemoteOperationResult failure = (post != null && post.isAborted()) ?
+                new RemoteOperationResult(new OperationCancelledException()) :
+                new RemoteOperationResult(e);
+            Log_OC.e(TAG, "Bulk upload failed: " + failure.getLogMessage(), e);
+            for (int i : batch) {
+                results[i] = failure;
+            }
+
+        } finally {
+            if (post != null) {
+                post.releaseConnection();
+            }
+            synchronized (mCancellationRequested) {
+                mPost = null;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Uploads every file with its own PUT request, running several of them in parallel.
+     */
+    private void uploadInParallel(final tkjcloudClient client, List<Integer> indexes,
+                                  final RemoteOperationResult[] results) {
+        ExecutorService executor = Executors.newFixedThreadPool(PARALLEL_UPLOADS);
+        try {
+            for (final int i : indexes) {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        UploadRemoteFileOperation upload = new UploadRemoteFileOperation(
+                            mLocalPaths.get(i),
+                            mRemotePaths.get(i),
+                            mMimeTypes.get(i),
+                            mFileLastModifTimestamps.get(i)
+                        );
+                        upload.setBandwidthLimiter(mBandwidthLimiter);
+                        for (OnDatatransferProgressListener listener :
+                            mProgressDispatcher.getListeners()) {
+                            upload.addDatatransferProgressListener(listener);
+                        }
+                        synchronized (mCancellationRequested) {
+                            if (mCancellationRequested.get()) {
+                                return;
+                            }
+                            mRunningUploads.add(upload);
+                        }
+                        results[i] = upload.execute(client);
+                        synchronized (mCancellationRequested) {
+                            mRunningUploads.remove(upload);
+                        }
+                    }
+                });
+            }
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancel();
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Sets the limiter of the bandwidth used by the upload; the global one by default.
+     */
+    public void setBandwidthLimiter(BandwidthLimiter bandwidthLimiter) {
+        mBandwidthLimiter = (bandwidthLimiter != null) ?
+            bandwidthLimiter : BandwidthLimiter.getGlobal();
+    }
+
+    public void addDatatransferProgressListener(OnDatatransferProgressListener listener) {
+        mProgressDispatcher.addDatatransferProgressListener(listener);
+    }
+
+    public void removeDatatransferProgressListener(OnDatatransferProgressListener listener) {
+        mProgressDispatcher.removeDatatransferProgressListener(listener);
+    }
+
+    /**
+     * @return  Dispatcher of the progress of the bulk requests, to set how often and in which
+     *          thread the listeners are notified.
+     */
+    public TransferProgressDispatcher getProgressDispatcher() {
+        return mProgressDispatcher;
+    }
+
+    public void cancel() {
+        synchronized (mCancellationRequested) {
+            mCancellationRequested.set(true);
+            if (mPost != null) {
+                mPost.abort();
+            }
+            for (UploadRemoteFileOperation upload : mRunningUploads) {
+                upload.cancel();
+            }
+        }
+    }
+
+}
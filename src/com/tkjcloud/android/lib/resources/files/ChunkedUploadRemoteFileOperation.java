@@ -29,7 +29,7 @@ import android.content.SharedPreferences;
 
 import com.tkjcloud.android.lib.common.tkjcloudClient;
 import com.tkjcloud.android.lib.common.network.ChunkFromFileChannelRequestEntity;
-import com.tkjcloud.android.lib.common.network.ProgressiveDataTransferer;
+import com.tkjcloud.android.lib.common.network.TransferChecksum;
 import com.tkjcloud.android.lib.common.network.WebdavUtils;
 import com.tkjcloud.android.lib.common.operations.RemoteOperationResult;
 import com.tkjcloud.android.lib.common.utils.Log_OC;
@@ -85,10 +85,14 @@ public class ChunkedUploadRemoteFileOperation extends UploadRemoteFileOperation
             raf = new RandomAccessFile(file, "r");
             channel = raf.getChannel();
             mEntity = new ChunkFromFileChannelRequestEntity(channel, mMimeType, CHUNK_SIZE, file);
-            synchronized (mDataTransferListeners) {
-				((ProgressiveDataTransferer)mEntity)
-                        .addDatatransferProgressListeners(mDataTransferListeners);
-			}
+            ((ChunkFromFileChannelRequestEntity) mEntity).setReadAheadBuffers(mReadAheadBuffers);
+            if (mChecksumType != null) {
+                mChecksum = new TransferChecksum(mChecksumType);
+                ((ChunkFromFileChannelRequestEntity) mEntity).setChecksum(mChecksum);
+            }
+            ((ChunkFromFileChannelRequestEntity) mEntity).setProgressDispatcher(mProgressDispatcher);
+            ((ChunkFromFileChannelRequestEntity) mEntity).setBandwidthLimiter(mBandwidthLimiter);
+            mProgressDispatcher.reset();
 
             long offset = 0;
             String uriPrefix = client.getWebdavUri() + WebdavUtils.encodePath(mRemotePath) +
@@ -105,6 +109,11 @@ public class ChunkedUploadRemoteFileOperation extends UploadRemoteFileOperation
 
                 if (chunkIndex == chunkCount - 1) {
                     chunkSizeStr = String.valueOf(CHUNK_SIZE * chunkCount - totalLength);
+                    if (mChecksum != null) {
+                        // the checksum goes in the headers of the last chunk; include the
+                        // chunks skipped above, and the last chunk itself
+                        ((ChunkFromFileChannelRequestEntity) mEntity).updateChecksumUpTo(totalLength);
+                    }
                 }
                 if (mPutMethod != null) {
                     mPutMethod.releaseConnection();     // let the connection available
@@ -116,6 +125,9 @@ public class ChunkedUploadRemoteFileOperation extends UploadRemoteFileOperation
                 status = client.executeMethod(mPutMethod);
 
                 result = new RemoteOperationResult(isSuccess(status), mPutMethod);
+                if (result.isSuccess() && mChecksum != null && chunkIndex == chunkCount - 1) {
+                    result.setChecksum(mChecksum.getHeaderValue());
+                }
 
                 client.exhaustResponse(mPutMethod.getResponseBodyAsStream());
                 Log_OC.d(TAG, "Upload of " + mLocalPath + " to " + mRemotePath +
@@ -163,6 +175,7 @@ public class ChunkedUploadRemoteFileOperation extends UploadRemoteFileOperation
                                       String totalLengthStr,
                                       long offset) {
         mPutMethod = new PutMethod(uriPrefix + chunkCount + "-" + chunkIndex);
+        disableRetries(mPutMethod);
         if (mRequiredEtag != null && mRequiredEtag.length() > 0) {
             mPutMethod.addRequestHeader(IF_MATCH_HEADER, "\"" + mRequiredEtag + "\"");
         }
@@ -177,6 +190,13 @@ public class ChunkedUploadRemoteFileOperation extends UploadRemoteFileOperation
             // next method will throw an exception
         }
 
+        if (chunkIndex == chunkCount - 1 && mChecksum != null) {
+            mPutMethod.addRequestHeader(TransferChecksum.OC_CHECKSUM_HEADER,
+                mChecksum.getHeaderValue());
+        } else if (chunkIndex == chunkCount - 1 && mLocalChecksum != null) {
+            mPutMethod.addRequestHeader(TransferChecksum.OC_CHECKSUM_HEADER, mLocalChecksum);
+        }
+
         if (chunkIndex == chunkCount - 1) {
             // Added a high timeout to the last chunk due to when the last chunk
             // arrives to the server with the last PUT, all chunks get assembled
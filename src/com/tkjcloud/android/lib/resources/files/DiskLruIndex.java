@@ -0,0 +1,191 @@
+/* tkjcloud Android Library is available under MIT license
+ *   Copyright (C) 2017 tkjcloud GmbH.
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *   NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *   BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *   ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *   CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *   THE SOFTWARE.
+ *
+ */
+
+package com.tkjcloud.android.lib.resources.files;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Index of the files of a disk cache, limited to a total size; the least recently used files
+ * are deleted first when the limit is exceeded.
+ *
+ * Files are identified by their path relative to the folder of the cache. The order of use is
+ * kept on disk in the modification time of the files, so that it survives a restart; see
+ * {@link #load(int)}.
+ *
+ * Not thread safe; the caches using it synchronize the access.
+ */
+public class DiskLruIndex {
+
+    private final File mFolder;
+    private long mMaxSize;
+    private long mSize = 0;
+
+    /** Length of the files by relative path, least recently used first */
+    private final LinkedHashMap<String, Long> mFiles =
+        new LinkedHashMap<String, Long>(16, 0.75f, true);
+
+
+    /**
+     * @param folder    Folder of the cache.
+     * @param maxSize   Maximum size of all the files, in bytes.
+     */
+    public DiskLruIndex(File folder, long maxSize) {
+        mFolder = folder;
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * Indexes the files stored before, oldest first, and evicts files if needed.
+     *
+     * @param depth     0 for the files in the folder, 1 for the files in its subfolders.
+     * @return          Files indexed, oldest first.
+     */
+    public List<File> load(int depth) {
+        List<File> files = FileUtils.listFilesByAge(mFolder, depth);
+        for (File file : files) {
+            String relativePath = file.getPath().substring(mFolder.getPath().length() + 1);
+            mFiles.put(relativePath.replace(File.separatorChar, '/'), file.length());
+            mSize += file.length();
+        }
+        evict();
+        return files;
+    }
+
+    /**
+     * @return  File in the cache for a relative path.
+     */
+    public File getFile(String relativePath) {
+        return new File(mFolder, relativePath);
+    }
+
+    /**
+     * Marks a file as the most recently used.
+     *
+     * @return  Length of the file, or null if not in the index.
+     */
+    public Long use(String relativePath) {
+        Long length = mFiles.get(relativePath);
+        if (length != null) {
+            // keeps the order after a restart
+            getFile(relativePath).setLastModified(System.currentTimeMillis());
+        }
+        return length;
+    }
+
+    /**
+     * @return  'True' if the file is in the index; its order of use is not changed.
+     */
+    public boolean contains(String relativePath) {
+        return mFiles.containsKey(relativePath);
+    }
+
+    /**
+     * Adds a file already written, as the most recently used, and evicts files if needed.
+     */
+    public void put(String relativePath, long length) {
+        Long old = mFiles.put(relativePath, length);
+        if (old != null) {
+            mSize -= old;
+        }
+        mSize += length;
+        evict();
+    }
+
+    /**
+     * Drops a file from the index and deletes it.
+     */
+    public void remove(String relativePath) {
+        Long length = mFiles.remove(relativePath);
+        if (length != null) {
+            mSize -= length;
+        }
+        getFile(relativePath).delete();
+    }
+
+    /**
+     * Drops all the files under a folder of the cache.
+     *
+     * @param prefix        Start of the relative paths to drop.
+     * @param keptPrefix    Start of the relative paths to keep among them, or null.
+     */
+    public void removeAll(String prefix, String keptPrefix) {
+        Iterator<Map.Entry<String, Long>> it = mFiles.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Long> entry = it.next();
+            String relativePath = entry.getKey();
+            if (relativePath.startsWith(prefix) &&
+                (keptPrefix == null || !relativePath.startsWith(keptPrefix))) {
+                it.remove();
+                mSize -= entry.getValue();
+                getFile(relativePath).delete();
+            }
+        }
+    }
+
+    /**
+     * Drops all the files.
+     */
+    public void clear() {
+        for (String relativePath : new ArrayList<String>(mFiles.keySet())) {
+            remove(relativePath);
+        }
+    }
+
+    /**
+     * Sets the maximum size of all the files, evicting files if needed.
+     */
+    public void setMaxSize(long maxSize) {
+        mMaxSize = maxSize;
+        evict();
+    }
+
+    public long getMaxSize() {
+        return mMaxSize;
+    }
+
+    /**
+     * @return  Total size of the files, in bytes.
+     */
+    public long getSize() {
+        return mSize;
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, Long>> it = mFiles.entrySet().iterator();
+        while (mSize > mMaxSize && it.hasNext()) {
+            Map.Entry<String, Long> entry = it.next();
+            it.remove();
+            mSize -= entry.getValue();
+            getFile(entry.getKey()).delete();
+        }
+    }
+
+}
@@ -25,26 +25,32 @@
 package com.tkjcloud.android.lib.resources.files;
 
 import com.tkjcloud.android.lib.common.tkjcloudClient;
+import com.tkjcloud.android.lib.common.network.BandwidthLimiter;
+import com.tkjcloud.android.lib.common.network.FileDownloadSink;
 import com.tkjcloud.android.lib.common.network.OnDatatransferProgressListener;
+import com.tkjcloud.android.lib.common.network.RemoteBlockCache;
+import com.tkjcloud.android.lib.common.network.RemoteFileChannel;
+import com.tkjcloud.android.lib.common.network.TransferChecksum;
+import com.tkjcloud.android.lib.common.network.TransferProgressDispatcher;
 import com.tkjcloud.android.lib.common.network.WebdavUtils;
 import com.tkjcloud.android.lib.common.operations.OperationCancelledException;
 import com.tkjcloud.android.lib.common.operations.RemoteOperation;
 import com.tkjcloud.android.lib.common.operations.RemoteOperationResult;
+import com.tkjcloud.android.lib.common.operations.RemoteOperationResult.ResultCode;
 import com.tkjcloud.android.lib.common.utils.Log_OC;
 
 import org.apache.commons.httpclient.Header;
 import org.apache.commons.httpclient.HttpException;
+import org.apache.commons.httpclient.HttpMethod;
 import org.apache.commons.httpclient.HttpStatus;
 import org.apache.commons.httpclient.methods.GetMethod;
 
-import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileOutputStream;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.Date;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -58,32 +64,73 @@ public class DownloadRemoteFileOperation extends RemoteOperation {
 
     private static final String TAG = DownloadRemoteFileOperation.class.getSimpleName();
 
-    private Set<OnDatatransferProgressListener> mDataTransferListeners = new HashSet<OnDatatransferProgressListener>();
-    private final AtomicBoolean mCancellationRequested = new AtomicBoolean(false);
-    private long mModificationTimestamp = 0;
-    private String mEtag = "";
-    private GetMethod mGet;
-
-    private String mRemotePath;
-    private String mLocalFolderPath;
+    private static final String RANGE_HEADER = "Range";
+    private static final String IF_RANGE_HEADER = "If-Range";
+    private static final String CONTENT_RANGE_HEADER = "Content-Range";
+
+    protected final TransferProgressDispatcher mProgressDispatcher = new TransferProgressDispatcher();
+    protected final AtomicBoolean mCancellationRequested = new AtomicBoolean(false);
+    protected long mModificationTimestamp = 0;
+    protected String mEtag = "";
+    protected String mResumeEtag = "";
+    protected GetMethod mGet;
+    protected int mBufferSize = FileDownloadSink.DEFAULT_BUFFER_SIZE;
+    protected FileDownloadSink.FsyncPolicy mFsyncPolicy = FileDownloadSink.FsyncPolicy.NONE;
+    protected TransferChecksum mChecksum = null;
+    protected boolean mChecksumMismatch = false;
+    protected BandwidthLimiter mBandwidthLimiter = BandwidthLimiter.getGlobal();
+    protected RemoteBlockCache mBlockCache = null;
+    protected long mBlockCacheFileSize = -1;
+
+    protected String mRemotePath;
+    protected String mLocalFolderPath;
 
     public DownloadRemoteFileOperation(String remotePath, String localFolderPath) {
         mRemotePath = remotePath;
         mLocalFolderPath = localFolderPath;
     }
 
+    /**
+     * Constructor for resumable downloads.
+     *
+     * If the download is interrupted, the partial file is kept next to the target file, with
+     * the suffix {@link FileDownloadSink#PARTIAL_FILE_SUFFIX}. When a new
+     * operation is run with the same paths and eTag, only the missing bytes are requested;
+     * the server will send the full file if the remote file changed in the meanwhile.
+     *
+     * @param remotePath        Remote path of the file to download.
+     * @param localFolderPath   Local folder where the file will be downloaded.
+     * @param etag              Known eTag of the remote file, as returned by
+     *                          {@link ReadRemoteFileOperation}; null or empty disables the resume.
+     */
+    public DownloadRemoteFileOperation(String remotePath, String localFolderPath, String etag) {
+        this(remotePath, localFolderPath);
+        mResumeEtag = (etag != null) ? etag : "";
+    }
+
 	@Override
 	protected RemoteOperationResult run(tkjcloudClient client) {
 		RemoteOperationResult result = null;
 
-        /// download will be performed to a temporal file, then moved to the final location
+        /// download will be performed to a partial file, then renamed to this temporal file,
+        /// then moved to the final location by the caller
         File tmpFile = new File(getTmpPath());
 
         /// perform the download
         try {
             tmpFile.getParentFile().mkdirs();
             int status = downloadFile(client, tmpFile);
-            result = new RemoteOperationResult(isSuccess(status), mGet);
+            if (mChecksumMismatch) {
+                result = new RemoteOperationResult(ResultCode.CHECKSUM_MISMATCH);
+            } else if (mGet == null) {
+                // served through the block cache; there is no single response to report
+                result = new RemoteOperationResult(isSuccess(status), status, null);
+            } else {
+                result = new RemoteOperationResult(isSuccess(status), mGet);
+                if (result.isSuccess() && mChecksum != null) {
+                    result.setChecksum(mChecksum.getHeaderValue());
+                }
+            }
             Log_OC.i(TAG, "Download of " + mRemotePath + " to " + getTmpPath() + ": " +
                 result.getLogMessage());
 
@@ -99,44 +146,87 @@ public class DownloadRemoteFileOperation extends RemoteOperation {
 
     protected int downloadFile(tkjcloudClient client, File targetFile) throws HttpException,
         IOException, OperationCancelledException {
+        mChecksumMismatch = false;
+        mChecksum = null;
+        if (mBlockCache != null && mResumeEtag.length() > 0) {
+            mGet = null;
+            return downloadThroughBlockCache(client, targetFile);
+        }
         int status = -1;
         boolean savedFile = false;
+        boolean keepPartialFile = false;
+        boolean restartFromScratch = false;
+        long resumeOffset = 0;
         mGet = new GetMethod(client.getWebdavUri() + WebdavUtils.encodePath(mRemotePath));
-        Iterator<OnDatatransferProgressListener> it = null;
+        FileDownloadSink sink = new FileDownloadSink(targetFile, mBufferSize, mFsyncPolicy);
+        mProgressDispatcher.reset();
+
+        if (mResumeEtag.length() > 0 && sink.getPartialLength() > 0) {
+            // partial file left by a previous attempt; ask only for the missing bytes,
+            // as long as the remote file was not changed since then
+            resumeOffset = sink.getPartialLength();
+            mGet.addRequestHeader(RANGE_HEADER, "bytes=" + resumeOffset + "-");
+            mGet.addRequestHeader(IF_RANGE_HEADER, "\"" + mResumeEtag + "\"");
+        }
 
-        FileOutputStream fos = null;
         try {
             status = client.executeMethod(mGet);
-            if (isSuccess(status)) {
-                targetFile.createNewFile();
-                BufferedInputStream bis = new BufferedInputStream(mGet.getResponseBodyAsStream());
-                fos = new FileOutputStream(targetFile);
-                long transferred = 0;
+
+            if ((status == HttpStatus.SC_PARTIAL_CONTENT && !isValidResume(resumeOffset)) ||
+                (status == HttpStatus.SC_REQUESTED_RANGE_NOT_SATISFIABLE && resumeOffset > 0)) {
+                // partial file can not be continued with the response; start again from scratch
+                restartFromScratch = true;
+                if (status == HttpStatus.SC_PARTIAL_CONTENT) {
+                    mGet.abort();   // the unwanted body may be as big as the file
+                } else {
+                    client.exhaustResponse(mGet.getResponseBodyAsStream());
+                }
+
+            } else if (status != HttpStatus.SC_PARTIAL_CONTENT) {
+                // full content: remote file changed, or server ignored the range
+                resumeOffset = 0;
+            }
+
+            if (!restartFromScratch && isSuccess(status)) {
+                InputStream is = mGet.getResponseBodyAsStream();
+                sink.open(resumeOffset > 0);
+                long transferred = resumeOffset;
+
+                String responseEtag = WebdavUtils.getEtagFromResponse(mGet);
+                keepPartialFile = (responseEtag.length() > 0 && responseEtag.equals(mResumeEtag));
+
+                Header checksumHeader = mGet.getResponseHeader(TransferChecksum.OC_CHECKSUM_HEADER);
+                mChecksum = TransferChecksum.fromHeader(
+                    (checksumHeader != null) ? checksumHeader.getValue() : null
+                );
+                if (mChecksum != null && resumeOffset > 0) {
+                    // the checksum covers the whole file, not only the missing bytes
+                    updateChecksum(mChecksum, sink.getPartialFile(), resumeOffset);
+                }
 
                 Header contentLength = mGet.getResponseHeader("Content-Length");
-                long totalToTransfer = (contentLength != null &&
-                    contentLength.getValue().length() > 0) ?
-                    Long.parseLong(contentLength.getValue()) : 0;
+                boolean lengthKnown = (contentLength != null &&
+                    contentLength.getValue().length() > 0);
+                long totalToTransfer = lengthKnown ?
+                    Long.parseLong(contentLength.getValue()) + resumeOffset : 0;
 
-                byte[] bytes = new byte[4096];
+                byte[] bytes = new byte[mBufferSize];
                 int readResult = 0;
-                while ((readResult = bis.read(bytes)) != -1) {
-                    synchronized (mCancellationRequested) {
-                        if (mCancellationRequested.get()) {
-                            mGet.abort();
-                            throw new OperationCancelledException();
-                        }
+                while ((readResult = is.read(bytes)) != -1) {
+                    if (mCancellationRequested.get()) {
+                        mGet.abort();
+                        throw new OperationCancelledException();
                     }
-                    fos.write(bytes, 0, readResult);
-                    transferred += readResult;
-                    synchronized (mDataTransferListeners) {
-                        it = mDataTransferListeners.iterator();
-                        while (it.hasNext()) {
-                            it.next().onTransferProgress(readResult, transferred, totalToTransfer,
-                                targetFile.getName());
-                        }
+                    mBandwidthLimiter.acquire(readResult);
+                    sink.write(bytes, 0, readResult);
+                    if (mChecksum != null) {
+                        mChecksum.update(bytes, 0, readResult);
                     }
+                    transferred += readResult;
+                    mProgressDispatcher.onProgress(readResult, transferred, totalToTransfer,
+                        targetFile.getName());
                 }
+                mProgressDispatcher.flush();
                 // Check if the file is completed
                 // if transfer-encoding: chunked we cannot check if the file is complete
                 Header transferEncodingHeader = mGet.getResponseHeader("Transfer-Encoding");
@@ -145,70 +235,269 @@ public class DownloadRemoteFileOperation extends RemoteOperation {
                 if (transferEncodingHeader != null) {
                     transferEncoding = transferEncodingHeader.getValue().equals("chunked");
                 }
-                
-                if (transferred == totalToTransfer || transferEncoding) {  
+                if (lengthKnown && !transferEncoding && transferred != totalToTransfer) {
+                    // connection closed before the end; the partial file is kept to resume
+                    throw new IOException("Incomplete download of " + mRemotePath + ": " +
+                        transferred + " of " + totalToTransfer + " bytes");
+                }
+
+                if (mChecksum != null && !mChecksum.matchesExpectedValue()) {
+                    // corrupted in the way; the partial file must not be used again
+                    Log_OC.e(TAG, "Checksum mismatch downloading " + mRemotePath + ": expected " +
+                        mChecksum.getExpectedValue() + ", got " + mChecksum.getValue());
+                    mChecksumMismatch = true;
+                    keepPartialFile = false;
+
+                } else {
+                    sink.commit();
                     savedFile = true;
-                    Header modificationTime = mGet.getResponseHeader("Last-Modified");
-                    if (modificationTime == null) {
-                        modificationTime = mGet.getResponseHeader("last-modified");
-                    }
-                    if (modificationTime != null) {
-                        Date d = WebdavUtils.parseResponseDate((String) modificationTime.getValue());
-                        mModificationTimestamp = (d != null) ? d.getTime() : 0;
-                    } else {
-                        Log_OC.e(TAG, "Could not read modification time from response downloading " + mRemotePath);
-                    }
+                    readModificationTimestamp(mGet);
 
-                    mEtag = WebdavUtils.getEtagFromResponse(mGet);
+                    mEtag = responseEtag;
                     if (mEtag.length() == 0) {
                         Log_OC.e(TAG, "Could not read eTag from response downloading " + mRemotePath);
                     }
-
-                } else {
-                    client.exhaustResponse(mGet.getResponseBodyAsStream());
-                    // TODO some kind of error control!
                 }
 
             } else {
                 client.exhaustResponse(mGet.getResponseBodyAsStream());
             }
 
-        } catch (Exception e) {
-          Log_OC.e(TAG, e.getMessage());  
         } finally {
-            if (fos != null) fos.close();
-            if (!savedFile && targetFile.exists()) {
-                targetFile.delete();
+            if (!savedFile) {
+                if (keepPartialFile) {
+                    sink.close();
+                } else {
+                    sink.discard();
+                }
             }
             mGet.releaseConnection();    // let the connection available for other methods
         }
+        if (restartFromScratch) {
+            return downloadFile(client, targetFile);    // partial file was deleted above
+        }
         return status;
     }
 
-    private boolean isSuccess(int status) {
-        return (status == HttpStatus.SC_OK);
+    /**
+     * Downloads the file reading the blocks from the block cache when available, and from the
+     * server otherwise.
+     */
+    private int downloadThroughBlockCache(tkjcloudClient client, File targetFile)
+        throws IOException, OperationCancelledException {
+        RemoteFileChannel channel = new RemoteFileChannel(client, mRemotePath);
+        channel.setBlockCache(mBlockCache, mResumeEtag, mBlockCacheFileSize);
+        channel.setBandwidthLimiter(mBandwidthLimiter);
+        FileDownloadSink sink = new FileDownloadSink(targetFile, mBufferSize, mFsyncPolicy);
+        boolean savedFile = false;
+        mModificationTimestamp = 0;
+        mProgressDispatcher.reset();
+        try {
+            sink.open(false);
+            ByteBuffer buffer = ByteBuffer.allocate(mBufferSize);
+            long transferred = 0;
+            int readResult;
+            while ((readResult = channel.read(buffer)) != -1) {
+                if (mCancellationRequested.get()) {
+                    throw new OperationCancelledException();
+                }
+                sink.write(buffer.array(), 0, readResult);
+                buffer.clear();
+                transferred += readResult;
+                mProgressDispatcher.onProgress(readResult, transferred,
+                    Math.max(mBlockCacheFileSize, 0), targetFile.getName());
+            }
+            mProgressDispatcher.flush();
+            sink.commit();
+            savedFile = true;
+            mEtag = mResumeEtag;
+            return HttpStatus.SC_OK;
+
+        } finally {
+            if (!savedFile) {
+                sink.discard();
+            }
+            channel.close();
+        }
     }
 
-    private String getTmpPath() {
+    /**
+     * Updates a checksum with the first bytes of a local file.
+     */
+    private void updateChecksum(TransferChecksum checksum, File file, long length)
+        throws IOException {
+        FileInputStream fis = new FileInputStream(file);
+        try {
+            byte[] bytes = new byte[mBufferSize];
+            long remaining = length;
+            int readResult;
+            while (remaining > 0 &&
+                (readResult = fis.read(bytes, 0, (int) Math.min(bytes.length, remaining))) != -1) {
+                checksum.update(bytes, 0, readResult);
+                remaining -= readResult;
+            }
+        } finally {
+            fis.close();
+        }
+    }
+
+    /**
+     * Reads the modification time of the remote file from the Last-Modified header of a response.
+     *
+     * @param method    Method already executed.
+     */
+    protected void readModificationTimestamp(HttpMethod method) {
+        Header modificationTime = method.getResponseHeader("Last-Modified");
+        if (modificationTime == null) {
+            modificationTime = method.getResponseHeader("last-modified");
+        }
+        if (modificationTime != null) {
+            Date d = WebdavUtils.parseResponseDate((String) modificationTime.getValue());
+            mModificationTimestamp = (d != null) ? d.getTime() : 0;
+        } else {
+            Log_OC.e(TAG, "Could not read modification time from response downloading " + mRemotePath);
+        }
+    }
+
+    /**
+     * Checks that a 206 response continues exactly the partial file, and belongs to the same
+     * version of the remote file.
+     *
+     * @param resumeOffset      Length of the partial file when the request was sent.
+     * @return                  'true' if the body of the response can be appended to the
+     *                          partial file.
+     */
+    private boolean isValidResume(long resumeOffset) {
+        if (resumeOffset <= 0 || !mResumeEtag.equals(WebdavUtils.getEtagFromResponse(mGet))) {
+            return false;
+        }
+        return readRangeFirst(mGet) == resumeOffset;
+    }
+
+    /**
+     * @return  First byte in the Content-Range header of a response, "bytes first-last/total";
+     *          -1 if unknown.
+     */
+    protected static long readRangeFirst(HttpMethod method) {
+        Header contentRange = method.getResponseHeader(CONTENT_RANGE_HEADER);
+        if (contentRange == null) {
+            return -1;
+        }
+        String value = contentRange.getValue().trim();
+        int spaceIndex = value.indexOf(' ');
+        int dashIndex = value.indexOf('-');
+        if (spaceIndex < 0 || dashIndex < spaceIndex) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value.substring(spaceIndex + 1, dashIndex).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    protected boolean isSuccess(int status) {
+        return (status == HttpStatus.SC_OK || status == HttpStatus.SC_PARTIAL_CONTENT);
+    }
+
+    protected String getTmpPath() {
         return mLocalFolderPath + mRemotePath;
     }
 
-    public void addDatatransferProgressListener(OnDatatransferProgressListener listener) {
-        synchronized (mDataTransferListeners) {
-            mDataTransferListeners.add(listener);
+    /**
+     * Sets the size of the buffers used to read the response and to write the local file.
+     *
+     * @param bufferSize    Size in bytes.
+     */
+    public void setBufferSize(int bufferSize) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("Buffer size must be greater than zero");
         }
+        mBufferSize = bufferSize;
+    }
+
+    /**
+     * Sets when the downloaded data are forced to the storage device.
+     *
+     * @param fsyncPolicy   Policy to apply; {@link FileDownloadSink.FsyncPolicy#NONE} by default.
+     */
+    public void setFsyncPolicy(FileDownloadSink.FsyncPolicy fsyncPolicy) {
+        mFsyncPolicy = fsyncPolicy;
+    }
+
+    /**
+     * Sets the limiter of the bandwidth used by the download; the global one by default.
+     *
+     * Use {@link BandwidthLimiter#forAccount(String)} to share a limit with all the transfers of
+     * an account, or a new limiter chained to it to limit this transfer alone.
+     */
+    public void setBandwidthLimiter(BandwidthLimiter bandwidthLimiter) {
+        mBandwidthLimiter = (bandwidthLimiter != null) ?
+            bandwidthLimiter : BandwidthLimiter.getGlobal();
+    }
+
+    /**
+     * Sets a cache of blocks of remote files to read the contents from, and to store them.
+     *
+     * Only used when the eTag of the remote file was given in the constructor; the blocks
+     * found in the cache are not downloaded again, and those downloaded are added to it.
+     *
+     * A download through the cache has some limits compared to a plain download:
+     * <ul>
+     *   <li>{@link #getModificationTimestamp()} returns 0; the remote file may not be requested
+     *   at all.</li>
+     *   <li>The OC-Checksum of the server is not verified.</li>
+     *   <li>No partial file is kept when the download is interrupted; the blocks already in
+     *   the cache take its place in the next attempt.</li>
+     *   <li>The result carries no HTTP headers.</li>
+     * </ul>
+     * The bandwidth limiter applies only to the blocks read from the server.
+     *
+     * @param blockCache    Cache shared by the readers of the account; null disables it.
+     * @param fileSize      Size of the remote file, as returned by
+     *                      {@link ReadRemoteFileOperation}, or -1 if unknown.
+     */
+    public void setBlockCache(RemoteBlockCache blockCache, long fileSize) {
+        mBlockCache = blockCache;
+        mBlockCacheFileSize = fileSize;
+    }
+
+    public void addDatatransferProgressListener(OnDatatransferProgressListener listener) {
+        mProgressDispatcher.addDatatransferProgressListener(listener);
     }
 
     public void removeDatatransferProgressListener(OnDatatransferProgressListener listener) {
-        synchronized (mDataTransferListeners) {
-            mDataTransferListeners.remove(listener);
-        }
+        mProgressDispatcher.removeDatatransferProgressListener(listener);
+    }
+
+    /**
+     * @return  Dispatcher of the progress of the download, to set how often and in which thread
+     *          the listeners are notified.
+     */
+    public TransferProgressDispatcher getProgressDispatcher() {
+        return mProgressDispatcher;
     }
 
     public void cancel() {
         mCancellationRequested.set(true);   // atomic set; there is no need of synchronizing it
     }
 
+    /**
+     * Clears a previous cancellation, so that the operation can be run again; used to resume
+     * paused transfers.
+     */
+    void resetCancellation() {
+        mCancellationRequested.set(false);
+    }
+
+    /**
+     * @return  Checksum of the downloaded file, formatted as in the OC-Checksum header, if the
+     *          server sent one to verify the download; null otherwise.
+     */
+    public String getChecksum() {
+        return (mChecksum != null) ? mChecksum.getHeaderValue() : null;
+    }
+
     public long getModificationTimestamp() {
         return mModificationTimestamp;
     }
@@ -0,0 +1,199 @@
+/* tkjcloud Android Library is available under MIT license
+ *   Copyright (C) 2017 tkjcloud GmbH.
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *   NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *   BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *   ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *   CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *   THE SOFTWARE.
+ *
+ */
+
+package com.tkjcloud.android.lib.resources.files;
+
+import com.tkjcloud.android.lib.common.tkjcloudClient;
+import com.tkjcloud.android.lib.common.network.TransferChecksum;
+import com.tkjcloud.android.lib.common.network.WebdavUtils;
+import com.tkjcloud.android.lib.common.operations.OperationCancelledException;
+import com.tkjcloud.android.lib.common.operations.RemoteOperationResult;
+import com.tkjcloud.android.lib.common.operations.RemoteOperationResult.ResultCode;
+import com.tkjcloud.android.lib.common.utils.Log_OC;
+
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.methods.GetMethod;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+
+/**
+ * Remote operation downloading a remote file into an {@link OutputStream} or a
+ * {@link WritableByteChannel}, instead of a local file; the data can be passed to a decoder,
+ * a decryption layer or a pipe without going through a temporal file.
+ *
+ * The sink is neither closed nor flushed to a storage device by the operation; it belongs to
+ * the caller. Since data already written can not be taken back, downloads are not resumed, and
+ * a failure or a checksum mismatch reported at the end leaves incomplete or wrong data in the
+ * sink, that the caller must discard.
+ *
+ * The eTag and the modification time of the remote file are available after a successful run,
+ * as in {@link DownloadRemoteFileOperation}.
+ */
+public class DownloadRemoteFileToSinkOperation extends DownloadRemoteFileOperation {
+
+    private static final String TAG = DownloadRemoteFileToSinkOperation.class.getSimpleName();
+
+    private final OutputStream mOutputStream;
+    private final WritableByteChannel mChannel;
+    private long mTransferred = 0;
+
+
+    /**
+     * @param remotePath    Remote path of the file to download.
+     * @param outputStream  Stream where the contents of the file will be written.
+     */
+    public DownloadRemoteFileToSinkOperation(String remotePath, OutputStream outputStream) {
+        super(remotePath, null);
+        if (outputStream == null) {
+            throw new IllegalArgumentException("Output stream may not be null");
+        }
+        mOutputStream = outputStream;
+        mChannel = null;
+    }
+
+    /**
+     * @param remotePath    Remote path of the file to download.
+     * @param channel       Channel where the contents of the file will be written.
+     */
+    public DownloadRemoteFileToSinkOperation(String remotePath, WritableByteChannel channel) {
+        super(remotePath, null);
+        if (channel == null) {
+            throw new IllegalArgumentException("Channel may not be null");
+        }
+        mOutputStream = null;
+        mChannel = channel;
+    }
+
+    @Override
+    protected RemoteOperationResult run(tkjcloudClient client) {
+        RemoteOperationResult result;
+        try {
+            int status = downloadToSink(client);
+            if (mChecksumMismatch) {
+                result = new RemoteOperationResult(ResultCode.CHECKSUM_MISMATCH);
+            } else {
+                result = new RemoteOperationResult(isSuccess(status), mGet);
+                if (result.isSuccess() && mChecksum != null) {
+                    result.setChecksum(mChecksum.getHeaderValue());
+                }
+            }
+            Log_OC.i(TAG, "Download of " + mRemotePath + " to sink: " + result.getLogMessage());
+
+        } catch (Exception e) {
+            result = new RemoteOperationResult(e);
+            Log_OC.e(TAG, "Download of " + mRemotePath + " to sink: " + result.getLogMessage(), e);
+        }
+        return result;
+    }
+
+    private int downloadToSink(tkjcloudClient client) throws IOException,
+        OperationCancelledException {
+
+        int status;
+        mTransferred = 0;
+        mChecksumMismatch = false;
+        mGet = new GetMethod(client.getWebdavUri() + WebdavUtils.encodePath(mRemotePath));
+        mProgressDispatcher.reset();
+        try {
+            status = client.executeMethod(mGet);
+            if (status != HttpStatus.SC_OK) {
+                client.exhaustResponse(mGet.getResponseBodyAsStream());
+                return status;
+            }
+
+            Header checksumHeader = mGet.getResponseHeader(TransferChecksum.OC_CHECKSUM_HEADER);
+            mChecksum = TransferChecksum.fromHeader(
+                (checksumHeader != null) ? checksumHeader.getValue() : null
+            );
+            Header contentLength = mGet.getResponseHeader("Content-Length");
+            long totalToTransfer = (contentLength != null &&
+                contentLength.getValue().length() > 0) ?
+                Long.parseLong(contentLength.getValue()) : -1;
+
+            InputStream is = mGet.getResponseBodyAsStream();
+            byte[] bytes = new byte[mBufferSize];
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            int readResult;
+            while ((readResult = is.read(bytes)) != -1) {
+                if (mCancellationRequested.get()) {
+                    mGet.abort();
+                    throw new OperationCancelledException();
+                }
+                mBandwidthLimiter.acquire(readResult);
+                if (mChannel != null) {
+                    buffer.clear();
+                    buffer.limit(readResult);
+                    while (buffer.hasRemaining()) {
+                        mChannel.write(buffer);
+                    }
+                } else {
+                    mOutputStream.write(bytes, 0, readResult);
+                }
+                if (mChecksum != null) {
+                    mChecksum.update(bytes, 0, readResult);
+                }
+                mTransferred += readResult;
+                mProgressDispatcher.onProgress(readResult, mTransferred, totalToTransfer,
+                    mRemotePath);
+            }
+            if (mOutputStream != null) {
+                mOutputStream.flush();
+            }
+            mProgressDispatcher.flush();
+
+            if (totalToTransfer >= 0 && mTransferred != totalToTransfer) {
+                throw new IOException("Incomplete download of " + mRemotePath + ": " +
+                    mTransferred + " of " + totalToTransfer + " bytes");
+            }
+            if (mChecksum != null && !mChecksum.matchesExpectedValue()) {
+                Log_OC.e(TAG, "Checksum mismatch downloading " + mRemotePath + ": expected " +
+                    mChecksum.getExpectedValue() + ", got " + mChecksum.getValue());
+                mChecksumMismatch = true;
+            }
+            readModificationTimestamp(mGet);
+            mEtag = WebdavUtils.getEtagFromResponse(mGet);
+            if (mEtag.length() == 0) {
+                Log_OC.e(TAG, "Could not read eTag from response downloading " + mRemotePath);
+            }
+
+        } finally {
+            mGet.releaseConnection();    // let the connection available for other methods
+        }
+        return status;
+    }
+
+    /**
+     * @return  Number of bytes written to the sink in the last run.
+     */
+    public long getTransferred() {
+        return mTransferred;
+    }
+
+}
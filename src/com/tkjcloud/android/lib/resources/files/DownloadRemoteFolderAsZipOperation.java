@@ -0,0 +1,268 @@
+/* tkjcloud Android Library is available under MIT license
+ *   Copyright (C) 2017 tkjcloud GmbH.
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *   NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *   BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *   ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *   CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *   THE SOFTWARE.
+ *
+ */
+
+package com.tkjcloud.android.lib.resources.files;
+
+import android.net.Uri;
+
+import com.tkjcloud.android.lib.common.tkjcloudClient;
+import com.tkjcloud.android.lib.common.network.BandwidthLimiter;
+import com.tkjcloud.android.lib.common.network.FileDownloadSink;
+import com.tkjcloud.android.lib.common.network.OnDatatransferProgressListener;
+import com.tkjcloud.android.lib.common.network.StreamingZipReader;
+import com.tkjcloud.android.lib.common.network.TransferProgressDispatcher;
+import com.tkjcloud.android.lib.common.operations.OperationCancelledException;
+import com.tkjcloud.android.lib.common.operations.RemoteOperation;
+import com.tkjcloud.android.lib.common.operations.RemoteOperationResult;
+import com.tkjcloud.android.lib.common.operations.RemoteOperationResult.ResultCode;
+import com.tkjcloud.android.lib.common.utils.Log_OC;
+
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.methods.GetMethod;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+
+/**
+ * Remote operation downloading a remote folder with all its contents as a single ZIP archive,
+ * extracting the entries while the archive is received; no copy of the archive is stored.
+ *
+ * Fits folders with many small files, where a request per file as in
+ * {@link DownloadRemoteFolderOperation} would spend more time in round trips than in
+ * transferring data. As with {@link DownloadRemoteFileOperation}, every file is saved in the
+ * local folder followed by its remote path.
+ *
+ * Progress is reported per entry: the listeners get the bytes extracted from the current
+ * entry, its size if the archive tells it in advance (-1 otherwise), and its local path.
+ */
+public class DownloadRemoteFolderAsZipOperation extends RemoteOperation {
+
+    private static final String TAG = DownloadRemoteFolderAsZipOperation.class.getSimpleName();
+
+    private static final String ARCHIVE_ROUTE = "index.php/apps/files/ajax/download.php";
+    private static final String PARAM_DIR = "dir";
+    private static final String PARAM_FILES = "files";
+    private static final String ZIP_CONTENT_TYPE = "zip";
+
+    private static final int BUFFER_SIZE = FileDownloadSink.DEFAULT_BUFFER_SIZE;
+
+    private final String mRemoteFolderPath;
+    private final String mLocalFolderPath;
+    private BandwidthLimiter mBandwidthLimiter = BandwidthLimiter.getGlobal();
+    private FileDownloadSink.FsyncPolicy mFsyncPolicy = FileDownloadSink.FsyncPolicy.NONE;
+
+    private final TransferProgressDispatcher mProgressDispatcher = new TransferProgressDispatcher();
+    private final AtomicBoolean mCancellationRequested = new AtomicBoolean(false);
+    private GetMethod mGet;
+
+    private long mExtractedCount = 0;
+
+
+    /**
+     * @param remoteFolderPath  Remote path of the folder to download; not the root folder.
+     * @param localFolderPath   Local folder where the contents will be extracted.
+     */
+    public DownloadRemoteFolderAsZipOperation(String remoteFolderPath, String localFolderPath) {
+        mRemoteFolderPath = remoteFolderPath.endsWith(FileUtils.PATH_SEPARATOR) ?
+            remoteFolderPath.substring(0, remoteFolderPath.length() - 1) : remoteFolderPath;
+        if (!mRemoteFolderPath.startsWith(FileUtils.PATH_SEPARATOR) ||
+            mRemoteFolderPath.length() < 2) {
+            throw new IllegalArgumentException("Not a downloadable folder: " + remoteFolderPath);
+        }
+        mLocalFolderPath = localFolderPath;
+    }
+
+    /**
+     * Sets the limiter of the bandwidth used by the download; the global one by default.
+     */
+    public void setBandwidthLimiter(BandwidthLimiter bandwidthLimiter) {
+        mBandwidthLimiter = (bandwidthLimiter != null) ?
+            bandwidthLimiter : BandwidthLimiter.getGlobal();
+    }
+
+    /**
+     * Sets when the extracted files are forced to the storage device; never by default.
+     */
+    public void setFsyncPolicy(FileDownloadSink.FsyncPolicy fsyncPolicy) {
+        mFsyncPolicy = (fsyncPolicy != null) ? fsyncPolicy : FileDownloadSink.FsyncPolicy.NONE;
+    }
+
+    @Override
+    protected RemoteOperationResult run(tkjcloudClient client) {
+        RemoteOperationResult result;
+        mExtractedCount = 0;
+        int lastSlash = mRemoteFolderPath.lastIndexOf(FileUtils.PATH_SEPARATOR);
+        String parentPath = (lastSlash == 0) ?
+            FileUtils.PATH_SEPARATOR : mRemoteFolderPath.substring(0, lastSlash);
+        String folderName = mRemoteFolderPath.substring(lastSlash + 1);
+
+        try {
+            Uri.Builder uriBuilder = client.getBaseUri().buildUpon();
+            uriBuilder.appendEncodedPath(ARCHIVE_ROUTE);
+            uriBuilder.appendQueryParameter(PARAM_DIR, parentPath);
+            uriBuilder.appendQueryParameter(PARAM_FILES, folderName);
+
+            synchronized (mCancellationRequested) {
+                if (mCancellationRequested.get()) {
+                    throw new OperationCancelledException();
+                }
+                mGet = new GetMethod(uriBuilder.build().toString());
+            }
+
+            int status = client.executeMethod(mGet);
+            Header contentType = mGet.getResponseHeader("Content-Type");
+            if (status != HttpStatus.SC_OK) {
+                client.exhaustResponse(mGet.getResponseBodyAsStream());
+                result = new RemoteOperationResult(false, mGet);
+
+            } else if (contentType == null ||
+                !contentType.getValue().toLowerCase().contains(ZIP_CONTENT_TYPE)) {
+                // a login or error page instead of the archive
+                client.exhaustResponse(mGet.getResponseBodyAsStream());
+                result = new RemoteOperationResult(ResultCode.WRONG_SERVER_RESPONSE);
+
+            } else {
+                extract(mGet.getResponseBodyAsStream(), parentPath);
+                result = new RemoteOperationResult(true, mGet);
+            }
+
+        } catch (Exception e) {
+            if (mCancellationRequested.get()) {
+                result = new RemoteOperationResult(new OperationCancelledException());
+            } else {
+                result = new RemoteOperationResult(e);
+            }
+            Log_OC.e(TAG, "Download of " + mRemoteFolderPath + " as ZIP to " + mLocalFolderPath +
+                ": " + result.getLogMessage(), e);
+
+        } finally {
+            if (mGet != null) {
+                mGet.releaseConnection();
+            }
+            // cleared so that the operation can be run again
+            mCancellationRequested.set(false);
+        }
+        return result;
+    }
+
+    private void extract(InputStream in, String parentPath)
+        throws IOException, OperationCancelledException {
+
+        File baseFolder = new File(mLocalFolderPath + parentPath).getCanonicalFile();
+        String basePath = baseFolder.getPath() + File.separator;
+        StreamingZipReader reader = new StreamingZipReader(in);
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try {
+            StreamingZipReader.Entry entry;
+            while ((entry = reader.nextEntry()) != null) {
+                File target = new File(baseFolder, entry.getName()).getCanonicalFile();
+                if (!target.getPath().startsWith(basePath)) {
+                    throw new IOException("ZIP entry out of the target folder: " +
+                        entry.getName());
+                }
+                if (entry.isDirectory()) {
+                    target.mkdirs();
+                    continue;
+                }
+                target.getParentFile().mkdirs();
+                extractEntry(reader, entry, target, buffer);
+                mExtractedCount++;
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    private void extractEntry(StreamingZipReader reader, StreamingZipReader.Entry entry,
+                              File target, byte[] buffer)
+        throws IOException, OperationCancelledException {
+
+        String targetPath = target.getAbsolutePath();
+        FileDownloadSink sink = new FileDownloadSink(target, BUFFER_SIZE, mFsyncPolicy);
+        boolean committed = false;
+        mProgressDispatcher.reset();
+        try {
+            sink.open(false);
+            long transferred = 0;
+            int read;
+            while ((read = reader.read(buffer, 0, buffer.length)) != -1) {
+                if (mCancellationRequested.get()) {
+                    throw new OperationCancelledException();
+                }
+                mBandwidthLimiter.acquire(read);
+                sink.write(buffer, 0, read);
+                transferred += read;
+                mProgressDispatcher.onProgress(read, transferred, entry.getSize(), targetPath);
+            }
+            sink.commit();
+            committed = true;
+            if (entry.getTime() > 0) {
+                target.setLastModified(entry.getTime());
+            }
+            mProgressDispatcher.flush();
+
+        } finally {
+            if (!committed) {
+                sink.discard();
+            }
+        }
+    }
+
+    /**
+     * @return  Number of files extracted in the last run.
+     */
+    public long getExtractedCount() {
+        return mExtractedCount;
+    }
+
+    public void addDatatransferProgressListener(OnDatatransferProgressListener listener) {
+        mProgressDispatcher.addDatatransferProgressListener(listener);
+    }
+
+    public void removeDatatransferProgressListener(OnDatatransferProgressListener listener) {
+        mProgressDispatcher.removeDatatransferProgressListener(listener);
+    }
+
+    /**
+     * @return  Dispatcher of the progress of the download, to set how often and in which thread
+     *          the listeners are notified.
+     */
+    public TransferProgressDispatcher getProgressDispatcher() {
+        return mProgressDispatcher;
+    }
+
+    public void cancel() {
+        synchronized (mCancellationRequested) {
+            mCancellationRequested.set(true);
+            if (mGet != null) {
+                mGet.abort();   // unblocks the extraction waiting for data
+            }
+        }
+    }
+
+}
@@ -0,0 +1,368 @@
+/* tkjcloud Android Library is available under MIT license
+ *   Copyright (C) 2017 tkjcloud GmbH.
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *   NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *   BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *   ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *   CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *   THE SOFTWARE.
+ *
+ */
+
+package com.tkjcloud.android.lib.resources.files;
+
+import com.tkjcloud.android.lib.common.tkjcloudClient;
+import com.tkjcloud.android.lib.common.network.BandwidthLimiter;
+import com.tkjcloud.android.lib.common.network.OnDatatransferProgressListener;
+import com.tkjcloud.android.lib.common.network.TransferProgressDispatcher;
+import com.tkjcloud.android.lib.common.operations.OperationCancelledException;
+import com.tkjcloud.android.lib.common.operations.RemoteOperation;
+import com.tkjcloud.android.lib.common.operations.RemoteOperationResult;
+import com.tkjcloud.android.lib.common.operations.RemoteOperationResult.ResultCode;
+import com.tkjcloud.android.lib.common.utils.Log_OC;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Remote operation downloading a remote folder with all its contents.
+ *
+ * Folders are listed breadth-first with {@link ReadRemoteFolderOperation}, and the files found
+ * are handed to a pool of workers that download them while the listing goes on. As with
+ * {@link DownloadRemoteFileOperation}, every file is saved in the local folder followed by its
+ * remote path.
+ *
+ * Files already present with the same size and modification time are not downloaded again;
+ * when the eTags of the local copies are given with {@link #setKnownEtags(Map)}, they must also
+ * match. Downloaded files get the modification time of the remote ones, so that later runs can
+ * skip them, and interrupted downloads are resumed.
+ *
+ * Downloads against the same server are limited to
+ * {@link TransferManager#DEFAULT_MAX_TRANSFERS_PER_SERVER} across all the instances, leaving a
+ * connection for the listings.
+ */
+public class DownloadRemoteFolderOperation extends RemoteOperation {
+
+    private static final String TAG = DownloadRemoteFolderOperation.class.getSimpleName();
+
+    public static final int DEFAULT_WORKERS = TransferManager.DEFAULT_MAX_TRANSFERS_PER_SERVER;
+
+    private static final Map<String, Semaphore> sServerPermits = new HashMap<String, Semaphore>();
+
+    private final String mRemoteFolderPath;
+    private final String mLocalFolderPath;
+    private int mWorkers = DEFAULT_WORKERS;
+    private BandwidthLimiter mBandwidthLimiter = BandwidthLimiter.getGlobal();
+    private final Map<String, String> mEtags =
+        Collections.synchronizedMap(new HashMap<String, String>());
+
+    private final TransferProgressDispatcher mProgressDispatcher = new TransferProgressDispatcher();
+    private final AtomicLong mTransferred = new AtomicLong(0);
+    private final AtomicLong mTotalToTransfer = new AtomicLong(0);
+
+    private final AtomicBoolean mCancellationRequested = new AtomicBoolean(false);
+    private final Set<DownloadRemoteFileOperation> mRunningDownloads =
+        new HashSet<DownloadRemoteFileOperation>();
+
+    private final List<String> mFailedPaths = Collections.synchronizedList(new ArrayList<String>());
+    private final AtomicLong mDownloadedCount = new AtomicLong(0);
+    private final AtomicLong mSkippedCount = new AtomicLong(0);
+    private volatile RemoteOperationResult mFirstFailure;
+
+
+    /**
+     * @param remoteFolderPath  Remote path of the folder to download.
+     * @param localFolderPath   Local folder where the contents will be downloaded.
+     */
+    public DownloadRemoteFolderOperation(String remoteFolderPath, String localFolderPath) {
+        mRemoteFolderPath = remoteFolderPath.endsWith(FileUtils.PATH_SEPARATOR) ?
+            remoteFolderPath : remoteFolderPath + FileUtils.PATH_SEPARATOR;
+        mLocalFolderPath = localFolderPath;
+    }
+
+    /**
+     * @param workers   Maximum number of files downloaded at the same time by this operation.
+     */
+    public void setWorkers(int workers) {
+        mWorkers = Math.max(workers, 1);
+    }
+
+    /**
+     * Sets the limiter of the bandwidth used by the downloads; the global one by default.
+     */
+    public void setBandwidthLimiter(BandwidthLimiter bandwidthLimiter) {
+        mBandwidthLimiter = (bandwidthLimiter != null) ?
+            bandwidthLimiter : BandwidthLimiter.getGlobal();
+    }
+
+    /**
+     * Sets the eTags of the files downloaded before, so that local copies are only kept if the
+     * remote files did not change.
+     *
+     * @param etags     eTags by remote path, as returned by {@link #getEtags()}.
+     */
+    public void setKnownEtags(Map<String, String> etags) {
+        mEtags.clear();
+        if (etags != null) {
+            mEtags.putAll(etags);
+        }
+    }
+
+    /**
+     * @return  eTags of the local copies of the remote files, by remote path; to store and pass
+     *          to {@link #setKnownEtags(Map)} in the next run.
+     */
+    public Map<String, String> getEtags() {
+        synchronized (mEtags) {
+            return new HashMap<String, String>(mEtags);
+        }
+    }
+
+    @Override
+    protected RemoteOperationResult run(tkjcloudClient client) {
+        mFailedPaths.clear();
+        mFirstFailure = null;
+        mTransferred.set(0);
+        mTotalToTransfer.set(0);
+        mProgressDispatcher.reset();
+
+        Semaphore serverPermits = getServerPermits(client);
+        ExecutorService executor = Executors.newFixedThreadPool(mWorkers);
+        try {
+            LinkedList<String> remoteFolders = new LinkedList<String>();
+            remoteFolders.add(mRemoteFolderPath);
+
+            while (!remoteFolders.isEmpty() && !mCancellationRequested.get()) {
+                String remoteFolder = remoteFolders.removeFirst();
+                RemoteOperationResult result =
+                    new ReadRemoteFolderOperation(remoteFolder).execute(client);
+                if (!result.isSuccess()) {
+                    addFailure(remoteFolder, result);
+                    continue;
+                }
+                new File(mLocalFolderPath + remoteFolder).mkdirs();
+
+                ArrayList<Object> data = result.getData();
+                for (int i = 1; i < data.size(); i++) {   // first one is the folder itself
+                    RemoteFile remoteFile = (RemoteFile) data.get(i);
+                    if ("DIR".equals(remoteFile.getMimeType())) {
+                        remoteFolders.add(remoteFile.getRemotePath());
+
+                    } else if (isDownloaded(remoteFile)) {
+                        mSkippedCount.incrementAndGet();
+
+                    } else {
+                        submitDownload(client, executor, serverPermits, remoteFile);
+                    }
+                }
+            }
+
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancel();
+
+        } finally {
+            executor.shutdownNow();
+        }
+        mProgressDispatcher.flush();
+
+        if (mCancellationRequested.getAndSet(false)) {
+            // cleared so that the operation can be run again to resume
+            return new RemoteOperationResult(new OperationCancelledException());
+        }
+        RemoteOperationResult firstFailure = mFirstFailure;
+        if (firstFailure != null) {
+            return new RemoteOperationResult(firstFailure.getCode());
+        }
+        return new RemoteOperationResult(ResultCode.OK);
+    }
+
+    /**
+     * @return  'True' if the local copy of the remote file is up to date.
+     */
+    private boolean isDownloaded(RemoteFile remoteFile) {
+        File localFile = new File(mLocalFolderPath + remoteFile.getRemotePath());
+        if (!localFile.isFile() || localFile.length() != remoteFile.getLength() ||
+            localFile.lastModified() / 1000 != remoteFile.getModifiedTimestamp() / 1000) {
+            return false;
+        }
+        String knownEtag = mEtags.get(remoteFile.getRemotePath());
+        return (knownEtag == null || knownEtag.equals(remoteFile.getEtag()));
+    }
+
+    private void submitDownload(final tkjcloudClient client, ExecutorService executor,
+                                final Semaphore serverPermits, final RemoteFile remoteFile) {
+        final String remotePath = remoteFile.getRemotePath();
+        // the eTag allows resuming a partial download left by a previous run
+        final DownloadRemoteFileOperation download =
+            new DownloadRemoteFileOperation(remotePath, mLocalFolderPath, remoteFile.getEtag());
+        download.setBandwidthLimiter(mBandwidthLimiter);
+        download.addDatatransferProgressListener(new OnDatatransferProgressListener() {
+            @Override
+            public void onTransferProgress(long progressRate, long totalTransferredSoFar,
+                                           long totalToTransfer, String fileAbsoluteName) {
+                long transferred = mTransferred.addAndGet(progressRate);
+                mProgressDispatcher.onProgress(progressRate, transferred,
+                    mTotalToTransfer.get(), fileAbsoluteName);
+            }
+        });
+        mTotalToTransfer.addAndGet(remoteFile.getLength());
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    serverPermits.acquire();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                try {
+                    synchronized (mRunningDownloads) {
+                        if (mCancellationRequested.get()) {
+                            return;
+                        }
+                        mRunningDownloads.add(download);
+                    }
+                    RemoteOperationResult result = download.execute(client);
+                    synchronized (mRunningDownloads) {
+                        mRunningDownloads.remove(download);
+                    }
+                    File localFile = new File(mLocalFolderPath + remotePath);
+                    if (result.isSuccess() && isTruncated(download, remoteFile, localFile)) {
+                        // body of unknown length cut short; not a valid copy for later runs
+                        long length = localFile.length();
+                        localFile.delete();
+                        result = new RemoteOperationResult(new IOException(
+                            "Incomplete download of " + remotePath + ": " + length + " of " +
+                            remoteFile.getLength() + " bytes"));
+                    }
+                    if (result.isSuccess()) {
+                        if (download.getModificationTimestamp() > 0) {
+                            localFile.setLastModified(download.getModificationTimestamp());
+                        }
+                        String etag = download.getEtag();
+                        mEtags.put(remotePath, (etag != null && etag.length() > 0) ?
+                            etag : remoteFile.getEtag());
+                        mDownloadedCount.incrementAndGet();
+
+                    } else if (!mCancellationRequested.get()) {
+                        addFailure(remotePath, result);
+                    }
+                } finally {
+                    serverPermits.release();
+                }
+            }
+        });
+    }
+
+    /**
+     * @return  'True' if the downloaded file is shorter or longer than the listed one, being the
+     *          same version of it.
+     */
+    private static boolean isTruncated(DownloadRemoteFileOperation download,
+                                       RemoteFile remoteFile, File localFile) {
+        String etag = download.getEtag();
+        return (etag != null && etag.equals(remoteFile.getEtag()) &&
+            localFile.length() != remoteFile.getLength());
+    }
+
+    private static Semaphore getServerPermits(tkjcloudClient client) {
+        String server = String.valueOf(client.getBaseUri().getAuthority());
+        synchronized (sServerPermits) {
+            Semaphore permits = sServerPermits.get(server);
+            if (permits == null) {
+                permits = new Semaphore(TransferManager.DEFAULT_MAX_TRANSFERS_PER_SERVER, true);
+                sServerPermits.put(server, permits);
+            }
+            return permits;
+        }
+    }
+
+    private void addFailure(String remotePath, RemoteOperationResult result) {
+        Log_OC.e(TAG, "Failed downloading " + remotePath + ": " + result.getLogMessage());
+        mFailedPaths.add(remotePath);
+        if (mFirstFailure == null) {
+            mFirstFailure = result;
+        }
+    }
+
+    /**
+     * @return  Remote paths of the files and folders that failed in the last run.
+     */
+    public List<String> getFailedPaths() {
+        synchronized (mFailedPaths) {
+            return new ArrayList<String>(mFailedPaths);
+        }
+    }
+
+    /**
+     * @return  Number of files downloaded, in all the runs.
+     */
+    public long getDownloadedCount() {
+        return mDownloadedCount.get();
+    }
+
+    /**
+     * @return  Number of files skipped because the local copy was up to date, in all the runs.
+     */
+    public long getSkippedCount() {
+        return mSkippedCount.get();
+    }
+
+    public void addDatatransferProgressListener(OnDatatransferProgressListener listener) {
+        mProgressDispatcher.addDatatransferProgressListener(listener);
+    }
+
+    public void removeDatatransferProgressListener(OnDatatransferProgressListener listener) {
+        mProgressDispatcher.removeDatatransferProgressListener(listener);
+    }
+
+    /**
+     * @return  Dispatcher of the progress of the download, to set how often and in which thread
+     *          the listeners are notified.
+     */
+    public TransferProgressDispatcher getProgressDispatcher() {
+        return mProgressDispatcher;
+    }
+
+    public void cancel() {
+        synchronized (mRunningDownloads) {
+            mCancellationRequested.set(true);
+            for (DownloadRemoteFileOperation download : mRunningDownloads) {
+                download.cancel();
+            }
+        }
+    }
+
+}
@@ -25,6 +25,18 @@
 package com.tkjcloud.android.lib.resources.files;
 
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import com.tkjcloud.android.lib.common.utils.Log_OC;
 import com.tkjcloud.android.lib.resources.status.tkjcloudVersion;
@@ -35,6 +47,17 @@ public class FileUtils {
 
 	public static final String PATH_SEPARATOR = "/";
 
+	/** Suffix of the files being written by {@link #writeAtomically(File, ContentWriter)} */
+	public static final String TMP_SUFFIX = ".tmp";
+
+
+	/**
+	 * Writes the contents of a file.
+	 */
+	public interface ContentWriter {
+		void write(OutputStream out) throws IOException;
+	}
+
 
 	public static String getParentPath(String remotePath) {
 		String parentPath = new File(remotePath).getParent();
@@ -83,4 +106,98 @@ public class FileUtils {
 		return result;
 	}
 	
+	/**
+	 * Gets a name for a file in a cache, safe in any file system, from a key of any length.
+	 *
+	 * @param key	Key of the cached contents.
+	 * @return		MD5 of the key, in hexadecimal.
+	 */
+	public static String getHashedName(String key) {
+		try {
+			MessageDigest md5 = MessageDigest.getInstance("MD5");
+			byte[] digest = md5.digest(key.getBytes("UTF-8"));
+			StringBuilder sb = new StringBuilder();
+			for (byte b : digest) {
+				sb.append(String.format("%02x", b & 0xFF));
+			}
+			return sb.toString();
+
+		} catch (NoSuchAlgorithmException e) {
+			// MD5 is supported by every Java platform
+			throw new IllegalStateException(e);
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Writes a file to a temporal one next to it, renamed at the end, so that a process killed
+	 * in the middle does not leave a truncated file.
+	 *
+	 * @param file		File to write; its folder is created if needed.
+	 * @param writer	Writer of the contents.
+	 * @throws IOException	If the file could not be written; the temporal file is deleted.
+	 */
+	public static void writeAtomically(File file, ContentWriter writer) throws IOException {
+		File tmpFile = new File(file.getPath() + TMP_SUFFIX);
+		try {
+			file.getParentFile().mkdirs();
+			OutputStream out = new FileOutputStream(tmpFile);
+			try {
+				writer.write(out);
+				out.flush();
+			} finally {
+				out.close();
+			}
+			if (!tmpFile.renameTo(file)) {
+				throw new IOException("Could not rename " + tmpFile);
+			}
+		} catch (IOException e) {
+			tmpFile.delete();
+			throw e;
+		}
+	}
+
+	/**
+	 * Lists the files of a cache, oldest modified first; temporal files left by
+	 * {@link #writeAtomically(File, ContentWriter)} are deleted.
+	 *
+	 * @param folder	Folder of the cache.
+	 * @param depth		0 for the files in the folder, 1 for the files in its subfolders.
+	 * @return			Files found, oldest first.
+	 */
+	public static List<File> listFilesByAge(File folder, int depth) {
+		List<File> files = new ArrayList<File>();
+		collectFiles(folder, depth, files);
+		final Map<File, Long> timestamps = new HashMap<File, Long>();
+		for (File file : files) {
+			timestamps.put(file, file.lastModified());
+		}
+		Collections.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(File lhs, File rhs) {
+				return timestamps.get(lhs).compareTo(timestamps.get(rhs));
+			}
+		});
+		return files;
+	}
+
+	private static void collectFiles(File folder, int depth, List<File> files) {
+		File[] children = folder.listFiles();
+		if (children == null) {
+			return;
+		}
+		for (File child : children) {
+			if (depth > 0) {
+				if (child.isDirectory()) {
+					collectFiles(child, depth - 1, files);
+				}
+			} else if (child.getName().endsWith(TMP_SUFFIX)) {
+				child.delete();
+			} else if (child.isFile()) {
+				files.add(child);
+			}
+		}
+	}
+
 }
@@ -0,0 +1,234 @@
+/* tkjcloud Android Library is available under MIT license
+ *   Copyright (C) 2017 tkjcloud GmbH.
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *   NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *   BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *   ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *   CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *   THE SOFTWARE.
+ *
+ */
+
+package com.tkjcloud.android.lib.resources.files;
+
+import android.net.Uri;
+
+import com.tkjcloud.android.lib.common.tkjcloudClient;
+import com.tkjcloud.android.lib.common.network.ConditionalGetMethod;
+import com.tkjcloud.android.lib.common.network.WebdavUtils;
+import com.tkjcloud.android.lib.common.operations.RemoteOperation;
+import com.tkjcloud.android.lib.common.operations.RemoteOperationResult;
+import com.tkjcloud.android.lib.common.operations.RemoteOperationResult.ResultCode;
+import com.tkjcloud.android.lib.common.utils.Log_OC;
+
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HttpStatus;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+
+
+/**
+ * Remote operation getting a preview (thumbnail) of a remote file, by path or by file id.
+ *
+ * Needs a server supporting remote thumbnails; see
+ * {@link com.tkjcloud.android.lib.resources.status.tkjcloudVersion#supportsRemoteThumbnails()}.
+ *
+ * With a {@link PreviewCache}, previews generated from the same version of the remote file, as
+ * told by {@link #setFileEtag(String)}, are returned with no request to the server; otherwise
+ * the cached preview is revalidated with its eTag, and only downloaded again if it changed.
+ * Operations asking for the same preview at the same time send a single request.
+ *
+ * The result data contain a {@link PreviewCache.Preview}.
+ */
+public class GetRemotePreviewOperation extends RemoteOperation {
+
+    private static final String TAG = GetRemotePreviewOperation.class.getSimpleName();
+
+    private static final String THUMBNAIL_PATH = "/index.php/apps/files/api/v1/thumbnail/";
+    private static final String PREVIEW_PATH = "index.php/core/preview";
+    private static final String PARAM_FILE_ID = "fileId";
+    private static final String PARAM_WIDTH = "x";
+    private static final String PARAM_HEIGHT = "y";
+    private static final String PARAM_KEEP_ASPECT = "a";
+    private static final String PARAM_FORCE_ICON = "forceIcon";
+
+    /** Previews bigger than this are not accepted */
+    private static final int MAX_PREVIEW_SIZE = 10 * 1024 * 1024;
+
+    private final String mRemotePath;
+    private final String mFileId;
+    private final int mWidth;
+    private final int mHeight;
+    private String mFileEtag = null;
+    private PreviewCache mCache = null;
+
+
+    /**
+     * @param remotePath    Remote path of the file.
+     * @param width         Width of the preview, in pixels.
+     * @param height        Height of the preview, in pixels.
+     */
+    public GetRemotePreviewOperation(String remotePath, int width, int height) {
+        mRemotePath = remotePath;
+        mFileId = null;
+        mWidth = width;
+        mHeight = height;
+    }
+
+    /**
+     * @param fileId        Numeric id of the file, as returned by
+     *                      {@link RemoteFile#getRemoteId()} without the instance id.
+     * @param width         Width of the preview, in pixels.
+     * @param height        Height of the preview, in pixels.
+     */
+    public GetRemotePreviewOperation(long fileId, int width, int height) {
+        mRemotePath = null;
+        mFileId = String.valueOf(fileId);
+        mWidth = width;
+        mHeight = height;
+    }
+
+    /**
+     * Sets the eTag of the remote file; cached previews generated from the same version of the
+     * file are used with no request to the server.
+     */
+    public void setFileEtag(String fileEtag) {
+        mFileEtag = fileEtag;
+    }
+
+    /**
+     * Sets the cache of previews of the account.
+     */
+    public void setCache(PreviewCache cache) {
+        mCache = cache;
+    }
+
+    @Override
+    protected RemoteOperationResult run(final tkjcloudClient client) {
+        try {
+            if (mCache == null) {
+                return fetch(client, null);
+            }
+            String key = getCacheKey();
+            final PreviewCache.Preview cached = mCache.get(key);
+            if (cached != null && mFileEtag != null && mFileEtag.length() > 0 &&
+                mFileEtag.equals(cached.getFileEtag())) {
+                return createResult(new RemoteOperationResult(ResultCode.OK), cached);
+            }
+            return mCache.fetchOnce(key, new Callable<RemoteOperationResult>() {
+                @Override
+                public RemoteOperationResult call() throws Exception {
+                    return fetch(client, cached);
+                }
+            });
+
+        } catch (Exception e) {
+            RemoteOperationResult result = new RemoteOperationResult(e);
+            Log_OC.e(TAG, "Exception getting preview of " + getCacheKey(), e);
+            return result;
+        }
+    }
+
+    /**
+     * Requests the preview to the server, revalidating the cached one if any, and caches it.
+     */
+    private RemoteOperationResult fetch(tkjcloudClient client, PreviewCache.Preview cached)
+        throws IOException {
+        RemoteOperationResult result;
+        ConditionalGetMethod get = new ConditionalGetMethod(getPreviewUri(client),
+            (cached != null) ? cached.getEtag() : null);
+        try {
+            int status = client.executeMethod(get);
+
+            if (get.isNotModified() && cached != null) {
+                PreviewCache.Preview preview = new PreviewCache.Preview(cached.getData(),
+                    cached.getMimeType(), cached.getEtag(),
+                    (mFileEtag != null) ? mFileEtag : cached.getFileEtag());
+                mCache.put(getCacheKey(), preview);
+                result = createResult(new RemoteOperationResult(ResultCode.OK), preview);
+
+            } else if (status == HttpStatus.SC_OK) {
+                Header contentType = get.getResponseHeader("Content-Type");
+                if (contentType == null || !contentType.getValue().startsWith("image")) {
+                    Log_OC.e(TAG, "Not an image, failing with no preview");
+                    client.exhaustResponse(get.getResponseBodyAsStream());
+                    return new RemoteOperationResult(ResultCode.FILE_NOT_FOUND);
+                }
+                PreviewCache.Preview preview = new PreviewCache.Preview(
+                    readBody(get.getResponseBodyAsStream()), contentType.getValue(),
+                    WebdavUtils.getEtagFromResponse(get), mFileEtag);
+                if (mCache != null) {
+                    mCache.put(getCacheKey(), preview);
+                }
+                result = createResult(new RemoteOperationResult(true, get), preview);
+
+            } else {
+                client.exhaustResponse(get.getResponseBodyAsStream());
+                result = new RemoteOperationResult(false, get);
+            }
+
+        } finally {
+            get.releaseConnection();
+        }
+        return result;
+    }
+
+    private byte[] readBody(InputStream is) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        byte[] bytes = new byte[4096];
+        int readResult;
+        while ((readResult = is.read(bytes)) != -1) {
+            bos.write(bytes, 0, readResult);
+            if (bos.size() > MAX_PREVIEW_SIZE) {
+                throw new IOException("Preview bigger than " + MAX_PREVIEW_SIZE + " bytes");
+            }
+        }
+        return bos.toByteArray();
+    }
+
+    private RemoteOperationResult createResult(RemoteOperationResult result,
+                                               PreviewCache.Preview preview) {
+        ArrayList<Object> data = new ArrayList<Object>();
+        data.add(preview);
+        result.setData(data);
+        return result;
+    }
+
+    private String getPreviewUri(tkjcloudClient client) {
+        if (mFileId != null) {
+            Uri.Builder uriBuilder = client.getBaseUri().buildUpon();
+            uriBuilder.appendEncodedPath(PREVIEW_PATH);
+            uriBuilder.appendQueryParameter(PARAM_FILE_ID, mFileId);
+            uriBuilder.appendQueryParameter(PARAM_WIDTH, String.valueOf(mWidth));
+            uriBuilder.appendQueryParameter(PARAM_HEIGHT, String.valueOf(mHeight));
+            uriBuilder.appendQueryParameter(PARAM_KEEP_ASPECT, "1");
+            uriBuilder.appendQueryParameter(PARAM_FORCE_ICON, "0");
+            return uriBuilder.build().toString();
+        }
+        return client.getBaseUri() + THUMBNAIL_PATH + mWidth + "/" + mHeight +
+            WebdavUtils.encodePath(mRemotePath);
+    }
+
+    private String getCacheKey() {
+        return ((mFileId != null) ? "id:" + mFileId : "path:" + mRemotePath) + ":" + mWidth +
+            "x" + mHeight;
+    }
+
+}
@@ -0,0 +1,140 @@
+/* tkjcloud Android Library is available under MIT license
+ *   Copyright (C) 2017 tkjcloud GmbH.
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *   NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *   BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *   ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *   CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *   THE SOFTWARE.
+ *
+ */
+
+package com.tkjcloud.android.lib.resources.files;
+
+import com.tkjcloud.android.lib.common.network.TransferChecksum;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * Process-wide cache of checksums of local files.
+ *
+ * Entries are keyed by the path of the file and the type of checksum, and are valid only while
+ * the size and the modification time of the file are the same as when the checksum was computed.
+ * The least recently used entries are evicted when the cache is full.
+ */
+public class LocalChecksumCache {
+
+    private static final int MAX_ENTRIES = 1000;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static LocalChecksumCache sInstance = null;
+
+    private final Map<String, Entry> mEntries =
+        new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > MAX_ENTRIES;
+            }
+        };
+
+    public static synchronized LocalChecksumCache getInstance() {
+        if (sInstance == null) {
+            sInstance = new LocalChecksumCache();
+        }
+        return sInstance;
+    }
+
+    /**
+     * @return  Cached value of the checksum of the file, or null if not cached or the file
+     *          changed after the checksum was computed.
+     */
+    public synchronized String get(File file, TransferChecksum.Type type) {
+        Entry entry = mEntries.get(getKey(file, type));
+        if (entry != null &&
+            (entry.mSize != file.length() || entry.mModificationTimestamp != file.lastModified())) {
+            mEntries.remove(getKey(file, type));
+            entry = null;
+        }
+        return (entry != null) ? entry.mValue : null;
+    }
+
+    /**
+     * Caches the value of the checksum of the file.
+     *
+     * @param size                      Size of the file when the checksum was computed.
+     * @param modificationTimestamp     Modification time of the file when the checksum was
+     *                                  computed.
+     * @param value                     Hexadecimal value of the checksum.
+     */
+    public synchronized void put(File file, TransferChecksum.Type type, long size,
+                                 long modificationTimestamp, String value) {
+        mEntries.put(getKey(file, type), new Entry(size, modificationTimestamp, value));
+    }
+
+    /**
+     * Returns the checksum of the file, computing and caching it if not cached yet.
+     *
+     * @return  Hexadecimal value of the checksum.
+     */
+    public String getOrCompute(File file, TransferChecksum.Type type) throws IOException {
+        String value = get(file, type);
+        if (value == null) {
+            long size = file.length();
+            long modificationTimestamp = file.lastModified();
+            TransferChecksum checksum = new TransferChecksum(type);
+            FileInputStream fis = new FileInputStream(file);
+            try {
+                byte[] bytes = new byte[BUFFER_SIZE];
+                int readResult;
+                while ((readResult = fis.read(bytes)) != -1) {
+                    checksum.update(bytes, 0, readResult);
+                }
+            } finally {
+                fis.close();
+            }
+            value = checksum.getValue();
+            put(file, type, size, modificationTimestamp, value);
+        }
+        return value;
+    }
+
+    public synchronized void clear() {
+        mEntries.clear();
+    }
+
+
+    private static String getKey(File file, TransferChecksum.Type type) {
+        return type.getName() + ":" + file.getAbsolutePath();
+    }
+
+    private static class Entry {
+        final long mSize;
+        final long mModificationTimestamp;
+        final String mValue;
+
+        Entry(long size, long modificationTimestamp, String value) {
+            mSize = size;
+            mModificationTimestamp = modificationTimestamp;
+            mValue = value;
+        }
+    }
+
+}
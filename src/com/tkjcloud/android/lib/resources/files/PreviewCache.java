@@ -0,0 +1,287 @@
+/* tkjcloud Android Library is available under MIT license
+ *   Copyright (C) 2017 tkjcloud GmbH.
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *   NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *   BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *   ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *   CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *   THE SOFTWARE.
+ *
+ */
+
+package com.tkjcloud.android.lib.resources.files;
+
+import com.tkjcloud.android.lib.common.operations.RemoteOperationResult;
+import com.tkjcloud.android.lib.common.utils.Log_OC;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+
+/**
+ * Two-level cache of previews of remote files, used by {@link GetRemotePreviewOperation}.
+ *
+ * Previews are kept in memory, up to a size in bytes, and on disk, up to another size; in both
+ * levels the least recently used ones are evicted first. Every preview keeps the eTag sent by
+ * the server, to revalidate it, the eTag of the remote file it was generated from, and the
+ * time it was last validated.
+ *
+ * Other images with eTags, such as user avatars, can be cached the same way.
+ *
+ * Requests for a preview that is already being fetched wait for that fetch instead of sending
+ * a new request.
+ *
+ * An instance should be used per account, with its own folder.
+ */
+public class PreviewCache {
+
+    private static final String TAG = PreviewCache.class.getSimpleName();
+
+    private final long mMaxMemorySize;
+
+    private final LinkedHashMap<String, Preview> mMemory =
+        new LinkedHashMap<String, Preview>(16, 0.75f, true);
+    private long mMemorySize = 0;
+
+    /** Files in disk by name */
+    private final DiskLruIndex mDisk;
+
+    private final ConcurrentHashMap<String, FutureTask<RemoteOperationResult>> mPendingFetches =
+        new ConcurrentHashMap<String, FutureTask<RemoteOperationResult>>();
+
+
+    /**
+     * Preview of a remote file.
+     */
+    public static class Preview {
+        private final byte[] mData;
+        private final String mMimeType;
+        private final String mEtag;
+        private final String mFileEtag;
+        private final long mTimestamp;
+
+        /**
+         * Creates a preview validated now.
+         */
+        public Preview(byte[] data, String mimeType, String etag, String fileEtag) {
+            this(data, mimeType, etag, fileEtag, System.currentTimeMillis());
+        }
+
+        Preview(byte[] data, String mimeType, String etag, String fileEtag, long timestamp) {
+            mData = data;
+            mMimeType = (mimeType == null) ? "" : mimeType;
+            mEtag = (etag == null) ? "" : etag;
+            mFileEtag = (fileEtag == null) ? "" : fileEtag;
+            mTimestamp = timestamp;
+        }
+
+        public byte[] getData() {
+            return mData;
+        }
+
+        public String getMimeType() {
+            return mMimeType;
+        }
+
+        /**
+         * @return  eTag of the preview, sent by the server.
+         */
+        public String getEtag() {
+            return mEtag;
+        }
+
+        /**
+         * @return  eTag of the remote file the preview was generated from, if known.
+         */
+        public String getFileEtag() {
+            return mFileEtag;
+        }
+
+        /**
+         * @return  Time the preview was downloaded or last revalidated, in milliseconds.
+         */
+        public long getTimestamp() {
+            return mTimestamp;
+        }
+    }
+
+
+    /**
+     * @param folder            Folder where the previews are stored; previews stored there
+     *                          before are kept.
+     * @param maxMemorySize     Maximum size of the previews kept in memory, in bytes.
+     * @param maxDiskSize       Maximum size of the previews stored on disk, in bytes.
+     */
+    public PreviewCache(File folder, long maxMemorySize, long maxDiskSize) {
+        mMaxMemorySize = maxMemorySize;
+        mDisk = new DiskLruIndex(folder, maxDiskSize);
+        synchronized (mDisk) {
+            mDisk.load(0);
+        }
+    }
+
+    /**
+     * @return  Cached preview, read from disk if not in memory, or null if not cached.
+     */
+    public Preview get(String key) {
+        synchronized (mMemory) {
+            Preview preview = mMemory.get(key);
+            if (preview != null) {
+                return preview;
+            }
+        }
+        Preview preview = readFromDisk(key);
+        if (preview != null) {
+            putInMemory(key, preview);
+        }
+        return preview;
+    }
+
+    public void put(String key, Preview preview) {
+        putInMemory(key, preview);
+        writeToDisk(key, preview);
+    }
+
+    /**
+     * Drops a preview from both levels.
+     */
+    public void remove(String key) {
+        synchronized (mMemory) {
+            Preview preview = mMemory.remove(key);
+            if (preview != null) {
+                mMemorySize -= preview.getData().length;
+            }
+        }
+        synchronized (mDisk) {
+            mDisk.remove(getFileName(key));
+        }
+    }
+
+    /**
+     * Runs a fetch of a preview, unless another one is running for the same key; in that case,
+     * waits for it and returns its result.
+     */
+    public RemoteOperationResult fetchOnce(String key, Callable<RemoteOperationResult> fetch)
+        throws Exception {
+        FutureTask<RemoteOperationResult> task = new FutureTask<RemoteOperationResult>(fetch);
+        FutureTask<RemoteOperationResult> pending = mPendingFetches.putIfAbsent(key, task);
+        if (pending == null) {
+            try {
+                task.run();
+            } finally {
+                mPendingFetches.remove(key, task);
+            }
+            pending = task;
+        }
+        try {
+            return pending.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw (cause instanceof Exception) ? (Exception) cause : e;
+        }
+    }
+
+
+    private void putInMemory(String key, Preview preview) {
+        synchronized (mMemory) {
+            Preview old = mMemory.put(key, preview);
+            if (old != null) {
+                mMemorySize -= old.getData().length;
+            }
+            mMemorySize += preview.getData().length;
+            Iterator<Map.Entry<String, Preview>> it = mMemory.entrySet().iterator();
+            while (mMemorySize > mMaxMemorySize && it.hasNext()) {
+                mMemorySize -= it.next().getValue().getData().length;
+                it.remove();
+            }
+        }
+    }
+
+    private Preview readFromDisk(String key) {
+        String name = getFileName(key);
+        synchronized (mDisk) {
+            if (mDisk.use(name) == null) {
+                return null;
+            }
+            File file = mDisk.getFile(name);
+            try {
+                DataInputStream dis = new DataInputStream(new FileInputStream(file));
+                try {
+                    String cachedKey = dis.readUTF();
+                    if (!cachedKey.equals(key)) {
+                        return null;    // collision of names
+                    }
+                    String etag = dis.readUTF();
+                    String fileEtag = dis.readUTF();
+                    String mimeType = dis.readUTF();
+                    long timestamp = dis.readLong();
+                    byte[] data = new byte[dis.readInt()];
+                    dis.readFully(data);
+                    return new Preview(data, mimeType, etag, fileEtag, timestamp);
+                } finally {
+                    dis.close();
+                }
+            } catch (IOException e) {
+                Log_OC.w(TAG, "Could not read cached preview " + file + ": " + e.getMessage());
+                mDisk.remove(name);
+                return null;
+            }
+        }
+    }
+
+    private void writeToDisk(final String key, final Preview preview) {
+        String name = getFileName(key);
+        File file = mDisk.getFile(name);
+        synchronized (mDisk) {
+            try {
+                FileUtils.writeAtomically(file, new FileUtils.ContentWriter() {
+                    @Override
+                    public void write(OutputStream out) throws IOException {
+                        DataOutputStream dos = new DataOutputStream(out);
+                        dos.writeUTF(key);
+                        dos.writeUTF(preview.getEtag());
+                        dos.writeUTF(preview.getFileEtag());
+                        dos.writeUTF(preview.getMimeType());
+                        dos.writeLong(preview.getTimestamp());
+                        dos.writeInt(preview.getData().length);
+                        dos.write(preview.getData());
+                        dos.flush();
+                    }
+                });
+                mDisk.put(name, file.length());
+
+            } catch (IOException e) {
+                Log_OC.w(TAG, "Could not store preview " + key + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private static String getFileName(String key) {
+        return FileUtils.getHashedName(key);
+    }
+
+}
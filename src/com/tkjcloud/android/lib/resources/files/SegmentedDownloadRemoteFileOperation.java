@@ -0,0 +1,377 @@
+/* tkjcloud Android Library is available under MIT license
+ *   Copyright (C) 2017 tkjcloud GmbH.
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *   NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *   BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *   ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *   CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *   THE SOFTWARE.
+ *
+ */
+
+package com.tkjcloud.android.lib.resources.files;
+
+import com.tkjcloud.android.lib.common.tkjcloudClient;
+import com.tkjcloud.android.lib.common.network.FileDownloadSink;
+import com.tkjcloud.android.lib.common.network.WebdavUtils;
+import com.tkjcloud.android.lib.common.operations.OperationCancelledException;
+import com.tkjcloud.android.lib.common.utils.Log_OC;
+
+import org.apache.commons.httpclient.HttpException;
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.methods.GetMethod;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remote operation performing the download of a remote file of known size in several
+ * byte ranges requested concurrently.
+ *
+ * Every segment is written in its position of a partial file preallocated with the final size,
+ * that replaces the local file when all the segments were received.
+ * When the eTag of the remote file is known, the segments are requested with 'If-Match' on it;
+ * in any case, all the segments must be received with the same eTag, so that a change in the
+ * server during the download is detected. The length of the downloaded file is verified at the
+ * end.
+ *
+ * Falls back to a single request when the file is too small to be split, or when the server
+ * does not support byte ranges.
+ *
+ * The OC-Checksum sent by the server is not verified, since the segments arrive out of order;
+ * use {@link DownloadRemoteFileOperation} when that verification is required.
+ */
+public class SegmentedDownloadRemoteFileOperation extends DownloadRemoteFileOperation {
+
+    private static final String TAG = SegmentedDownloadRemoteFileOperation.class.getSimpleName();
+
+    /** Kept below the connections per host allowed by the shared connection manager */
+    public static final int DEFAULT_SEGMENT_COUNT = 4;
+
+    /** Segments smaller than this are not worth a separate request */
+    public static final long MIN_SEGMENT_SIZE = 1024 * 1024;
+
+    private static final String RANGE_HEADER = "Range";
+    private static final String IF_MATCH_HEADER = "If-Match";
+    private static final int SEGMENT_ABORTED = -1;
+
+    private final long mFileSize;
+    private final String mExpectedEtag;
+    private final int mSegmentCount;
+
+    /** Set when a segment failed, to stop the rest */
+    private final AtomicBoolean mSegmentFailed = new AtomicBoolean(false);
+
+    /** Set when the server answered a ranged request with the full content */
+    private final AtomicBoolean mRangesNotSupported = new AtomicBoolean(false);
+
+    private final List<GetMethod> mSegmentMethods = new ArrayList<GetMethod>();
+
+    private final AtomicLong mTransferred = new AtomicLong(0);
+
+    /** eTags received with the segments; all of them must be the same */
+    private final Set<String> mSegmentEtags = Collections.synchronizedSet(new HashSet<String>());
+
+
+    /**
+     * Constructor
+     *
+     * @param remotePath        Remote path of the file to download.
+     * @param localFolderPath   Local folder where the file will be downloaded.
+     * @param fileSize          Size of the remote file, in bytes, as returned by
+     *                          {@link ReadRemoteFileOperation}.
+     * @param etag              eTag of the remote file, as returned by
+     *                          {@link ReadRemoteFileOperation}; null or empty to use the
+     *                          eTag returned with the first segment.
+     * @param segmentCount      Maximum number of segments to download concurrently.
+     */
+    public SegmentedDownloadRemoteFileOperation(String remotePath, String localFolderPath,
+                                                long fileSize, String etag, int segmentCount) {
+        super(remotePath, localFolderPath);
+        mFileSize = fileSize;
+        mExpectedEtag = (etag != null) ? etag : "";
+        mSegmentCount = Math.max(segmentCount, 1);
+    }
+
+    public SegmentedDownloadRemoteFileOperation(String remotePath, String localFolderPath,
+                                                long fileSize, String etag) {
+        this(remotePath, localFolderPath, fileSize, etag, DEFAULT_SEGMENT_COUNT);
+    }
+
+
+    @Override
+    protected int downloadFile(tkjcloudClient client, File targetFile) throws HttpException,
+        IOException, OperationCancelledException {
+
+        // state of a previous run, if any; e.g. paused and resumed by TransferManager
+        mSegmentFailed.set(false);
+        mRangesNotSupported.set(false);
+        mSegmentEtags.clear();
+        synchronized (mSegmentMethods) {
+            mSegmentMethods.clear();
+        }
+        mChecksumMismatch = false;
+        mChecksum = null;
+        mGet = null;
+
+        int segments = (int) Math.min(mSegmentCount, mFileSize / MIN_SEGMENT_SIZE);
+        if (segments <= 1) {
+            return super.downloadFile(client, targetFile);
+        }
+
+        int status = -1;
+        boolean savedFile = false;
+        FileDownloadSink sink = new FileDownloadSink(targetFile, mBufferSize, mFsyncPolicy);
+        ExecutorService executor = Executors.newFixedThreadPool(segments);
+        mTransferred.set(0);
+        mProgressDispatcher.reset();
+        try {
+            sink.open(false);
+            sink.preallocate(mFileSize);
+
+            status = downloadSegments(client, sink, targetFile.getName(), segments, executor);
+            mProgressDispatcher.flush();
+
+            if (!mRangesNotSupported.get() && status == HttpStatus.SC_PARTIAL_CONTENT) {
+                if (mSegmentEtags.size() != 1) {
+                    Log_OC.e(TAG, "eTag changed while downloading segments of " + mRemotePath);
+                    status = HttpStatus.SC_PRECONDITION_FAILED;
+
+                } else if (mTransferred.get() == mFileSize) {
+                    sink.commit();
+                    savedFile = true;
+                    mEtag = mSegmentEtags.iterator().next();
+                    readModificationTimestamp(mGet);
+
+                } else {
+                    Log_OC.e(TAG, "Wrong length downloading " + mRemotePath + ": " +
+                        mTransferred.get() + " instead of " + mFileSize);
+                    status = -1;
+                }
+            }
+
+        } finally {
+            executor.shutdownNow();
+            if (!savedFile) {
+                sink.discard();
+            }
+        }
+
+        if (mRangesNotSupported.get()) {
+            Log_OC.d(TAG, "Server does not support ranges, falling back to a single request");
+            return super.downloadFile(client, targetFile);
+        }
+        return status;
+    }
+
+
+    /**
+     * Downloads all the segments and waits for them to finish.
+     *
+     * @return      HTTP status of the first failed segment, if any, or 206.
+     */
+    private int downloadSegments(final tkjcloudClient client, final FileDownloadSink sink,
+                                 final String targetName, int segments, ExecutorService executor)
+        throws IOException, OperationCancelledException {
+
+        long segmentSize = mFileSize / segments;
+        List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+        List<GetMethod> methods = new ArrayList<GetMethod>();
+        int status = HttpStatus.SC_PARTIAL_CONTENT;
+
+        for (int i = 0; i < segments; i++) {
+            final long first = i * segmentSize;
+            final long last = (i == segments - 1) ? mFileSize - 1 : first + segmentSize - 1;
+            final GetMethod get = createSegmentMethod(client, first, last);
+            Future<Integer> future = executor.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    return downloadSegment(client, get, sink, first, last, targetName);
+                }
+            });
+            futures.add(future);
+            methods.add(get);
+        }
+
+        for (int i = 0; i < futures.size(); i++) {
+            int segmentStatus = waitFor(futures.get(i));
+            if (segmentStatus == SEGMENT_ABORTED) {
+                continue;   // stopped due to the failure of other segment, or to fall back
+            }
+            if (status == HttpStatus.SC_PARTIAL_CONTENT) {
+                // the result of the operation will be built from the first failed segment,
+                // or from the last one
+                mGet = methods.get(i);
+                status = segmentStatus;
+            }
+        }
+        return status;
+    }
+
+
+    /**
+     * Waits for a segment to finish; if it fails, aborts the rest of them.
+     *
+     * @return  HTTP status of the segment, or {@link #SEGMENT_ABORTED} if it was stopped due to
+     *          the failure of other segment.
+     */
+    private int waitFor(Future<Integer> future) throws IOException, OperationCancelledException {
+        try {
+            int status = future.get();
+            if (status != HttpStatus.SC_PARTIAL_CONTENT) {
+                abortSegments();
+            }
+            return status;
+
+        } catch (InterruptedException e) {
+            abortSegments();
+            throw new OperationCancelledException();
+
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof OperationCancelledException && !mCancellationRequested.get()) {
+                return SEGMENT_ABORTED;
+            }
+            abortSegments();
+            if (cause instanceof OperationCancelledException) {
+                throw (OperationCancelledException) cause;
+            } else if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else {
+                throw new IOException("Unexpected failure downloading segment of " + mRemotePath,
+                    cause);
+            }
+        }
+    }
+
+
+    private GetMethod createSegmentMethod(tkjcloudClient client, long first, long last) {
+        GetMethod get = new GetMethod(client.getWebdavUri() + WebdavUtils.encodePath(mRemotePath));
+        get.addRequestHeader(RANGE_HEADER, "bytes=" + first + "-" + last);
+        if (mExpectedEtag.length() > 0) {
+            get.addRequestHeader(IF_MATCH_HEADER, "\"" + mExpectedEtag + "\"");
+        }
+        synchronized (mSegmentMethods) {
+            mSegmentMethods.add(get);
+        }
+        return get;
+    }
+
+
+    private int downloadSegment(tkjcloudClient client, GetMethod get, FileDownloadSink sink,
+                                long first, long last, String targetName)
+        throws IOException, OperationCancelledException {
+
+        int status = -1;
+        try {
+            if (mSegmentFailed.get() || mCancellationRequested.get()) {
+                throw new OperationCancelledException();
+            }
+            status = client.executeMethod(get);
+            if (status == HttpStatus.SC_OK) {
+                // full content; do not read it, it will be requested again in a single request
+                mRangesNotSupported.set(true);
+                get.abort();
+                return status;
+            }
+            if (status != HttpStatus.SC_PARTIAL_CONTENT) {
+                client.exhaustResponse(get.getResponseBodyAsStream());
+                return status;
+            }
+            String etag = WebdavUtils.getEtagFromResponse(get);
+            if (mExpectedEtag.length() > 0 && !mExpectedEtag.equals(etag)) {
+                Log_OC.e(TAG, "eTag changed while downloading segments of " + mRemotePath);
+                get.abort();
+                return HttpStatus.SC_PRECONDITION_FAILED;
+            }
+            mSegmentEtags.add(etag);
+            long rangeFirst = readRangeFirst(get);
+            if (rangeFirst != first) {
+                // the body can not be written at the offset requested; stop the rest of
+                // segments and fall back to a single request
+                Log_OC.w(TAG, "Server sent range from " + rangeFirst + " instead of " + first +
+                    " for " + mRemotePath);
+                mRangesNotSupported.set(true);
+                get.abort();
+                abortSegments();
+                return SEGMENT_ABORTED;
+            }
+
+            InputStream is = get.getResponseBodyAsStream();
+            byte[] bytes = new byte[mBufferSize];
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            long position = first;
+            int readResult;
+            while ((readResult = is.read(bytes)) != -1) {
+                if (mCancellationRequested.get() || mSegmentFailed.get()) {
+                    get.abort();
+                    throw new OperationCancelledException();
+                }
+                if (position + readResult > last + 1) {
+                    throw new IOException("Server sent more bytes than requested for segment " +
+                        first + "-" + last);
+                }
+                mBandwidthLimiter.acquire(readResult);
+                buffer.clear();
+                buffer.limit(readResult);
+                sink.write(buffer, position);
+                position += readResult;
+                long transferred = mTransferred.addAndGet(readResult);
+                mProgressDispatcher.onProgress(readResult, transferred, mFileSize, targetName);
+            }
+            if (position != last + 1) {
+                throw new IOException("Incomplete segment " + first + "-" + last + " of " +
+                    mRemotePath);
+            }
+            return status;
+
+        } catch (IOException e) {
+            if (mCancellationRequested.get() || mSegmentFailed.get()) {
+                // aborted while reading
+                throw new OperationCancelledException();
+            }
+            throw e;
+
+        } finally {
+            get.releaseConnection();    // let the connection available for other methods
+        }
+    }
+
+
+    private void abortSegments() {
+        mSegmentFailed.set(true);
+        synchronized (mSegmentMethods) {
+            for (GetMethod get : mSegmentMethods) {
+                get.abort();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,666 @@
+/* tkjcloud Android Library is available under MIT license
+ *   Copyright (C) 2017 tkjcloud GmbH.
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *   NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *   BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *   ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *   CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *   THE SOFTWARE.
+ *
+ */
+
+package com.tkjcloud.android.lib.resources.files;
+
+import android.os.Handler;
+
+import com.tkjcloud.android.lib.common.tkjcloudClient;
+import com.tkjcloud.android.lib.common.network.NetworkUtils;
+import com.tkjcloud.android.lib.common.network.OnDatatransferProgressListener;
+import com.tkjcloud.android.lib.common.operations.OnRemoteOperationListener;
+import com.tkjcloud.android.lib.common.operations.OperationCancelledException;
+import com.tkjcloud.android.lib.common.operations.RemoteOperation;
+import com.tkjcloud.android.lib.common.operations.RemoteOperationResult;
+import com.tkjcloud.android.lib.common.utils.Log_OC;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Queue of uploads and downloads that runs them in background threads, limiting how many run
+ * at the same time in total and against every server.
+ *
+ * The limits default to one less than the connections available in the shared connection
+ * manager, leaving one for other requests. Accounts in the same server share its limit, since
+ * they also share its connections.
+ *
+ * Queued transfers are started in the selected {@link Order}. They can be paused, resumed and
+ * cancelled at any moment; pausing a running transfer cancels it and puts it back in the queue
+ * when resumed, so that it continues where the operation can resume it: downloads created with
+ * the eTag of the remote file keep the partial file, and chunked uploads skip the chunks
+ * already uploaded. Uploads of a stream, {@link UploadStreamRemoteFileOperation}, can not read
+ * it again, and fail when resumed after they started.
+ */
+public class TransferManager {
+
+    private static final String TAG = TransferManager.class.getSimpleName();
+
+    public static final int DEFAULT_MAX_TRANSFERS = NetworkUtils.MAX_TOTAL_CONNECTIONS - 1;
+    public static final int DEFAULT_MAX_TRANSFERS_PER_SERVER =
+        NetworkUtils.MAX_CONNECTIONS_PER_HOST - 1;
+
+    private static final long THROUGHPUT_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    public enum Order {
+        /** In the order they were enqueued */
+        FIFO,
+        /** Higher priority first; FIFO for the same priority */
+        PRIORITY,
+        /** Smaller first; FIFO for the same size, transfers of unknown size at the end */
+        SMALLEST_FIRST
+    }
+
+    public enum State {
+        QUEUED,
+        RUNNING,
+        PAUSED,
+        SUCCEEDED,
+        FAILED,
+        CANCELLED
+    }
+
+    private final ExecutorService mExecutor = Executors.newCachedThreadPool();
+
+    // guarded by 'this'
+    private final List<Transfer> mQueue = new ArrayList<Transfer>();
+    private final List<Transfer> mAllRunningOrPaused = new ArrayList<Transfer>();
+    private final Map<String, Integer> mRunningPerServer = new HashMap<String, Integer>();
+    private int mRunning = 0;
+    private int mPausedCount = 0;
+    private int mMaxTransfers;
+    private int mMaxTransfersPerServer;
+    private Order mOrder = Order.FIFO;
+    private boolean mQueuePaused = false;
+    private boolean mShutdown = false;
+    private long mNextSequence = 0;
+    private int mSucceeded = 0;
+    private int mFailed = 0;
+    private int mCancelled = 0;
+    private long mActiveNanos = 0;
+    private long mActiveSince = 0;
+
+    private final AtomicLong mBytesTransferred = new AtomicLong(0);
+
+    // guarded by mThroughputLock
+    private final Object mThroughputLock = new Object();
+    private long mWindowStart = System.nanoTime();
+    private long mWindowBytes = 0;
+    private long mThroughput = 0;
+
+
+    public TransferManager() {
+        this(DEFAULT_MAX_TRANSFERS, DEFAULT_MAX_TRANSFERS_PER_SERVER);
+    }
+
+    public TransferManager(int maxTransfers, int maxTransfersPerServer) {
+        mMaxTransfers = Math.max(maxTransfers, 1);
+        mMaxTransfersPerServer = Math.max(maxTransfersPerServer, 1);
+    }
+
+
+    /**
+     * Enqueues an upload.
+     *
+     * @param client        Client for the server to upload the file to.
+     * @param operation     Upload to run; it must not be run by anybody else. The size of
+     *                      uploads from a stream is unknown for {@link Order#SMALLEST_FIRST}.
+     * @param priority      Priority of the upload; only used with {@link Order#PRIORITY}.
+     * @param listener      Listener to notify when the upload finishes, or null.
+     * @param handler       Handler to notify the listener in its thread, or null to notify it
+     *                      in the thread of the upload.
+     * @return              Handle to control the upload.
+     */
+    public Transfer enqueue(tkjcloudClient client, UploadRemoteFileOperation operation,
+                            int priority, OnRemoteOperationListener listener, Handler handler) {
+        long size = (operation.mLocalPath != null) ? new File(operation.mLocalPath).length() : -1;
+        return enqueue(client, operation, size, priority, listener, handler);
+    }
+
+    /**
+     * Enqueues a download.
+     *
+     * @param client        Client for the server to download the file from.
+     * @param operation     Download to run; it must not be run by anybody else.
+     * @param size          Size of the remote file, or -1 if unknown; only used with
+     *                      {@link Order#SMALLEST_FIRST}.
+     * @param priority      Priority of the download; only used with {@link Order#PRIORITY}.
+     * @param listener      Listener to notify when the download finishes, or null.
+     * @param handler       Handler to notify the listener in its thread, or null to notify it
+     *                      in the thread of the download.
+     * @return              Handle to control the download.
+     */
+    public Transfer enqueue(tkjcloudClient client, DownloadRemoteFileOperation operation,
+                            long size, int priority, OnRemoteOperationListener listener,
+                            Handler handler) {
+        return enqueue(client, (RemoteOperation) operation, size, priority, listener, handler);
+    }
+
+    private Transfer enqueue(tkjcloudClient client, RemoteOperation operation, long size,
+                             int priority, OnRemoteOperationListener listener, Handler handler) {
+        if (client == null || operation == null) {
+            throw new IllegalArgumentException("Trying to enqueue a transfer with a NULL " +
+                "client or operation");
+        }
+        Transfer transfer;
+        synchronized (this) {
+            if (mShutdown) {
+                throw new IllegalStateException("Trying to enqueue a transfer in a shut down " +
+                    "transfer manager");
+            }
+            transfer = new Transfer(client, operation, size, priority, mNextSequence++,
+                listener, handler);
+            transfer.addProgressListener();
+            mQueue.add(transfer);
+            schedule();
+        }
+        return transfer;
+    }
+
+    /**
+     * Stops starting queued transfers, or starts them again. Running transfers are not affected.
+     */
+    public synchronized void setQueuePaused(boolean paused) {
+        mQueuePaused = paused;
+        schedule();
+    }
+
+    public synchronized boolean isQueuePaused() {
+        return mQueuePaused;
+    }
+
+    public synchronized void setOrder(Order order) {
+        mOrder = (order != null) ? order : Order.FIFO;
+        schedule();
+    }
+
+    /**
+     * Sets the limits of transfers running at the same time; lowering them does not stop
+     * running transfers, but new ones will not be started until the limits are respected.
+     */
+    public synchronized void setLimits(int maxTransfers, int maxTransfersPerServer) {
+        mMaxTransfers = Math.max(maxTransfers, 1);
+        mMaxTransfersPerServer = Math.max(maxTransfersPerServer, 1);
+        schedule();
+    }
+
+    /**
+     * Cancels all the transfers.
+     */
+    public void cancelAll() {
+        List<Transfer> transfers = new ArrayList<Transfer>();
+        synchronized (this) {
+            transfers.addAll(mQueue);
+        }
+        for (Transfer transfer : transfers) {
+            transfer.cancel();
+        }
+        synchronized (this) {
+            transfers.clear();
+            for (Transfer transfer : mAllRunningOrPaused) {
+                transfers.add(transfer);
+            }
+        }
+        for (Transfer transfer : transfers) {
+            transfer.cancel();
+        }
+    }
+
+    /**
+     * Cancels all the transfers and releases the threads; the manager can not be used anymore.
+     */
+    public void shutdown() {
+        synchronized (this) {
+            mShutdown = true;
+        }
+        cancelAll();
+        mExecutor.shutdown();
+    }
+
+    /**
+     * @return  Snapshot of the state of the transfers and of the data transferred.
+     */
+    public Statistics getStatistics() {
+        long now = System.nanoTime();
+        Statistics stats = new Statistics();
+        synchronized (this) {
+            stats.mQueued = mQueue.size();
+            stats.mRunning = mRunning;
+            stats.mPaused = mPausedCount;
+            stats.mSucceeded = mSucceeded;
+            stats.mFailed = mFailed;
+            stats.mCancelled = mCancelled;
+            stats.mActiveNanos = mActiveNanos + ((mRunning > 0) ? now - mActiveSince : 0);
+        }
+        stats.mBytesTransferred = mBytesTransferred.get();
+        synchronized (mThroughputLock) {
+            long elapsed = now - mWindowStart;
+            stats.mThroughput = (elapsed >= THROUGHPUT_WINDOW_NANOS) ?
+                mWindowBytes * TimeUnit.SECONDS.toNanos(1) / elapsed :
+                mThroughput;
+        }
+        return stats;
+    }
+
+
+    /**
+     * Starts queued transfers while the limits allow it. Must be called holding the lock.
+     */
+    private void schedule() {
+        while (!mQueuePaused && !mShutdown && mRunning < mMaxTransfers) {
+            Transfer next = null;
+            for (Transfer transfer : mQueue) {
+                if (getRunning(transfer.mServer) < mMaxTransfersPerServer &&
+                    (next == null || compare(transfer, next) < 0)) {
+                    next = transfer;
+                }
+            }
+            if (next == null) {
+                break;
+            }
+            mQueue.remove(next);
+            start(next);
+        }
+    }
+
+    private int compare(Transfer t1, Transfer t2) {
+        switch (mOrder) {
+            case PRIORITY:
+                if (t1.mPriority != t2.mPriority) {
+                    return (t1.mPriority > t2.mPriority) ? -1 : 1;
+                }
+                break;
+            case SMALLEST_FIRST:
+                long size1 = (t1.mSize < 0) ? Long.MAX_VALUE : t1.mSize;
+                long size2 = (t2.mSize < 0) ? Long.MAX_VALUE : t2.mSize;
+                if (size1 != size2) {
+                    return (size1 < size2) ? -1 : 1;
+                }
+                break;
+            default:
+                break;
+        }
+        return (t1.mSequence < t2.mSequence) ? -1 : ((t1.mSequence == t2.mSequence) ? 0 : 1);
+    }
+
+    private int getRunning(String server) {
+        Integer running = mRunningPerServer.get(server);
+        return (running != null) ? running : 0;
+    }
+
+    private void start(final Transfer transfer) {
+        transfer.mState = State.RUNNING;
+        mAllRunningOrPaused.add(transfer);
+        if (mRunning == 0) {
+            mActiveSince = System.nanoTime();
+        }
+        mRunning++;
+        mRunningPerServer.put(transfer.mServer, getRunning(transfer.mServer) + 1);
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                runTransfer(transfer);
+            }
+        });
+    }
+
+    private void runTransfer(Transfer transfer) {
+        RemoteOperationResult result;
+        try {
+            result = transfer.mOperation.execute(transfer.mClient);
+        } catch (RuntimeException e) {
+            Log_OC.e(TAG, "Unexpected error running transfer", e);
+            result = new RemoteOperationResult(e);
+        }
+
+        boolean finished;
+        synchronized (this) {
+            mRunning--;
+            if (mRunning == 0) {
+                mActiveNanos += System.nanoTime() - mActiveSince;
+            }
+            int running = getRunning(transfer.mServer) - 1;
+            if (running > 0) {
+                mRunningPerServer.put(transfer.mServer, running);
+            } else {
+                mRunningPerServer.remove(transfer.mServer);
+            }
+
+            transfer.mResult = result;
+            finished = true;
+            // checked before the result: an operation stopped in the middle may still return
+            // a successful one, and a transfer cancelled or paused is not counted as done
+            if (transfer.mCancelRequested) {
+                transfer.mState = State.CANCELLED;
+                mCancelled++;
+
+            } else if (transfer.mPauseRequested) {
+                transfer.mPauseRequested = false;
+                transfer.resetCancellation();
+                if (transfer.mResumeRequested) {
+                    transfer.mResumeRequested = false;
+                    transfer.mState = State.QUEUED;
+                    mQueue.add(transfer);
+                } else {
+                    transfer.mState = State.PAUSED;
+                    mPausedCount++;
+                }
+                finished = false;
+
+            } else if (result.isSuccess()) {
+                transfer.mState = State.SUCCEEDED;
+                mSucceeded++;
+
+            } else {
+                transfer.mState = State.FAILED;
+                mFailed++;
+            }
+            if (transfer.mState != State.PAUSED) {
+                mAllRunningOrPaused.remove(transfer);
+            }
+            schedule();
+        }
+
+        if (finished) {
+            transfer.notifyFinish();
+        }
+    }
+
+    private void onBytesTransferred(long bytes) {
+        mBytesTransferred.addAndGet(bytes);
+        synchronized (mThroughputLock) {
+            long now = System.nanoTime();
+            long elapsed = now - mWindowStart;
+            if (elapsed >= THROUGHPUT_WINDOW_NANOS) {
+                mThroughput = mWindowBytes * TimeUnit.SECONDS.toNanos(1) / elapsed;
+                mWindowStart = now;
+                mWindowBytes = 0;
+            }
+            mWindowBytes += bytes;
+        }
+    }
+
+
+    /**
+     * Handle of a transfer enqueued in a {@link TransferManager}.
+     */
+    public class Transfer {
+
+        private final tkjcloudClient mClient;
+        private final RemoteOperation mOperation;
+        private final long mSize;
+        private final int mPriority;
+        private final long mSequence;
+        private final String mServer;
+        private final OnRemoteOperationListener mListener;
+        private final Handler mHandler;
+        private final AtomicLong mTransferred = new AtomicLong(0);
+
+        // guarded by the lock of the manager
+        private State mState = State.QUEUED;
+        private boolean mPauseRequested = false;
+        private boolean mResumeRequested = false;
+        private boolean mCancelRequested = false;
+        private RemoteOperationResult mResult = null;
+
+        private Transfer(tkjcloudClient client, RemoteOperation operation, long size,
+                         int priority, long sequence, OnRemoteOperationListener listener,
+                         Handler handler) {
+            mClient = client;
+            mOperation = operation;
+            mSize = size;
+            mPriority = priority;
+            mSequence = sequence;
+            mServer = String.valueOf(client.getBaseUri().getAuthority());
+            mListener = listener;
+            mHandler = handler;
+        }
+
+        public RemoteOperation getOperation() {
+            return mOperation;
+        }
+
+        public long getSize() {
+            return mSize;
+        }
+
+        /**
+         * @return  Bytes transferred so far, including those of previous runs before pauses.
+         */
+        public long getTransferred() {
+            return mTransferred.get();
+        }
+
+        public State getState() {
+            synchronized (TransferManager.this) {
+                return mState;
+            }
+        }
+
+        /**
+         * @return  Result of the last run of the transfer, or null if never finished.
+         */
+        public RemoteOperationResult getResult() {
+            synchronized (TransferManager.this) {
+                return mResult;
+            }
+        }
+
+        /**
+         * Pauses the transfer; if running, it is cancelled and will be run again when resumed.
+         */
+        public void pause() {
+            boolean cancel = false;
+            synchronized (TransferManager.this) {
+                if (mState == State.QUEUED) {
+                    mQueue.remove(this);
+                    mAllRunningOrPaused.add(this);
+                    mState = State.PAUSED;
+                    mPausedCount++;
+
+                } else if (mState == State.RUNNING && !mCancelRequested) {
+                    mPauseRequested = true;
+                    mResumeRequested = false;
+                    cancel = true;
+                }
+            }
+            if (cancel) {
+                cancelOperation();
+            }
+        }
+
+        /**
+         * Puts a paused transfer back in the queue.
+         */
+        public void resume() {
+            synchronized (TransferManager.this) {
+                if (mState == State.PAUSED) {
+                    mAllRunningOrPaused.remove(this);
+                    mPausedCount--;
+                    mState = State.QUEUED;
+                    mQueue.add(this);
+                    schedule();
+
+                } else if (mState == State.RUNNING && mPauseRequested) {
+                    // still stopping; queue it again as soon as it stops
+                    mResumeRequested = true;
+                }
+            }
+        }
+
+        /**
+         * Cancels the transfer; the listener is notified with the result.
+         */
+        public void cancel() {
+            boolean cancel = false;
+            boolean notify = false;
+            synchronized (TransferManager.this) {
+                if (mState == State.QUEUED || mState == State.PAUSED) {
+                    if (mState == State.PAUSED) {
+                        mPausedCount--;
+                    }
+                    mQueue.remove(this);
+                    mAllRunningOrPaused.remove(this);
+                    mState = State.CANCELLED;
+                    mResult = new RemoteOperationResult(new OperationCancelledException());
+                    mCancelled++;
+                    notify = true;
+
+                } else if (mState == State.RUNNING) {
+                    mCancelRequested = true;
+                    cancel = true;
+                }
+            }
+            if (cancel) {
+                cancelOperation();
+            }
+            if (notify) {
+                notifyFinish();
+            }
+        }
+
+        private void cancelOperation() {
+            if (mOperation instanceof UploadRemoteFileOperation) {
+                ((UploadRemoteFileOperation) mOperation).cancel();
+            } else if (mOperation instanceof DownloadRemoteFileOperation) {
+                ((DownloadRemoteFileOperation) mOperation).cancel();
+            }
+        }
+
+        private void resetCancellation() {
+            if (mOperation instanceof UploadRemoteFileOperation) {
+                ((UploadRemoteFileOperation) mOperation).resetCancellation();
+            } else if (mOperation instanceof DownloadRemoteFileOperation) {
+                ((DownloadRemoteFileOperation) mOperation).resetCancellation();
+            }
+        }
+
+        private void addProgressListener() {
+            OnDatatransferProgressListener listener = new OnDatatransferProgressListener() {
+                @Override
+                public void onTransferProgress(long progressRate, long totalTransferredSoFar,
+                                               long totalToTransfer, String fileAbsoluteName) {
+                    mTransferred.addAndGet(progressRate);
+                    onBytesTransferred(progressRate);
+                }
+            };
+            if (mOperation instanceof UploadRemoteFileOperation) {
+                ((UploadRemoteFileOperation) mOperation).addDatatransferProgressListener(listener);
+            } else if (mOperation instanceof DownloadRemoteFileOperation) {
+                ((DownloadRemoteFileOperation) mOperation).addDatatransferProgressListener(listener);
+            }
+        }
+
+        private void notifyFinish() {
+            if (mListener == null) {
+                return;
+            }
+            final RemoteOperationResult result = getResult();
+            if (mHandler != null) {
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mListener.onRemoteOperationFinish(mOperation, result);
+                    }
+                });
+            } else {
+                mListener.onRemoteOperationFinish(mOperation, result);
+            }
+        }
+    }
+
+
+    /**
+     * Snapshot of the state of the transfers in a {@link TransferManager}.
+     */
+    public static class Statistics {
+
+        private int mQueued;
+        private int mRunning;
+        private int mPaused;
+        private int mSucceeded;
+        private int mFailed;
+        private int mCancelled;
+        private long mBytesTransferred;
+        private long mThroughput;
+        private long mActiveNanos;
+
+        public int getQueued() {
+            return mQueued;
+        }
+
+        public int getRunning() {
+            return mRunning;
+        }
+
+        public int getPaused() {
+            return mPaused;
+        }
+
+        public int getSucceeded() {
+            return mSucceeded;
+        }
+
+        public int getFailed() {
+            return mFailed;
+        }
+
+        public int getCancelled() {
+            return mCancelled;
+        }
+
+        /**
+         * @return  Bytes transferred by all the transfers since the manager was created.
+         */
+        public long getBytesTransferred() {
+            return mBytesTransferred;
+        }
+
+        /**
+         * @return  Bytes per second transferred by all the transfers in the last second.
+         */
+        public long getThroughput() {
+            return mThroughput;
+        }
+
+        /**
+         * @return  Bytes per second transferred by all the transfers while any of them was
+         *          running.
+         */
+        public long getAverageThroughput() {
+            return (mActiveNanos > 0) ?
+                mBytesTransferred * TimeUnit.SECONDS.toNanos(1) / mActiveNanos :
+                0;
+        }
+    }
+
+}
@@ -25,23 +25,31 @@
 package com.tkjcloud.android.lib.resources.files;
 
 import com.tkjcloud.android.lib.common.tkjcloudClient;
+import com.tkjcloud.android.lib.common.network.BandwidthLimiter;
 import com.tkjcloud.android.lib.common.network.FileRequestEntity;
 import com.tkjcloud.android.lib.common.network.OnDatatransferProgressListener;
-import com.tkjcloud.android.lib.common.network.ProgressiveDataTransferer;
+import com.tkjcloud.android.lib.common.network.TransferChecksum;
+import com.tkjcloud.android.lib.common.network.TransferProgressDispatcher;
+import com.tkjcloud.android.lib.common.network.WebdavEntry;
 import com.tkjcloud.android.lib.common.network.WebdavUtils;
 import com.tkjcloud.android.lib.common.operations.OperationCancelledException;
 import com.tkjcloud.android.lib.common.operations.RemoteOperation;
 import com.tkjcloud.android.lib.common.operations.RemoteOperationResult;
+import com.tkjcloud.android.lib.common.operations.RemoteOperationResult.ResultCode;
+import com.tkjcloud.android.lib.common.utils.Log_OC;
 
 import org.apache.commons.httpclient.DefaultHttpMethodRetryHandler;
+import org.apache.commons.httpclient.HttpMethodBase;
 import org.apache.commons.httpclient.HttpStatus;
 import org.apache.commons.httpclient.methods.PutMethod;
 import org.apache.commons.httpclient.methods.RequestEntity;
 import org.apache.commons.httpclient.params.HttpMethodParams;
+import org.apache.jackrabbit.webdav.DavConstants;
+import org.apache.jackrabbit.webdav.MultiStatus;
+import org.apache.jackrabbit.webdav.client.methods.PropFindMethod;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.HashSet;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -60,15 +68,26 @@ public class UploadRemoteFileOperation extends RemoteOperation {
 	protected static final String IF_MATCH_HEADER = "If-Match";
     protected static final String OC_X_OC_MTIME_HEADER = "X-OC-Mtime";
 
+	/** Buffers read ahead from disk while the previous ones are sent; 2 means double buffering */
+	public static final int DEFAULT_READ_AHEAD_BUFFERS = 2;
+
 	protected String mLocalPath;
 	protected String mRemotePath;
 	protected String mMimeType;
 	protected String mFileLastModifTimestamp;
 	protected PutMethod mPutMethod = null;
 	protected String mRequiredEtag = null;
+	protected int mReadAheadBuffers = DEFAULT_READ_AHEAD_BUFFERS;
+	protected TransferChecksum.Type mChecksumType = null;
+	protected TransferChecksum mChecksum = null;
+	protected BandwidthLimiter mBandwidthLimiter = BandwidthLimiter.getGlobal();
+	protected boolean mSkipIfIdentical = false;
+	protected boolean mUploadSkipped = false;
+	/** Checksum of the local file computed before the upload, formatted as OC-Checksum */
+	protected String mLocalChecksum = null;
 
 	protected final AtomicBoolean mCancellationRequested = new AtomicBoolean(false);
-	protected Set<OnDatatransferProgressListener> mDataTransferListeners = new HashSet<OnDatatransferProgressListener>();
+	protected final TransferProgressDispatcher mProgressDispatcher = new TransferProgressDispatcher();
 
 	protected RequestEntity mEntity = null;
 
@@ -89,25 +108,25 @@ public class UploadRemoteFileOperation extends RemoteOperation {
 	@Override
 	protected RemoteOperationResult run(tkjcloudClient client) {
 		RemoteOperationResult result = null;
-		DefaultHttpMethodRetryHandler oldRetryHandler =
-			(DefaultHttpMethodRetryHandler) client.getParams().getParameter(HttpMethodParams.RETRY_HANDLER);
 
 		try {
-			// prevent that uploads are retried automatically by network library
-			client.getParams().setParameter(
-				HttpMethodParams.RETRY_HANDLER,
-				new DefaultHttpMethodRetryHandler(0, false)
-			);
-
 			mPutMethod = new PutMethod(client.getWebdavUri() + WebdavUtils.encodePath(mRemotePath));
+			disableRetries(mPutMethod);
 
 			if (mCancellationRequested.get()) {
 				// the operation was cancelled before getting it's turn to be executed in the queue of uploads
 				result = new RemoteOperationResult(new OperationCancelledException());
 
 			} else {
-				// perform the upload
-				result = uploadFile(client);
+				mUploadSkipped = false;
+				mLocalChecksum = null;
+				if (mSkipIfIdentical) {
+					result = checkRemoteFile(client);
+				}
+				if (result == null) {
+					// perform the upload
+					result = uploadFile(client);
+				}
 			}
 
 		} catch (Exception e) {
@@ -117,41 +136,116 @@ public class UploadRemoteFileOperation extends RemoteOperation {
 			} else {
 				result = new RemoteOperationResult(e);
 			}
-		} finally {
-			// reset previous retry handler
-			client.getParams().setParameter(
-				HttpMethodParams.RETRY_HANDLER,
-				oldRetryHandler
-			);
 		}
 		return result;
 	}
 
+	/**
+	 * Prevents that the network library retries automatically a method sending contents.
+	 *
+	 * Set in the method instead of the client, since uploads may run in parallel on the
+	 * same client.
+	 */
+	protected static void disableRetries(HttpMethodBase method) {
+		method.getParams().setParameter(
+			HttpMethodParams.RETRY_HANDLER,
+			new DefaultHttpMethodRetryHandler(0, false)
+		);
+	}
+
 	public boolean isSuccess(int status) {
 		return ((status == HttpStatus.SC_OK || status == HttpStatus.SC_CREATED ||
                 status == HttpStatus.SC_NO_CONTENT));
 	}
 
+	/**
+	 * Compares the local file with the remote one, if any, using the size and a checksum
+	 * stored in the server.
+	 *
+	 * @return  Successful result if the remote file is identical to the local one and the
+	 *          upload is not needed, or null otherwise.
+	 */
+	protected RemoteOperationResult checkRemoteFile(tkjcloudClient client) {
+		PropFindMethod propfind = null;
+		RemoteOperationResult result = null;
+		File f = new File(mLocalPath);
+		try {
+			propfind = new PropFindMethod(client.getWebdavUri() + WebdavUtils.encodePath(mRemotePath),
+				WebdavUtils.getChecksumPropSet(),
+				DavConstants.DEPTH_0);
+			int status = client.executeMethod(propfind);
+
+			if (status == HttpStatus.SC_MULTI_STATUS || status == HttpStatus.SC_OK) {
+				MultiStatus resp = propfind.getResponseBodyAsMultiStatus();
+				WebdavEntry we = new WebdavEntry(resp.getResponses()[0],
+					client.getWebdavUri().getPath());
+				TransferChecksum remoteChecksum = TransferChecksum.fromHeader(we.checksums());
+
+				if (!we.isDirectory() && we.contentLength() == f.length() &&
+					remoteChecksum != null) {
+					String localValue = LocalChecksumCache.getInstance()
+						.getOrCompute(f, remoteChecksum.getType());
+					mLocalChecksum = remoteChecksum.getType().getName() + ":" + localValue;
+					if (localValue.equalsIgnoreCase(remoteChecksum.getExpectedValue())) {
+						Log_OC.d(TAG, "Skipping upload of " + mRemotePath +
+							", identical to the remote file");
+						mUploadSkipped = true;
+						result = new RemoteOperationResult(ResultCode.OK);
+						result.setChecksum(mLocalChecksum);
+					}
+				}
+
+			} else {
+				client.exhaustResponse(propfind.getResponseBodyAsStream());
+			}
+
+		} catch (Exception e) {
+			// the comparison is an optimization; any failure falls back to the upload
+			Log_OC.w(TAG, "Could not compare " + mRemotePath + " with the local file: " +
+				e.getMessage());
+
+		} finally {
+			if (propfind != null) {
+				propfind.releaseConnection();
+			}
+		}
+		return result;
+	}
+
 	protected RemoteOperationResult uploadFile(tkjcloudClient client) throws IOException {
 		int status = -1;
 		RemoteOperationResult result;
 
 		try {
 			File f = new File(mLocalPath);
+			long size = f.length();
+			long modificationTimestamp = f.lastModified();
 			mEntity  = new FileRequestEntity(f, mMimeType);
-			synchronized (mDataTransferListeners) {
-				((ProgressiveDataTransferer)mEntity)
-                        .addDatatransferProgressListeners(mDataTransferListeners);
+			((FileRequestEntity) mEntity).setReadAheadBuffers(mReadAheadBuffers);
+			if (mChecksumType != null) {
+				mChecksum = new TransferChecksum(mChecksumType);
+				((FileRequestEntity) mEntity).setChecksum(mChecksum);
 			}
+			((FileRequestEntity) mEntity).setProgressDispatcher(mProgressDispatcher);
+			((FileRequestEntity) mEntity).setBandwidthLimiter(mBandwidthLimiter);
 			if (mRequiredEtag != null && mRequiredEtag.length() > 0) {
 				mPutMethod.addRequestHeader(IF_MATCH_HEADER, "\"" + mRequiredEtag + "\"");
 			}
 			mPutMethod.addRequestHeader(OC_TOTAL_LENGTH_HEADER, String.valueOf(f.length()));
             mPutMethod.addRequestHeader(OC_X_OC_MTIME_HEADER, mFileLastModifTimestamp);
+			if (mLocalChecksum != null) {
+				// computed in advance, so it can be sent before the contents
+				mPutMethod.addRequestHeader(TransferChecksum.OC_CHECKSUM_HEADER, mLocalChecksum);
+			}
 			mPutMethod.setRequestEntity(mEntity);
 			status = client.executeMethod(mPutMethod);
 
 			result = new RemoteOperationResult(isSuccess(status), mPutMethod);
+			if (result.isSuccess() && mChecksum != null) {
+				result.setChecksum(mChecksum.getHeaderValue());
+				LocalChecksumCache.getInstance().put(f, mChecksum.getType(), size,
+					modificationTimestamp, mChecksum.getValue());
+			}
 
 			client.exhaustResponse(mPutMethod.getResponseBodyAsStream());
 
@@ -161,26 +255,88 @@ public class UploadRemoteFileOperation extends RemoteOperation {
 		return result;
 	}
 
+    /**
+     * Sets the number of buffers read ahead from the local file in a background thread while
+     * previous buffers are sent to the server, so that disk reads and network writes overlap.
+     *
+     * @param readAheadBuffers  Number of buffers; 1 or less disables the read-ahead.
+     */
+    public void setReadAheadBuffers(int readAheadBuffers) {
+        mReadAheadBuffers = readAheadBuffers;
+    }
+
+    /**
+     * Enables the computation of a checksum of the file while it is uploaded, with no additional
+     * reads of the file.
+     *
+     * The value is available in the result of the operation, and in {@link #getChecksum()}.
+     * Chunked uploads send it to the server in the OC-Checksum header of the last chunk; a
+     * single PUT can not send it, since the headers are sent before the contents.
+     *
+     * @param checksumType  Type of checksum; null disables the computation.
+     */
+    public void setChecksumType(TransferChecksum.Type checksumType) {
+        mChecksumType = checksumType;
+    }
+
+    /**
+     * @return  Checksum of the uploaded file, formatted as in the OC-Checksum header, or null
+     *          if not computed.
+     */
+    public String getChecksum() {
+        return (mChecksum != null) ? mChecksum.getHeaderValue() : null;
+    }
+
+    /**
+     * Enables the comparison of the local file with the remote one before the upload.
+     *
+     * The upload is skipped when the server reports the same size and a checksum equal to the
+     * one of the local file. Checksums of local files are cached while their size and
+     * modification time do not change.
+     *
+     * @param skipIfIdentical   'True' to skip uploads of files identical to the remote ones.
+     */
+    public void setSkipIfIdentical(boolean skipIfIdentical) {
+        mSkipIfIdentical = skipIfIdentical;
+    }
+
+    /**
+     * @return  'True' if the last run of the operation did not upload the file because it was
+     *          identical to the remote one.
+     */
+    public boolean isUploadSkipped() {
+        return mUploadSkipped;
+    }
+
+    /**
+     * Sets the limiter of the bandwidth used by the upload; the global one by default.
+     *
+     * Use {@link BandwidthLimiter#forAccount(String)} to share a limit with all the transfers of
+     * an account, or a new limiter chained to it to limit this transfer alone.
+     */
+    public void setBandwidthLimiter(BandwidthLimiter bandwidthLimiter) {
+        mBandwidthLimiter = (bandwidthLimiter != null) ?
+            bandwidthLimiter : BandwidthLimiter.getGlobal();
+    }
+
     public Set<OnDatatransferProgressListener> getDataTransferListeners() {
-        return mDataTransferListeners;
+        return mProgressDispatcher.getListeners();
     }
     
     public void addDatatransferProgressListener (OnDatatransferProgressListener listener) {
-        synchronized (mDataTransferListeners) {
-            mDataTransferListeners.add(listener);
-        }
-        if (mEntity != null) {
-            ((ProgressiveDataTransferer)mEntity).addDatatransferProgressListener(listener);
-        }
+        mProgressDispatcher.addDatatransferProgressListener(listener);
     }
     
     public void removeDatatransferProgressListener(OnDatatransferProgressListener listener) {
-        synchronized (mDataTransferListeners) {
-            mDataTransferListeners.remove(listener);
-        }
-        if (mEntity != null) {
-            ((ProgressiveDataTransferer)mEntity).removeDatatransferProgressListener(listener);
-        }
+        mProgressDispatcher.removeDatatransferProgressListener(listener);
+    }
+
+    /**
+     * @return  Dispatcher of the progress of the upload, to set how often and in which thread
+     *          the listeners are notified.
+     */
+    public TransferProgressDispatcher getProgressDispatcher() {
+        return mProgressDispatcher;
     }
     
     public void cancel() {
@@ -191,4 +347,12 @@ public class UploadRemoteFileOperation extends RemoteOperation {
         }
     }
 
+    /**
+     * Clears a previous cancellation, so that the operation can be run again; used to resume
+     * paused transfers.
+     */
+    void resetCancellation() {
+        mCancellationRequested.set(false);
+    }
+
 }
@@ -0,0 +1,447 @@
+/* tkjcloud Android Library is available under MIT license
+ *   Copyright (C) 2017 tkjcloud GmbH.
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *   NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *   BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *   ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *   CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *   THE SOFTWARE.
+ *
+ */
+
+package com.tkjcloud.android.lib.resources.files;
+
+import android.content.Context;
+import android.webkit.MimeTypeMap;
+
+import com.tkjcloud.android.lib.common.tkjcloudClient;
+import com.tkjcloud.android.lib.common.network.BandwidthLimiter;
+import com.tkjcloud.android.lib.common.network.OnDatatransferProgressListener;
+import com.tkjcloud.android.lib.common.network.TransferProgressDispatcher;
+import com.tkjcloud.android.lib.common.operations.OperationCancelledException;
+import com.tkjcloud.android.lib.common.operations.RemoteOperation;
+import com.tkjcloud.android.lib.common.operations.RemoteOperationResult;
+import com.tkjcloud.android.lib.common.operations.RemoteOperationResult.ResultCode;
+import com.tkjcloud.android.lib.common.utils.Log_OC;
+
+import org.apache.commons.httpclient.HttpStatus;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Remote operation uploading a local folder with all its contents.
+ *
+ * The local tree is walked breadth-first; every remote folder is created before its children,
+ * and the files in it are handed to a pool of workers uploading them in parallel while the walk
+ * goes on. Folders that already existed are listed to apply the {@link ConflictPolicy} to the
+ * files in them.
+ *
+ * The operation can be run again after a failure or a cancellation to resume it: files already
+ * uploaded or skipped by this instance are not considered again, and chunked uploads continue
+ * with the chunks still missing. Across instances, {@link ConflictPolicy#SKIP_IF_IDENTICAL}
+ * skips the files already uploaded.
+ *
+ * Progress of all the files is reported together; the total grows while the local tree is
+ * walked.
+ */
+public class UploadRemoteFolderOperation extends RemoteOperation {
+
+    private static final String TAG = UploadRemoteFolderOperation.class.getSimpleName();
+
+    private static final String DEFAULT_MIME_TYPE = "application/octet-stream";
+
+    public static final int DEFAULT_WORKERS = TransferManager.DEFAULT_MAX_TRANSFERS_PER_SERVER;
+
+    public enum ConflictPolicy {
+        /** Upload the local file, replacing the remote one */
+        OVERWRITE,
+        /** Keep the remote file, do not upload the local one */
+        SKIP,
+        /** Upload the local file unless the remote one has the same size and checksum */
+        SKIP_IF_IDENTICAL,
+        /** Upload the local file with a new name, as "name (2).ext" */
+        KEEP_BOTH
+    }
+
+    private final Context mContext;
+    private final String mLocalFolderPath;
+    private final String mRemoteFolderPath;
+    private final ConflictPolicy mConflictPolicy;
+    private int mWorkers = DEFAULT_WORKERS;
+    private BandwidthLimiter mBandwidthLimiter = BandwidthLimiter.getGlobal();
+
+    private final TransferProgressDispatcher mProgressDispatcher = new TransferProgressDispatcher();
+    private final AtomicLong mTransferred = new AtomicLong(0);
+    private final AtomicLong mTotalToTransfer = new AtomicLong(0);
+
+    private final AtomicBoolean mCancellationRequested = new AtomicBoolean(false);
+    private final Set<UploadRemoteFileOperation> mRunningUploads =
+        new HashSet<UploadRemoteFileOperation>();
+
+    /** Local paths of files uploaded or skipped, kept to resume */
+    private final Set<String> mDoneFiles = Collections.synchronizedSet(new HashSet<String>());
+    private final List<String> mFailedPaths = Collections.synchronizedList(new ArrayList<String>());
+    private final AtomicLong mUploadedCount = new AtomicLong(0);
+    private final AtomicLong mSkippedCount = new AtomicLong(0);
+    private volatile RemoteOperationResult mFirstFailure;
+
+
+    /**
+     * @param localFolderPath   Path of the local folder to upload.
+     * @param remoteFolderPath  Path of the remote folder to upload it to; created if needed.
+     * @param conflictPolicy    What to do with files that already exist in the server.
+     */
+    public UploadRemoteFolderOperation(String localFolderPath, String remoteFolderPath,
+                                       ConflictPolicy conflictPolicy) {
+        this(null, localFolderPath, remoteFolderPath, conflictPolicy);
+    }
+
+    /**
+     * @param context           Context used to keep track of chunks uploaded, so that files
+     *                          bigger than {@link ChunkedUploadRemoteFileOperation#CHUNK_SIZE}
+     *                          are uploaded in chunks; null to upload all in a single request.
+     * @param localFolderPath   Path of the local folder to upload.
+     * @param remoteFolderPath  Path of the remote folder to upload it to; created if needed.
+     * @param conflictPolicy    What to do with files that already exist in the server.
+     */
+    public UploadRemoteFolderOperation(Context context, String localFolderPath,
+                                       String remoteFolderPath, ConflictPolicy conflictPolicy) {
+        mContext = context;
+        mLocalFolderPath = localFolderPath;
+        mRemoteFolderPath = remoteFolderPath.endsWith(FileUtils.PATH_SEPARATOR) ?
+            remoteFolderPath : remoteFolderPath + FileUtils.PATH_SEPARATOR;
+        mConflictPolicy = (conflictPolicy != null) ? conflictPolicy : ConflictPolicy.OVERWRITE;
+    }
+
+    /**
+     * @param workers   Maximum number of files uploaded at the same time.
+     */
+    public void setWorkers(int workers) {
+        mWorkers = Math.max(workers, 1);
+    }
+
+    /**
+     * Sets the limiter of the bandwidth used by the uploads; the global one by default.
+     */
+    public void setBandwidthLimiter(BandwidthLimiter bandwidthLimiter) {
+        mBandwidthLimiter = (bandwidthLimiter != null) ?
+            bandwidthLimiter : BandwidthLimiter.getGlobal();
+    }
+
+    @Override
+    protected RemoteOperationResult run(tkjcloudClient client) {
+        File localFolder = new File(mLocalFolderPath);
+        if (!localFolder.isDirectory()) {
+            return new RemoteOperationResult(ResultCode.LOCAL_FILE_NOT_FOUND);
+        }
+        mFailedPaths.clear();
+        mFirstFailure = null;
+        mTransferred.set(0);
+        mTotalToTransfer.set(0);
+        mProgressDispatcher.reset();
+
+        ExecutorService executor = Executors.newFixedThreadPool(mWorkers);
+        // bounds the files waiting for a worker, so that big trees are not queued at once
+        Semaphore pending = new Semaphore(mWorkers * 2);
+        try {
+            LinkedList<File> localFolders = new LinkedList<File>();
+            LinkedList<String> remoteFolders = new LinkedList<String>();
+            localFolders.add(localFolder);
+            remoteFolders.add(mRemoteFolderPath);
+
+            while (!localFolders.isEmpty() && !mCancellationRequested.get()) {
+                File folder = localFolders.removeFirst();
+                String remoteFolder = remoteFolders.removeFirst();
+
+                Map<String, RemoteFile> remoteChildren = new HashMap<String, RemoteFile>();
+                RemoteOperationResult result = prepareRemoteFolder(client, remoteFolder,
+                    remoteChildren);
+                if (!result.isSuccess()) {
+                    // nothing inside can be uploaded
+                    addFailure(remoteFolder, result);
+                    continue;
+                }
+
+                File[] children = folder.listFiles();
+                if (children == null) {
+                    addFailure(remoteFolder, new RemoteOperationResult(ResultCode.LOCAL_FILE_NOT_FOUND));
+                    continue;
+                }
+                for (File child : children) {
+                    if (mCancellationRequested.get()) {
+                        break;
+                    }
+                    if (child.isDirectory()) {
+                        localFolders.add(child);
+                        remoteFolders.add(remoteFolder + child.getName() + FileUtils.PATH_SEPARATOR);
+
+                    } else if (!mDoneFiles.contains(child.getAbsolutePath())) {
+                        pending.acquire();
+                        submitUpload(client, executor, pending, child, remoteFolder,
+                            remoteChildren);
+                    }
+                }
+            }
+
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancel();
+
+        } finally {
+            executor.shutdownNow();
+        }
+        mProgressDispatcher.flush();
+
+        if (mCancellationRequested.getAndSet(false)) {
+            // cleared so that the operation can be run again to resume
+            return new RemoteOperationResult(new OperationCancelledException());
+        }
+        RemoteOperationResult firstFailure = mFirstFailure;
+        if (firstFailure != null) {
+            return new RemoteOperationResult(firstFailure.getCode());
+        }
+        return new RemoteOperationResult(ResultCode.OK);
+    }
+
+    /**
+     * Creates a remote folder, or lists its contents if it already existed and they are needed
+     * to apply the conflict policy. Missing ancestors are only created for the target folder;
+     * subfolders are prepared after their parents.
+     */
+    private RemoteOperationResult prepareRemoteFolder(tkjcloudClient client, String remoteFolder,
+                                                      Map<String, RemoteFile> remoteChildren) {
+        boolean createFullPath = remoteFolder.equals(mRemoteFolderPath);
+        RemoteOperationResult result =
+            new CreateRemoteFolderOperation(remoteFolder, createFullPath).execute(client);
+        if (result.isSuccess()) {
+            // new folder; nothing in it can conflict
+            return result;
+        }
+        if (result.getHttpCode() != HttpStatus.SC_METHOD_NOT_ALLOWED) {
+            return result;
+        }
+
+        // MKCOL is not allowed on existing resources
+        if (mConflictPolicy == ConflictPolicy.OVERWRITE) {
+            return new RemoteOperationResult(ResultCode.OK);
+        }
+        result = new ReadRemoteFolderOperation(remoteFolder).execute(client);
+        if (result.isSuccess()) {
+            ArrayList<Object> data = result.getData();
+            for (int i = 1; i < data.size(); i++) {   // first one is the folder itself
+                RemoteFile remoteChild = (RemoteFile) data.get(i);
+                remoteChildren.put(getName(remoteChild.getRemotePath()), remoteChild);
+            }
+        }
+        return result;
+    }
+
+    private void submitUpload(final tkjcloudClient client, ExecutorService executor,
+                              final Semaphore pending, final File localFile, String remoteFolder,
+                              Map<String, RemoteFile> remoteChildren) {
+        String name = localFile.getName();
+        RemoteFile remoteFile = remoteChildren.get(name);
+        boolean skipIfIdentical = false;
+
+        if (remoteFile != null) {
+            switch (mConflictPolicy) {
+                case SKIP:
+                    mDoneFiles.add(localFile.getAbsolutePath());
+                    mSkippedCount.incrementAndGet();
+                    pending.release();
+                    return;
+                case SKIP_IF_IDENTICAL:
+                    // only the server can tell the checksum of its file
+                    skipIfIdentical = (remoteFile.getLength() == localFile.length());
+                    break;
+                case KEEP_BOTH:
+                    name = getAvailableName(name, remoteChildren);
+                    break;
+                default:
+                    break;
+            }
+        }
+        // later files in the folder must not take the same name
+        remoteChildren.put(name, new RemoteFile(remoteFolder + name));
+
+        final String remotePath = remoteFolder + name;
+        final UploadRemoteFileOperation upload = createUpload(localFile, remotePath);
+        upload.setSkipIfIdentical(skipIfIdentical);
+        mTotalToTransfer.addAndGet(localFile.length());
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    synchronized (mRunningUploads) {
+                        if (mCancellationRequested.get()) {
+                            return;
+                        }
+                        mRunningUploads.add(upload);
+                    }
+                    RemoteOperationResult result = upload.execute(client);
+                    synchronized (mRunningUploads) {
+                        mRunningUploads.remove(upload);
+                    }
+                    if (result.isSuccess()) {
+                        mDoneFiles.add(localFile.getAbsolutePath());
+                        if (upload.isUploadSkipped()) {
+                            mSkippedCount.incrementAndGet();
+                            // count it as transferred, so that progress reaches the total
+                            notifyProgress(localFile.length(), localFile.getAbsolutePath());
+                        } else {
+                            mUploadedCount.incrementAndGet();
+                        }
+                    } else if (!mCancellationRequested.get()) {
+                        addFailure(remotePath, result);
+                    }
+                } finally {
+                    pending.release();
+                }
+            }
+        });
+    }
+
+    private UploadRemoteFileOperation createUpload(File localFile, String remotePath) {
+        String mimeType = getMimeType(localFile.getName());
+        String lastModified = String.valueOf(localFile.lastModified() / 1000);
+        UploadRemoteFileOperation upload;
+        if (mContext != null && localFile.length() > ChunkedUploadRemoteFileOperation.CHUNK_SIZE) {
+            upload = new ChunkedUploadRemoteFileOperation(mContext, localFile.getAbsolutePath(),
+                remotePath, mimeType, null, lastModified);
+        } else {
+            upload = new UploadRemoteFileOperation(localFile.getAbsolutePath(), remotePath,
+                mimeType, lastModified);
+        }
+        upload.setBandwidthLimiter(mBandwidthLimiter);
+        upload.addDatatransferProgressListener(new OnDatatransferProgressListener() {
+            @Override
+            public void onTransferProgress(long progressRate, long totalTransferredSoFar,
+                                           long totalToTransfer, String fileAbsoluteName) {
+                notifyProgress(progressRate, fileAbsoluteName);
+            }
+        });
+        return upload;
+    }
+
+    private void notifyProgress(long progressRate, String fileAbsoluteName) {
+        long transferred = mTransferred.addAndGet(progressRate);
+        mProgressDispatcher.onProgress(progressRate, transferred, mTotalToTransfer.get(),
+            fileAbsoluteName);
+    }
+
+    private void addFailure(String remotePath, RemoteOperationResult result) {
+        Log_OC.e(TAG, "Failed uploading " + remotePath + ": " + result.getLogMessage());
+        mFailedPaths.add(remotePath);
+        if (mFirstFailure == null) {
+            mFirstFailure = result;
+        }
+    }
+
+    private static String getName(String remotePath) {
+        String path = remotePath.endsWith(FileUtils.PATH_SEPARATOR) ?
+            remotePath.substring(0, remotePath.length() - 1) : remotePath;
+        return path.substring(path.lastIndexOf(FileUtils.PATH_SEPARATOR) + 1);
+    }
+
+    private static String getAvailableName(String name, Map<String, RemoteFile> remoteChildren) {
+        int dot = name.lastIndexOf('.');
+        String base = (dot > 0) ? name.substring(0, dot) : name;
+        String extension = (dot > 0) ? name.substring(dot) : "";
+        int suffix = 2;
+        String candidate;
+        do {
+            candidate = base + " (" + suffix++ + ")" + extension;
+        } while (remoteChildren.containsKey(candidate));
+        return candidate;
+    }
+
+    private static String getMimeType(String name) {
+        int dot = name.lastIndexOf('.');
+        String mimeType = (dot >= 0) ?
+            MimeTypeMap.getSingleton().getMimeTypeFromExtension(
+                name.substring(dot + 1).toLowerCase()) :
+            null;
+        return (mimeType != null) ? mimeType : DEFAULT_MIME_TYPE;
+    }
+
+    /**
+     * @return  Remote paths of the files and folders that failed in the last run.
+     */
+    public List<String> getFailedPaths() {
+        synchronized (mFailedPaths) {
+            return new ArrayList<String>(mFailedPaths);
+        }
+    }
+
+    /**
+     * @return  Number of files uploaded, in all the runs.
+     */
+    public long getUploadedCount() {
+        return mUploadedCount.get();
+    }
+
+    /**
+     * @return  Number of files not uploaded because of the conflict policy, in all the runs.
+     */
+    public long getSkippedCount() {
+        return mSkippedCount.get();
+    }
+
+    public void addDatatransferProgressListener(OnDatatransferProgressListener listener) {
+        mProgressDispatcher.addDatatransferProgressListener(listener);
+    }
+
+    public void removeDatatransferProgressListener(OnDatatransferProgressListener listener) {
+        mProgressDispatcher.removeDatatransferProgressListener(listener);
+    }
+
+    /**
+     * @return  Dispatcher of the progress of the upload, to set how often and in which thread
+     *          the listeners are notified.
+     */
+    public TransferProgressDispatcher getProgressDispatcher() {
+        return mProgressDispatcher;
+    }
+
+    public void cancel() {
+        synchronized (mRunningUploads) {
+            mCancellationRequested.set(true);
+            for (UploadRemoteFileOperation upload : mRunningUploads) {
+                upload.cancel();
+            }
+        }
+    }
+
+}
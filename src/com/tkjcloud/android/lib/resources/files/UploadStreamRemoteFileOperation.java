@@ -0,0 +1,329 @@
+/* tkjcloud Android Library is available under MIT license
+ *   Copyright (C) 2017 tkjcloud GmbH.
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *   NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *   BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *   ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *   CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *   THE SOFTWARE.
+ *
+ */
+
+package com.tkjcloud.android.lib.resources.files;
+
+import android.net.Uri;
+
+import com.tkjcloud.android.lib.common.tkjcloudClient;
+import com.tkjcloud.android.lib.common.network.StreamRequestEntity;
+import com.tkjcloud.android.lib.common.network.TransferChecksum;
+import com.tkjcloud.android.lib.common.network.WebdavUtils;
+import com.tkjcloud.android.lib.common.operations.RemoteOperationResult;
+import com.tkjcloud.android.lib.common.utils.Log_OC;
+
+import org.apache.commons.httpclient.HttpMethodBase;
+import org.apache.commons.httpclient.methods.PutMethod;
+import org.apache.jackrabbit.webdav.client.methods.DeleteMethod;
+import org.apache.jackrabbit.webdav.client.methods.MkColMethod;
+import org.apache.jackrabbit.webdav.client.methods.MoveMethod;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.UUID;
+
+
+/**
+ * Remote operation uploading the contents of an {@link InputStream} of unknown length, such as
+ * data generated on the fly by a camera, a compressor or an encryption layer, with no need to
+ * store them in a local file first.
+ *
+ * By default the stream is sent in a single PUT with chunked transfer encoding. Some proxies
+ * and servers do not accept it; {@link #setChunking(String, long)} splits the stream in chunks
+ * of known length instead, uploaded to a temporal folder in the server and assembled at the
+ * end, keeping a single chunk in memory. This uses the chunking of the new WebDAV endpoint,
+ * that does not need the number of chunks in advance.
+ *
+ * The stream is read once and is not closed by the operation, so a failed upload can not be
+ * retried with the same operation; later runs fail with an {@link IllegalStateException}, also
+ * when resumed after a pause in {@link TransferManager}.
+ */
+public class UploadStreamRemoteFileOperation extends UploadRemoteFileOperation {
+
+    private static final String TAG = UploadStreamRemoteFileOperation.class.getSimpleName();
+
+    public static final long DEFAULT_CHUNK_SIZE = 10 * 1024 * 1024;
+
+    private static final int ASSEMBLY_TIMEOUT = 900000;    // 15 mins.
+    private static final String DESTINATION_HEADER = "Destination";
+    private static final String UPLOADS_PATH = "/uploads/";
+    private static final String FILES_PATH = "/files/";
+
+    private final InputStream mInputStream;
+    /** Set when a run started reading mInputStream; its contents can not be read again */
+    private boolean mStreamConsumed = false;
+    private String mUserId = null;
+    private long mChunkSize = 0;
+    private long mUploadedLength = 0;
+
+
+    /**
+     * @param inputStream               Stream with the contents to upload.
+     * @param remotePath                Remote path of the uploaded file.
+     * @param mimeType                  MIME type of the contents.
+     * @param fileLastModifTimestamp    Modification time to set in the server, in seconds.
+     */
+    public UploadStreamRemoteFileOperation(InputStream inputStream, String remotePath,
+                                           String mimeType, String fileLastModifTimestamp) {
+        super(null, remotePath, mimeType, fileLastModifTimestamp);
+        if (inputStream == null) {
+            throw new IllegalArgumentException("Input stream may not be null");
+        }
+        mInputStream = inputStream;
+    }
+
+    public UploadStreamRemoteFileOperation(InputStream inputStream, String remotePath,
+                                           String mimeType, String requiredEtag,
+                                           String fileLastModifTimestamp) {
+        this(inputStream, remotePath, mimeType, fileLastModifTimestamp);
+        mRequiredEtag = requiredEtag;
+    }
+
+    /**
+     * Enables the upload in chunks of fixed size instead of a single request with chunked
+     * transfer encoding. Streams shorter than a chunk are still sent in a single PUT, with
+     * known length.
+     *
+     * @param userId        User id of the account, needed by the chunking endpoint.
+     * @param chunkSize     Size of the chunks in bytes, also the memory used to buffer them;
+     *                      0 or less disables the chunking.
+     */
+    public void setChunking(String userId, long chunkSize) {
+        if (chunkSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Chunk size too big: " + chunkSize);
+        }
+        mUserId = userId;
+        mChunkSize = (userId != null && userId.length() > 0) ? chunkSize : 0;
+    }
+
+    /**
+     * @return  Number of bytes of the stream uploaded in the last run.
+     */
+    public long getUploadedLength() {
+        return mUploadedLength;
+    }
+
+    @Override
+    protected RemoteOperationResult checkRemoteFile(tkjcloudClient client) {
+        // the contents are not known before reading the stream
+        return null;
+    }
+
+    @Override
+    protected RemoteOperationResult uploadFile(tkjcloudClient client) throws IOException {
+        if (mStreamConsumed) {
+            throw new IllegalStateException("Input stream for " + mRemotePath + " was already " +
+                "read by a previous run; create a new operation with a new stream");
+        }
+        mStreamConsumed = true;
+        mUploadedLength = 0;
+        mChecksum = (mChecksumType != null) ? new TransferChecksum(mChecksumType) : null;
+        mProgressDispatcher.reset();
+
+        if (mChunkSize <= 0) {
+            return putContents(client, mInputStream, StreamRequestEntity.UNKNOWN_LENGTH);
+        }
+
+        byte[] chunk = new byte[(int) mChunkSize];
+        int chunkLength = readChunk(chunk);
+        if (chunkLength < chunk.length) {
+            // whole stream in the first chunk
+            return putContents(client, new ByteArrayInputStream(chunk, 0, chunkLength),
+                chunkLength);
+        }
+        return uploadChunks(client, chunk, chunkLength);
+    }
+
+    /**
+     * Uploads the contents in a single PUT to the final location.
+     */
+    private RemoteOperationResult putContents(tkjcloudClient client, InputStream contents,
+                                              long length) throws IOException {
+        RemoteOperationResult result;
+        try {
+            StreamRequestEntity entity = createEntity(contents, length, 0);
+            if (length == StreamRequestEntity.UNKNOWN_LENGTH) {
+                // data in memory were already added to the checksum when read
+                entity.setChecksum(mChecksum);
+            }
+            mEntity = entity;
+            if (mRequiredEtag != null && mRequiredEtag.length() > 0) {
+                mPutMethod.addRequestHeader(IF_MATCH_HEADER, "\"" + mRequiredEtag + "\"");
+            }
+            if (length != StreamRequestEntity.UNKNOWN_LENGTH) {
+                mPutMethod.addRequestHeader(OC_TOTAL_LENGTH_HEADER, String.valueOf(length));
+            }
+            mPutMethod.addRequestHeader(OC_X_OC_MTIME_HEADER, mFileLastModifTimestamp);
+            mPutMethod.setRequestEntity(mEntity);
+            int status = client.executeMethod(mPutMethod);
+            mUploadedLength = entity.getWritten();
+
+            result = new RemoteOperationResult(isSuccess(status), mPutMethod);
+            if (result.isSuccess() && mChecksum != null) {
+                result.setChecksum(mChecksum.getHeaderValue());
+            }
+            client.exhaustResponse(mPutMethod.getResponseBodyAsStream());
+
+        } finally {
+            mPutMethod.releaseConnection(); // let the connection available for other methods
+        }
+        return result;
+    }
+
+    /**
+     * Uploads the contents in chunks to a temporal folder, and moves it to the final location
+     * so that the server assembles them.
+     *
+     * @param chunk         Buffer holding the first chunk, reused for the next ones.
+     * @param chunkLength   Length of the first chunk.
+     */
+    private RemoteOperationResult uploadChunks(tkjcloudClient client, byte[] chunk,
+                                               int chunkLength) throws IOException {
+        String davUri = client.getNewWebdavUri(false).toString();
+        String uploadFolderUri = davUri + UPLOADS_PATH + Uri.encode(mUserId) + "/" +
+            UUID.randomUUID().toString();
+        String destinationUri = davUri + FILES_PATH + Uri.encode(mUserId) +
+            WebdavUtils.encodePath(mRemotePath);
+        boolean assembled = false;
+        RemoteOperationResult result;
+
+        try {
+            MkColMethod mkcol = new MkColMethod(uploadFolderUri);
+            mkcol.addRequestHeader(DESTINATION_HEADER, destinationUri);
+            result = executeUploadMethod(client, mkcol, -1);
+
+            int chunkIndex = 1;
+            while (result.isSuccess() && chunkLength > 0) {
+                // names must be numbers that keep their order when sorted as text
+                mPutMethod = new PutMethod(uploadFolderUri + "/" +
+                    String.format("%05d", chunkIndex));
+                mPutMethod.addRequestHeader(DESTINATION_HEADER, destinationUri);
+                mPutMethod.setRequestEntity(createEntity(
+                    new ByteArrayInputStream(chunk, 0, chunkLength), chunkLength, mUploadedLength
+                ));
+                result = executeUploadMethod(client, mPutMethod, -1);
+                if (result.isSuccess()) {
+                    mUploadedLength += chunkLength;
+                    chunkLength = readChunk(chunk);
+                    chunkIndex++;
+                }
+            }
+
+            if (result.isSuccess()) {
+                MoveMethod move = new MoveMethod(uploadFolderUri + "/.file", destinationUri, true);
+                if (mRequiredEtag != null && mRequiredEtag.length() > 0) {
+                    move.addRequestHeader(IF_MATCH_HEADER, "\"" + mRequiredEtag + "\"");
+                }
+                move.addRequestHeader(OC_TOTAL_LENGTH_HEADER, String.valueOf(mUploadedLength));
+                move.addRequestHeader(OC_X_OC_MTIME_HEADER, mFileLastModifTimestamp);
+                if (mChecksum != null) {
+                    move.addRequestHeader(TransferChecksum.OC_CHECKSUM_HEADER,
+                        mChecksum.getHeaderValue());
+                }
+                // the server assembles the chunks while answering
+                result = executeUploadMethod(client, move, ASSEMBLY_TIMEOUT);
+                assembled = result.isSuccess();
+                if (assembled && mChecksum != null) {
+                    result.setChecksum(mChecksum.getHeaderValue());
+                }
+            }
+
+        } finally {
+            if (!assembled) {
+                deleteUploadFolder(client, uploadFolderUri);
+            }
+        }
+        Log_OC.d(TAG, "Upload of stream to " + mRemotePath + " in chunks, " + mUploadedLength +
+            " bytes: " + result.getLogMessage());
+        return result;
+    }
+
+    private RemoteOperationResult executeUploadMethod(tkjcloudClient client, HttpMethodBase method,
+                                                      int readTimeout) throws IOException {
+        synchronized (mCancellationRequested) {
+            if (method instanceof PutMethod) {
+                mPutMethod = (PutMethod) method;
+            }
+            if (mCancellationRequested.get()) {
+                // an aborted PUT makes run() report the cancellation
+                mPutMethod.abort();
+                throw new IOException("Upload of " + mRemotePath + " cancelled");
+            }
+        }
+        disableRetries(method);
+        try {
+            int status = client.executeMethod(method, readTimeout, -1);
+            RemoteOperationResult result = new RemoteOperationResult(isSuccess(status), method);
+            client.exhaustResponse(method.getResponseBodyAsStream());
+            return result;
+
+        } finally {
+            method.releaseConnection();    // let the connection available for other methods
+        }
+    }
+
+    private void deleteUploadFolder(tkjcloudClient client, String uploadFolderUri) {
+        DeleteMethod delete = new DeleteMethod(uploadFolderUri);
+        try {
+            client.executeMethod(delete);
+            client.exhaustResponse(delete.getResponseBodyAsStream());
+        } catch (IOException e) {
+            // the server removes stale upload folders anyway
+            Log_OC.w(TAG, "Could not remove chunks of " + mRemotePath + ": " + e.getMessage());
+        } finally {
+            delete.releaseConnection();
+        }
+    }
+
+    private StreamRequestEntity createEntity(InputStream contents, long length,
+                                             long progressOffset) {
+        StreamRequestEntity entity = new StreamRequestEntity(contents, mMimeType, length,
+            mRemotePath);
+        entity.setProgressOffset(progressOffset);
+        entity.setProgressDispatcher(mProgressDispatcher);
+        entity.setBandwidthLimiter(mBandwidthLimiter);
+        return entity;
+    }
+
+    /**
+     * Fills the buffer with the next bytes of the stream, adding them to the checksum.
+     *
+     * @return  Number of bytes read; less than the size of the buffer only at the end of the
+     *          stream.
+     */
+    private int readChunk(byte[] chunk) throws IOException {
+        int length = 0;
+        int readResult;
+        while (length < chunk.length &&
+            (readResult = mInputStream.read(chunk, length, chunk.length - length)) != -1) {
+            length += readResult;
+        }
+        if (mChecksum != null) {
+            mChecksum.update(chunk, 0, length);
+        }
+        return length;
+    }
+
+}
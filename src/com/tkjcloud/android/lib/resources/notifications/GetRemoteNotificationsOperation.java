@@ -30,12 +30,9 @@
 
 package com.tkjcloud.android.lib.resources.notifications;
 
-import com.google.gson.Gson;
-import com.google.gson.JsonArray;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
-import com.google.gson.reflect.TypeToken;
 import com.tkjcloud.android.lib.common.tkjcloudClient;
+import com.tkjcloud.android.lib.common.operations.OCSCodecRegistry;
+import com.tkjcloud.android.lib.common.operations.OCSResponseDecoder;
 import com.tkjcloud.android.lib.common.operations.RemoteOperation;
 import com.tkjcloud.android.lib.common.operations.RemoteOperationResult;
 import com.tkjcloud.android.lib.common.utils.Log_OC;
@@ -44,9 +41,8 @@ import com.tkjcloud.android.lib.resources.status.tkjcloudVersion;
 
 import org.apache.commons.httpclient.HttpStatus;
 import org.apache.commons.httpclient.methods.GetMethod;
-import org.json.JSONException;
 
-import java.lang.reflect.Type;
+import java.io.InputStream;
 import java.util.List;
 
 /**
@@ -65,11 +61,6 @@ public class GetRemoteNotificationsOperation extends RemoteOperation {
 
     private static final String TAG = GetRemoteNotificationsOperation.class.getSimpleName();
 
-    // JSON Node names
-    private static final String NODE_OCS = "ocs";
-
-    private static final String NODE_DATA = "data";
-
     /**
      * This status code means that there is no app that can generate notifications.
      * Slow down the polling to once per hour.
@@ -95,17 +86,28 @@ public class GetRemoteNotificationsOperation extends RemoteOperation {
             get.addRequestHeader(OCS_API_HEADER, OCS_API_HEADER_VALUE);
 
             status = client.executeMethod(get);
-            String response = get.getResponseBodyAsString();
 
             if (isSuccess(status)) {
-                result = new RemoteOperationResult(true, status, get.getResponseHeaders());
-                Log_OC.d(TAG, "Successful response: " + response);
-
                 // Parse the response
-                notifications = parseResult(response);
-                result.setNotificationData(notifications);
+                InputStream body = get.getResponseBodyAsStream();
+                OCSResponseDecoder.Response<List<Notification>> response =
+                    OCSResponseDecoder.decode(body, OCSCodecRegistry.getNotificationListAdapter());
+                client.exhaustResponse(body);
+
+                if (response.isSuccess()) {
+                    notifications = response.getData();
+                    result = new RemoteOperationResult(true, status, get.getResponseHeaders());
+                    result.setNotificationData(notifications);
+                    Log_OC.d(TAG, "Successful response, notifications: " + notifications.size());
+                } else {
+                    result = new RemoteOperationResult(false, response.getStatusCode(), null, null);
+                    Log_OC.e(TAG, "Failed response while getting user notifications ");
+                    Log_OC.e(TAG, "*** status: " + response.getStatus() + "; message: " +
+                        response.getMessage());
+                }
             } else {
                 result = new RemoteOperationResult(false, status, get.getResponseHeaders());
+                String response = get.getResponseBodyAsString();
                 Log_OC.e(TAG, "Failed response while getting user notifications ");
                 if (response != null) {
                     Log_OC.e(TAG, "*** status code: " + status + " ; response message: " + response);
@@ -125,17 +127,6 @@ public class GetRemoteNotificationsOperation extends RemoteOperation {
         return result;
     }
 
-    private List<Notification> parseResult(String response) throws JSONException {
-        JsonParser jsonParser = new JsonParser();
-        JsonObject jo = (JsonObject)jsonParser.parse(response);
-        JsonArray jsonDataArray = jo.getAsJsonObject(NODE_OCS).getAsJsonArray(NODE_DATA);
-
-        Gson gson = new Gson();
-        Type listType = new TypeToken<List<Notification>>(){}.getType();
-
-        return gson.fromJson(jsonDataArray, listType);
-    }
-
     private boolean isSuccess(int status) {
         return (status == HttpStatus.SC_OK);
     }
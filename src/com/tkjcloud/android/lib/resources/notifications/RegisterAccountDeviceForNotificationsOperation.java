@@ -29,11 +29,11 @@ package com.tkjcloud.android.lib.resources.notifications;
 
 import android.net.Uri;
 
-import com.google.gson.Gson;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
-import com.google.gson.reflect.TypeToken;
 import com.tkjcloud.android.lib.common.tkjcloudClient;
+import com.tkjcloud.android.lib.common.operations.OCSCodecRegistry;
+import com.tkjcloud.android.lib.common.operations.OCSResponseDecoder;
 import com.tkjcloud.android.lib.common.operations.RemoteOperation;
 import com.tkjcloud.android.lib.common.operations.RemoteOperationResult;
 import com.tkjcloud.android.lib.common.utils.Log_OC;
@@ -41,9 +41,8 @@ import com.tkjcloud.android.lib.resources.notifications.models.PushResponse;
 
 import org.apache.commons.httpclient.HttpStatus;
 import org.apache.commons.httpclient.methods.PostMethod;
-import org.json.JSONException;
 
-import java.lang.reflect.Type;
+import java.io.InputStream;
 
 public class RegisterAccountDeviceForNotificationsOperation extends RemoteOperation {
     // OCS Route
@@ -93,16 +92,19 @@ public class RegisterAccountDeviceForNotificationsOperation extends RemoteOperat
             post.addRequestHeader(OCS_API_HEADER, OCS_API_HEADER_VALUE);
 
             status = client.executeMethod(post);
-            String response = post.getResponseBodyAsString();
 
             if (isSuccess(status)) {
                 result = new RemoteOperationResult(true, status, post.getResponseHeaders());
-                Log_OC.d(TAG, "Successful response: " + response);
+                Log_OC.d(TAG, "Successful response");
 
                 // Parse the response
-                pushResponse = parseResult(response);
+                InputStream body = post.getResponseBodyAsStream();
+                pushResponse = OCSResponseDecoder.decode(body,
+                    OCSCodecRegistry.getPushResponseAdapter()).getData();
+                client.exhaustResponse(body);
                 result.setPushResponseData(pushResponse);
             } else {
+                String response = post.getResponseBodyAsString();
                 if (isInvalidSessionToken(response)) {
                     result = new RemoteOperationResult(RemoteOperationResult.ResultCode.ACCOUNT_USES_STANDARD_PASSWORD);
                 } else {
@@ -122,17 +124,6 @@ public class RegisterAccountDeviceForNotificationsOperation extends RemoteOperat
         return result;
     }
 
-    private PushResponse parseResult(String response) throws JSONException {
-        JsonParser jsonParser = new JsonParser();
-        JsonObject jo = (JsonObject)jsonParser.parse(response);
-        JsonObject jsonDataObject = jo.getAsJsonObject(NODE_OCS).getAsJsonObject(NODE_DATA);
-
-        Gson gson = new Gson();
-        Type pushResponseType = new TypeToken<PushResponse>(){}.getType();
-
-        return gson.fromJson(jsonDataObject, pushResponseType);
-    }
-
     private boolean isInvalidSessionToken(String response) {
         JsonParser jsonParser = new JsonParser();
         JsonObject jsonObject = (JsonObject)jsonParser.parse(response);
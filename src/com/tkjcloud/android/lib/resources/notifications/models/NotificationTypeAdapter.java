@@ -0,0 +1,192 @@
+/* tkjcloud Android Library is available under MIT license
+ *   Copyright (C) 2017 tkjcloud GmbH.
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *   NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *   BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *   ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *   CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *   THE SOFTWARE.
+ *
+ */
+
+package com.tkjcloud.android.lib.resources.notifications.models;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Notification Parser
+ */
+public class NotificationTypeAdapter extends TypeAdapter<Notification> {
+
+    private final TypeAdapter<Date> mDateAdapter;
+    private final TypeAdapter<RichObject> mRichObjectAdapter;
+    private final TypeAdapter<Action> mActionAdapter;
+
+    public NotificationTypeAdapter(TypeAdapter<Date> dateAdapter,
+                                   TypeAdapter<RichObject> richObjectAdapter,
+                                   TypeAdapter<Action> actionAdapter) {
+        mDateAdapter = dateAdapter;
+        mRichObjectAdapter = richObjectAdapter;
+        mActionAdapter = actionAdapter;
+    }
+
+    @Override
+    public void write(JsonWriter out, Notification value) throws IOException {
+        if (value == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        out.name("notification_id").value(value.notificationId);
+        out.name("app").value(value.app);
+        out.name("user").value(value.user);
+        out.name("datetime");
+        mDateAdapter.write(out, value.datetime);
+        out.name("object_type").value(value.objectType);
+        out.name("object_id").value(value.objectId);
+        out.name("subject").value(value.subject);
+        out.name("subjectRich").value(value.subjectRich);
+        out.name("subjectRichParameters");
+        writeRichParameters(out, value.subjectRichParameters);
+        out.name("message").value(value.message);
+        out.name("messageRich").value(value.messageRich);
+        out.name("messageRichParameters");
+        writeRichParameters(out, value.messageRichParameters);
+        out.name("link").value(value.link);
+        out.name("icon").value(value.icon);
+        out.name("actions");
+        if (value.actions == null) {
+            out.nullValue();
+        } else {
+            out.beginArray();
+            for (Action action : value.actions) {
+                mActionAdapter.write(out, action);
+            }
+            out.endArray();
+        }
+        out.endObject();
+    }
+
+    @Override
+    public Notification read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        Notification notification = new Notification();
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+            } else if ("notification_id".equals(name)) {
+                notification.notificationId = in.nextInt();
+            } else if ("app".equals(name)) {
+                notification.app = in.nextString();
+            } else if ("user".equals(name)) {
+                notification.user = in.nextString();
+            } else if ("datetime".equals(name)) {
+                notification.datetime = mDateAdapter.read(in);
+            } else if ("object_type".equals(name)) {
+                notification.objectType = in.nextString();
+            } else if ("object_id".equals(name)) {
+                notification.objectId = in.nextString();
+            } else if ("subject".equals(name)) {
+                notification.subject = in.nextString();
+            } else if ("subjectRich".equals(name)) {
+                notification.subjectRich = in.nextString();
+            } else if ("subjectRichParameters".equals(name)) {
+                notification.subjectRichParameters = readRichParameters(in);
+            } else if ("message".equals(name)) {
+                notification.message = in.nextString();
+            } else if ("messageRich".equals(name)) {
+                notification.messageRich = in.nextString();
+            } else if ("messageRichParameters".equals(name)) {
+                notification.messageRichParameters = readRichParameters(in);
+            } else if ("link".equals(name)) {
+                notification.link = in.nextString();
+            } else if ("icon".equals(name)) {
+                notification.icon = in.nextString();
+            } else if ("actions".equals(name)) {
+                notification.actions = readActions(in);
+            } else {
+                in.skipValue();
+            }
+        }
+        in.endObject();
+        return notification;
+    }
+
+    /**
+     * Reads rich parameters; the server sends an empty array instead of an empty object.
+     */
+    private Map<String, RichObject> readRichParameters(JsonReader in) throws IOException {
+        Map<String, RichObject> parameters = new LinkedHashMap<>();
+        if (in.peek() == JsonToken.BEGIN_ARRAY) {
+            in.beginArray();
+            while (in.hasNext()) {
+                // [key, value] pairs, as Gson writes complex map keys
+                in.beginArray();
+                String key = in.nextString();
+                parameters.put(key, mRichObjectAdapter.read(in));
+                in.endArray();
+            }
+            in.endArray();
+        } else {
+            in.beginObject();
+            while (in.hasNext()) {
+                String key = in.nextName();
+                parameters.put(key, mRichObjectAdapter.read(in));
+            }
+            in.endObject();
+        }
+        return parameters;
+    }
+
+    private void writeRichParameters(JsonWriter out, Map<String, RichObject> parameters)
+        throws IOException {
+        if (parameters == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        for (Map.Entry<String, RichObject> parameter : parameters.entrySet()) {
+            out.name(parameter.getKey());
+            mRichObjectAdapter.write(out, parameter.getValue());
+        }
+        out.endObject();
+    }
+
+    private Collection<Action> readActions(JsonReader in) throws IOException {
+        Collection<Action> actions = new ArrayList<>();
+        in.beginArray();
+        while (in.hasNext()) {
+            actions.add(mActionAdapter.read(in));
+        }
+        in.endArray();
+        return actions;
+    }
+}
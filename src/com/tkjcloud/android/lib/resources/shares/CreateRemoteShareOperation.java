@@ -32,8 +32,11 @@ import com.tkjcloud.android.lib.common.operations.RemoteOperationResult;
 import com.tkjcloud.android.lib.common.utils.Log_OC;
 
 import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.NameValuePair;
 import org.apache.commons.httpclient.methods.PostMethod;
 
+import java.io.InputStream;
+
 /**
  * Creates a new share.  This allows sharing with a user or group or as a link.
  */
@@ -55,6 +58,7 @@ public class CreateRemoteShareOperation extends RemoteOperation {
     private String mPassword;
     private int mPermissions;
     private boolean mGetShareDetails;
+    private SharesCache mCache = null;
 
     /**
      * Constructor
@@ -102,6 +106,13 @@ public class CreateRemoteShareOperation extends RemoteOperation {
         mGetShareDetails = set;
     }
 
+    /**
+     * Sets the index of shares to update with the new share.
+     */
+    public void setCache(SharesCache cache) {
+        mCache = cache;
+    }
+
     @Override
     protected RemoteOperationResult run(tkjcloudClient client) {
         RemoteOperationResult result = null;
@@ -112,6 +123,9 @@ public class CreateRemoteShareOperation extends RemoteOperation {
         try {
             // Post Method
             post = new PostMethod(client.getBaseUri() + ShareUtils.SHARING_API_PATH);
+            post.setQueryString(new NameValuePair[]{
+                new NameValuePair(ShareJSONParser.PARAM_FORMAT, ShareJSONParser.VALUE_FORMAT)
+            });
 
             post.setRequestHeader("Content-Type",
                 "application/x-www-form-urlencoded; charset=utf-8"); // necessary for special characters
@@ -134,15 +148,16 @@ public class CreateRemoteShareOperation extends RemoteOperation {
             status = client.executeMethod(post);
 
             if (isSuccess(status)) {
-                String response = post.getResponseBodyAsString();
+                InputStream body = post.getResponseBodyAsStream();
 
                 ShareToRemoteOperationResultParser parser = new ShareToRemoteOperationResultParser(
-                    new ShareXMLParser()
+                    new ShareJSONParser()
                 );
                 parser.setOneOrMoreSharesRequired(true);
                 parser.settkjcloudVersion(client.gettkjcloudVersion());
                 parser.setServerBaseUri(client.getBaseUri());
-                result = parser.parse(response);
+                result = parser.parse(body);
+                client.exhaustResponse(body);
 
                 if (result.isSuccess() && mGetShareDetails) {
                     // retrieve more info - POST only returns the index of the new share
@@ -153,6 +168,17 @@ public class CreateRemoteShareOperation extends RemoteOperation {
                     result = getInfo.execute(client);
                 }
 
+                if (mCache != null) {
+                    String cacheKey = SharesCache.getKey(client);
+                    if (result.isSuccess()) {
+                        mCache.putShare(cacheKey, (OCShare) result.getData().get(0),
+                            mRemoteFilePath);
+                    } else {
+                        // the share may exist even if getting its details failed
+                        mCache.invalidatePath(cacheKey, mRemoteFilePath);
+                    }
+                }
+
             } else {
                 result = new RemoteOperationResult(false, post);
             }
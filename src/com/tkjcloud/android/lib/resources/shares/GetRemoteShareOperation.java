@@ -31,8 +31,11 @@ import com.tkjcloud.android.lib.common.operations.RemoteOperationResult;
 import com.tkjcloud.android.lib.common.utils.Log_OC;
 
 import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.NameValuePair;
 import org.apache.commons.httpclient.methods.GetMethod;
 
+import java.io.InputStream;
+
 /**
  * Get the data about a Share resource, known its remote ID.
  */
@@ -60,21 +63,25 @@ public class GetRemoteShareOperation extends RemoteOperation {
         // Get the response
         try {
             get = new GetMethod(client.getBaseUri() + ShareUtils.SHARING_API_PATH + "/" + Long.toString(mRemoteId));
+            get.setQueryString(new NameValuePair[]{
+                new NameValuePair(ShareJSONParser.PARAM_FORMAT, ShareJSONParser.VALUE_FORMAT)
+            });
             get.addRequestHeader(OCS_API_HEADER, OCS_API_HEADER_VALUE);
 
             status = client.executeMethod(get);
 
             if (isSuccess(status)) {
-                String response = get.getResponseBodyAsString();
+                InputStream body = get.getResponseBodyAsStream();
 
-                // Parse xml response and obtain the list of shares
+                // Parse the response while reading it and obtain the list of shares
                 ShareToRemoteOperationResultParser parser = new ShareToRemoteOperationResultParser(
-                    new ShareXMLParser()
+                    new ShareJSONParser()
                 );
                 parser.setOneOrMoreSharesRequired(true);
                 parser.settkjcloudVersion(client.gettkjcloudVersion());
                 parser.setServerBaseUri(client.getBaseUri());
-                result = parser.parse(response);
+                result = parser.parse(body);
+                client.exhaustResponse(body);
 
             } else {
                 result = new RemoteOperationResult(false, get);
@@ -29,17 +29,21 @@ package com.tkjcloud.android.lib.resources.shares;
 
 import android.net.Uri;
 
+import com.google.gson.stream.JsonReader;
 import com.tkjcloud.android.lib.common.tkjcloudClient;
+import com.tkjcloud.android.lib.common.operations.OCSResponseDecoder;
 import com.tkjcloud.android.lib.common.operations.RemoteOperation;
 import com.tkjcloud.android.lib.common.operations.RemoteOperationResult;
 import com.tkjcloud.android.lib.common.utils.Log_OC;
 
 import org.apache.commons.httpclient.HttpStatus;
 import org.apache.commons.httpclient.methods.GetMethod;
-import org.json.JSONArray;
 import org.json.JSONObject;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Created by masensio on 08/10/2015.
@@ -82,8 +86,6 @@ public class GetRemoteShareesOperation extends RemoteOperation{
 
 
     // JSON Node names
-    private static final String NODE_OCS = "ocs";
-    private static final String NODE_DATA = "data";
     private static final String NODE_EXACT = "exact";
     private static final String NODE_USERS = "users";
     private static final String NODE_GROUPS = "groups";
@@ -133,44 +135,26 @@ public class GetRemoteShareesOperation extends RemoteOperation{
             status = client.executeMethod(get);
 
             if(isSuccess(status)) {
-                String response = get.getResponseBodyAsString();
-                Log_OC.d(TAG, "Successful response: " + response);
-
                 // Parse the response
-                JSONObject respJSON = new JSONObject(response);
-                JSONObject respOCS = respJSON.getJSONObject(NODE_OCS);
-                JSONObject respData = respOCS.getJSONObject(NODE_DATA);
-                JSONObject respExact = respData.getJSONObject(NODE_EXACT);
-                JSONArray respExactUsers = respExact.getJSONArray(NODE_USERS);
-                JSONArray respExactGroups = respExact.getJSONArray(NODE_GROUPS);
-                JSONArray respExactRemotes = respExact.getJSONArray(NODE_REMOTES);
-                JSONArray respPartialUsers = respData.getJSONArray(NODE_USERS);
-                JSONArray respPartialGroups = respData.getJSONArray(NODE_GROUPS);
-                JSONArray respPartialRemotes = respData.getJSONArray(NODE_REMOTES);
-                JSONArray[] jsonResults = {
-                        respExactUsers,
-                        respExactGroups,
-                        respExactRemotes,
-                        respPartialUsers,
-                        respPartialGroups,
-                        respPartialRemotes
-                };
-
-                ArrayList<Object> data = new ArrayList<Object>(); // For result data
-                for (int i=0; i<6; i++) {
-                    for(int j=0; j< jsonResults[i].length(); j++){
-                        JSONObject jsonResult = jsonResults[i].getJSONObject(j);
-                        data.add(jsonResult);
-                        Log_OC.d(TAG, "*** Added item: " + jsonResult.getString(PROPERTY_LABEL));
-                    }
+                InputStream body = get.getResponseBodyAsStream();
+                OCSResponseDecoder.Response<ArrayList<Object>> response =
+                    OCSResponseDecoder.decode(body, SHAREES_READER);
+                client.exhaustResponse(body);
+
+                if (response.isSuccess()) {
+                    // Result
+                    result = new RemoteOperationResult(true, get);
+                    result.setData(response.getData());
+
+                    Log_OC.d(TAG, "*** Get Users or groups completed, items: " +
+                        response.getData().size());
+                } else {
+                    result = new RemoteOperationResult(false, response.getStatusCode(), null, null);
+                    Log_OC.e(TAG, "Failed response while getting users/groups from the server ");
+                    Log_OC.e(TAG, "*** status: " + response.getStatus() + "; message: " +
+                        response.getMessage());
                 }
 
-                // Result
-                result = new RemoteOperationResult(true, get);
-                result.setData(data);
-
-                Log_OC.d(TAG, "*** Get Users or groups completed " );
-
             } else {
                 result = new RemoteOperationResult(false, get);
                 String response = get.getResponseBodyAsString();
@@ -194,6 +178,67 @@ public class GetRemoteShareesOperation extends RemoteOperation{
         return result;
     }
 
+    /**
+     * Reads the 'data' node of the response into a list of the sharees as JSON objects, exact
+     * matches first, and users before groups before remotes in each part.
+     */
+    private static final OCSResponseDecoder.DataReader<ArrayList<Object>> SHAREES_READER =
+        new OCSResponseDecoder.DataReader<ArrayList<Object>>() {
+
+        @Override
+        public ArrayList<Object> read(JsonReader reader) throws IOException {
+            List<List<JSONObject>> lists = new ArrayList<List<JSONObject>>(6);
+            for (int i = 0; i < 6; i++) {
+                lists.add(new ArrayList<JSONObject>());
+            }
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (NODE_EXACT.equals(name)) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        readSharees(reader, reader.nextName(), lists.subList(0, 3));
+                    }
+                    reader.endObject();
+                } else {
+                    readSharees(reader, name, lists.subList(3, 6));
+                }
+            }
+            reader.endObject();
+
+            ArrayList<Object> data = new ArrayList<Object>(); // For result data
+            for (List<JSONObject> list : lists) {
+                data.addAll(list);
+            }
+            return data;
+        }
+
+        /**
+         * Reads the value of a node into the list for its type of sharee, or skips it.
+         *
+         * @param lists     Lists for users, groups and remotes.
+         */
+        private void readSharees(JsonReader reader, String name, List<List<JSONObject>> lists)
+            throws IOException {
+            int index;
+            if (NODE_USERS.equals(name)) {
+                index = 0;
+            } else if (NODE_GROUPS.equals(name)) {
+                index = 1;
+            } else if (NODE_REMOTES.equals(name)) {
+                index = 2;
+            } else {
+                reader.skipValue();
+                return;
+            }
+            reader.beginArray();
+            while (reader.hasNext()) {
+                lists.get(index).add(OCSResponseDecoder.readJSONObject(reader));
+            }
+            reader.endArray();
+        }
+    };
+
     private boolean isSuccess(int status) {
         return (status == HttpStatus.SC_OK);
     }
@@ -35,6 +35,10 @@ import com.tkjcloud.android.lib.common.operations.RemoteOperation;
 import com.tkjcloud.android.lib.common.operations.RemoteOperationResult;
 import com.tkjcloud.android.lib.common.utils.Log_OC;
 
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Provide a list shares for a specific file.
  * The input is the full path of the desired file.
@@ -51,6 +55,7 @@ public class GetRemoteSharesForFileOperation extends RemoteOperation {
     private String mRemoteFilePath;
     private boolean mReshares;
     private boolean mSubfiles;
+    private SharesCache mCache = null;
 
     /**
      * Constructor
@@ -69,6 +74,14 @@ public class GetRemoteSharesForFileOperation extends RemoteOperation {
         mSubfiles = subfiles;
     }
 
+    /**
+     * Sets the index of shares to answer from and fill with the shares received. Only used when
+     * reshares are not requested.
+     */
+    public void setCache(SharesCache cache) {
+        mCache = cache;
+    }
+
     @Override
     protected RemoteOperationResult run(tkjcloudClient client) {
         RemoteOperationResult result = null;
@@ -76,6 +89,18 @@ public class GetRemoteSharesForFileOperation extends RemoteOperation {
 
         GetMethod get = null;
 
+        SharesCache cache = mReshares ? null : mCache;
+        String cacheKey = (cache != null) ? SharesCache.getKey(client) : null;
+        if (cache != null && !mSubfiles) {
+            List<OCShare> shares = cache.get(cacheKey, mRemoteFilePath);
+            if (shares != null) {
+                result = new RemoteOperationResult(RemoteOperationResult.ResultCode.OK);
+                result.setData(new ArrayList<Object>(shares));
+                Log_OC.d(TAG, "Got " + shares.size() + " shares from cache");
+                return result;
+            }
+        }
+
         try {
             // Get Method
             get = new GetMethod(client.getBaseUri() + ShareUtils.SHARING_API_PATH);
@@ -84,7 +109,8 @@ public class GetRemoteSharesForFileOperation extends RemoteOperation {
             get.setQueryString(new NameValuePair[]{
                 new NameValuePair(PARAM_PATH, mRemoteFilePath),
                 new NameValuePair(PARAM_RESHARES, String.valueOf(mReshares)),
-                new NameValuePair(PARAM_SUBFILES, String.valueOf(mSubfiles))
+                new NameValuePair(PARAM_SUBFILES, String.valueOf(mSubfiles)),
+                new NameValuePair(ShareJSONParser.PARAM_FORMAT, ShareJSONParser.VALUE_FORMAT)
             });
 
             get.addRequestHeader(OCS_API_HEADER, OCS_API_HEADER_VALUE);
@@ -92,18 +118,27 @@ public class GetRemoteSharesForFileOperation extends RemoteOperation {
             status = client.executeMethod(get);
 
             if (isSuccess(status)) {
-                String response = get.getResponseBodyAsString();
+                InputStream body = get.getResponseBodyAsStream();
 
-                // Parse xml response and obtain the list of shares
+                // Parse the response while reading it and obtain the list of shares
                 ShareToRemoteOperationResultParser parser = new ShareToRemoteOperationResultParser(
-                    new ShareXMLParser()
+                    new ShareJSONParser()
                 );
                 parser.settkjcloudVersion(client.gettkjcloudVersion());
                 parser.setServerBaseUri(client.getBaseUri());
-                result = parser.parse(response);
+                result = parser.parse(body);
+                client.exhaustResponse(body);
 
                 if (result.isSuccess()) {
                     Log_OC.d(TAG, "Got " + result.getData().size() + " shares");
+                    if (cache != null) {
+                        List<OCShare> shares = GetRemoteSharesOperation.toShares(result.getData());
+                        if (mSubfiles) {
+                            cache.putFolder(cacheKey, mRemoteFilePath, shares);
+                        } else {
+                            cache.putPath(cacheKey, mRemoteFilePath, shares);
+                        }
+                    }
                 }
 
             } else {
@@ -32,8 +32,13 @@ import com.tkjcloud.android.lib.common.operations.RemoteOperationResult;
 import com.tkjcloud.android.lib.common.utils.Log_OC;
 
 import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.NameValuePair;
 import org.apache.commons.httpclient.methods.GetMethod;
 
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Get the data from the server about ALL the known shares owned by the requester.
  */
@@ -41,6 +46,15 @@ public class GetRemoteSharesOperation extends RemoteOperation {
 
     private static final String TAG = GetRemoteSharesOperation.class.getSimpleName();
 
+    private SharesCache mCache = null;
+
+    /**
+     * Sets the index of shares to fill with the shares received.
+     */
+    public void setCache(SharesCache cache) {
+        mCache = cache;
+    }
+
     @Override
     protected RemoteOperationResult run(tkjcloudClient client) {
         RemoteOperationResult result = null;
@@ -52,19 +66,27 @@ public class GetRemoteSharesOperation extends RemoteOperation {
         // Get the response
         try {
             get = new GetMethod(client.getBaseUri() + ShareUtils.SHARING_API_PATH);
+            get.setQueryString(new NameValuePair[]{
+                new NameValuePair(ShareJSONParser.PARAM_FORMAT, ShareJSONParser.VALUE_FORMAT)
+            });
             get.addRequestHeader(OCS_API_HEADER, OCS_API_HEADER_VALUE);
             status = client.executeMethod(get);
 
             if (isSuccess(status)) {
-                String response = get.getResponseBodyAsString();
+                InputStream body = get.getResponseBodyAsStream();
 
-                // Parse xml response and obtain the list of shares
+                // Parse the response while reading it and obtain the list of shares
                 ShareToRemoteOperationResultParser parser = new ShareToRemoteOperationResultParser(
-                    new ShareXMLParser()
+                    new ShareJSONParser()
                 );
                 parser.settkjcloudVersion(client.gettkjcloudVersion());
                 parser.setServerBaseUri(client.getBaseUri());
-                result = parser.parse(response);
+                result = parser.parse(body);
+                client.exhaustResponse(body);
+
+                if (result.isSuccess() && mCache != null) {
+                    mCache.putAll(SharesCache.getKey(client), toShares(result.getData()));
+                }
             } else {
                 result = new RemoteOperationResult(false, get);
             }
@@ -81,6 +103,14 @@ public class GetRemoteSharesOperation extends RemoteOperation {
         return result;
     }
 
+    static List<OCShare> toShares(List<Object> data) {
+        List<OCShare> shares = new ArrayList<OCShare>(data.size());
+        for (Object share : data) {
+            shares.add((OCShare) share);
+        }
+        return shares;
+    }
+
     private boolean isSuccess(int status) {
         return (status == HttpStatus.SC_OK);
     }
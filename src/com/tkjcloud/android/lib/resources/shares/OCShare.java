@@ -114,6 +114,29 @@ public class OCShare implements Parcelable, Serializable {
         mPath = path;
 	}
 
+    /**
+     * Copy constructor.
+     *
+     * @param share     Share to copy.
+     */
+    public OCShare(OCShare share) {
+        mId = share.mId;
+        mFileSource = share.mFileSource;
+        mItemSource = share.mItemSource;
+        mShareType = share.mShareType;
+        mShareWith = share.mShareWith;
+        mPath = share.mPath;
+        mPermissions = share.mPermissions;
+        mSharedDate = share.mSharedDate;
+        mExpirationDate = share.mExpirationDate;
+        mToken = share.mToken;
+        mSharedWithDisplayName = share.mSharedWithDisplayName;
+        mIsFolder = share.mIsFolder;
+        mUserId = share.mUserId;
+        mRemoteId = share.mRemoteId;
+        mShareLink = share.mShareLink;
+    }
+
 	/**
      * Used internally. Reset all file properties
      */
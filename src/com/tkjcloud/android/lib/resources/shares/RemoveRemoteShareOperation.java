@@ -43,6 +43,7 @@ public class RemoveRemoteShareOperation extends RemoteOperation {
     private static final String TAG = RemoveRemoteShareOperation.class.getSimpleName();
 
     private int mRemoteShareId;
+    private SharesCache mCache = null;
 
     /**
      * Constructor
@@ -55,6 +56,13 @@ public class RemoveRemoteShareOperation extends RemoteOperation {
 
     }
 
+    /**
+     * Sets the index of shares to remove the share from.
+     */
+    public void setCache(SharesCache cache) {
+        mCache = cache;
+    }
+
     @Override
     protected RemoteOperationResult run(tkjcloudClient client) {
         RemoteOperationResult result = null;
@@ -81,6 +89,14 @@ public class RemoveRemoteShareOperation extends RemoteOperation {
 
                 Log_OC.d(TAG, "Unshare " + id + ": " + result.getLogMessage());
 
+                if (mCache != null) {
+                    if (result.isSuccess()) {
+                        mCache.removeShare(SharesCache.getKey(client), mRemoteShareId);
+                    } else {
+                        mCache.invalidateShare(SharesCache.getKey(client), mRemoteShareId);
+                    }
+                }
+
             } else {
                 result = new RemoteOperationResult(false, delete);
             }
@@ -0,0 +1,232 @@
+/* tkjcloud Android Library is available under MIT license
+ *   Copyright (C) 2017 tkjcloud GmbH.
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *   NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *   BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *   ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *   CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *   THE SOFTWARE.
+ *
+ */
+
+package com.tkjcloud.android.lib.resources.shares;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.tkjcloud.android.lib.common.network.WebdavUtils;
+import com.tkjcloud.android.lib.common.operations.OCSResponseDecoder;
+import com.tkjcloud.android.lib.resources.files.FileUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Date;
+
+/**
+ * Parser for Share API responses in JSON format, requested with 'format=json'.
+ *
+ * Shares are built while the response is read from the network, with no intermediate copy of
+ * the body. Same results as {@link ShareXMLParser}.
+ */
+public class ShareJSONParser {
+
+    /** Query parameter to get responses of the Share API in JSON */
+    public static final String PARAM_FORMAT = "format";
+    public static final String VALUE_FORMAT = "json";
+
+    // JSON Node names
+    private static final String NODE_ID = "id";
+    private static final String NODE_ITEM_TYPE = "item_type";
+    private static final String NODE_ITEM_SOURCE = "item_source";
+    private static final String NODE_SHARE_TYPE = "share_type";
+    private static final String NODE_SHARE_WITH = "share_with";
+    private static final String NODE_FILE_SOURCE = "file_source";
+    private static final String NODE_PATH = "path";
+    private static final String NODE_PERMISSIONS = "permissions";
+    private static final String NODE_STIME = "stime";
+    private static final String NODE_EXPIRATION = "expiration";
+    private static final String NODE_TOKEN = "token";
+    private static final String NODE_SHARE_WITH_DISPLAY_NAME = "share_with_displayname";
+    private static final String NODE_URL = "url";
+
+    private static final String TYPE_FOLDER = "folder";
+
+    private static final int SUCCESS = 100;
+    private static final int OK = 200;
+    private static final int ERROR_WRONG_PARAMETER = 400;
+    private static final int ERROR_FORBIDDEN = 403;
+    private static final int ERROR_NOT_FOUND = 404;
+
+    private String mStatus;
+    private int mStatusCode;
+    private String mMessage;
+
+    public ShareJSONParser() {
+        mStatusCode = -1;
+    }
+
+    public String getStatus() {
+        return mStatus;
+    }
+
+    public int getStatusCode() {
+        return mStatusCode;
+    }
+
+    public String getMessage() {
+        return mMessage;
+    }
+
+    public boolean isSuccess() {
+        return mStatusCode == SUCCESS || mStatusCode == OK;
+    }
+
+    public boolean isForbidden() {
+        return mStatusCode == ERROR_FORBIDDEN;
+    }
+
+    public boolean isNotFound() {
+        return mStatusCode == ERROR_NOT_FOUND;
+    }
+
+    public boolean isWrongParameter() {
+        return mStatusCode == ERROR_WRONG_PARAMETER;
+    }
+
+    /**
+     * Parses a response of the Share API.
+     *
+     * @param is    Body of the response; not closed.
+     * @return      List of shares; empty if the response reports a failure.
+     * @throws IOException  If the body could not be read or is not a valid response.
+     */
+    public ArrayList<OCShare> parseJSONResponse(InputStream is) throws IOException {
+        OCSResponseDecoder.Response<ArrayList<OCShare>> response =
+            OCSResponseDecoder.decode(is, new OCSResponseDecoder.DataReader<ArrayList<OCShare>>() {
+                @Override
+                public ArrayList<OCShare> read(JsonReader reader) throws IOException {
+                    ArrayList<OCShare> shares = new ArrayList<OCShare>();
+                    readData(reader, shares);
+                    return shares;
+                }
+            });
+        mStatus = response.getStatus();
+        mStatusCode = response.getStatusCode();
+        mMessage = response.getMessage();
+
+        ArrayList<OCShare> shares = response.getData();
+        return (shares != null) ? shares : new ArrayList<OCShare>();
+    }
+
+    /**
+     * Reads the 'data' node: an array of shares when listing, a single share when one is
+     * created or updated, and an empty array when an old server returns no details.
+     */
+    private void readData(JsonReader reader, ArrayList<OCShare> shares) throws IOException {
+        switch (reader.peek()) {
+            case BEGIN_ARRAY:
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    // nested arrays work around servers grouping the shares on the same file,
+                    // as handled by ShareXMLParser for extra <element> nodes
+                    readData(reader, shares);
+                }
+                reader.endArray();
+                break;
+
+            case BEGIN_OBJECT:
+                OCShare share = readShare(reader);
+                if (share.getRemoteId() > -1) {
+                    shares.add(share);
+                }
+                break;
+
+            default:
+                reader.skipValue();
+                break;
+        }
+    }
+
+    private OCShare readShare(JsonReader reader) throws IOException {
+        OCShare share = new OCShare();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+
+            } else if (NODE_ID.equals(name)) {
+                share.setIdRemoteShared(reader.nextLong());
+
+            } else if (NODE_ITEM_TYPE.equals(name)) {
+                share.setIsFolder(TYPE_FOLDER.equalsIgnoreCase(reader.nextString()));
+
+            } else if (NODE_ITEM_SOURCE.equals(name)) {
+                share.setItemSource(reader.nextLong());
+
+            } else if (NODE_SHARE_TYPE.equals(name)) {
+                share.setShareType(ShareType.fromValue(reader.nextInt()));
+
+            } else if (NODE_SHARE_WITH.equals(name)) {
+                share.setShareWith(OCSResponseDecoder.nextString(reader));
+
+            } else if (NODE_FILE_SOURCE.equals(name)) {
+                share.setFileSource(reader.nextLong());
+
+            } else if (NODE_PATH.equals(name)) {
+                share.setPath(reader.nextString());
+
+            } else if (NODE_PERMISSIONS.equals(name)) {
+                share.setPermissions(reader.nextInt());
+
+            } else if (NODE_STIME.equals(name)) {
+                share.setSharedDate(reader.nextLong());
+
+            } else if (NODE_EXPIRATION.equals(name)) {
+                String value = reader.nextString();
+                Date expiration = (value.length() > 0) ?
+                    WebdavUtils.parseResponseDate(value) : null;
+                if (expiration != null) {
+                    share.setExpirationDate(expiration.getTime());
+                }
+
+            } else if (NODE_TOKEN.equals(name)) {
+                share.setToken(reader.nextString());
+
+            } else if (NODE_SHARE_WITH_DISPLAY_NAME.equals(name)) {
+                share.setSharedWithDisplayName(OCSResponseDecoder.nextString(reader));
+
+            } else if (NODE_URL.equals(name)) {
+                share.setShareType(ShareType.PUBLIC_LINK);
+                share.setShareLink(reader.nextString());
+
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        fixPathForFolder(share);
+        return share;
+    }
+
+    private void fixPathForFolder(OCShare share) {
+        if (share.isFolder() && share.getPath() != null && share.getPath().length() > 0 &&
+                !share.getPath().endsWith(FileUtils.PATH_SEPARATOR)) {
+            share.setPath(share.getPath() + FileUtils.PATH_SEPARATOR);
+        }
+    }
+}
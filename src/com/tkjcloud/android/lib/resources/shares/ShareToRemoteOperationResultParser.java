@@ -44,6 +44,7 @@ public class ShareToRemoteOperationResultParser {
     private static final String TAG = ShareToRemoteOperationResultParser.class.getSimpleName();
 
     private ShareXMLParser mShareXmlParser = null;
+    private ShareJSONParser mShareJsonParser = null;
     private boolean mOneOrMoreSharesRequired = false;
     private tkjcloudVersion mtkjcloudVersion = null;
     private Uri mServerBaseUri = null;
@@ -53,6 +54,10 @@ public class ShareToRemoteOperationResultParser {
         mShareXmlParser = shareXmlParser;
     }
 
+    public ShareToRemoteOperationResultParser(ShareJSONParser shareJsonParser) {
+        mShareJsonParser = shareJsonParser;
+    }
+
     public void setOneOrMoreSharesRequired(boolean oneOrMoreSharesRequired) {
         mOneOrMoreSharesRequired = oneOrMoreSharesRequired;
     }
@@ -69,76 +74,120 @@ public class ShareToRemoteOperationResultParser {
         if (serverResponse == null || serverResponse.length() == 0) {
             return new RemoteOperationResult(RemoteOperationResult.ResultCode.WRONG_SERVER_RESPONSE);
         }
+        return parse(new ByteArrayInputStream(serverResponse.getBytes()));
+    }
 
+    /**
+     * Parses a response of the Share API while it is read, with the JSON parser if one was
+     * provided, or the XML parser otherwise.
+     *
+     * @param is    Body of the response.
+     */
+    public RemoteOperationResult parse(InputStream is) {
+        if (is == null) {
+            return new RemoteOperationResult(RemoteOperationResult.ResultCode.WRONG_SERVER_RESPONSE);
+        }
         RemoteOperationResult result = null;
-        ArrayList<Object> resultData = new ArrayList<Object>();
 
         try {
-            // Parse xml response and obtain the list of shares
-            InputStream is = new ByteArrayInputStream(serverResponse.getBytes());
-            if (mShareXmlParser == null) {
-                Log_OC.w(TAG, "No ShareXmlParser provided, creating new instance ");
-                mShareXmlParser = new ShareXMLParser();
-            }
-            List<OCShare> shares = mShareXmlParser.parseXMLResponse(is);
-
-            if (mShareXmlParser.isSuccess()) {
-                if ((shares != null && shares.size() > 0) || !mOneOrMoreSharesRequired) {
-                    result = new RemoteOperationResult(RemoteOperationResult.ResultCode.OK);
-                    if (shares != null) {
-                        for (OCShare share : shares) {
-                            resultData.add(share);
-                            // build the share link if not in the response (only received when the share is created)
-                            if (share.getShareType() == ShareType.PUBLIC_LINK &&
-                                    (share.getShareLink() == null ||
-                                            share.getShareLink().length() <= 0) &&
-                                    share.getToken().length() > 0
-                                    ) {
-                                if (mServerBaseUri != null) {
-                                    String sharingLinkPath = ShareUtils.getSharingLinkPath(mtkjcloudVersion);
-                                    share.setShareLink(mServerBaseUri + sharingLinkPath + share.getToken());
-                                } else {
-                                    Log_OC.e(TAG, "Couldn't build link for public share");
-                                }
-                            }
-                        }
-                    }
-                    result.setData(resultData);
+            if (mShareJsonParser != null) {
+                List<OCShare> shares = mShareJsonParser.parseJSONResponse(is);
+                result = buildResult(
+                    shares,
+                    mShareJsonParser.isSuccess(),
+                    mShareJsonParser.isWrongParameter(),
+                    mShareJsonParser.isNotFound(),
+                    mShareJsonParser.isForbidden(),
+                    mShareJsonParser.getMessage()
+                );
 
-                } else {
-                    result = new RemoteOperationResult(RemoteOperationResult.ResultCode.WRONG_SERVER_RESPONSE);
-                    Log_OC.e(TAG, "Successful status with no share in the response");
+            } else {
+                // Parse xml response and obtain the list of shares
+                if (mShareXmlParser == null) {
+                    Log_OC.w(TAG, "No ShareXmlParser provided, creating new instance ");
+                    mShareXmlParser = new ShareXMLParser();
                 }
+                List<OCShare> shares = mShareXmlParser.parseXMLResponse(is);
+                result = buildResult(
+                    shares,
+                    mShareXmlParser.isSuccess(),
+                    mShareXmlParser.isWrongParameter(),
+                    mShareXmlParser.isNotFound(),
+                    mShareXmlParser.isForbidden(),
+                    mShareXmlParser.getMessage()
+                );
+            }
 
-            } else if (mShareXmlParser.isWrongParameter()){
-                result = new RemoteOperationResult(RemoteOperationResult.ResultCode.SHARE_WRONG_PARAMETER);
-                resultData.add(mShareXmlParser.getMessage());
-                result.setData(resultData);
+        } catch (XmlPullParserException e) {
+            Log_OC.e(TAG, "Error parsing response from server ", e);
+            result = new RemoteOperationResult(RemoteOperationResult.ResultCode.WRONG_SERVER_RESPONSE);
 
-            } else if (mShareXmlParser.isNotFound()){
-                result = new RemoteOperationResult(RemoteOperationResult.ResultCode.SHARE_NOT_FOUND);
-                resultData.add(mShareXmlParser.getMessage());
-                result.setData(resultData);
+        } catch (IOException e) {
+            Log_OC.e(TAG, "Error reading response from server ", e);
+            result = new RemoteOperationResult(RemoteOperationResult.ResultCode.WRONG_SERVER_RESPONSE);
 
-            } else if (mShareXmlParser.isForbidden()) {
-                result = new RemoteOperationResult(RemoteOperationResult.ResultCode.SHARE_FORBIDDEN);
-                resultData.add(mShareXmlParser.getMessage());
+        } catch (RuntimeException e) {
+            // unexpected JSON value types, like an object where a number is expected
+            Log_OC.e(TAG, "Error parsing response from server ", e);
+            result = new RemoteOperationResult(RemoteOperationResult.ResultCode.WRONG_SERVER_RESPONSE);
+        }
+
+        return result;
+    }
+
+    private RemoteOperationResult buildResult(List<OCShare> shares, boolean success,
+                                              boolean wrongParameter, boolean notFound,
+                                              boolean forbidden, String message) {
+        RemoteOperationResult result;
+        ArrayList<Object> resultData = new ArrayList<Object>();
+
+        if (success) {
+            if ((shares != null && shares.size() > 0) || !mOneOrMoreSharesRequired) {
+                result = new RemoteOperationResult(RemoteOperationResult.ResultCode.OK);
+                if (shares != null) {
+                    for (OCShare share : shares) {
+                        resultData.add(share);
+                        // build the share link if not in the response (only received when the share is created)
+                        if (share.getShareType() == ShareType.PUBLIC_LINK &&
+                                (share.getShareLink() == null ||
+                                        share.getShareLink().length() <= 0) &&
+                                share.getToken().length() > 0
+                                ) {
+                            if (mServerBaseUri != null) {
+                                String sharingLinkPath = ShareUtils.getSharingLinkPath(mtkjcloudVersion);
+                                share.setShareLink(mServerBaseUri + sharingLinkPath + share.getToken());
+                            } else {
+                                Log_OC.e(TAG, "Couldn't build link for public share");
+                            }
+                        }
+                    }
+                }
                 result.setData(resultData);
 
             } else {
                 result = new RemoteOperationResult(RemoteOperationResult.ResultCode.WRONG_SERVER_RESPONSE);
-
+                Log_OC.e(TAG, "Successful status with no share in the response");
             }
 
-        } catch (XmlPullParserException e) {
-            Log_OC.e(TAG, "Error parsing response from server ", e);
-            result = new RemoteOperationResult(RemoteOperationResult.ResultCode.WRONG_SERVER_RESPONSE);
+        } else if (wrongParameter){
+            result = new RemoteOperationResult(RemoteOperationResult.ResultCode.SHARE_WRONG_PARAMETER);
+            resultData.add(message);
+            result.setData(resultData);
 
-        } catch (IOException e) {
-            Log_OC.e(TAG, "Error reading response from server ", e);
+        } else if (notFound){
+            result = new RemoteOperationResult(RemoteOperationResult.ResultCode.SHARE_NOT_FOUND);
+            resultData.add(message);
+            result.setData(resultData);
+
+        } else if (forbidden) {
+            result = new RemoteOperationResult(RemoteOperationResult.ResultCode.SHARE_FORBIDDEN);
+            resultData.add(message);
+            result.setData(resultData);
+
+        } else {
             result = new RemoteOperationResult(RemoteOperationResult.ResultCode.WRONG_SERVER_RESPONSE);
-        }
 
+        }
         return result;
     }
 
@@ -0,0 +1,356 @@
+/* tkjcloud Android Library is available under MIT license
+ *   Copyright (C) 2017 tkjcloud GmbH.
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *   NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *   BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *   ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *   CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *   THE SOFTWARE.
+ *
+ */
+
+package com.tkjcloud.android.lib.resources.shares;
+
+import com.tkjcloud.android.lib.common.tkjcloudClient;
+import com.tkjcloud.android.lib.common.tkjcloudCredentials;
+import com.tkjcloud.android.lib.common.utils.Log_OC;
+import com.tkjcloud.android.lib.resources.files.FileUtils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * Index in memory of the shares of the users, by path.
+ *
+ * Filled by {@link GetRemoteSharesOperation}, which covers all the paths of the user with one
+ * request, and by {@link GetRemoteSharesForFileOperation}, which covers a path, or the children
+ * of a folder when requesting the shares of the subfiles. While a path is covered, the shares of
+ * the file are answered from the index, so a folder listing costs one request instead of one
+ * per file.
+ *
+ * Creation, update and removal of shares write through to the index or invalidate the paths
+ * affected, when the operations are given the same instance.
+ *
+ * Only the shares owned by the user are indexed, as returned with 'reshares=false'. The index
+ * keeps its own copies of the shares, and returns new copies, so that changes made by the
+ * callers to the shares do not reach it.
+ */
+public class SharesCache {
+
+    private static final String TAG = SharesCache.class.getSimpleName();
+
+    /** Default time a listing is trusted, in milliseconds */
+    public static final long DEFAULT_TTL = 5 * 60 * 1000;
+
+    private long mTtl;
+    private final Map<String, Index> mIndexes = new HashMap<String, Index>();
+
+
+    /**
+     * Shares of a user.
+     */
+    private static class Index {
+        final Map<String, List<OCShare>> mSharesByPath = new HashMap<String, List<OCShare>>();
+        final Map<Long, OCShare> mSharesById = new HashMap<Long, OCShare>();
+
+        /** Time of the last listing of all the shares; 0 if none is valid */
+        long mCompleteTimestamp = 0;
+        /** Times of the listings of the children of folders */
+        final Map<String, Long> mFolderTimestamps = new HashMap<String, Long>();
+        /** Times of the listings of single paths */
+        final Map<String, Long> mPathTimestamps = new HashMap<String, Long>();
+        /** Paths changed since the last listing of all the shares, not covered by it anymore */
+        final Set<String> mStalePaths = new HashSet<String>();
+
+        void add(OCShare share) {
+            remove(share.getRemoteId());
+            share = new OCShare(share);
+            String path = normalize(share.getPath());
+            List<OCShare> shares = mSharesByPath.get(path);
+            if (shares == null) {
+                shares = new ArrayList<OCShare>();
+                mSharesByPath.put(path, shares);
+            }
+            shares.add(share);
+            mSharesById.put(share.getRemoteId(), share);
+        }
+
+        OCShare remove(long remoteId) {
+            OCShare share = mSharesById.remove(remoteId);
+            if (share != null) {
+                String path = normalize(share.getPath());
+                List<OCShare> shares = mSharesByPath.get(path);
+                if (shares != null) {
+                    shares.remove(share);
+                    if (shares.isEmpty()) {
+                        mSharesByPath.remove(path);
+                    }
+                }
+            }
+            return share;
+        }
+
+        void removePath(String path) {
+            List<OCShare> shares = mSharesByPath.remove(path);
+            if (shares != null) {
+                for (OCShare share : shares) {
+                    mSharesById.remove(share.getRemoteId());
+                }
+            }
+        }
+
+        /**
+         * Forgets that a path is covered, so that it is requested again; the rest of the paths
+         * covered by the same listings are still answered.
+         */
+        void invalidatePath(String path) {
+            mPathTimestamps.remove(path);
+            mFolderTimestamps.remove(getParent(path));
+            if (mCompleteTimestamp > 0) {
+                mStalePaths.add(path);
+            }
+        }
+
+        boolean isCovered(String path, long now, long ttl) {
+            return isValid(mPathTimestamps.get(path), now, ttl) ||
+                isValid(mFolderTimestamps.get(getParent(path)), now, ttl) ||
+                (isValid(mCompleteTimestamp, now, ttl) && !mStalePaths.contains(path));
+        }
+    }
+
+
+    public SharesCache() {
+        this(DEFAULT_TTL);
+    }
+
+    /**
+     * @param ttl   Time a listing is trusted, in milliseconds.
+     */
+    public SharesCache(long ttl) {
+        mTtl = ttl;
+    }
+
+    public synchronized void setTtl(long ttl) {
+        mTtl = ttl;
+    }
+
+    /**
+     * @return  Key of the index for the user and server of a client.
+     */
+    public static String getKey(tkjcloudClient client) {
+        tkjcloudCredentials credentials = client.getCredentials();
+        String username = (credentials != null && credentials.getUsername() != null) ?
+            credentials.getUsername() : "";
+        return client.getBaseUri() + "#" + username;
+    }
+
+    /**
+     * @param key       Key of the index.
+     * @param path      Path of a file or folder.
+     * @return          Copies of the shares of the path, possibly empty; null if the path is
+     *                  not covered by a valid listing.
+     */
+    public synchronized List<OCShare> get(String key, String path) {
+        Index index = mIndexes.get(key);
+        if (index == null) {
+            return null;
+        }
+        path = normalize(path);
+        if (!index.isCovered(path, System.currentTimeMillis(), mTtl)) {
+            return null;
+        }
+        List<OCShare> copies = new ArrayList<OCShare>();
+        List<OCShare> shares = index.mSharesByPath.get(path);
+        if (shares != null) {
+            for (OCShare share : shares) {
+                copies.add(new OCShare(share));
+            }
+        }
+        return copies;
+    }
+
+    /**
+     * Replaces the index of a user with a listing of all the shares.
+     */
+    public synchronized void putAll(String key, List<OCShare> shares) {
+        Index index = new Index();
+        for (OCShare share : shares) {
+            index.add(share);
+        }
+        index.mCompleteTimestamp = System.currentTimeMillis();
+        mIndexes.put(key, index);
+        Log_OC.d(TAG, "Indexed " + shares.size() + " shares");
+    }
+
+    /**
+     * Replaces the shares of the children of a folder with a listing of them.
+     */
+    public synchronized void putFolder(String key, String folderPath, List<OCShare> shares) {
+        Index index = getOrCreateIndex(key);
+        folderPath = normalize(folderPath);
+        List<String> children = new ArrayList<String>();
+        for (String path : index.mSharesByPath.keySet()) {
+            if (folderPath.equals(getParent(path))) {
+                children.add(path);
+            }
+        }
+        for (String path : children) {
+            index.removePath(path);
+        }
+        for (OCShare share : shares) {
+            index.add(share);
+        }
+        Iterator<String> stalePaths = index.mStalePaths.iterator();
+        while (stalePaths.hasNext()) {
+            if (folderPath.equals(getParent(stalePaths.next()))) {
+                stalePaths.remove();
+            }
+        }
+        index.mFolderTimestamps.put(folderPath, System.currentTimeMillis());
+    }
+
+    /**
+     * Replaces the shares of a path with a listing of them.
+     */
+    public synchronized void putPath(String key, String path, List<OCShare> shares) {
+        Index index = getOrCreateIndex(key);
+        path = normalize(path);
+        index.removePath(path);
+        for (OCShare share : shares) {
+            index.add(share);
+        }
+        index.mStalePaths.remove(path);
+        index.mPathTimestamps.put(path, System.currentTimeMillis());
+    }
+
+    /**
+     * Adds or replaces a share created or updated. Shares received with no path, like those
+     * returned by old servers on creation, invalidate the path instead.
+     *
+     * @param path  Path the share belongs to, used when the share has none; may be null.
+     */
+    public synchronized void putShare(String key, OCShare share, String path) {
+        Index index = mIndexes.get(key);
+        if (index == null) {
+            return;
+        }
+        if (share.getPath() != null && share.getPath().length() > 0 &&
+            share.getRemoteId() > -1) {
+            index.add(share);
+        } else {
+            OCShare previous = index.remove(share.getRemoteId());
+            if (previous != null) {
+                index.invalidatePath(normalize(previous.getPath()));
+            }
+            if (path != null) {
+                index.invalidatePath(normalize(path));
+            }
+        }
+    }
+
+    /**
+     * Removes a share deleted in the server.
+     */
+    public synchronized void removeShare(String key, long remoteId) {
+        Index index = mIndexes.get(key);
+        if (index != null) {
+            index.remove(remoteId);
+        }
+    }
+
+    /**
+     * Makes the shares of a share known by its id be requested again.
+     */
+    public synchronized void invalidateShare(String key, long remoteId) {
+        Index index = mIndexes.get(key);
+        if (index != null) {
+            OCShare share = index.remove(remoteId);
+            if (share != null) {
+                index.invalidatePath(normalize(share.getPath()));
+            } else {
+                index.mCompleteTimestamp = 0;
+            }
+        }
+    }
+
+    /**
+     * Makes the shares of a path be requested again.
+     */
+    public synchronized void invalidatePath(String key, String path) {
+        Index index = mIndexes.get(key);
+        if (index != null) {
+            path = normalize(path);
+            index.removePath(path);
+            index.invalidatePath(path);
+        }
+    }
+
+    /**
+     * Drops the index of a user.
+     */
+    public synchronized void invalidate(String key) {
+        mIndexes.remove(key);
+    }
+
+    public synchronized void clear() {
+        mIndexes.clear();
+    }
+
+
+    private Index getOrCreateIndex(String key) {
+        Index index = mIndexes.get(key);
+        if (index == null) {
+            index = new Index();
+            mIndexes.put(key, index);
+        }
+        return index;
+    }
+
+    private static boolean isValid(Long timestamp, long now, long ttl) {
+        return timestamp != null && timestamp > 0 && now - timestamp < ttl;
+    }
+
+    /**
+     * @return  Path with no trailing separator, as folder paths in shares have one.
+     */
+    private static String normalize(String path) {
+        if (path == null || path.length() == 0) {
+            return FileUtils.PATH_SEPARATOR;
+        }
+        if (!path.startsWith(FileUtils.PATH_SEPARATOR)) {
+            path = FileUtils.PATH_SEPARATOR + path;
+        }
+        while (path.length() > 1 && path.endsWith(FileUtils.PATH_SEPARATOR)) {
+            path = path.substring(0, path.length() - 1);
+        }
+        return path;
+    }
+
+    /**
+     * @param path  Normalized path.
+     * @return      Normalized path of the parent folder; the root for the root.
+     */
+    private static String getParent(String path) {
+        int index = path.lastIndexOf(FileUtils.PATH_SEPARATOR);
+        return (index <= 0) ? FileUtils.PATH_SEPARATOR : path.substring(0, index);
+    }
+}
@@ -37,6 +37,7 @@ import org.apache.commons.httpclient.HttpStatus;
 import org.apache.commons.httpclient.methods.PutMethod;
 import org.apache.commons.httpclient.methods.StringRequestEntity;
 
+import java.io.InputStream;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
@@ -87,6 +88,8 @@ public class UpdateRemoteShareOperation extends RemoteOperation {
      */
     private Boolean mPublicUpload;
 
+    private SharesCache mCache = null;
+
 
     /**
      * Constructor. No update is initialized by default, need to be applied with setters below.
@@ -146,6 +149,13 @@ public class UpdateRemoteShareOperation extends RemoteOperation {
         mPublicUpload = publicUpload;
     }
 
+    /**
+     * Sets the index of shares to update with the updated share.
+     */
+    public void setCache(SharesCache cache) {
+        mCache = cache;
+    }
+
     @Override
     protected RemoteOperationResult run(tkjcloudClient client) {
         RemoteOperationResult result = null;
@@ -187,6 +197,7 @@ public class UpdateRemoteShareOperation extends RemoteOperation {
             Uri.Builder uriBuilder = requestUri.buildUpon();
             uriBuilder.appendEncodedPath(ShareUtils.SHARING_API_PATH.substring(1));
             uriBuilder.appendEncodedPath(Long.toString(mRemoteId));
+            uriBuilder.appendQueryParameter(ShareJSONParser.PARAM_FORMAT, ShareJSONParser.VALUE_FORMAT);
             uriString = uriBuilder.build().toString();
 
             for (Pair<String, String> parameter : parametersToUpdate) {
@@ -204,15 +215,16 @@ public class UpdateRemoteShareOperation extends RemoteOperation {
                 status = client.executeMethod(put);
 
                 if (status == HttpStatus.SC_OK || status == HttpStatus.SC_BAD_REQUEST) {
-                    String response = put.getResponseBodyAsString();
+                    InputStream body = put.getResponseBodyAsStream();
 
-                    // Parse xml response
+                    // Parse the response while reading it
                     ShareToRemoteOperationResultParser parser = new ShareToRemoteOperationResultParser(
-                            new ShareXMLParser()
+                            new ShareJSONParser()
                     );
                     parser.settkjcloudVersion(client.gettkjcloudVersion());
                     parser.setServerBaseUri(client.getBaseUri());
-                    result = parser.parse(response);
+                    result = parser.parse(body);
+                    client.exhaustResponse(body);
 
                 } else {
                     result = new RemoteOperationResult(false, put);
@@ -234,6 +246,16 @@ public class UpdateRemoteShareOperation extends RemoteOperation {
                 put.releaseConnection();
             }
         }
+
+        if (mCache != null && !parametersToUpdate.isEmpty()) {
+            String cacheKey = SharesCache.getKey(client);
+            if (result.isSuccess() && result.getData() != null && !result.getData().isEmpty()) {
+                mCache.putShare(cacheKey, (OCShare) result.getData().get(0), null);
+            } else {
+                // some parameters may have been updated before a failure
+                mCache.invalidateShare(cacheKey, mRemoteId);
+            }
+        }
         return result;
     }
 
@@ -0,0 +1,249 @@
+/* tkjcloud Android Library is available under MIT license
+ *   Copyright (C) 2017 tkjcloud GmbH.
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *   NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *   BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *   ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *   CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *   THE SOFTWARE.
+ *
+ */
+
+package com.tkjcloud.android.lib.resources.status;
+
+import com.tkjcloud.android.lib.common.tkjcloudClient;
+import com.tkjcloud.android.lib.common.tkjcloudCredentials;
+import com.tkjcloud.android.lib.common.utils.Log_OC;
+import com.tkjcloud.android.lib.resources.files.FileUtils;
+
+import org.json.JSONException;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * Cache of the capabilities of servers, used by {@link GetRemoteCapabilitiesOperation}.
+ *
+ * Capabilities are kept per server and user, in memory and in a file, so that they are
+ * available at start with no request. Entries are fresh for a time to live; after it, they are
+ * revalidated with the eTag of the response. Entries of an older version of the server are
+ * dropped.
+ */
+public class CapabilitiesCache {
+
+    private static final String TAG = CapabilitiesCache.class.getSimpleName();
+
+    public static final long DEFAULT_TTL = 60 * 60 * 1000;
+
+    private final File mFolder;
+    private long mTtl;
+    private final Map<String, Entry> mEntries = new HashMap<String, Entry>();
+
+
+    /**
+     * Cached response of a server.
+     */
+    public static class Entry {
+        private final String mResponse;
+        private final String mEtag;
+        private final long mTimestamp;
+        private final OCCapability mCapability;
+
+        Entry(String response, String etag, long timestamp, OCCapability capability) {
+            mResponse = response;
+            mEtag = (etag == null) ? "" : etag;
+            mTimestamp = timestamp;
+            mCapability = capability;
+        }
+
+        /**
+         * @return  Copy of the entry validated now.
+         */
+        Entry revalidated() {
+            return new Entry(mResponse, mEtag, System.currentTimeMillis(), mCapability);
+        }
+
+        public String getEtag() {
+            return mEtag;
+        }
+
+        /**
+         * @return  Time the response was received or last revalidated, in milliseconds.
+         */
+        public long getTimestamp() {
+            return mTimestamp;
+        }
+
+        public OCCapability getCapability() {
+            return mCapability;
+        }
+    }
+
+
+    /**
+     * @param folder    Folder where the responses are stored.
+     * @param ttl       Time in milliseconds that entries are used without revalidation.
+     */
+    public CapabilitiesCache(File folder, long ttl) {
+        mFolder = folder;
+        mTtl = ttl;
+    }
+
+    public synchronized void setTtl(long ttl) {
+        mTtl = ttl;
+    }
+
+    /**
+     * @return  Key of the entry for the server and user of a client.
+     */
+    public static String getKey(tkjcloudClient client) {
+        tkjcloudCredentials credentials = client.getCredentials();
+        String username = (credentials != null && credentials.getUsername() != null) ?
+            credentials.getUsername() : "";
+        return client.getBaseUri() + "#" + username;
+    }
+
+    /**
+     * @param key           Key of the entry.
+     * @param serverVersion Current version of the server, if known; entries of other versions
+     *                      are dropped.
+     * @return              Cached entry, read from disk if not in memory, or null.
+     */
+    public synchronized Entry get(String key, tkjcloudVersion serverVersion) {
+        Entry entry = mEntries.get(key);
+        if (entry == null) {
+            entry = readFromDisk(key);
+            if (entry != null) {
+                mEntries.put(key, entry);
+            }
+        }
+        if (entry != null && serverVersion != null && serverVersion.isVersionValid() &&
+            !isSameVersion(entry.getCapability(), serverVersion)) {
+            Log_OC.d(TAG, "Server updated to " + serverVersion + ", dropping cached capabilities");
+            invalidate(key);
+            entry = null;
+        }
+        return entry;
+    }
+
+    /**
+     * @return  'True' if the entry can be used without revalidating it.
+     */
+    public synchronized boolean isFresh(Entry entry) {
+        long age = System.currentTimeMillis() - entry.getTimestamp();
+        return age >= 0 && age < mTtl;
+    }
+
+    /**
+     * Caches a successful response of a server.
+     *
+     * @param response      Body of the response.
+     * @param etag          eTag of the response, or null.
+     * @param capability    Capabilities parsed from the response.
+     */
+    public void put(String key, String response, String etag, OCCapability capability) {
+        put(key, new Entry(response, etag, System.currentTimeMillis(), capability));
+    }
+
+    synchronized void put(String key, Entry entry) {
+        mEntries.put(key, entry);
+        writeToDisk(key, entry);
+    }
+
+    public synchronized void invalidate(String key) {
+        mEntries.remove(key);
+        new File(mFolder, getFileName(key)).delete();
+    }
+
+
+    /**
+     * Compares the major, minor and micro numbers; the capabilities do not tell more.
+     */
+    private static boolean isSameVersion(OCCapability capability, tkjcloudVersion version) {
+        String[] parts = version.getVersion().split("\\.");
+        try {
+            return parts.length >= 3 &&
+                Integer.parseInt(parts[0]) == capability.getVersionMayor() &&
+                Integer.parseInt(parts[1]) == capability.getVersionMinor() &&
+                Integer.parseInt(parts[2]) == capability.getVersionMicro();
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private Entry readFromDisk(String key) {
+        File file = new File(mFolder, getFileName(key));
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            DataInputStream dis = new DataInputStream(new FileInputStream(file));
+            try {
+                if (!key.equals(dis.readUTF())) {
+                    return null;    // collision of names
+                }
+                String etag = dis.readUTF();
+                long timestamp = dis.readLong();
+                byte[] response = new byte[dis.readInt()];
+                dis.readFully(response);
+                String responseString = new String(response, "UTF-8");
+                return new Entry(responseString, etag, timestamp,
+                    GetRemoteCapabilitiesOperation.parseResponse(responseString));
+            } finally {
+                dis.close();
+            }
+        } catch (IOException e) {
+            Log_OC.w(TAG, "Could not read cached capabilities " + file + ": " + e.getMessage());
+        } catch (JSONException e) {
+            Log_OC.w(TAG, "Wrong cached capabilities " + file + ": " + e.getMessage());
+        }
+        file.delete();
+        return null;
+    }
+
+    private void writeToDisk(final String key, final Entry entry) {
+        try {
+            FileUtils.writeAtomically(new File(mFolder, getFileName(key)),
+                new FileUtils.ContentWriter() {
+                    @Override
+                    public void write(OutputStream out) throws IOException {
+                        DataOutputStream dos = new DataOutputStream(out);
+                        byte[] response = entry.mResponse.getBytes("UTF-8");
+                        dos.writeUTF(key);
+                        dos.writeUTF(entry.getEtag());
+                        dos.writeLong(entry.getTimestamp());
+                        dos.writeInt(response.length);
+                        dos.write(response);
+                        dos.flush();
+                    }
+                });
+        } catch (IOException e) {
+            Log_OC.w(TAG, "Could not store capabilities of " + key + ": " + e.getMessage());
+        }
+    }
+
+    private static String getFileName(String key) {
+        return FileUtils.getHashedName(key);
+    }
+
+}
@@ -28,13 +28,16 @@ package com.tkjcloud.android.lib.resources.status;
 import android.net.Uri;
 
 import com.tkjcloud.android.lib.common.tkjcloudClient;
+import com.tkjcloud.android.lib.common.network.ConditionalGetMethod;
+import com.tkjcloud.android.lib.common.network.WebdavUtils;
 import com.tkjcloud.android.lib.common.operations.RemoteOperation;
 import com.tkjcloud.android.lib.common.operations.RemoteOperationResult;
+import com.tkjcloud.android.lib.common.operations.RemoteOperationResult.ResultCode;
 import com.tkjcloud.android.lib.common.utils.Log_OC;
 
 import org.apache.commons.httpclient.HttpStatus;
-import org.apache.commons.httpclient.methods.GetMethod;
 import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.util.ArrayList;
@@ -43,6 +46,9 @@ import java.util.ArrayList;
  * Get the Capabilities from the server
  *
  * Save in Result.getData in a OCCapability object
+ *
+ * With a {@link CapabilitiesCache}, capabilities received before are used with no request
+ * while fresh, and revalidated with their eTag after that.
  */
 public class GetRemoteCapabilitiesOperation extends RemoteOperation {
 
@@ -128,6 +134,14 @@ public class GetRemoteCapabilitiesOperation extends RemoteOperation {
     private static final String NODE_EXTERNAL_LINKS_V1 = "v1";
     private static final String NODE_EXTERNAL_LINKS_SITES = "sites";
 
+    // dav
+    private static final String NODE_DAV = "dav";
+    private static final String PROPERTY_BULKUPLOAD = "bulkupload";
+
+    private CapabilitiesCache mCache = null;
+    private tkjcloudVersion mServerVersion = null;
+    private boolean mForceRefresh = false;
+
     /**
      * Constructor
      *
@@ -136,11 +150,42 @@ public class GetRemoteCapabilitiesOperation extends RemoteOperation {
 
     }
 
+    /**
+     * Sets the cache of capabilities.
+     *
+     * @param cache             Cache shared by the operations of the app.
+     * @param serverVersion     Current version of the server, if known, as returned by
+     *                          {@link GetRemoteStatusOperation}; cached capabilities of other
+     *                          versions are not used. Null to trust the cache.
+     */
+    public void setCache(CapabilitiesCache cache, tkjcloudVersion serverVersion) {
+        mCache = cache;
+        mServerVersion = serverVersion;
+    }
+
+    /**
+     * Makes the operation revalidate cached capabilities even if they are fresh.
+     */
+    public void setForceRefresh(boolean forceRefresh) {
+        mForceRefresh = forceRefresh;
+    }
+
     @Override
     protected RemoteOperationResult run(tkjcloudClient client) {
         RemoteOperationResult result = null;
         int status;
-        GetMethod get = null;
+        ConditionalGetMethod get = null;
+        String cacheKey = null;
+        CapabilitiesCache.Entry cached = null;
+
+        if (mCache != null) {
+            cacheKey = CapabilitiesCache.getKey(client);
+            cached = mCache.get(cacheKey, mServerVersion);
+            if (cached != null && !mForceRefresh && mCache.isFresh(cached)) {
+                return createResult(new RemoteOperationResult(ResultCode.OK),
+                    cached.getCapability());
+            }
+        }
 
         try {
             Uri requestUri = client.getBaseUri();
@@ -149,14 +194,21 @@ public class GetRemoteCapabilitiesOperation extends RemoteOperation {
             uriBuilder.appendQueryParameter(PARAM_FORMAT, VALUE_FORMAT);
 
             // Get Method
-            get = new GetMethod(uriBuilder.build().toString());
+            get = new ConditionalGetMethod(uriBuilder.build().toString(),
+                (cached != null) ? cached.getEtag() : null);
             get.addRequestHeader(OCS_API_HEADER, OCS_API_HEADER_VALUE);
 
             status = client.executeMethod(get);
 
-            if(isSuccess(status)) {
+            if (get.isNotModified() && cached != null) {
+                mCache.put(cacheKey, cached.revalidated());
+                result = createResult(new RemoteOperationResult(ResultCode.OK),
+                    cached.getCapability());
+                Log_OC.d(TAG, "*** Cached capabilities still valid ");
+
+            } else if(isSuccess(status)) {
                 String response = get.getResponseBodyAsString();
-                Log_OC.d(TAG, "Successful response: " + response);
+                Log_OC.d(TAG, "Successful response, length: " + response.length());
 
                 // Parse the response
                 JSONObject respJSON = new JSONObject(response);
@@ -170,174 +222,13 @@ public class GetRemoteCapabilitiesOperation extends RemoteOperation {
                 String message = respMeta.getString(PROPERTY_MESSAGE);
 
                 if (statusProp) {
-                    ArrayList<Object> data = new ArrayList<Object>(); // For result data
-                    OCCapability capability = new OCCapability();
-                    // Add Version
-                    if (respData.has(NODE_VERSION)) {
-                        JSONObject respVersion = respData.getJSONObject(NODE_VERSION);
-                        capability.setVersionMayor(respVersion.getInt(PROPERTY_MAJOR));
-                        capability.setVersionMinor(respVersion.getInt(PROPERTY_MINOR));
-                        capability.setVersionMicro(respVersion.getInt(PROPERTY_MICRO));
-                        capability.setVersionString(respVersion.getString(PROPERTY_STRING));
-                        capability.setVersionEdition(respVersion.getString(PROPERTY_EDITION));
-                        Log_OC.d(TAG, "*** Added " + NODE_VERSION);
-                    }
-
-                    // Capabilities Object
-                    if (respData.has(NODE_CAPABILITIES)) {
-                        JSONObject respCapabilities = respData.getJSONObject(NODE_CAPABILITIES);
-
-                        // Add Core: pollinterval
-                        if (respCapabilities.has(NODE_CORE)) {
-                            JSONObject respCore = respCapabilities.getJSONObject(NODE_CORE);
-                            capability.setCorePollinterval(respCore.getInt(PROPERTY_POLLINTERVAL));
-                            Log_OC.d(TAG, "*** Added " + NODE_CORE);
-                        }
-
-                        // Add files_sharing: public, user, resharing
-                        if (respCapabilities.has(NODE_FILES_SHARING)) {
-                            JSONObject respFilesSharing = respCapabilities.getJSONObject(NODE_FILES_SHARING);
-                            if (respFilesSharing.has(PROPERTY_API_ENABLED)) {
-                                capability.setFilesSharingApiEnabled(CapabilityBooleanType.fromBooleanValue(
-                                        respFilesSharing.getBoolean(PROPERTY_API_ENABLED)));
-                            }
-
-                            if (respFilesSharing.has(NODE_PUBLIC)) {
-                                JSONObject respPublic = respFilesSharing.getJSONObject(NODE_PUBLIC);
-                                capability.setFilesSharingPublicEnabled(CapabilityBooleanType.fromBooleanValue(
-                                        respPublic.getBoolean(PROPERTY_ENABLED)));
-                                if(respPublic.has(NODE_PASSWORD)) {
-                                    capability.setFilesSharingPublicPasswordEnforced(
-                                            CapabilityBooleanType.fromBooleanValue(
-                                                    respPublic.getJSONObject(NODE_PASSWORD).getBoolean(PROPERTY_ENFORCED)));
-                                }
-                                if(respPublic.has(NODE_FILES_DROP)) {
-                                    capability.setFilesFileDrop(
-                                            CapabilityBooleanType.fromBooleanValue(
-                                                    respPublic.getBoolean(NODE_FILES_DROP))
-                                    );
-                                }
-                                if(respPublic.has(NODE_EXPIRE_DATE)){
-                                    JSONObject respExpireDate = respPublic.getJSONObject(NODE_EXPIRE_DATE);
-                                    capability.setFilesSharingPublicExpireDateEnabled(
-                                            CapabilityBooleanType.fromBooleanValue(
-                                                    respExpireDate.getBoolean(PROPERTY_ENABLED)));
-                                    if (respExpireDate.has(PROPERTY_DAYS)) {
-                                        capability.setFilesSharingPublicExpireDateDays(
-                                                respExpireDate.getInt(PROPERTY_DAYS));
-                                    }
-                                    if (respExpireDate.has(PROPERTY_ENFORCED)) {
-                                        capability.setFilesSharingPublicExpireDateEnforced(
-                                                CapabilityBooleanType.fromBooleanValue(
-                                                        respExpireDate.getBoolean(PROPERTY_ENFORCED)));
-                                    }
-                                }
-                                if (respPublic.has(PROPERTY_UPLOAD)){
-                                    capability.setFilesSharingPublicUpload(CapabilityBooleanType.fromBooleanValue(
-                                            respPublic.getBoolean(PROPERTY_UPLOAD)));
-                                }
-                            }
-
-                            if (respFilesSharing.has(NODE_USER)) {
-                                JSONObject respUser = respFilesSharing.getJSONObject(NODE_USER);
-                                capability.setFilesSharingUserSendMail(CapabilityBooleanType.fromBooleanValue(
-                                        respUser.getBoolean(PROPERTY_SEND_MAIL)));
-                            }
-
-                            capability.setFilesSharingResharing(CapabilityBooleanType.fromBooleanValue(
-                                    respFilesSharing.getBoolean(PROPERTY_RESHARING)));
-                            if (respFilesSharing.has(NODE_FEDERATION)) {
-                                JSONObject respFederation = respFilesSharing.getJSONObject(NODE_FEDERATION);
-                                capability.setFilesSharingFederationOutgoing(
-                                        CapabilityBooleanType.fromBooleanValue(respFederation.getBoolean(PROPERTY_OUTGOING)));
-                                capability.setFilesSharingFederationIncoming(CapabilityBooleanType.fromBooleanValue(
-                                        respFederation.getBoolean(PROPERTY_INCOMING)));
-                            }
-                            Log_OC.d(TAG, "*** Added " + NODE_FILES_SHARING);
-                        }
-
-
-                        if (respCapabilities.has(NODE_FILES)) {
-                            JSONObject respFiles = respCapabilities.getJSONObject(NODE_FILES);
-                            // Add files
-                            capability.setFilesBigFileChuncking(CapabilityBooleanType.fromBooleanValue(
-                                    respFiles.getBoolean(PROPERTY_BIGFILECHUNKING)));
-                            if (respFiles.has(PROPERTY_UNDELETE)) {
-                                capability.setFilesUndelete(CapabilityBooleanType.fromBooleanValue(
-                                        respFiles.getBoolean(PROPERTY_UNDELETE)));
-                            }
-
-                            if (respFiles.has(PROPERTY_VERSIONING)) {
-                                capability.setFilesVersioning(CapabilityBooleanType.fromBooleanValue(
-                                        respFiles.getBoolean(PROPERTY_VERSIONING)));
-                            }
-
-                            Log_OC.d(TAG, "*** Added " + NODE_FILES);
-                        }
-
-                        if (respCapabilities.has(NODE_THEMING)) {
-                            JSONObject respTheming = respCapabilities.getJSONObject(NODE_THEMING);
-                            // Add theming
-                            capability.setServerName(respTheming.getString(PROPERTY_SERVERNAME));
-                            capability.setServerSlogan(respTheming.getString(PROPERTY_SERVERSLOGAN));
-                            capability.setServerColor(respTheming.getString(PROPERTY_SERVERCOLOR));
-                            if (respTheming.has(PROPERTY_SERVERLOGO) &&
-                                    respTheming.getString(PROPERTY_SERVERLOGO) != null) {
-                                capability.setServerLogo(respTheming.getString(PROPERTY_SERVERLOGO));
-                            }
-                            if (respTheming.has(PROPERTY_SERVERBACKGROUND) &&
-                                    respTheming.getString(PROPERTY_SERVERBACKGROUND) != null) {
-                                capability.setServerBackground(respTheming.getString(PROPERTY_SERVERBACKGROUND));
-                            }
-                            if (respTheming.has(PROPERTY_SERVERTEXTCOLOR) && 
-                                    respTheming.getString(PROPERTY_SERVERTEXTCOLOR) != null) {
-                                capability.setServerTextColor(respTheming.getString(PROPERTY_SERVERTEXTCOLOR));
-                            }
-                            if (respTheming.has(PROPERTY_SERVERELEMENTCOLOR) && 
-                                    respTheming.getString(PROPERTY_SERVERELEMENTCOLOR) != null) {
-                                capability.setServerElementColor(respTheming.getString(PROPERTY_SERVERELEMENTCOLOR));
-                            }
-                            Log_OC.d(TAG, "*** Added " + NODE_THEMING);
-                        }
-
-                        if (respCapabilities.has(NODE_NOTIFICATIONS)) {
-                            JSONObject respNotifications = respCapabilities.getJSONObject(NODE_NOTIFICATIONS);
-                            JSONArray respNotificationSupportArray = respNotifications.getJSONArray(
-                                    PROPERTY_OCSENDPOINT);
-                            for (int i = 0; i < respNotificationSupportArray.length(); i++) {
-                                String propertyString = respNotificationSupportArray.getString(i);
-                                if (PROPERTY_RICH_STRINGS.equals(propertyString)
-                                        || PROPERTY_ICONS.equals((propertyString))) {
-                                    capability.setSupportsNotificationsV2(CapabilityBooleanType.TRUE);
-                                    break;
-                                }
-                            }
-                            if (capability.getSupportsNotificationsV2() != CapabilityBooleanType.TRUE) {
-                                capability.setSupportsNotificationsV1(CapabilityBooleanType.TRUE);
-                            }
-                        }
-
-                        if (respCapabilities.has(NODE_EXTERNAL_LINKS)) {
-                            JSONObject respExternalLinks = respCapabilities.getJSONObject(NODE_EXTERNAL_LINKS);
-
-                            if (respExternalLinks.has(NODE_EXTERNAL_LINKS_V1)) {
-                                JSONArray respExternalLinksV1 = respExternalLinks.getJSONArray(NODE_EXTERNAL_LINKS_V1);
-
-                                String element = (String) respExternalLinksV1.get(0);
-
-                                if (element.equalsIgnoreCase(NODE_EXTERNAL_LINKS_SITES)) {
-                                    capability.setExternalLinks(CapabilityBooleanType.TRUE);
-                                } else {
-                                    capability.setExternalLinks(CapabilityBooleanType.FALSE);
-                                }
-                            }
-                        }
-
+                    OCCapability capability = parseCapability(respData);
+                    if (mCache != null) {
+                        mCache.put(cacheKey, response, WebdavUtils.getEtagFromResponse(get),
+                            capability);
                     }
                     // Result
-                    data.add(capability);
-                    result = new RemoteOperationResult(true, get);
-                    result.setData(data);
+                    result = createResult(new RemoteOperationResult(true, get), capability);
 
                     Log_OC.d(TAG, "*** Get Capabilities completed ");
                 } else {
@@ -369,6 +260,197 @@ public class GetRemoteCapabilitiesOperation extends RemoteOperation {
         return result;
     }
 
+    private RemoteOperationResult createResult(RemoteOperationResult result,
+                                               OCCapability capability) {
+        ArrayList<Object> data = new ArrayList<Object>(); // For result data
+        data.add(capability);
+        result.setData(data);
+        return result;
+    }
+
+    /**
+     * Parses the body of a successful response to the capabilities request.
+     */
+    static OCCapability parseResponse(String response) throws JSONException {
+        JSONObject respOCS = new JSONObject(response).getJSONObject(NODE_OCS);
+        return parseCapability(respOCS.getJSONObject(NODE_DATA));
+    }
+
+    private static OCCapability parseCapability(JSONObject respData) throws JSONException {
+        OCCapability capability = new OCCapability();
+        // Add Version
+        if (respData.has(NODE_VERSION)) {
+            JSONObject respVersion = respData.getJSONObject(NODE_VERSION);
+            capability.setVersionMayor(respVersion.getInt(PROPERTY_MAJOR));
+            capability.setVersionMinor(respVersion.getInt(PROPERTY_MINOR));
+            capability.setVersionMicro(respVersion.getInt(PROPERTY_MICRO));
+            capability.setVersionString(respVersion.getString(PROPERTY_STRING));
+            capability.setVersionEdition(respVersion.getString(PROPERTY_EDITION));
+            Log_OC.d(TAG, "*** Added " + NODE_VERSION);
+        }
+
+        // Capabilities Object
+        if (respData.has(NODE_CAPABILITIES)) {
+            JSONObject respCapabilities = respData.getJSONObject(NODE_CAPABILITIES);
+
+            // Add Core: pollinterval
+            if (respCapabilities.has(NODE_CORE)) {
+                JSONObject respCore = respCapabilities.getJSONObject(NODE_CORE);
+                capability.setCorePollinterval(respCore.getInt(PROPERTY_POLLINTERVAL));
+                Log_OC.d(TAG, "*** Added " + NODE_CORE);
+            }
+
+            // Add files_sharing: public, user, resharing
+            if (respCapabilities.has(NODE_FILES_SHARING)) {
+                JSONObject respFilesSharing = respCapabilities.getJSONObject(NODE_FILES_SHARING);
+                if (respFilesSharing.has(PROPERTY_API_ENABLED)) {
+                    capability.setFilesSharingApiEnabled(CapabilityBooleanType.fromBooleanValue(
+                            respFilesSharing.getBoolean(PROPERTY_API_ENABLED)));
+                }
+
+                if (respFilesSharing.has(NODE_PUBLIC)) {
+                    JSONObject respPublic = respFilesSharing.getJSONObject(NODE_PUBLIC);
+                    capability.setFilesSharingPublicEnabled(CapabilityBooleanType.fromBooleanValue(
+                            respPublic.getBoolean(PROPERTY_ENABLED)));
+                    if(respPublic.has(NODE_PASSWORD)) {
+                        capability.setFilesSharingPublicPasswordEnforced(
+                                CapabilityBooleanType.fromBooleanValue(
+                                        respPublic.getJSONObject(NODE_PASSWORD).getBoolean(PROPERTY_ENFORCED)));
+                    }
+                    if(respPublic.has(NODE_FILES_DROP)) {
+                        capability.setFilesFileDrop(
+                                CapabilityBooleanType.fromBooleanValue(
+                                        respPublic.getBoolean(NODE_FILES_DROP))
+                        );
+                    }
+                    if(respPublic.has(NODE_EXPIRE_DATE)){
+                        JSONObject respExpireDate = respPublic.getJSONObject(NODE_EXPIRE_DATE);
+                        capability.setFilesSharingPublicExpireDateEnabled(
+                                CapabilityBooleanType.fromBooleanValue(
+                                        respExpireDate.getBoolean(PROPERTY_ENABLED)));
+                        if (respExpireDate.has(PROPERTY_DAYS)) {
+                            capability.setFilesSharingPublicExpireDateDays(
+                                    respExpireDate.getInt(PROPERTY_DAYS));
+                        }
+                        if (respExpireDate.has(PROPERTY_ENFORCED)) {
+                            capability.setFilesSharingPublicExpireDateEnforced(
+                                    CapabilityBooleanType.fromBooleanValue(
+                                            respExpireDate.getBoolean(PROPERTY_ENFORCED)));
+                        }
+                    }
+                    if (respPublic.has(PROPERTY_UPLOAD)){
+                        capability.setFilesSharingPublicUpload(CapabilityBooleanType.fromBooleanValue(
+                                respPublic.getBoolean(PROPERTY_UPLOAD)));
+                    }
+                }
+
+                if (respFilesSharing.has(NODE_USER)) {
+                    JSONObject respUser = respFilesSharing.getJSONObject(NODE_USER);
+                    capability.setFilesSharingUserSendMail(CapabilityBooleanType.fromBooleanValue(
+                            respUser.getBoolean(PROPERTY_SEND_MAIL)));
+                }
+
+                capability.setFilesSharingResharing(CapabilityBooleanType.fromBooleanValue(
+                        respFilesSharing.getBoolean(PROPERTY_RESHARING)));
+                if (respFilesSharing.has(NODE_FEDERATION)) {
+                    JSONObject respFederation = respFilesSharing.getJSONObject(NODE_FEDERATION);
+                    capability.setFilesSharingFederationOutgoing(
+                            CapabilityBooleanType.fromBooleanValue(respFederation.getBoolean(PROPERTY_OUTGOING)));
+                    capability.setFilesSharingFederationIncoming(CapabilityBooleanType.fromBooleanValue(
+                            respFederation.getBoolean(PROPERTY_INCOMING)));
+                }
+                Log_OC.d(TAG, "*** Added " + NODE_FILES_SHARING);
+            }
+
+
+            if (respCapabilities.has(NODE_FILES)) {
+                JSONObject respFiles = respCapabilities.getJSONObject(NODE_FILES);
+                // Add files
+                capability.setFilesBigFileChuncking(CapabilityBooleanType.fromBooleanValue(
+                        respFiles.getBoolean(PROPERTY_BIGFILECHUNKING)));
+                if (respFiles.has(PROPERTY_UNDELETE)) {
+                    capability.setFilesUndelete(CapabilityBooleanType.fromBooleanValue(
+                            respFiles.getBoolean(PROPERTY_UNDELETE)));
+                }
+
+                if (respFiles.has(PROPERTY_VERSIONING)) {
+                    capability.setFilesVersioning(CapabilityBooleanType.fromBooleanValue(
+                            respFiles.getBoolean(PROPERTY_VERSIONING)));
+                }
+
+                Log_OC.d(TAG, "*** Added " + NODE_FILES);
+            }
+
+            if (respCapabilities.has(NODE_THEMING)) {
+                JSONObject respTheming = respCapabilities.getJSONObject(NODE_THEMING);
+                // Add theming
+                capability.setServerName(respTheming.getString(PROPERTY_SERVERNAME));
+                capability.setServerSlogan(respTheming.getString(PROPERTY_SERVERSLOGAN));
+                capability.setServerColor(respTheming.getString(PROPERTY_SERVERCOLOR));
+                if (respTheming.has(PROPERTY_SERVERLOGO) &&
+                        respTheming.getString(PROPERTY_SERVERLOGO) != null) {
+                    capability.setServerLogo(respTheming.getString(PROPERTY_SERVERLOGO));
+                }
+                if (respTheming.has(PROPERTY_SERVERBACKGROUND) &&
+                        respTheming.getString(PROPERTY_SERVERBACKGROUND) != null) {
+                    capability.setServerBackground(respTheming.getString(PROPERTY_SERVERBACKGROUND));
+                }
+                if (respTheming.has(PROPERTY_SERVERTEXTCOLOR) && 
+                        respTheming.getString(PROPERTY_SERVERTEXTCOLOR) != null) {
+                    capability.setServerTextColor(respTheming.getString(PROPERTY_SERVERTEXTCOLOR));
+                }
+                if (respTheming.has(PROPERTY_SERVERELEMENTCOLOR) && 
+                        respTheming.getString(PROPERTY_SERVERELEMENTCOLOR) != null) {
+                    capability.setServerElementColor(respTheming.getString(PROPERTY_SERVERELEMENTCOLOR));
+                }
+                Log_OC.d(TAG, "*** Added " + NODE_THEMING);
+            }
+
+            if (respCapabilities.has(NODE_NOTIFICATIONS)) {
+                JSONObject respNotifications = respCapabilities.getJSONObject(NODE_NOTIFICATIONS);
+                JSONArray respNotificationSupportArray = respNotifications.getJSONArray(
+                        PROPERTY_OCSENDPOINT);
+                for (int i = 0; i < respNotificationSupportArray.length(); i++) {
+                    String propertyString = respNotificationSupportArray.getString(i);
+                    if (PROPERTY_RICH_STRINGS.equals(propertyString)
+                            || PROPERTY_ICONS.equals((propertyString))) {
+                        capability.setSupportsNotificationsV2(CapabilityBooleanType.TRUE);
+                        break;
+                    }
+                }
+                if (capability.getSupportsNotificationsV2() != CapabilityBooleanType.TRUE) {
+                    capability.setSupportsNotificationsV1(CapabilityBooleanType.TRUE);
+                }
+            }
+
+            if (respCapabilities.has(NODE_EXTERNAL_LINKS)) {
+                JSONObject respExternalLinks = respCapabilities.getJSONObject(NODE_EXTERNAL_LINKS);
+
+                if (respExternalLinks.has(NODE_EXTERNAL_LINKS_V1)) {
+                    JSONArray respExternalLinksV1 = respExternalLinks.getJSONArray(NODE_EXTERNAL_LINKS_V1);
+
+                    String element = (String) respExternalLinksV1.get(0);
+
+                    if (element.equalsIgnoreCase(NODE_EXTERNAL_LINKS_SITES)) {
+                        capability.setExternalLinks(CapabilityBooleanType.TRUE);
+                    } else {
+                        capability.setExternalLinks(CapabilityBooleanType.FALSE);
+                    }
+                }
+            }
+
+            if (respCapabilities.has(NODE_DAV)) {
+                JSONObject respDav = respCapabilities.getJSONObject(NODE_DAV);
+                // bulk upload is announced with its version, as "1.0"
+                capability.setBulkUpload(CapabilityBooleanType.fromBooleanValue(
+                        respDav.optString(PROPERTY_BULKUPLOAD).length() > 0));
+                Log_OC.d(TAG, "*** Added " + NODE_DAV);
+            }
+
+        }
+        return capability;
+    }
+
     private boolean isSuccess(int status) {
         return (status == HttpStatus.SC_OK);
     }
@@ -80,6 +80,9 @@ public class OCCapability {
 
     private CapabilityBooleanType mExternalLinks;
 
+    // Dav
+    private CapabilityBooleanType mBulkUpload;
+
     public OCCapability(){
         mId = 0;
         mAccountName = "";
@@ -121,6 +124,8 @@ public class OCCapability {
         mSupportsNotificationsV2 = CapabilityBooleanType.UNKNOWN;
 
         mExternalLinks = CapabilityBooleanType.UNKNOWN;
+
+        mBulkUpload = CapabilityBooleanType.UNKNOWN;
     }
 
 
@@ -402,4 +407,12 @@ public class OCCapability {
         this.mExternalLinks = mExternalLinks;
     }
 
+    public CapabilityBooleanType getBulkUpload() {
+        return mBulkUpload;
+    }
+
+    public void setBulkUpload(CapabilityBooleanType bulkUpload) {
+        this.mBulkUpload = bulkUpload;
+    }
+
 }
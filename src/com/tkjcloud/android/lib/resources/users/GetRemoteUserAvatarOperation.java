@@ -24,27 +24,42 @@
  *
  */
 
+
 package com.tkjcloud.android.lib.resources.users;
 
+import android.net.Uri;
+
 import com.tkjcloud.android.lib.common.tkjcloudClient;
+import com.tkjcloud.android.lib.common.network.ConditionalGetMethod;
 import com.tkjcloud.android.lib.common.network.WebdavUtils;
 import com.tkjcloud.android.lib.common.operations.RemoteOperation;
 import com.tkjcloud.android.lib.common.operations.RemoteOperationResult;
 import com.tkjcloud.android.lib.common.utils.Log_OC;
+import com.tkjcloud.android.lib.resources.files.PreviewCache;
 
 import org.apache.commons.httpclient.Header;
 import org.apache.commons.httpclient.HttpStatus;
-import org.apache.commons.httpclient.methods.GetMethod;
 
 import java.io.BufferedInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.concurrent.Callable;
 
 
 /**
- * Gets avatar about the user logged in, if available
+ * Gets the avatar of a user, by default the one logged in, if available.
+ *
+ * Requests are conditioned to the eTag of the current local copy only when created with
+ * {@link #GetRemoteUserAvatarOperation(String, int, String)}, or when revalidating an avatar of
+ * the cache; the body that some servers wrongly send with '304 Not Modified' is handled by
+ * {@link ConditionalGetMethod}.
+ *
+ * With a {@link PreviewCache}, avatars are kept in memory and on disk, avatars validated in the
+ * last {@link #setMaxAge(long)} milliseconds are returned with no request, and older ones are
+ * revalidated with their eTag. Operations asking for the same avatar at the same time send a
+ * single request.
  */
 public class GetRemoteUserAvatarOperation extends RemoteOperation {
 
@@ -52,6 +67,11 @@ public class GetRemoteUserAvatarOperation extends RemoteOperation {
 
     private static final String NON_OFFICIAL_AVATAR_PATH = "/index.php/avatar/";
 
+    public static final long DEFAULT_MAX_AGE = 60 * 60 * 1000;
+
+    /** User whose avatar is requested; null for the one logged in */
+    private String mUserId;
+
     /** Desired size in pixels of the squared image */
     private int mDimension;
 
@@ -59,42 +79,109 @@ public class GetRemoteUserAvatarOperation extends RemoteOperation {
      * Etag of current local copy of the avatar; if not null, remote avatar will be downloaded only
      * if its Etag changed.
      */
-    //private String mCurrentEtag;
+    private String mCurrentEtag;
+
+    /** Set when the caller accepts a result with no avatar data if mCurrentEtag is still valid */
+    private boolean mConditional;
 
+    private PreviewCache mCache = null;
+    private long mMaxAge = DEFAULT_MAX_AGE;
+
+    /**
+     * Gets the avatar of the user logged in; the result always includes the avatar data.
+     *
+     * @param dimension     Desired size in pixels of the squared image.
+     * @param currentEtag   Not used; kept for compatibility.
+     */
     public GetRemoteUserAvatarOperation(int dimension, String currentEtag) {
+        this(null, dimension, currentEtag);
+        mConditional = false;
+    }
+
+    /**
+     * @param userId        User whose avatar is requested; null for the one logged in.
+     * @param dimension     Desired size in pixels of the squared image.
+     * @param currentEtag   eTag of the current local copy of the avatar, or null. When the
+     *                      copy is still valid, the result is successful with no avatar data.
+     */
+    public GetRemoteUserAvatarOperation(String userId, int dimension, String currentEtag) {
+        mUserId = userId;
         mDimension = dimension;
-        //mCurrentEtag = currentEtag;
+        mCurrentEtag = currentEtag;
+        mConditional = (currentEtag != null && currentEtag.length() > 0);
     }
 
-    @Override
-    protected RemoteOperationResult run(tkjcloudClient client) {
-        RemoteOperationResult result = null;
-        GetMethod get = null;
-        InputStream inputStream = null;
-        BufferedInputStream bis = null;
-        ByteArrayOutputStream bos = null;
+    /**
+     * Sets the cache of avatars of the account.
+     */
+    public void setCache(PreviewCache cache) {
+        mCache = cache;
+    }
 
-        try {
-            String uri = getAvatarUri(client, mDimension);
+    /**
+     * Sets how long a cached avatar is used with no revalidation.
+     *
+     * @param maxAge    Time in milliseconds; 0 revalidates always.
+     */
+    public void setMaxAge(long maxAge) {
+        mMaxAge = maxAge;
+    }
 
-            Log_OC.d(TAG, "avatar URI: " + uri);
-            get = new GetMethod(uri);
-            /*  Conditioned call is corrupting the input stream of the connection.
-                Seems that response with 304 is also including the avatar in the response body,
-                though it's forbidden by HTTPS specification. Besides, HTTPClient library
-                assumes there is nothing in the response body, but the bytes are read
-                by the next request, resulting in an exception due to a corrupt status line
+    @Override
+    protected RemoteOperationResult run(final tkjcloudClient client) {
+        final String userId = (mUserId != null) ? mUserId : client.getCredentials().getUsername();
+        try {
+            if (mCache == null) {
+                return fetch(client, userId, null);
+            }
+            final PreviewCache.Preview cached = mCache.get(getCacheKey(userId));
+            if (cached != null && System.currentTimeMillis() - cached.getTimestamp() < mMaxAge) {
+                RemoteOperationResult result =
+                    new RemoteOperationResult(RemoteOperationResult.ResultCode.OK);
+                return createResult(result, cached.getData(), cached.getMimeType(),
+                    cached.getEtag());
+            }
+            return mCache.fetchOnce(getCacheKey(userId), new Callable<RemoteOperationResult>() {
+                @Override
+                public RemoteOperationResult call() throws Exception {
+                    return fetch(client, userId, cached);
+                }
+            });
 
-                Maybe when we have a real API we can enable this again.
+        } catch (Exception e) {
+            Log_OC.e(TAG, "Exception while getting OC user avatar", e);
+            return new RemoteOperationResult(e);
+        }
+    }
 
-            if (mCurrentEtag != null && mCurrentEtag.length() > 0) {
-                get.addRequestHeader(IF_NONE_MATCH_HEADER, "\"" + mCurrentEtag + "\"");
-            }
-            */
+    private RemoteOperationResult fetch(tkjcloudClient client, String userId,
+                                        PreviewCache.Preview cached) throws IOException {
+        RemoteOperationResult result;
+        String uri = getAvatarUri(client, userId, mDimension);
+        Log_OC.d(TAG, "avatar URI: " + uri);
+        String conditionEtag = null;
+        if (cached != null) {
+            conditionEtag = cached.getEtag();
+        } else if (mConditional) {
+            conditionEtag = mCurrentEtag;
+        }
+        ConditionalGetMethod get = new ConditionalGetMethod(uri, conditionEtag);
+        InputStream inputStream = null;
 
-            //get.addRequestHeader(OCS_API_HEADER, OCS_API_HEADER_VALUE);
+        try {
             int status = client.executeMethod(get);
-            if (isSuccess(status)) {
+            if (get.isNotModified()) {
+                result = new RemoteOperationResult(RemoteOperationResult.ResultCode.OK);
+                if (cached != null) {
+                    mCache.put(getCacheKey(userId), new PreviewCache.Preview(cached.getData(),
+                        cached.getMimeType(), cached.getEtag(), null));
+                    result = createResult(result, cached.getData(), cached.getMimeType(),
+                        cached.getEtag());
+                } else {
+                    result = createResult(result, null, null, mCurrentEtag);
+                }
+
+            } else if (isSuccess(status)) {
 
                 // find out size of file to read
                 int totalToTransfer = 0;
@@ -108,73 +195,53 @@ public class GetRemoteUserAvatarOperation extends RemoteOperation {
                 Header contentType = get.getResponseHeader("Content-Type");
                 if (contentType == null || !contentType.getValue().startsWith("image")) {
                     Log_OC.e(TAG, "Not an image, failing with no avatar");
-                    result = new RemoteOperationResult(RemoteOperationResult.ResultCode.FILE_NOT_FOUND);
-                    return result;
+                    client.exhaustResponse(get.getResponseBodyAsStream());
+                    return new RemoteOperationResult(RemoteOperationResult.ResultCode.FILE_NOT_FOUND);
                 }
                 mimeType = contentType.getValue();
 
                 // download will be performed to a buffer
                 inputStream = get.getResponseBodyAsStream();
-                bis = new BufferedInputStream(inputStream);
-                bos = new ByteArrayOutputStream(totalToTransfer);
-
-                long transferred = 0;
+                BufferedInputStream bis = new BufferedInputStream(inputStream);
+                ByteArrayOutputStream bos = new ByteArrayOutputStream(totalToTransfer);
                 byte[] bytes = new byte[4096];
-                int readResult = 0;
+                int readResult;
                 while ((readResult = bis.read(bytes)) != -1) {
                     bos.write(bytes, 0, readResult);
-                    transferred += readResult;
                 }
-                // TODO check total bytes transferred?
+
+                // find out etag
+                String etag = WebdavUtils.getEtagFromResponse(get);
+                if (etag.length() == 0) {
+                    Log_OC.w(TAG, "Could not read Etag from avatar");
+                }
+                byte[] avatarData = bos.toByteArray();
+                if (mCache != null) {
+                    mCache.put(getCacheKey(userId),
+                        new PreviewCache.Preview(avatarData, mimeType, etag, null));
+                }
 
                 // Result
-                result = createResult(get, bos.toByteArray(), mimeType);
+                result = createResult(new RemoteOperationResult(true, get), avatarData, mimeType,
+                    etag);
 
             } else {
                 result = new RemoteOperationResult(false, get);
                 client.exhaustResponse(get.getResponseBodyAsStream());
             }
 
-        } catch (Exception e) {
-            result = new RemoteOperationResult(e);
-            Log_OC.e(TAG, "Exception while getting OC user avatar", e);
-
         } finally {
-            if (get != null) {
-                try {
-                    if (inputStream != null) {
-                        client.exhaustResponse(inputStream);
-                        if (bis != null) {
-                            bis.close();
-                        } else {
-                            inputStream.close();
-                        }
-                    }
-                } catch (IOException i) {
-                    Log_OC.e(TAG, "Unexpected exception closing input stream ", i);
-                }
-                try {
-                    if (bos != null) {
-                        bos.close();
-                    }
-                } catch (IOException o) {
-                    Log_OC.e(TAG, "Unexpected exception closing output stream ", o);
-                }
-                get.releaseConnection();
+            if (inputStream != null) {
+                client.exhaustResponse(inputStream);
             }
+            get.releaseConnection();
         }
 
         return result;
     }
 
-    private RemoteOperationResult createResult(GetMethod get, byte[] avatarData, String mimeType) throws IOException {
-        // find out etag
-        String etag = WebdavUtils.getEtagFromResponse(get);
-        if (etag.length() == 0) {
-            Log_OC.w(TAG, "Could not read Etag from avatar");
-        }
-
-        RemoteOperationResult result = new RemoteOperationResult(true, get);
+    private RemoteOperationResult createResult(RemoteOperationResult result, byte[] avatarData,
+                                               String mimeType, String etag) {
         ResultData resultData = new ResultData(avatarData, mimeType, etag);
         ArrayList<Object> data = new ArrayList<>();
         data.add(resultData);
@@ -182,8 +249,13 @@ public class GetRemoteUserAvatarOperation extends RemoteOperation {
         return result;
     }
 
-    private String getAvatarUri(tkjcloudClient client, int dimension) {
-        return client.getBaseUri() + NON_OFFICIAL_AVATAR_PATH + client.getCredentials().getUsername() + "/" + dimension;
+    private String getAvatarUri(tkjcloudClient client, String userId, int dimension) {
+        return client.getBaseUri() + NON_OFFICIAL_AVATAR_PATH + Uri.encode(userId) + "/" +
+            dimension;
+    }
+
+    private String getCacheKey(String userId) {
+        return "avatar:" + userId + ":" + mDimension;
     }
 
     private boolean isSuccess(int status) {
@@ -209,6 +281,10 @@ public class GetRemoteUserAvatarOperation extends RemoteOperation {
             return mMimeType;
         }
 
+        /**
+         * @return  Image of the avatar, or null if the local copy given by its eTag is still
+         *          valid.
+         */
         public byte[] getAvatarData() {
             return mAvatarData;
         }
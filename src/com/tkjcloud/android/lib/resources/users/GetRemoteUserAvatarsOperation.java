@@ -0,0 +1,153 @@
+/* tkjcloud Android Library is available under MIT license
+ *   Copyright (C) 2017 tkjcloud GmbH.
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *   NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *   BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *   ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *   CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *   THE SOFTWARE.
+ *
+ */
+
+package com.tkjcloud.android.lib.resources.users;
+
+import com.tkjcloud.android.lib.common.tkjcloudClient;
+import com.tkjcloud.android.lib.common.operations.OperationCancelledException;
+import com.tkjcloud.android.lib.common.operations.RemoteOperation;
+import com.tkjcloud.android.lib.common.operations.RemoteOperationResult;
+import com.tkjcloud.android.lib.common.operations.RemoteOperationResult.ResultCode;
+import com.tkjcloud.android.lib.resources.files.PreviewCache;
+import com.tkjcloud.android.lib.resources.files.TransferManager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Remote operation getting the avatars of several users, as needed to show a list of shares
+ * or an activity stream.
+ *
+ * Avatars are requested with {@link GetRemoteUserAvatarOperation}, a limited number at the same
+ * time, so that a long list does not flood the server nor use all the connections. With a
+ * {@link PreviewCache}, cached avatars are returned with no request.
+ *
+ * The result is successful unless the operation was interrupted; its data contain one
+ * {@link RemoteOperationResult} per user, in the order given, with a
+ * {@link GetRemoteUserAvatarOperation.ResultData} when the avatar was got.
+ */
+public class GetRemoteUserAvatarsOperation extends RemoteOperation {
+
+    public static final int DEFAULT_PARALLEL_REQUESTS =
+        TransferManager.DEFAULT_MAX_TRANSFERS_PER_SERVER;
+
+    private final List<String> mUserIds;
+    private final int mDimension;
+    private PreviewCache mCache = null;
+    private long mMaxAge = GetRemoteUserAvatarOperation.DEFAULT_MAX_AGE;
+    private int mParallelRequests = DEFAULT_PARALLEL_REQUESTS;
+
+
+    /**
+     * @param userIds       Users whose avatars are requested; repeated ones are requested once.
+     * @param dimension     Desired size in pixels of the squared images.
+     */
+    public GetRemoteUserAvatarsOperation(Collection<String> userIds, int dimension) {
+        mUserIds = new ArrayList<String>(userIds);
+        mDimension = dimension;
+    }
+
+    public GetRemoteUserAvatarsOperation(String[] userIds, int dimension) {
+        this(Arrays.asList(userIds), dimension);
+    }
+
+    /**
+     * Sets the cache of avatars of the account.
+     */
+    public void setCache(PreviewCache cache) {
+        mCache = cache;
+    }
+
+    /**
+     * Sets how long a cached avatar is used with no revalidation.
+     *
+     * @see GetRemoteUserAvatarOperation#setMaxAge(long)
+     */
+    public void setMaxAge(long maxAge) {
+        mMaxAge = maxAge;
+    }
+
+    /**
+     * @param parallelRequests  Maximum number of avatars requested at the same time.
+     */
+    public void setParallelRequests(int parallelRequests) {
+        mParallelRequests = Math.max(parallelRequests, 1);
+    }
+
+    @Override
+    protected RemoteOperationResult run(final tkjcloudClient client) {
+        List<String> distinctUserIds = new ArrayList<String>(new LinkedHashSet<String>(mUserIds));
+        Map<String, Integer> indexes = new HashMap<String, Integer>();
+        for (int i = 0; i < distinctUserIds.size(); i++) {
+            indexes.put(distinctUserIds.get(i), i);
+        }
+        final RemoteOperationResult[] distinctResults =
+            new RemoteOperationResult[distinctUserIds.size()];
+
+        ExecutorService executor = Executors.newFixedThreadPool(
+            Math.min(mParallelRequests, Math.max(distinctUserIds.size(), 1)));
+        try {
+            for (int i = 0; i < distinctUserIds.size(); i++) {
+                final int index = i;
+                final GetRemoteUserAvatarOperation operation =
+                    new GetRemoteUserAvatarOperation(distinctUserIds.get(i), mDimension, null);
+                operation.setCache(mCache);
+                operation.setMaxAge(mMaxAge);
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        distinctResults[index] = operation.execute(client);
+                    }
+                });
+            }
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new RemoteOperationResult(new OperationCancelledException());
+
+        } finally {
+            executor.shutdownNow();
+        }
+
+        ArrayList<Object> data = new ArrayList<Object>();
+        for (String userId : mUserIds) {
+            data.add(distinctResults[indexes.get(userId)]);
+        }
+        RemoteOperationResult result = new RemoteOperationResult(ResultCode.OK);
+        result.setData(data);
+        return result;
+    }
+
+}
@@ -27,10 +27,13 @@ package com.tkjcloud.android.lib.resources.users;
 
 import android.text.TextUtils;
 
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import com.tkjcloud.android.lib.common.tkjcloudBasicCredentials;
 import com.tkjcloud.android.lib.common.tkjcloudClient;
 import com.tkjcloud.android.lib.common.Quota;
 import com.tkjcloud.android.lib.common.UserInfo;
+import com.tkjcloud.android.lib.common.operations.OCSResponseDecoder;
 import com.tkjcloud.android.lib.common.operations.RemoteOperation;
 import com.tkjcloud.android.lib.common.operations.RemoteOperationResult;
 import com.tkjcloud.android.lib.common.utils.Log_OC;
@@ -39,9 +42,9 @@ import com.tkjcloud.android.lib.resources.status.tkjcloudVersion;
 import org.apache.commons.httpclient.HttpStatus;
 import org.apache.commons.httpclient.NameValuePair;
 import org.apache.commons.httpclient.methods.GetMethod;
-import org.json.JSONException;
-import org.json.JSONObject;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 
 /**
@@ -60,8 +63,6 @@ public class GetRemoteUserInfoOperation extends RemoteOperation {
     private static final String OCS_ROUTE_SEARCH = "/ocs/v1.php/cloud/users/";
 
     // JSON Node names
-    private static final String NODE_OCS = "ocs";
-    private static final String NODE_DATA = "data";
     private static final String NODE_ID = "id";
     private static final String NODE_DISPLAY_NAME = "display-name";
     private static final String NODE_DISPLAY_NAME_ALT = "displayname";
@@ -136,87 +137,37 @@ public class GetRemoteUserInfoOperation extends RemoteOperation {
             status = client.executeMethod(get);
 
             if (isSuccess(status)) {
-                String response = get.getResponseBodyAsString();
-                Log_OC.d(TAG, "Successful response: " + response);
-
                 // Parse the response
-                JSONObject respJSON = new JSONObject(response);
-                JSONObject respOCS = respJSON.getJSONObject(NODE_OCS);
-                JSONObject respData = respOCS.getJSONObject(NODE_DATA);
-
-                UserInfo userInfo = new UserInfo();
-
-                // we don't really always have the ID
-                if (respData.has(NODE_ID)) {
-                    userInfo.setId(respData.getString(NODE_ID));
-                } else {
-                    if (TextUtils.isEmpty(userID)) {
-                        userInfo.setId(credentials.getUsername());
-                    } else {
-                        userInfo.setId(userID);
+                InputStream body = get.getResponseBodyAsStream();
+                OCSResponseDecoder.Response<UserInfo> response =
+                    OCSResponseDecoder.decode(body, USER_INFO_READER);
+                client.exhaustResponse(body);
+
+                if (response.isSuccess()) {
+                    UserInfo userInfo = response.getData();
+
+                    // we don't really always have the ID
+                    if (userInfo.getId() == null) {
+                        if (TextUtils.isEmpty(userID)) {
+                            userInfo.setId(credentials.getUsername());
+                        } else {
+                            userInfo.setId(userID);
+                        }
                     }
-                }
-
-                // Two endpoints, two different responses
-                if (respData.has(NODE_DISPLAY_NAME)) {
-                    userInfo.setDisplayName(respData.getString(NODE_DISPLAY_NAME));
+                    Log_OC.d(TAG, "Successful response, user: " + userInfo.getId());
+
+                    // Result
+                    result = new RemoteOperationResult(true, get);
+                    // Username in result.data
+                    ArrayList<Object> data = new ArrayList<>();
+                    data.add(userInfo);
+                    result.setData(data);
                 } else {
-                    userInfo.setDisplayName(respData.getString(NODE_DISPLAY_NAME_ALT));
-                }
-
-                if (respData.has(NODE_EMAIL) && !respData.isNull(NODE_EMAIL) &&
-                        !TextUtils.isEmpty(respData.getString(NODE_EMAIL))) {
-                    userInfo.setEmail(respData.getString(NODE_EMAIL));
-                }
-
-                if (respData.has(NODE_QUOTA) && !respData.isNull(NODE_QUOTA)) {
-                    JSONObject quota = respData.getJSONObject(NODE_QUOTA);
-                    final Long quotaFree = quota.getLong(NODE_QUOTA_FREE);
-                    final Long quotaUsed = quota.getLong(NODE_QUOTA_USED);
-                    final Long quotaTotal = quota.getLong(NODE_QUOTA_TOTAL);
-                    final Double quotaRelative = quota.getDouble(NODE_QUOTA_RELATIVE);
-
-                    Long quotaValue;
-                    try {
-                        quotaValue = quota.getLong(NODE_QUOTA);
-                    } catch (JSONException e) {
-                        Log_OC.i(TAG, "Legacy server in use < Nextcloud 9.0.54");
-                        quotaValue = QUOTA_LIMIT_INFO_NOT_AVAILABLE;
-                    }
-
-                    userInfo.setQuota(new Quota(quotaFree, quotaUsed, quotaTotal, quotaRelative, quotaValue));
+                    result = new RemoteOperationResult(false, response.getStatusCode(), null, null);
+                    Log_OC.e(TAG, "Failed response while getting user information ");
+                    Log_OC.e(TAG, "*** status: " + response.getStatus() + "; message: " +
+                        response.getMessage());
                 }
-
-                if (respData.has(NODE_PHONE) && !respData.isNull(NODE_PHONE) &&
-                        !TextUtils.isEmpty(respData.getString(NODE_PHONE))) {
-                    userInfo.setPhone(respData.getString(NODE_PHONE));
-                }
-
-                if (respData.has(NODE_ADDRESS) && !respData.isNull(NODE_ADDRESS) &&
-                        !TextUtils.isEmpty(respData.getString(NODE_ADDRESS))) {
-                    userInfo.setAddress(respData.getString(NODE_ADDRESS));
-                }
-
-                if (respData.has(NODE_WEBPAGE) && !respData.isNull(NODE_WEBPAGE) &&
-                        !TextUtils.isEmpty(respData.getString(NODE_WEBPAGE))) {
-                    userInfo.setWebpage(respData.getString(NODE_WEBPAGE));
-                }
-
-                if (respData.has(NODE_TWITTER) && !respData.isNull(NODE_TWITTER) &&
-                        !TextUtils.isEmpty(respData.getString(NODE_TWITTER))) {
-                    userInfo.setTwitter(respData.getString(NODE_TWITTER));
-                }
-
-                if (respData.has(NODE_ENABLED)) {
-                    userInfo.setEnabled(respData.getBoolean(NODE_ENABLED));
-                }
-
-                // Result
-                result = new RemoteOperationResult(true, get);
-                // Username in result.data
-                ArrayList<Object> data = new ArrayList<>();
-                data.add(userInfo);
-                result.setData(data);
             } else {
                 result = new RemoteOperationResult(false, get);
                 String response = get.getResponseBodyAsString();
@@ -238,6 +189,106 @@ public class GetRemoteUserInfoOperation extends RemoteOperation {
         return result;
     }
 
+    /**
+     * Reads the 'data' node of the response into a {@link UserInfo}; the id is left null when
+     * the endpoint does not include it.
+     */
+    private static final OCSResponseDecoder.DataReader<UserInfo> USER_INFO_READER =
+        new OCSResponseDecoder.DataReader<UserInfo>() {
+
+        @Override
+        public UserInfo read(JsonReader reader) throws IOException {
+            UserInfo userInfo = new UserInfo();
+            String displayNameAlt = null;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (reader.peek() == JsonToken.NULL) {
+                    reader.nextNull();
+
+                } else if (NODE_ID.equals(name)) {
+                    userInfo.setId(OCSResponseDecoder.nextString(reader));
+
+                } else if (NODE_DISPLAY_NAME.equals(name)) {
+                    // Two endpoints, two different responses
+                    userInfo.setDisplayName(OCSResponseDecoder.nextString(reader));
+
+                } else if (NODE_DISPLAY_NAME_ALT.equals(name)) {
+                    displayNameAlt = OCSResponseDecoder.nextString(reader);
+
+                } else if (NODE_EMAIL.equals(name)) {
+                    userInfo.setEmail(nonEmptyString(reader));
+
+                } else if (NODE_QUOTA.equals(name)) {
+                    userInfo.setQuota(readQuota(reader));
+
+                } else if (NODE_PHONE.equals(name)) {
+                    userInfo.setPhone(nonEmptyString(reader));
+
+                } else if (NODE_ADDRESS.equals(name)) {
+                    userInfo.setAddress(nonEmptyString(reader));
+
+                } else if (NODE_WEBPAGE.equals(name)) {
+                    userInfo.setWebpage(nonEmptyString(reader));
+
+                } else if (NODE_TWITTER.equals(name)) {
+                    userInfo.setTwitter(nonEmptyString(reader));
+
+                } else if (NODE_ENABLED.equals(name)) {
+                    userInfo.setEnabled(Boolean.valueOf(OCSResponseDecoder.nextString(reader)));
+
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            if (userInfo.getDisplayName() == null) {
+                userInfo.setDisplayName(displayNameAlt);
+            }
+            return userInfo;
+        }
+
+        private String nonEmptyString(JsonReader reader) throws IOException {
+            String value = OCSResponseDecoder.nextString(reader);
+            return TextUtils.isEmpty(value) ? null : value;
+        }
+
+        private Quota readQuota(JsonReader reader) throws IOException {
+            long quotaFree = 0;
+            long quotaUsed = 0;
+            long quotaTotal = 0;
+            double quotaRelative = 0;
+            long quotaValue = QUOTA_LIMIT_INFO_NOT_AVAILABLE;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (NODE_QUOTA_FREE.equals(name)) {
+                    quotaFree = reader.nextLong();
+                } else if (NODE_QUOTA_USED.equals(name)) {
+                    quotaUsed = reader.nextLong();
+                } else if (NODE_QUOTA_TOTAL.equals(name)) {
+                    quotaTotal = reader.nextLong();
+                } else if (NODE_QUOTA_RELATIVE.equals(name)) {
+                    quotaRelative = reader.nextDouble();
+                } else if (NODE_QUOTA.equals(name)) {
+                    try {
+                        quotaValue = reader.nextLong();
+                    } catch (NumberFormatException e) {
+                        reader.skipValue();
+                    }
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            if (quotaValue == QUOTA_LIMIT_INFO_NOT_AVAILABLE) {
+                Log_OC.i(TAG, "Legacy server in use < Nextcloud 9.0.54");
+            }
+            return new Quota(quotaFree, quotaUsed, quotaTotal, quotaRelative, quotaValue);
+        }
+    };
+
     private boolean isSuccess(int status) {
         return (status == HttpStatus.SC_OK);
     }
@@ -0,0 +1,247 @@
+/* tkjcloud Android Library is available under MIT license
+ *   Copyright (C) 2017 tkjcloud GmbH.
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *   NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *   BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *   ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *   CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *   THE SOFTWARE.
+ *
+ */
+
+package com.owncloud.android.lib.test_project.test;
+
+import com.tkjcloud.android.lib.common.network.ConditionalGetMethod;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.methods.GetMethod;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Test ConditionalGetMethod against a local server answering '304 Not Modified' with a body
+ * that arrives after the headers, as some servers do.
+ */
+public class ConditionalGetMethodTest extends TestCase {
+
+    private static final String ETAG = "5a3f";
+
+    private static final String NOT_MODIFIED_HEAD = "HTTP/1.1 304 Not Modified\r\n" +
+        "ETag: \"" + ETAG + "\"\r\n";
+
+    private static final String OK_RESPONSE = "HTTP/1.1 200 OK\r\n" +
+        "Content-Length: 2\r\n\r\nok";
+
+    private static final int BODY_DELAY = 100;
+    /** Longer than ConditionalGetMethod waits for the body of a 304 */
+    private static final int LATE_BODY_DELAY = 800;
+    private static final int TIMEOUT = 5000;
+
+    private ScriptedServer mServer;
+    private MultiThreadedHttpConnectionManager mConnectionManager;
+    private HttpClient mClient;
+
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mConnectionManager = new MultiThreadedHttpConnectionManager();
+        mConnectionManager.getParams().setSoTimeout(TIMEOUT);
+        mClient = new HttpClient(mConnectionManager);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (mServer != null) {
+            mServer.shutdown();
+        }
+        mConnectionManager.shutdown();
+        super.tearDown();
+    }
+
+    public void testNotModifiedWithChunkedBody() throws Exception {
+        mServer = new ScriptedServer(
+            NOT_MODIFIED_HEAD + "Transfer-Encoding: chunked\r\n\r\n",
+            "5\r\nhello\r\n0\r\n\r\n",
+            BODY_DELAY
+        );
+        assertNotModifiedThenOk();
+    }
+
+    public void testNotModifiedWithContentLengthBody() throws Exception {
+        mServer = new ScriptedServer(
+            NOT_MODIFIED_HEAD + "Content-Length: 5\r\n\r\n",
+            "hello",
+            BODY_DELAY
+        );
+        assertNotModifiedThenOk();
+    }
+
+    public void testNotModifiedWithLateBody() throws Exception {
+        mServer = new ScriptedServer(
+            NOT_MODIFIED_HEAD + "Content-Length: 5\r\n\r\n",
+            "hello",
+            LATE_BODY_DELAY
+        );
+        assertNotModifiedThenOk();
+    }
+
+    public void testNotModifiedWithoutBody() throws Exception {
+        mServer = new ScriptedServer(NOT_MODIFIED_HEAD + "\r\n", null, 0);
+        assertNotModifiedThenOk();
+    }
+
+    public void testNotModifiedWithResourceLengthAndNoBody() throws Exception {
+        mServer = new ScriptedServer(NOT_MODIFIED_HEAD + "Content-Length: 5\r\n\r\n", null,
+            0);
+        assertNotModifiedThenOk();
+    }
+
+
+    /**
+     * Sends a conditional request answered with a 304, and then a normal request that has to
+     * get the right response, on the same connection or a new one.
+     */
+    private void assertNotModifiedThenOk() throws Exception {
+        mServer.start();
+        String uri = "http://127.0.0.1:" + mServer.getPort() + "/avatar";
+
+        ConditionalGetMethod conditional = new ConditionalGetMethod(uri, ETAG);
+        try {
+            mClient.executeMethod(conditional);
+            assertTrue(conditional.isNotModified());
+        } finally {
+            conditional.releaseConnection();
+        }
+        assertTrue(mServer.getRequest(0).contains("If-None-Match: \"" + ETAG + "\""));
+
+        Thread.sleep(LATE_BODY_DELAY);  // let the body of the 304 arrive
+
+        GetMethod get = new GetMethod(uri);
+        try {
+            assertEquals(HttpStatus.SC_OK, mClient.executeMethod(get));
+            assertEquals("ok", get.getResponseBodyAsString());
+        } finally {
+            get.releaseConnection();
+        }
+    }
+
+
+    /**
+     * Server answering the first request with a head and a body sent after a delay, and the
+     * next ones with a normal response.
+     */
+    private static class ScriptedServer extends Thread {
+
+        private final ServerSocket mServerSocket;
+        private final String mFirstHead;
+        private final String mFirstBody;
+        private final int mFirstBodyDelay;
+        private final List<String> mRequests = new ArrayList<String>();
+
+        ScriptedServer(String firstHead, String firstBody, int firstBodyDelay)
+            throws IOException {
+            mServerSocket = new ServerSocket(0);
+            mFirstHead = firstHead;
+            mFirstBody = firstBody;
+            mFirstBodyDelay = firstBodyDelay;
+            setDaemon(true);
+        }
+
+        int getPort() {
+            return mServerSocket.getLocalPort();
+        }
+
+        synchronized String getRequest(int index) {
+            return mRequests.get(index);
+        }
+
+        void shutdown() throws IOException {
+            mServerSocket.close();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    Socket socket = mServerSocket.accept();
+                    try {
+                        serve(socket);
+                    } catch (IOException e) {
+                        // closed by the client
+                    } finally {
+                        socket.close();
+                    }
+                }
+            } catch (IOException e) {
+                // closed
+            } catch (InterruptedException e) {
+                // finished
+            }
+        }
+
+        private void serve(Socket socket) throws IOException, InterruptedException {
+            InputStream in = socket.getInputStream();
+            OutputStream out = socket.getOutputStream();
+            String request;
+            while ((request = readHead(in)) != null) {
+                boolean first;
+                synchronized (this) {
+                    first = mRequests.isEmpty();
+                    mRequests.add(request);
+                }
+                if (first) {
+                    out.write(mFirstHead.getBytes("US-ASCII"));
+                    out.flush();
+                    if (mFirstBody != null) {
+                        Thread.sleep(mFirstBodyDelay);
+                        out.write(mFirstBody.getBytes("US-ASCII"));
+                        out.flush();
+                    }
+                } else {
+                    out.write(OK_RESPONSE.getBytes("US-ASCII"));
+                    out.flush();
+                }
+            }
+        }
+
+        /**
+         * @return  Head of the next request; null if the connection was closed.
+         */
+        private String readHead(InputStream in) throws IOException {
+            ByteArrayOutputStream head = new ByteArrayOutputStream();
+            int matched = 0;
+            int read;
+            while (matched < 4 && (read = in.read()) != -1) {
+                head.write(read);
+                matched = (read == "\r\n\r\n".charAt(matched)) ? matched + 1 :
+                    (read == '\r' ? 1 : 0);
+            }
+            return (matched == 4) ? head.toString("US-ASCII") : null;
+        }
+    }
+}
@@ -0,0 +1,341 @@
+/* tkjcloud Android Library is available under MIT license
+ *   Copyright (C) 2017 tkjcloud GmbH.
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *   NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *   BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *   ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *   CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *   THE SOFTWARE.
+ *
+ */
+
+package com.owncloud.android.lib.test_project.test;
+
+import android.net.Uri;
+
+import com.tkjcloud.android.lib.common.tkjcloudClient;
+import com.tkjcloud.android.lib.common.operations.RemoteOperationResult;
+import com.tkjcloud.android.lib.resources.files.DownloadRemoteFolderOperation;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Test DownloadRemoteFolderOperation against a local server that drops the connection in the
+ * middle of the body of a file.
+ */
+public class DownloadRemoteFolderOperationTest extends TestCase {
+
+    private static final String WEBDAV_PATH = "/remote.php/webdav";
+    private static final String FOLDER = "/Folder/";
+    private static final String LAST_MODIFIED = "Sat, 20 May 2017 10:00:00 GMT";
+
+    private static final byte[] SMALL_CONTENTS = "small file".getBytes();
+    private static final byte[] BIG_CONTENTS = new byte[100 * 1024];
+
+    /** Bytes of the big file sent before dropping the connection */
+    private static final int BYTES_BEFORE_DROP = 40 * 1024;
+
+    private FolderServer mServer;
+    private MultiThreadedHttpConnectionManager mConnectionManager;
+    private tkjcloudClient mClient;
+    private File mLocalFolder;
+
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        Arrays.fill(BIG_CONTENTS, (byte) 'x');
+        mServer = new FolderServer();
+        mServer.start();
+        mConnectionManager = new MultiThreadedHttpConnectionManager();
+        mConnectionManager.getParams().setSoTimeout(5000);
+        mClient = new tkjcloudClient(Uri.parse("http://127.0.0.1:" + mServer.getPort()),
+            mConnectionManager);
+        mLocalFolder = File.createTempFile("download", "");
+        mLocalFolder.delete();
+        mLocalFolder.mkdirs();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        mConnectionManager.shutdown();
+        delete(mLocalFolder);
+        super.tearDown();
+    }
+
+    public void testInterruptedFileIsNotDownloaded() throws Exception {
+        mServer.mDropBigFile = true;
+        DownloadRemoteFolderOperation operation =
+            new DownloadRemoteFolderOperation(FOLDER, mLocalFolder.getAbsolutePath());
+
+        RemoteOperationResult result = operation.execute(mClient);
+
+        assertFalse(result.isSuccess());
+        assertEquals(Arrays.asList(FOLDER + "big.bin"), operation.getFailedPaths());
+        assertEquals(1, operation.getDownloadedCount());
+
+        File small = new File(mLocalFolder, FOLDER + "small.txt");
+        assertEquals(SMALL_CONTENTS.length, small.length());
+        File big = new File(mLocalFolder, FOLDER + "big.bin");
+        assertFalse(big.exists());
+
+        Map<String, String> etags = operation.getEtags();
+        assertEquals("small-etag", etags.get(FOLDER + "small.txt"));
+        assertFalse(etags.containsKey(FOLDER + "big.bin"));
+    }
+
+    public void testInterruptedFileIsDownloadedInTheNextRun() throws Exception {
+        mServer.mDropBigFile = true;
+        DownloadRemoteFolderOperation operation =
+            new DownloadRemoteFolderOperation(FOLDER, mLocalFolder.getAbsolutePath());
+        assertFalse(operation.execute(mClient).isSuccess());
+
+        mServer.mDropBigFile = false;
+        RemoteOperationResult result = operation.execute(mClient);
+
+        assertTrue(result.isSuccess());
+        assertTrue(operation.getFailedPaths().isEmpty());
+        assertEquals(2, operation.getDownloadedCount());
+        assertEquals(1, operation.getSkippedCount());
+        assertEquals(BIG_CONTENTS.length, new File(mLocalFolder, FOLDER + "big.bin").length());
+        assertEquals("big-etag", operation.getEtags().get(FOLDER + "big.bin"));
+    }
+
+    public void testTruncatedBodyOfUnknownLengthIsNotDownloaded() throws Exception {
+        mServer.mTruncateBigFile = true;
+        DownloadRemoteFolderOperation operation =
+            new DownloadRemoteFolderOperation(FOLDER, mLocalFolder.getAbsolutePath());
+
+        RemoteOperationResult result = operation.execute(mClient);
+
+        assertFalse(result.isSuccess());
+        assertEquals(Arrays.asList(FOLDER + "big.bin"), operation.getFailedPaths());
+        assertFalse(new File(mLocalFolder, FOLDER + "big.bin").exists());
+        assertFalse(operation.getEtags().containsKey(FOLDER + "big.bin"));
+    }
+
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static String propfindResponse() {
+        return "<?xml version=\"1.0\"?>\n" +
+            "<d:multistatus xmlns:d=\"DAV:\">\n" +
+            folderEntry(WEBDAV_PATH + FOLDER) +
+            fileEntry(WEBDAV_PATH + FOLDER + "small.txt", SMALL_CONTENTS.length, "small-etag") +
+            fileEntry(WEBDAV_PATH + FOLDER + "big.bin", BIG_CONTENTS.length, "big-etag") +
+            "</d:multistatus>\n";
+    }
+
+    private static String folderEntry(String href) {
+        return " <d:response>\n" +
+            "  <d:href>" + href + "</d:href>\n" +
+            "  <d:propstat>\n" +
+            "   <d:prop>\n" +
+            "    <d:resourcetype><d:collection/></d:resourcetype>\n" +
+            "    <d:getetag>\"folder-etag\"</d:getetag>\n" +
+            "    <d:getlastmodified>" + LAST_MODIFIED + "</d:getlastmodified>\n" +
+            "   </d:prop>\n" +
+            "   <d:status>HTTP/1.1 200 OK</d:status>\n" +
+            "  </d:propstat>\n" +
+            " </d:response>\n";
+    }
+
+    private static String fileEntry(String href, long length, String etag) {
+        return " <d:response>\n" +
+            "  <d:href>" + href + "</d:href>\n" +
+            "  <d:propstat>\n" +
+            "   <d:prop>\n" +
+            "    <d:resourcetype/>\n" +
+            "    <d:getcontenttype>application/octet-stream</d:getcontenttype>\n" +
+            "    <d:getcontentlength>" + length + "</d:getcontentlength>\n" +
+            "    <d:getetag>\"" + etag + "\"</d:getetag>\n" +
+            "    <d:getlastmodified>" + LAST_MODIFIED + "</d:getlastmodified>\n" +
+            "   </d:prop>\n" +
+            "   <d:status>HTTP/1.1 200 OK</d:status>\n" +
+            "  </d:propstat>\n" +
+            " </d:response>\n";
+    }
+
+
+    /**
+     * WebDAV server with a folder holding a small file and a big one; the connection can be
+     * dropped in the middle of the body of the big one.
+     */
+    private static class FolderServer extends Thread {
+
+        private final ServerSocket mServerSocket;
+
+        /** Drops the connection after part of the body announced with Content-Length */
+        volatile boolean mDropBigFile = false;
+        /** Sends part of the body with no Content-Length, and closes the connection */
+        volatile boolean mTruncateBigFile = false;
+
+        FolderServer() throws IOException {
+            mServerSocket = new ServerSocket(0);
+            setDaemon(true);
+        }
+
+        int getPort() {
+            return mServerSocket.getLocalPort();
+        }
+
+        void shutdown() throws IOException {
+            mServerSocket.close();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    final Socket socket = mServerSocket.accept();
+                    Thread connection = new Thread() {
+                        @Override
+                        public void run() {
+                            try {
+                                serve(socket);
+                            } catch (IOException e) {
+                                // closed by the client
+                            } finally {
+                                try {
+                                    socket.close();
+                                } catch (IOException e) {
+                                    // nothing to do
+                                }
+                            }
+                        }
+                    };
+                    connection.setDaemon(true);
+                    connection.start();
+                }
+            } catch (IOException e) {
+                // closed
+            }
+        }
+
+        private void serve(Socket socket) throws IOException {
+            InputStream in = socket.getInputStream();
+            OutputStream out = socket.getOutputStream();
+            String head;
+            while ((head = readHead(in)) != null) {
+                skipBody(in, head);
+                String requestLine = head.substring(0, head.indexOf("\r\n"));
+                String[] parts = requestLine.split(" ");
+                String method = parts[0];
+                String path = Uri.decode(parts[1]);
+
+                if ("PROPFIND".equals(method) && path.equals(WEBDAV_PATH + FOLDER)) {
+                    byte[] body = propfindResponse().getBytes("UTF-8");
+                    writeHead(out, "207 Multi-Status", "application/xml; charset=utf-8",
+                        body.length, null);
+                    out.write(body);
+
+                } else if ("GET".equals(method) && path.equals(WEBDAV_PATH + FOLDER + "small.txt")) {
+                    writeHead(out, "200 OK", "text/plain", SMALL_CONTENTS.length, "small-etag");
+                    out.write(SMALL_CONTENTS);
+
+                } else if ("GET".equals(method) && path.equals(WEBDAV_PATH + FOLDER + "big.bin")) {
+                    if (mTruncateBigFile) {
+                        writeHead(out, "200 OK", "application/octet-stream", -1, "big-etag");
+                        out.write(BIG_CONTENTS, 0, BYTES_BEFORE_DROP);
+                        out.flush();
+                        return;
+                    }
+                    writeHead(out, "200 OK", "application/octet-stream", BIG_CONTENTS.length,
+                        "big-etag");
+                    if (mDropBigFile) {
+                        out.write(BIG_CONTENTS, 0, BYTES_BEFORE_DROP);
+                        out.flush();
+                        return;
+                    }
+                    out.write(BIG_CONTENTS);
+
+                } else {
+                    writeHead(out, "404 Not Found", "text/plain", 0, null);
+                }
+                out.flush();
+            }
+        }
+
+        /**
+         * @param length    Content-Length of the body, or -1 to send the body until the
+         *                  connection is closed.
+         */
+        private void writeHead(OutputStream out, String status, String contentType, long length,
+                               String etag) throws IOException {
+            StringBuilder head = new StringBuilder();
+            head.append("HTTP/1.1 ").append(status).append("\r\n");
+            head.append("Content-Type: ").append(contentType).append("\r\n");
+            if (length >= 0) {
+                head.append("Content-Length: ").append(length).append("\r\n");
+            } else {
+                head.append("Connection: close\r\n");
+            }
+            if (etag != null) {
+                head.append("ETag: \"").append(etag).append("\"\r\n");
+                head.append("Last-Modified: ").append(LAST_MODIFIED).append("\r\n");
+            }
+            head.append("\r\n");
+            out.write(head.toString().getBytes("US-ASCII"));
+        }
+
+        private void skipBody(InputStream in, String head) throws IOException {
+            for (String line : head.split("\r\n")) {
+                if (line.toLowerCase().startsWith("content-length:")) {
+                    long remaining = Long.parseLong(line.substring(15).trim());
+                    while (remaining > 0 && in.read() != -1) {
+                        remaining--;
+                    }
+                }
+            }
+        }
+
+        /**
+         * @return  Head of the next request; null if the connection was closed.
+         */
+        private String readHead(InputStream in) throws IOException {
+            ByteArrayOutputStream head = new ByteArrayOutputStream();
+            int matched = 0;
+            int read;
+            while (matched < 4 && (read = in.read()) != -1) {
+                head.write(read);
+                matched = (read == "\r\n\r\n".charAt(matched)) ? matched + 1 :
+                    (read == '\r' ? 1 : 0);
+            }
+            return (matched == 4) ? head.toString("US-ASCII") : null;
+        }
+    }
+}
@@ -0,0 +1,211 @@
+/* tkjcloud Android Library is available under MIT license
+ *   Copyright (C) 2017 tkjcloud GmbH.
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *   NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *   BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *   ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *   CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *   THE SOFTWARE.
+ *
+ */
+
+package com.owncloud.android.lib.test_project.test;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import com.tkjcloud.android.lib.common.operations.OCSResponseDecoder;
+
+import junit.framework.TestCase;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Test OCSResponseDecoder with recorded responses of OCS endpoints.
+ */
+public class OCSResponseDecoderTest extends TestCase {
+
+    /** Response of the user info endpoint, OCS v2 */
+    private static final String USER_JSON = "{\"ocs\":{" +
+        "\"meta\":{\"status\":\"ok\",\"statuscode\":200,\"message\":\"OK\"}," +
+        "\"data\":{\"enabled\":true,\"id\":\"alice\",\"quota\":{\"free\":1024,\"used\":512," +
+        "\"total\":1536,\"relative\":33.33,\"quota\":-3},\"email\":null," +
+        "\"phone\":\"\",\"groups\":[\"admin\",\"staff\"],\"displayname\":\"Alice\"}}}";
+
+    /** Failure with the meta node after the data */
+    private static final String FAILURE_DATA_FIRST_JSON = "{\"ocs\":{" +
+        "\"data\":[\"ignored\"]," +
+        "\"meta\":{\"status\":\"failure\",\"statuscode\":997," +
+        "\"message\":\"Current user is not logged in\"}}}";
+
+    /** Failure with the meta node first; the data must not be read */
+    private static final String FAILURE_META_FIRST_JSON = "{\"ocs\":{" +
+        "\"meta\":{\"status\":\"failure\",\"statuscode\":\"404\",\"message\":null}," +
+        "\"data\":{\"unexpected\":[1,2,{\"deep\":null}]}}}";
+
+    /** OCS v1 response with no status, only the status code */
+    private static final String STATUSCODE_ONLY_JSON = "{\"ocs\":{" +
+        "\"meta\":{\"statuscode\":\"100\"},\"data\":[\"a\",\"b\"]}}";
+
+
+    public void testDecodeWithDataReader() throws Exception {
+        OCSResponseDecoder.Response<String> response = OCSResponseDecoder.decode(
+            stream(USER_JSON), new OCSResponseDecoder.DataReader<String>() {
+                @Override
+                public String read(JsonReader reader) throws IOException {
+                    String displayName = null;
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        if ("displayname".equals(reader.nextName())) {
+                            displayName = reader.nextString();
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                    return displayName;
+                }
+            });
+
+        assertTrue(response.isSuccess());
+        assertEquals("ok", response.getStatus());
+        assertEquals(200, response.getStatusCode());
+        assertEquals("OK", response.getMessage());
+        assertEquals("Alice", response.getData());
+    }
+
+    public void testDecodeWithTypeAdapter() throws Exception {
+        OCSResponseDecoder.Response<List<String>> response =
+            OCSResponseDecoder.decode(stream(STATUSCODE_ONLY_JSON), new StringListAdapter());
+
+        assertTrue(response.isSuccess());
+        assertNull(response.getStatus());
+        assertEquals(100, response.getStatusCode());
+        assertEquals(2, response.getData().size());
+        assertEquals("b", response.getData().get(1));
+    }
+
+    public void testMetaFailureAfterData() throws Exception {
+        OCSResponseDecoder.Response<List<String>> response =
+            OCSResponseDecoder.decode(stream(FAILURE_DATA_FIRST_JSON), new StringListAdapter());
+
+        assertFalse(response.isSuccess());
+        assertEquals("failure", response.getStatus());
+        assertEquals(997, response.getStatusCode());
+        assertEquals("Current user is not logged in", response.getMessage());
+        assertNull(response.getData());
+    }
+
+    public void testMetaFailureSkipsData() throws Exception {
+        final boolean[] read = {false};
+        OCSResponseDecoder.Response<Object> response = OCSResponseDecoder.decode(
+            stream(FAILURE_META_FIRST_JSON), new OCSResponseDecoder.DataReader<Object>() {
+                @Override
+                public Object read(JsonReader reader) throws IOException {
+                    read[0] = true;
+                    reader.skipValue();
+                    return new Object();
+                }
+            });
+
+        assertFalse(read[0]);
+        assertFalse(response.isSuccess());
+        assertEquals(404, response.getStatusCode());
+        assertNull(response.getMessage());
+        assertNull(response.getData());
+    }
+
+    public void testNotAnOcsResponse() throws Exception {
+        assertNotDecoded("{\"message\":\"Service unavailable\"}");
+        assertNotDecoded("{\"ocs\":{\"data\":[]}}");    // no meta
+        assertNotDecoded("[]");
+        assertNotDecoded("{\"ocs\":{\"meta\":[],\"data\":[]}}");
+    }
+
+    public void testNextString() throws Exception {
+        JsonReader reader = new JsonReader(new StringReader("[null,true,42,1.5,\"text\"]"));
+        reader.beginArray();
+        assertNull(OCSResponseDecoder.nextString(reader));
+        assertEquals("true", OCSResponseDecoder.nextString(reader));
+        assertEquals("42", OCSResponseDecoder.nextString(reader));
+        assertEquals("1.5", OCSResponseDecoder.nextString(reader));
+        assertEquals("text", OCSResponseDecoder.nextString(reader));
+        reader.endArray();
+    }
+
+    public void testReadJSONObject() throws Exception {
+        OCSResponseDecoder.Response<JSONObject> response = OCSResponseDecoder.decode(
+            stream(USER_JSON), new OCSResponseDecoder.DataReader<JSONObject>() {
+                @Override
+                public JSONObject read(JsonReader reader) throws IOException {
+                    return OCSResponseDecoder.readJSONObject(reader);
+                }
+            });
+
+        JSONObject data = response.getData();
+        assertTrue(data.getBoolean("enabled"));
+        assertEquals("alice", data.getString("id"));
+        assertTrue(data.isNull("email"));
+        assertEquals("", data.getString("phone"));
+        JSONObject quota = data.getJSONObject("quota");
+        assertEquals(1024, quota.getLong("free"));
+        assertEquals(-3, quota.getLong("quota"));
+        assertEquals(33.33, quota.getDouble("relative"), 0.001);
+        JSONArray groups = data.getJSONArray("groups");
+        assertEquals(2, groups.length());
+        assertEquals("staff", groups.getString(1));
+    }
+
+
+    private static void assertNotDecoded(String json) throws Exception {
+        try {
+            OCSResponseDecoder.decode(stream(json), new StringListAdapter());
+            fail("IOException expected for " + json);
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    private static InputStream stream(String response) throws IOException {
+        return new ByteArrayInputStream(response.getBytes("UTF-8"));
+    }
+
+    private static class StringListAdapter extends TypeAdapter<List<String>> {
+        @Override
+        public void write(JsonWriter out, List<String> value) throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<String> read(JsonReader in) throws IOException {
+            List<String> list = new ArrayList<String>();
+            in.beginArray();
+            while (in.hasNext()) {
+                list.add(in.nextString());
+            }
+            in.endArray();
+            return list;
+        }
+    }
+}
@@ -0,0 +1,266 @@
+/* tkjcloud Android Library is available under MIT license
+ *   Copyright (C) 2017 tkjcloud GmbH.
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *   NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *   BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *   ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *   CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *   THE SOFTWARE.
+ *
+ */
+
+package com.owncloud.android.lib.test_project.test;
+
+import android.net.Uri;
+
+import com.tkjcloud.android.lib.common.tkjcloudClient;
+import com.tkjcloud.android.lib.common.operations.RemoteOperationResult;
+import com.tkjcloud.android.lib.resources.files.SegmentedDownloadRemoteFileOperation;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Test SegmentedDownloadRemoteFileOperation against a local server whose answers to ranged
+ * requests can start at the wrong offset.
+ */
+public class SegmentedDownloadRemoteFileOperationTest extends TestCase {
+
+    private static final String WEBDAV_PATH = "/remote.php/webdav";
+    private static final String REMOTE_PATH = "/file.bin";
+    private static final String ETAG = "file-etag";
+
+    private static final byte[] CONTENTS =
+        new byte[(int) (SegmentedDownloadRemoteFileOperation.MIN_SEGMENT_SIZE * 5 / 2)];
+
+    private RangeServer mServer;
+    private MultiThreadedHttpConnectionManager mConnectionManager;
+    private tkjcloudClient mClient;
+    private File mLocalFolder;
+
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        for (int i = 0; i < CONTENTS.length; i++) {
+            CONTENTS[i] = (byte) (i % 251);
+        }
+        mServer = new RangeServer();
+        mServer.start();
+        mConnectionManager = new MultiThreadedHttpConnectionManager();
+        mConnectionManager.getParams().setSoTimeout(5000);
+        mConnectionManager.getParams().setDefaultMaxConnectionsPerHost(
+            SegmentedDownloadRemoteFileOperation.DEFAULT_SEGMENT_COUNT);
+        mClient = new tkjcloudClient(Uri.parse("http://127.0.0.1:" + mServer.getPort()),
+            mConnectionManager);
+        mLocalFolder = File.createTempFile("download", "");
+        mLocalFolder.delete();
+        mLocalFolder.mkdirs();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        mConnectionManager.shutdown();
+        new File(mLocalFolder, REMOTE_PATH).delete();
+        mLocalFolder.delete();
+        super.tearDown();
+    }
+
+    public void testSegmentsAreWrittenAtTheirOffsets() throws Exception {
+        RemoteOperationResult result = download();
+
+        assertTrue(result.isSuccess());
+        assertTrue(mServer.mRangedResponses.get() > 1);
+        assertEquals(0, mServer.mFullResponses.get());
+        assertTrue(Arrays.equals(CONTENTS, readLocalFile()));
+    }
+
+    public void testWrongRangeFallsBackToSingleRequest() throws Exception {
+        mServer.mWrongOffset = true;
+
+        RemoteOperationResult result = download();
+
+        assertTrue(result.isSuccess());
+        assertEquals(1, mServer.mFullResponses.get());
+        assertTrue(Arrays.equals(CONTENTS, readLocalFile()));
+    }
+
+
+    private RemoteOperationResult download() {
+        SegmentedDownloadRemoteFileOperation operation = new SegmentedDownloadRemoteFileOperation(
+            REMOTE_PATH, mLocalFolder.getAbsolutePath(), CONTENTS.length, ETAG);
+        return operation.execute(mClient);
+    }
+
+    private byte[] readLocalFile() throws IOException {
+        InputStream in = new FileInputStream(new File(mLocalFolder, REMOTE_PATH));
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+
+    /**
+     * Server of a single file supporting byte ranges; optionally, every range is served from the
+     * start of the file, with a Content-Range telling so.
+     */
+    private static class RangeServer extends Thread {
+
+        private final ServerSocket mServerSocket;
+
+        volatile boolean mWrongOffset = false;
+        final AtomicInteger mRangedResponses = new AtomicInteger(0);
+        final AtomicInteger mFullResponses = new AtomicInteger(0);
+
+        RangeServer() throws IOException {
+            mServerSocket = new ServerSocket(0);
+            setDaemon(true);
+        }
+
+        int getPort() {
+            return mServerSocket.getLocalPort();
+        }
+
+        void shutdown() throws IOException {
+            mServerSocket.close();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    final Socket socket = mServerSocket.accept();
+                    Thread connection = new Thread() {
+                        @Override
+                        public void run() {
+                            try {
+                                serve(socket);
+                            } catch (IOException e) {
+                                // closed by the client
+                            } finally {
+                                try {
+                                    socket.close();
+                                } catch (IOException e) {
+                                    // nothing to do
+                                }
+                            }
+                        }
+                    };
+                    connection.setDaemon(true);
+                    connection.start();
+                }
+            } catch (IOException e) {
+                // closed
+            }
+        }
+
+        private void serve(Socket socket) throws IOException {
+            InputStream in = socket.getInputStream();
+            OutputStream out = socket.getOutputStream();
+            String head;
+            while ((head = readHead(in)) != null) {
+                String requestLine = head.substring(0, head.indexOf("\r\n"));
+                if (!requestLine.startsWith("GET " + WEBDAV_PATH + REMOTE_PATH + " ")) {
+                    out.write(("HTTP/1.1 404 Not Found\r\nContent-Length: 0\r\n\r\n")
+                        .getBytes("US-ASCII"));
+                    out.flush();
+                    continue;
+                }
+                String range = readHeader(head, "Range");
+                if (range == null) {
+                    mFullResponses.incrementAndGet();
+                    writeHead(out, "200 OK", CONTENTS.length, null);
+                    out.write(CONTENTS);
+
+                } else {
+                    mRangedResponses.incrementAndGet();
+                    // "bytes=first-last"
+                    String[] limits = range.substring(range.indexOf('=') + 1).split("-");
+                    int first = Integer.parseInt(limits[0].trim());
+                    int last = Integer.parseInt(limits[1].trim());
+                    int length = last - first + 1;
+                    if (mWrongOffset) {
+                        first = 0;
+                        last = length - 1;
+                    }
+                    writeHead(out, "206 Partial Content", length,
+                        "bytes " + first + "-" + last + "/" + CONTENTS.length);
+                    out.write(CONTENTS, first, length);
+                }
+                out.flush();
+            }
+        }
+
+        private void writeHead(OutputStream out, String status, long length, String contentRange)
+            throws IOException {
+            StringBuilder head = new StringBuilder();
+            head.append("HTTP/1.1 ").append(status).append("\r\n");
+            head.append("Content-Type: application/octet-stream\r\n");
+            head.append("Content-Length: ").append(length).append("\r\n");
+            head.append("ETag: \"").append(ETAG).append("\"\r\n");
+            if (contentRange != null) {
+                head.append("Content-Range: ").append(contentRange).append("\r\n");
+            }
+            head.append("\r\n");
+            out.write(head.toString().getBytes("US-ASCII"));
+        }
+
+        private String readHeader(String head, String name) {
+            for (String line : head.split("\r\n")) {
+                if (line.toLowerCase().startsWith(name.toLowerCase() + ":")) {
+                    return line.substring(name.length() + 1).trim();
+                }
+            }
+            return null;
+        }
+
+        /**
+         * @return  Head of the next request; null if the connection was closed.
+         */
+        private String readHead(InputStream in) throws IOException {
+            ByteArrayOutputStream head = new ByteArrayOutputStream();
+            int matched = 0;
+            int read;
+            while (matched < 4 && (read = in.read()) != -1) {
+                head.write(read);
+                matched = (read == "\r\n\r\n".charAt(matched)) ? matched + 1 :
+                    (read == '\r' ? 1 : 0);
+            }
+            return (matched == 4) ? head.toString("US-ASCII") : null;
+        }
+    }
+}
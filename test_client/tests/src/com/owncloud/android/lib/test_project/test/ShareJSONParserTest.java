@@ -0,0 +1,341 @@
+/* tkjcloud Android Library is available under MIT license
+ *   Copyright (C) 2017 tkjcloud GmbH.
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *   NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *   BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *   ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *   CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *   THE SOFTWARE.
+ *
+ */
+
+package com.owncloud.android.lib.test_project.test;
+
+import com.tkjcloud.android.lib.resources.shares.OCShare;
+import com.tkjcloud.android.lib.resources.shares.ShareJSONParser;
+import com.tkjcloud.android.lib.resources.shares.ShareType;
+import com.tkjcloud.android.lib.resources.shares.ShareXMLParser;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * Test ShareJSONParser with recorded responses of the Share API, and compare its results with
+ * those of ShareXMLParser for the same responses in XML.
+ */
+public class ShareJSONParserTest extends TestCase {
+
+    /** Listing of shares; the server grouped the two shares of /Documents/report.pdf */
+    private static final String LIST_JSON = "{\"ocs\":{" +
+        "\"meta\":{\"status\":\"ok\",\"statuscode\":100,\"message\":null}," +
+        "\"data\":[" +
+        "{\"id\":\"12\",\"share_type\":3,\"uid_owner\":\"alice\",\"permissions\":1," +
+        "\"stime\":1495267200,\"parent\":null,\"expiration\":\"2017-06-20 00:00:00\"," +
+        "\"token\":\"aB3dE5fG\",\"path\":\"/Photos\",\"item_type\":\"folder\"," +
+        "\"mimetype\":\"httpd/unix-directory\",\"storage\":1,\"item_source\":151," +
+        "\"file_source\":151,\"file_parent\":2,\"share_with\":null," +
+        "\"share_with_displayname\":null,\"url\":\"https://cloud.example.com/s/aB3dE5fG\"," +
+        "\"mail_send\":0}," +
+        "[" +
+        "{\"id\":13,\"share_type\":0,\"uid_owner\":\"alice\",\"permissions\":19," +
+        "\"stime\":1495267300,\"parent\":null,\"expiration\":null,\"token\":null," +
+        "\"path\":\"/Documents/report.pdf\",\"item_type\":\"file\",\"item_source\":207," +
+        "\"file_source\":207,\"share_with\":\"bob\",\"share_with_displayname\":\"Bob\"," +
+        "\"mail_send\":0}," +
+        "{\"id\":14,\"share_type\":1,\"uid_owner\":\"alice\",\"permissions\":1," +
+        "\"stime\":1495267400,\"parent\":null,\"expiration\":\"\",\"token\":null," +
+        "\"path\":\"/Documents/report.pdf\",\"item_type\":\"file\",\"item_source\":207," +
+        "\"file_source\":207,\"share_with\":\"staff\",\"share_with_displayname\":\"staff\"," +
+        "\"mail_send\":0}" +
+        "]" +
+        "]}}";
+
+    private static final String LIST_XML = "<?xml version=\"1.0\"?>\n" +
+        "<ocs>\n" +
+        " <meta>\n" +
+        "  <status>ok</status>\n" +
+        "  <statuscode>100</statuscode>\n" +
+        "  <message/>\n" +
+        " </meta>\n" +
+        " <data>\n" +
+        "  <element>\n" +
+        "   <id>12</id>\n" +
+        "   <share_type>3</share_type>\n" +
+        "   <uid_owner>alice</uid_owner>\n" +
+        "   <permissions>1</permissions>\n" +
+        "   <stime>1495267200</stime>\n" +
+        "   <parent/>\n" +
+        "   <expiration>2017-06-20 00:00:00</expiration>\n" +
+        "   <token>aB3dE5fG</token>\n" +
+        "   <path>/Photos</path>\n" +
+        "   <item_type>folder</item_type>\n" +
+        "   <mimetype>httpd/unix-directory</mimetype>\n" +
+        "   <storage>1</storage>\n" +
+        "   <item_source>151</item_source>\n" +
+        "   <file_source>151</file_source>\n" +
+        "   <file_parent>2</file_parent>\n" +
+        "   <share_with/>\n" +
+        "   <share_with_displayname/>\n" +
+        "   <url>https://cloud.example.com/s/aB3dE5fG</url>\n" +
+        "   <mail_send>0</mail_send>\n" +
+        "  </element>\n" +
+        "  <element>\n" +
+        "   <element>\n" +
+        "    <id>13</id>\n" +
+        "    <share_type>0</share_type>\n" +
+        "    <uid_owner>alice</uid_owner>\n" +
+        "    <permissions>19</permissions>\n" +
+        "    <stime>1495267300</stime>\n" +
+        "    <parent/>\n" +
+        "    <expiration/>\n" +
+        "    <token/>\n" +
+        "    <path>/Documents/report.pdf</path>\n" +
+        "    <item_type>file</item_type>\n" +
+        "    <item_source>207</item_source>\n" +
+        "    <file_source>207</file_source>\n" +
+        "    <share_with>bob</share_with>\n" +
+        "    <share_with_displayname>Bob</share_with_displayname>\n" +
+        "    <mail_send>0</mail_send>\n" +
+        "   </element>\n" +
+        "   <element>\n" +
+        "    <id>14</id>\n" +
+        "    <share_type>1</share_type>\n" +
+        "    <uid_owner>alice</uid_owner>\n" +
+        "    <permissions>1</permissions>\n" +
+        "    <stime>1495267400</stime>\n" +
+        "    <parent/>\n" +
+        "    <expiration/>\n" +
+        "    <token/>\n" +
+        "    <path>/Documents/report.pdf</path>\n" +
+        "    <item_type>file</item_type>\n" +
+        "    <item_source>207</item_source>\n" +
+        "    <file_source>207</file_source>\n" +
+        "    <share_with>staff</share_with>\n" +
+        "    <share_with_displayname>staff</share_with_displayname>\n" +
+        "    <mail_send>0</mail_send>\n" +
+        "   </element>\n" +
+        "  </element>\n" +
+        " </data>\n" +
+        "</ocs>\n";
+
+    /** Response to the creation of a public link by an old server, with no details */
+    private static final String CREATE_JSON = "{\"ocs\":{" +
+        "\"meta\":{\"status\":\"ok\",\"statuscode\":100,\"message\":null}," +
+        "\"data\":{\"id\":21,\"url\":\"https://cloud.example.com/s/xY7zW9\"," +
+        "\"token\":\"xY7zW9\"}}}";
+
+    private static final String CREATE_XML = "<?xml version=\"1.0\"?>\n" +
+        "<ocs>\n" +
+        " <meta>\n" +
+        "  <status>ok</status>\n" +
+        "  <statuscode>100</statuscode>\n" +
+        "  <message/>\n" +
+        " </meta>\n" +
+        " <data>\n" +
+        "  <id>21</id>\n" +
+        "  <url>https://cloud.example.com/s/xY7zW9</url>\n" +
+        "  <token>xY7zW9</token>\n" +
+        " </data>\n" +
+        "</ocs>\n";
+
+    /** The data of a failed response are ignored even if the server sends some */
+    private static final String NOT_FOUND_JSON = "{\"ocs\":{" +
+        "\"data\":[{\"id\":30,\"path\":\"/gone.txt\",\"item_type\":\"file\"}]," +
+        "\"meta\":{\"status\":\"failure\",\"statuscode\":404," +
+        "\"message\":\"Wrong path, file/folder doesn't exist\"}}}";
+
+    private static final String WRONG_PARAMETER_JSON = "{\"ocs\":{" +
+        "\"meta\":{\"status\":\"failure\",\"statuscode\":400," +
+        "\"message\":\"Please specify a file or folder path\"},\"data\":[]}}";
+
+    /** Old servers send an empty array when there is nothing to return */
+    private static final String EMPTY_JSON = "{\"ocs\":{" +
+        "\"meta\":{\"status\":\"ok\",\"statuscode\":100,\"message\":null},\"data\":[]}}";
+
+
+    public void testParseListing() throws Exception {
+        ShareJSONParser parser = new ShareJSONParser();
+        List<OCShare> shares = parser.parseJSONResponse(stream(LIST_JSON));
+
+        assertTrue(parser.isSuccess());
+        assertEquals(100, parser.getStatusCode());
+        assertEquals(3, shares.size());
+
+        OCShare link = shares.get(0);
+        assertEquals(12, link.getRemoteId());
+        assertEquals(ShareType.PUBLIC_LINK, link.getShareType());
+        assertTrue(link.isFolder());
+        assertEquals(151, link.getItemSource());
+        assertEquals(151, link.getFileSource());
+        assertEquals(1, link.getPermissions());
+        assertEquals(1495267200, link.getSharedDate());
+        assertTrue(link.getExpirationDate() > 0);
+        assertEquals("aB3dE5fG", link.getToken());
+        assertEquals("https://cloud.example.com/s/aB3dE5fG", link.getShareLink());
+
+        OCShare user = shares.get(1);
+        assertEquals(13, user.getRemoteId());
+        assertEquals(ShareType.USER, user.getShareType());
+        assertFalse(user.isFolder());
+        assertEquals("/Documents/report.pdf", user.getPath());
+        assertEquals("bob", user.getShareWith());
+        assertEquals("Bob", user.getSharedWithDisplayName());
+
+        OCShare group = shares.get(2);
+        assertEquals(14, group.getRemoteId());
+        assertEquals(ShareType.GROUP, group.getShareType());
+        assertEquals("staff", group.getShareWith());
+    }
+
+    public void testFolderPathEndsWithSeparator() throws Exception {
+        List<OCShare> shares = new ShareJSONParser().parseJSONResponse(stream(LIST_JSON));
+        assertEquals("/Photos/", shares.get(0).getPath());
+
+        // item_type after the path
+        String json = "{\"ocs\":{\"meta\":{\"status\":\"ok\",\"statuscode\":100}," +
+            "\"data\":[{\"id\":5,\"path\":\"/Music/\",\"item_type\":\"folder\"}," +
+            "{\"id\":6,\"path\":\"/Music/Live\",\"item_type\":\"folder\"}]}}";
+        shares = new ShareJSONParser().parseJSONResponse(stream(json));
+        assertEquals("/Music/", shares.get(0).getPath());
+        assertEquals("/Music/Live/", shares.get(1).getPath());
+    }
+
+    public void testNullFieldsKeepDefaults() throws Exception {
+        List<OCShare> shares = new ShareJSONParser().parseJSONResponse(stream(LIST_JSON));
+
+        OCShare link = shares.get(0);
+        assertEquals("", link.getShareWith());
+        assertEquals("", link.getSharedWithDisplayName());
+
+        OCShare user = shares.get(1);
+        assertEquals(0, user.getExpirationDate());
+        assertEquals("", user.getToken());
+        assertEquals("", user.getShareLink());
+
+        OCShare group = shares.get(2);
+        assertEquals(0, group.getExpirationDate());
+    }
+
+    public void testNestedArrays() throws Exception {
+        String json = "{\"ocs\":{\"meta\":{\"status\":\"ok\",\"statuscode\":100}," +
+            "\"data\":[[[{\"id\":1,\"path\":\"/a\"}],{\"id\":2,\"path\":\"/b\"}],[]," +
+            "{\"id\":3,\"path\":\"/c\"}]}}";
+        List<OCShare> shares = new ShareJSONParser().parseJSONResponse(stream(json));
+
+        assertEquals(3, shares.size());
+        assertEquals(1, shares.get(0).getRemoteId());
+        assertEquals(2, shares.get(1).getRemoteId());
+        assertEquals(3, shares.get(2).getRemoteId());
+    }
+
+    public void testSharesWithNoIdAreDropped() throws Exception {
+        String json = "{\"ocs\":{\"meta\":{\"status\":\"ok\",\"statuscode\":100}," +
+            "\"data\":[{\"path\":\"/a\"},{\"id\":2,\"path\":\"/b\"}]}}";
+        List<OCShare> shares = new ShareJSONParser().parseJSONResponse(stream(json));
+
+        assertEquals(1, shares.size());
+        assertEquals(2, shares.get(0).getRemoteId());
+    }
+
+    public void testParseCreation() throws Exception {
+        ShareJSONParser parser = new ShareJSONParser();
+        List<OCShare> shares = parser.parseJSONResponse(stream(CREATE_JSON));
+
+        assertTrue(parser.isSuccess());
+        assertEquals(1, shares.size());
+        assertEquals(21, shares.get(0).getRemoteId());
+        assertEquals(ShareType.PUBLIC_LINK, shares.get(0).getShareType());
+        assertEquals("xY7zW9", shares.get(0).getToken());
+    }
+
+    public void testEmptyData() throws Exception {
+        ShareJSONParser parser = new ShareJSONParser();
+        List<OCShare> shares = parser.parseJSONResponse(stream(EMPTY_JSON));
+
+        assertTrue(parser.isSuccess());
+        assertTrue(shares.isEmpty());
+    }
+
+    public void testMetaFailure() throws Exception {
+        ShareJSONParser parser = new ShareJSONParser();
+        List<OCShare> shares = parser.parseJSONResponse(stream(NOT_FOUND_JSON));
+
+        assertFalse(parser.isSuccess());
+        assertTrue(parser.isNotFound());
+        assertEquals("failure", parser.getStatus());
+        assertEquals("Wrong path, file/folder doesn't exist", parser.getMessage());
+        assertTrue(shares.isEmpty());
+
+        parser = new ShareJSONParser();
+        shares = parser.parseJSONResponse(stream(WRONG_PARAMETER_JSON));
+        assertTrue(parser.isWrongParameter());
+        assertFalse(parser.isForbidden());
+        assertTrue(shares.isEmpty());
+    }
+
+    public void testNotAnOcsResponse() {
+        try {
+            new ShareJSONParser().parseJSONResponse(stream("{\"error\":\"maintenance\"}"));
+            fail("IOException expected");
+        } catch (IOException e) {
+            // expected
+        }
+        try {
+            new ShareJSONParser().parseJSONResponse(stream("<html></html>"));
+            fail("IOException expected");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    public void testSameResultsAsXmlParser() throws Exception {
+        assertSameShares(new ShareXMLParser().parseXMLResponse(stream(LIST_XML)),
+            new ShareJSONParser().parseJSONResponse(stream(LIST_JSON)));
+        assertSameShares(new ShareXMLParser().parseXMLResponse(stream(CREATE_XML)),
+            new ShareJSONParser().parseJSONResponse(stream(CREATE_JSON)));
+    }
+
+
+    private static void assertSameShares(List<OCShare> expected, List<OCShare> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            OCShare e = expected.get(i);
+            OCShare a = actual.get(i);
+            String share = "share " + i;
+            assertEquals(share, e.getRemoteId(), a.getRemoteId());
+            assertEquals(share, e.getShareType(), a.getShareType());
+            assertEquals(share, e.getShareWith(), a.getShareWith());
+            assertEquals(share, e.getSharedWithDisplayName(), a.getSharedWithDisplayName());
+            assertEquals(share, e.getPath(), a.getPath());
+            assertEquals(share, e.isFolder(), a.isFolder());
+            assertEquals(share, e.getItemSource(), a.getItemSource());
+            assertEquals(share, e.getFileSource(), a.getFileSource());
+            assertEquals(share, e.getPermissions(), a.getPermissions());
+            assertEquals(share, e.getSharedDate(), a.getSharedDate());
+            assertEquals(share, e.getExpirationDate(), a.getExpirationDate());
+            assertEquals(share, e.getToken(), a.getToken());
+            assertEquals(share, e.getShareLink(), a.getShareLink());
+        }
+    }
+
+    private static InputStream stream(String response) throws IOException {
+        return new ByteArrayInputStream(response.getBytes("UTF-8"));
+    }
+}
@@ -0,0 +1,243 @@
+/* tkjcloud Android Library is available under MIT license
+ *   Copyright (C) 2017 tkjcloud GmbH.
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *   NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *   BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *   ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *   CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *   THE SOFTWARE.
+ *
+ */
+
+package com.owncloud.android.lib.test_project.test;
+
+import com.tkjcloud.android.lib.resources.shares.OCShare;
+import com.tkjcloud.android.lib.resources.shares.ShareType;
+import com.tkjcloud.android.lib.resources.shares.SharesCache;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Test the coverage and invalidation rules of SharesCache.
+ */
+public class SharesCacheTest extends TestCase {
+
+    private static final String KEY = "https://cloud.example.com#alice";
+    private static final String OTHER_KEY = "https://cloud.example.com#bob";
+
+    private SharesCache mCache;
+
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mCache = new SharesCache();
+    }
+
+    public void testNothingCoveredWithNoListing() {
+        assertNull(mCache.get(KEY, "/Photos"));
+        mCache.putAll(KEY, shares(share(1, "/Photos/", true)));
+        assertNull(mCache.get(OTHER_KEY, "/Photos"));
+    }
+
+    public void testCompleteListingCoversAllPaths() {
+        mCache.putAll(KEY, shares(
+            share(1, "/Photos/", true),
+            share(2, "/Documents/report.pdf", false),
+            share(3, "/Documents/report.pdf", false)));
+
+        assertEquals(1, mCache.get(KEY, "/Photos").size());
+        assertEquals(1, mCache.get(KEY, "/Photos/").size());
+        assertEquals(1, mCache.get(KEY, "Photos").size());
+        assertEquals(2, mCache.get(KEY, "/Documents/report.pdf").size());
+        assertTrue(mCache.get(KEY, "/Documents/other.pdf").isEmpty());
+        assertTrue(mCache.get(KEY, "/").isEmpty());
+    }
+
+    public void testFolderListingCoversOnlyChildren() {
+        mCache.putFolder(KEY, "/Documents/", shares(share(2, "/Documents/report.pdf", false)));
+
+        assertEquals(1, mCache.get(KEY, "/Documents/report.pdf").size());
+        assertTrue(mCache.get(KEY, "/Documents/other.pdf").isEmpty());
+        assertNull(mCache.get(KEY, "/Documents"));
+        assertNull(mCache.get(KEY, "/Documents/Old/report.pdf"));
+        assertNull(mCache.get(KEY, "/Photos"));
+    }
+
+    public void testFolderListingReplacesChildren() {
+        mCache.putAll(KEY, shares(
+            share(2, "/Documents/report.pdf", false),
+            share(4, "/Documents/Old/notes.txt", false)));
+        mCache.putFolder(KEY, "/Documents", shares(share(5, "/Documents/plan.odt", false)));
+
+        assertTrue(mCache.get(KEY, "/Documents/report.pdf").isEmpty());
+        assertEquals(5, mCache.get(KEY, "/Documents/plan.odt").get(0).getRemoteId());
+        assertEquals(1, mCache.get(KEY, "/Documents/Old/notes.txt").size());
+    }
+
+    public void testPathListingCoversOnlyThePath() {
+        mCache.putPath(KEY, "/Documents/report.pdf", shares(
+            share(2, "/Documents/report.pdf", false)));
+
+        assertEquals(1, mCache.get(KEY, "/Documents/report.pdf").size());
+        assertNull(mCache.get(KEY, "/Documents/other.pdf"));
+    }
+
+    public void testListingsExpire() {
+        mCache.putAll(KEY, shares(share(1, "/Photos/", true)));
+        mCache.setTtl(0);
+        assertNull(mCache.get(KEY, "/Photos"));
+    }
+
+    public void testInvalidatePathKeepsTheRestOfTheCompleteListing() {
+        mCache.putAll(KEY, shares(
+            share(1, "/Photos/", true),
+            share(2, "/Documents/report.pdf", false)));
+
+        mCache.invalidatePath(KEY, "/Documents/report.pdf");
+
+        assertNull(mCache.get(KEY, "/Documents/report.pdf"));
+        assertEquals(1, mCache.get(KEY, "/Photos").size());
+        assertTrue(mCache.get(KEY, "/Documents/other.pdf").isEmpty());
+
+        // covered again by a new listing of the path
+        mCache.putPath(KEY, "/Documents/report.pdf", shares(
+            share(6, "/Documents/report.pdf", false)));
+        assertEquals(6, mCache.get(KEY, "/Documents/report.pdf").get(0).getRemoteId());
+    }
+
+    public void testInvalidatePathDropsTheListingOfItsFolder() {
+        mCache.putFolder(KEY, "/Documents", shares(
+            share(2, "/Documents/report.pdf", false),
+            share(5, "/Documents/plan.odt", false)));
+
+        mCache.invalidatePath(KEY, "/Documents/report.pdf");
+
+        assertNull(mCache.get(KEY, "/Documents/report.pdf"));
+        assertNull(mCache.get(KEY, "/Documents/plan.odt"));
+
+        // covered again by a new listing of the folder
+        mCache.putFolder(KEY, "/Documents", shares(share(5, "/Documents/plan.odt", false)));
+        assertTrue(mCache.get(KEY, "/Documents/report.pdf").isEmpty());
+    }
+
+    public void testFolderListingClearsStalePaths() {
+        mCache.putAll(KEY, shares(share(2, "/Documents/report.pdf", false)));
+        mCache.invalidatePath(KEY, "/Documents/report.pdf");
+        mCache.putFolder(KEY, "/Documents", shares(share(7, "/Documents/report.pdf", false)));
+
+        assertEquals(7, mCache.get(KEY, "/Documents/report.pdf").get(0).getRemoteId());
+    }
+
+    public void testPutShareWritesThrough() {
+        mCache.putAll(KEY, shares(share(1, "/Photos/", true)));
+
+        mCache.putShare(KEY, share(8, "/Documents/report.pdf", false), null);
+        assertEquals(8, mCache.get(KEY, "/Documents/report.pdf").get(0).getRemoteId());
+
+        OCShare updated = share(1, "/Photos/", true);
+        updated.setPermissions(31);
+        mCache.putShare(KEY, updated, null);
+        List<OCShare> photos = mCache.get(KEY, "/Photos");
+        assertEquals(1, photos.size());
+        assertEquals(31, photos.get(0).getPermissions());
+    }
+
+    public void testPutShareWithNoPathInvalidatesThePath() {
+        mCache.putAll(KEY, shares(share(1, "/Photos/", true)));
+
+        // old servers return only the id, url and token on creation
+        OCShare created = new OCShare();
+        created.setIdRemoteShared(9);
+        mCache.putShare(KEY, created, "/Documents/report.pdf");
+
+        assertNull(mCache.get(KEY, "/Documents/report.pdf"));
+        assertEquals(1, mCache.get(KEY, "/Photos").size());
+    }
+
+    public void testRemoveShare() {
+        mCache.putAll(KEY, shares(
+            share(2, "/Documents/report.pdf", false),
+            share(3, "/Documents/report.pdf", false)));
+
+        mCache.removeShare(KEY, 2);
+
+        List<OCShare> shares = mCache.get(KEY, "/Documents/report.pdf");
+        assertEquals(1, shares.size());
+        assertEquals(3, shares.get(0).getRemoteId());
+    }
+
+    public void testInvalidateShare() {
+        mCache.putAll(KEY, shares(
+            share(1, "/Photos/", true),
+            share(2, "/Documents/report.pdf", false)));
+
+        mCache.invalidateShare(KEY, 2);
+        assertNull(mCache.get(KEY, "/Documents/report.pdf"));
+        assertEquals(1, mCache.get(KEY, "/Photos").size());
+
+        // path unknown; nothing in the complete listing can be trusted
+        mCache.invalidateShare(KEY, 99);
+        assertNull(mCache.get(KEY, "/Photos"));
+    }
+
+    public void testInvalidateAndClear() {
+        mCache.putAll(KEY, shares(share(1, "/Photos/", true)));
+        mCache.putAll(OTHER_KEY, shares(share(1, "/Photos/", true)));
+
+        mCache.invalidate(KEY);
+        assertNull(mCache.get(KEY, "/Photos"));
+        assertNotNull(mCache.get(OTHER_KEY, "/Photos"));
+
+        mCache.clear();
+        assertNull(mCache.get(OTHER_KEY, "/Photos"));
+    }
+
+    public void testSharesAreCopied() {
+        OCShare share = share(1, "/Photos/", true);
+        mCache.putAll(KEY, shares(share));
+
+        share.setPermissions(31);
+        OCShare cached = mCache.get(KEY, "/Photos").get(0);
+        assertEquals(1, cached.getPermissions());
+
+        cached.setPermissions(15);
+        cached.setShareLink("https://cloud.example.com/s/changed");
+        OCShare again = mCache.get(KEY, "/Photos").get(0);
+        assertEquals(1, again.getPermissions());
+        assertEquals("", again.getShareLink());
+        assertEquals(ShareType.PUBLIC_LINK, again.getShareType());
+        assertTrue(again.isFolder());
+    }
+
+
+    private static OCShare share(long remoteId, String path, boolean isFolder) {
+        OCShare share = new OCShare(path);
+        share.setIdRemoteShared(remoteId);
+        share.setIsFolder(isFolder);
+        share.setShareType(isFolder ? ShareType.PUBLIC_LINK : ShareType.USER);
+        share.setPermissions(1);
+        return share;
+    }
+
+    private static List<OCShare> shares(OCShare... shares) {
+        return new ArrayList<OCShare>(Arrays.asList(shares));
+    }
+}